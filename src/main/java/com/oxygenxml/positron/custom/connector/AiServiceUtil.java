@@ -19,19 +19,26 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.UnknownHostException;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Flow;
-import java.util.concurrent.SubmissionPublisher;
+import java.util.function.Supplier;
 
 import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.oxygenxml.positron.api.connector.AIConnectionException;
 import com.oxygenxml.positron.api.connector.ProxyConnectionInfo;
 import com.oxygenxml.positron.api.connector.ProxyProvider;
+import com.oxygenxml.positron.custom.connector.concurrent.HedgedCall;
+import com.oxygenxml.positron.custom.connector.http.CircuitOpenException;
+import com.oxygenxml.positron.custom.connector.http.RetryBudget;
+import com.oxygenxml.positron.custom.connector.json.JsonMappers;
+import com.oxygenxml.positron.custom.connector.metrics.LatencyHistogram;
+import com.oxygenxml.positron.custom.connector.stream.BackpressurePublisher;
+import com.oxygenxml.positron.custom.connector.stream.StreamTimer;
+import com.oxygenxml.positron.custom.connector.stream.StreamingExecutor;
 
 import okhttp3.OkHttpClient;
 import okhttp3.ResponseBody;
@@ -52,11 +59,6 @@ public class AiServiceUtil {
    */
   private static final Logger LOGGER = LoggerFactory.getLogger(AiServiceUtil.class.getName());
 
-  /**
-   * Json mapper
-   */
-  private static final ObjectMapper mapper =  new ObjectMapper();
-  
   /**
    * Constructor.
    *
@@ -71,18 +73,77 @@ public class AiServiceUtil {
   /**
    * Calls the api and returns a Flowable of type T for streaming
    * omitting the last message ("DONE").
+   * Cancelling the subscription cancels the HTTP call, releasing its connection right away.
    *
    * @param apiCall The api call
    * @param cl      Class of type T to return
    */
   public static <T> Flow.Publisher<T> streamFlow(Call<ResponseBody> apiCall, Class<T> cl) {
-    SubmissionPublisher<T> submissionPublisher = new SubmissionPublisher<>(
-        Executors.newFixedThreadPool(1), Flow.defaultBufferSize());
-    apiCall.enqueue(new ResponseBodyCallback<>(submissionPublisher, cl));
-    return submissionPublisher;
+    return streamFlow(apiCall, cl, false);
   }
   
+  /**
+   * Calls the api and returns a Flowable of type T for streaming
+   * omitting the last message ("DONE").
+   * Cancelling the subscription cancels the HTTP call, releasing its connection right away.
+   *
+   * @param apiCall         The api call
+   * @param cl              Class of type T to return
+   * @param coalesceChunks  <code>true</code> to merge the consecutive content deltas before publishing them.
+   */
+  public static <T> Flow.Publisher<T> streamFlow(Call<ResponseBody> apiCall, Class<T> cl, boolean coalesceChunks) {
+    return streamFlow(apiCall, cl, coalesceChunks, null);
+  }
   
+  /**
+   * Calls the api and returns a Flowable of type T for streaming
+   * omitting the last message ("DONE").
+   * Cancelling the subscription cancels the HTTP call, releasing its connection right away.
+   *
+   * @param apiCall         The api call
+   * @param cl              Class of type T to return
+   * @param coalesceChunks  <code>true</code> to merge the consecutive content deltas before publishing them.
+   * @param timer           Records the timings of the stream. May be <code>null</code>.
+   */
+  public static <T> Flow.Publisher<T> streamFlow(Call<ResponseBody> apiCall, Class<T> cl, boolean coalesceChunks, 
+      StreamTimer timer) {
+    return streamFlow(new BackpressurePublisher<>(StreamingExecutor.getInstance()), apiCall, cl, coalesceChunks, timer);
+  }
+  
+  /**
+   * Calls the api and publishes the chunks of type T with the given publisher, 
+   * omitting the last message ("DONE").
+   * Cancelling the subscription cancels the HTTP call, releasing its connection right away.
+   *
+   * @param publisher       The publisher, configured before the call is sent
+   * @param apiCall         The api call
+   * @param cl              Class of type T to return
+   * @param coalesceChunks  <code>true</code> to merge the consecutive content deltas before publishing them.
+   * @param timer           Records the timings of the stream. May be <code>null</code>.
+   */
+  public static <T> BackpressurePublisher<T> streamFlow(BackpressurePublisher<T> publisher, Call<ResponseBody> apiCall, 
+      Class<T> cl, boolean coalesceChunks, StreamTimer timer) {
+    publisher.setCancellationHandler(apiCall::cancel);
+    apiCall.enqueue(new ResponseBodyCallback<>(publisher, cl, coalesceChunks, timer));
+    return publisher;
+  }
+
+  /**
+   * Returns a Flowable that publishes already available items, like a synthetic stream.
+   *
+   * @param items The items to publish.
+   */
+  public static <T> BackpressurePublisher<T> replayFlow(List<T> items) {
+    // The buffer holds all the items, so publishing them never blocks.
+    BackpressurePublisher<T> publisher = new BackpressurePublisher<>(
+        StreamingExecutor.getInstance(), items.size(), 1);
+    for (T item : items) {
+      publisher.submit(item);
+    }
+    publisher.close();
+    return publisher;
+  }
+
 
   /**
    * Calls the api, returns the response, and parses error messages if the request fails
@@ -91,23 +152,75 @@ public class AiServiceUtil {
    */
   public static <T> T execute(Call<T> apiCall) throws AIConnectionException {
       try {
-        Response<T> response = apiCall.execute();
-        if (LOGGER.isDebugEnabled()) {
-          LOGGER.debug("<-- Received response;\n\t Code: {};", response.code());
-        }
-        if (!response.isSuccessful()) {
-          HttpException httpException = new HttpException(response);
-          AIConnectionException aiConnectionException = AiServiceUtil.processHttpException(httpException);
-          if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("\n\tError message is: " + aiConnectionException.getMessage());
-          }
-          throw aiConnectionException;
-        }
-        return response.body();
+        return getBody(apiCall.execute());
       } catch (IOException e) {
-        throw new AIConnectionException(e.getMessage(), "", e);
+        throw toAIConnectionException(e);
       }  
   }
+  
+  /**
+   * Calls the api and, if there is no response after a delay, sends a hedge call. 
+   * Returns the first successful response, and parses error messages if the requests fail.
+   * 
+   * @param apiCall         The api call
+   * @param hedgeFactory    Creates the hedge call
+   * @param hedgeDelay      The delay in milliseconds before sending the hedge call
+   * @param hedgeBudget     Limits the number of hedge calls
+   * @param primaryLatency  Records the latency of the api call, not of the hedge call
+   * 
+   * @throws AIConnectionException 
+   */
+  public static <T> T executeHedged(Call<T> apiCall, Supplier<Call<T>> hedgeFactory, long hedgeDelay, 
+      RetryBudget hedgeBudget, LatencyHistogram primaryLatency) throws AIConnectionException {
+    try {
+      HedgedCall<T> hedgedCall = new HedgedCall<>(apiCall, hedgeFactory, hedgeDelay, hedgeBudget);
+      hedgedCall.setPrimaryLatencyListener(primaryLatency::record);
+      return getBody(hedgedCall.execute());
+    } catch (IOException e) {
+      throw toAIConnectionException(e);
+    }  
+  }
+  
+  /**
+   * Get the body of a response, parsing the error message if the request failed.
+   * 
+   * @param response The response.
+   * 
+   * @return The body of the response.
+   * 
+   * @throws AIConnectionException If the request failed.
+   */
+  private static <T> T getBody(Response<T> response) throws AIConnectionException {
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("<-- Received response;\n\t Code: {};", response.code());
+    }
+    if (!response.isSuccessful()) {
+      HttpException httpException = new HttpException(response);
+      AIConnectionException aiConnectionException = AiServiceUtil.processHttpException(httpException);
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("\n\tError message is: " + aiConnectionException.getMessage());
+      }
+      throw aiConnectionException;
+    }
+    return response.body();
+  }
+  
+  /**
+   * Convert the exception of a failed request to an AI connection exception.
+   * 
+   * @param e The exception of the request.
+   * 
+   * @return The AI connection exception.
+   */
+  public static AIConnectionException toAIConnectionException(IOException e) {
+    AIConnectionException aiException;
+    if (e instanceof CircuitOpenException) {
+      aiException = new AIConnectionException(e.getMessage(), String.valueOf(HttpStatus.SC_SERVICE_UNAVAILABLE), e);
+    } else {
+      aiException = new AIConnectionException(e.getMessage(), "", e);
+    }
+    return aiException;
+  }
 
   /**
    * Process the HTTP exception resulting from AI connection
@@ -123,7 +236,7 @@ public class AiServiceUtil {
         String errorBody = e.response().errorBody().string();
         aiException = new AIConnectionException(errorBody, String.valueOf(e.code()), e);
 
-        AIError error = mapper.readValue(errorBody, AIError.class);
+        AIError error = JsonMappers.AI_ERROR_READER.readValue(errorBody);
         Optional<String> errorMessage = error.getErrorMessage();
         aiException = new AIConnectionException(
             errorMessage.isPresent() ? errorMessage.get() : e.getMessage(),
@@ -155,6 +268,22 @@ public class AiServiceUtil {
    * @return  The configured HTTP builder
    */
   public static OkHttpClient.Builder configureProxy(OkHttpClient.Builder builder, String url, ProxyProvider proxyProvider) {
+    Proxy proxy = getProxy(url, proxyProvider);
+    if(proxy != null) {
+      builder = builder.proxy(proxy);
+    }
+    return builder;
+  }
+  
+  /**
+   * Get the proxy to use for accessing an URL.
+   * 
+   * @param url           The URL to access.
+   * @param proxyProvider The proxy provider
+   * 
+   * @return The proxy, or <code>null</code> when no proxy is configured.
+   */
+  public static Proxy getProxy(String url, ProxyProvider proxyProvider) {
     Proxy proxy = null;
     ProxyConnectionInfo proxyInfo = proxyProvider.getProxyConnectionInfo(URLUtil.convertToURL(url));
     if (proxyInfo != null) {
@@ -165,10 +294,6 @@ public class AiServiceUtil {
         LOGGER.debug(e, e);
       }
     }
-    
-    if(proxy != null) {
-      builder = builder.proxy(proxy);
-    }
-    return builder;
+    return proxy;
   }
 }
@@ -88,6 +88,46 @@ public class CustomAIConnector extends AIConnector {
    */
   public static final String ALLOW_STREAMING_PARAM_ID = "allow_streaming_param";
   
+  /**
+   * The parameter identifier for merging the streamed chunks.
+   */
+  public static final String COALESCE_STREAMING_PARAM_ID = "coalesce_streaming_param";
+  
+  /**
+   * The parameter identifier for hedging the slow completions.
+   */
+  public static final String HEDGE_COMPLETIONS_PARAM_ID = "hedge_completions_param";
+  
+  /**
+   * The parameter identifier for caching the deterministic responses.
+   */
+  public static final String CACHE_RESPONSES_PARAM_ID = "cache_responses_param";
+  
+  /**
+   * The parameter identifier for batching the moderations.
+   */
+  public static final String BATCH_MODERATION_PARAM_ID = "batch_moderation_param";
+  
+  /**
+   * The parameter identifier for moderating the input in parallel with the completion.
+   */
+  public static final String SPECULATIVE_MODERATION_PARAM_ID = "speculative_moderation_param";
+  
+  /**
+   * The parameter identifier for moderating the streamed responses while they are received.
+   */
+  public static final String STREAM_MODERATION_PARAM_ID = "stream_moderation_param";
+  
+  /**
+   * The parameter identifier for the client-side rate limits.
+   */
+  public static final String RATE_LIMITS_PARAM_ID = "rate_limits_param";
+  
+  /**
+   * The parameter identifier for the additional endpoints.
+   */
+  public static final String ENDPOINTS_PARAM_ID = "endpoints_param";
+  
   
   /**
    * Pattern for reasoning models
@@ -128,7 +168,8 @@ public class CustomAIConnector extends AIConnector {
         .toString();
     
     params.add(new PasswordTextFieldConnectorParam(AI_KEY_PARAM_ID, "API key:", null)
-        .setInfo("If you do not specify an API key, the environment variables or system properties will be used to authenticate using OAuth Client Credentials Flow.")
+        .setInfo("If you do not specify an API key, the environment variables or system properties will be used to authenticate using OAuth Client Credentials Flow. "
+            + "Several API keys, separated by commas, are used in turn.")
         .setExtraInfo(apiKeyExtraInfo));
     
     params.add(new ModelsComboConnectorParam(MODEL_PARAM_ID, "Model:", "Choose the model", new Supplier<List<ModelDescriptor>>() {
@@ -191,12 +232,54 @@ public class CustomAIConnector extends AIConnector {
         + "When disabled, no moderation is performed on either the request or the response",
         Boolean.TRUE));
     
+    params.add(new CheckBoxConnectorParam(
+        SPECULATIVE_MODERATION_PARAM_ID,
+        "Moderate input in parallel",
+        "When selected, the request is sent while its input is moderated, instead of after the moderation. "
+        + "Nothing is displayed until the moderation passes, and the request fails if the input is flagged",
+        Boolean.FALSE));
+    
+    params.add(new CheckBoxConnectorParam(
+        STREAM_MODERATION_PARAM_ID,
+        "Moderate streamed responses progressively",
+        "When selected, a streamed response is moderated while it is received, "
+        + "and the stream stops as soon as a part of the response is flagged",
+        Boolean.FALSE));
+    
+    params.add(new CheckBoxConnectorParam(
+        BATCH_MODERATION_PARAM_ID,
+        "Batch moderation requests",
+        "When selected, the moderations started at the same time are sent together, as a single request with multiple inputs. "
+        + "The AI service must accept an array as moderation input",
+        Boolean.FALSE));
+    
     params.add(new CheckBoxConnectorParam(
         ALLOW_STREAMING_PARAM_ID,
         "Enable streaming",
         "When selected, streaming will be enabled for the current AI connector",
         Boolean.TRUE));
     
+    params.add(new CheckBoxConnectorParam(
+        COALESCE_STREAMING_PARAM_ID,
+        "Merge streamed chunks",
+        "When selected, the consecutive text chunks received within a short time window are merged before being displayed, "
+        + "reducing the number of UI updates when the AI service sends one chunk per token",
+        Boolean.FALSE));
+    
+    params.add(new CheckBoxConnectorParam(
+        HEDGE_COMPLETIONS_PARAM_ID,
+        "Hedge slow requests",
+        "When selected, a second identical request is sent if a request without streaming is slower than usual, "
+        + "and the first response is used. This reduces the waiting time, but increases the number of requests",
+        Boolean.FALSE));
+    
+    params.add(new CheckBoxConnectorParam(
+        CACHE_RESPONSES_PARAM_ID,
+        "Cache deterministic responses",
+        "When selected, the responses of the requests with the temperature 0 are cached in memory and on disk, "
+        + "and an identical request receives the cached response without contacting the AI service",
+        Boolean.FALSE));
+    
     params.add(new KeyValueTableConnectorParam(
         EXTRA_QUERY_PARAM_ID,
         "Extra query parameters:",
@@ -207,6 +290,19 @@ public class CustomAIConnector extends AIConnector {
         "Extra headers:",
         null));
     
+    params.add(new KeyValueTableConnectorParam(
+        ENDPOINTS_PARAM_ID,
+        "Additional endpoints:",
+        "Other OpenAI-compatible base URLs serving the same models, used together with the base URL. "
+        + "The value is the weight of the endpoint, optionally followed by \";\" and the name of the environment variable "
+        + "or system property holding the API key of the endpoint, like \"2;EU_GATEWAY_KEY\""));
+    
+    params.add(new KeyValueTableConnectorParam(
+        RATE_LIMITS_PARAM_ID,
+        "Rate limits:",
+        "The requests and tokens allowed per minute for a model, like \"500/30000\". "
+        + "Use * as model to limit all the other models. The requests over the limits wait before being sent"));
+    
     return params;
   }
 
@@ -258,6 +354,52 @@ public class CustomAIConnector extends AIConnector {
         return Boolean.parseBoolean(
             String.valueOf(resolvedParameters.get(ENABLE_TEXT_MODERATION_PARAM_AI)));
       }
+      
+      @Override
+      public boolean isStreamCoalescingEnabled() {
+        return Boolean.parseBoolean(
+            String.valueOf(resolvedParameters.get(COALESCE_STREAMING_PARAM_ID)));
+      }
+      
+      @Override
+      public boolean isHedgingEnabled() {
+        return Boolean.parseBoolean(
+            String.valueOf(resolvedParameters.get(HEDGE_COMPLETIONS_PARAM_ID)));
+      }
+      
+      @Override
+      public boolean isSpeculativeModerationEnabled() {
+        return Boolean.parseBoolean(
+            String.valueOf(resolvedParameters.get(SPECULATIVE_MODERATION_PARAM_ID)));
+      }
+      
+      @Override
+      public boolean isStreamModerationEnabled() {
+        return Boolean.parseBoolean(
+            String.valueOf(resolvedParameters.get(STREAM_MODERATION_PARAM_ID)));
+      }
+      
+      @Override
+      public boolean isModerationBatchingEnabled() {
+        return Boolean.parseBoolean(
+            String.valueOf(resolvedParameters.get(BATCH_MODERATION_PARAM_ID)));
+      }
+      
+      @Override
+      public boolean isResponseCacheEnabled() {
+        return Boolean.parseBoolean(
+            String.valueOf(resolvedParameters.get(CACHE_RESPONSES_PARAM_ID)));
+      }
+      
+      @Override
+      public List<Pair<String, String>> getEndpoints() {
+        return (List<Pair<String, String>>)resolvedParameters.get(ENDPOINTS_PARAM_ID);
+      }
+      
+      @Override
+      public List<Pair<String, String>> getRateLimits() {
+        return (List<Pair<String, String>>)resolvedParameters.get(RATE_LIMITS_PARAM_ID);
+      }
     }, proxyProvider, timeout);
   }
 
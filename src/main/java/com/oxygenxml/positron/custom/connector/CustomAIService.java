@@ -14,17 +14,29 @@
  */
 package com.oxygenxml.positron.custom.connector;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.UnaryOperator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.oxygenxml.positron.api.connector.AIConnectionException;
 import com.oxygenxml.positron.api.connector.AIService;
 import com.oxygenxml.positron.api.connector.ProxyProvider;
@@ -32,16 +44,43 @@ import com.oxygenxml.positron.api.connector.dto.CompletionChunk;
 import com.oxygenxml.positron.api.connector.dto.CompletionRequest;
 import com.oxygenxml.positron.api.connector.dto.CompletionResponse;
 import com.oxygenxml.positron.api.connector.dto.ModerationRequest;
+import com.oxygenxml.positron.api.connector.dto.Pair;
 import com.oxygenxml.positron.custom.connector.auth.AccessTokenProvider;
+import com.oxygenxml.positron.custom.connector.auth.ApiKeyInterceptor;
+import com.oxygenxml.positron.custom.connector.auth.ApiKeyPool;
 import com.oxygenxml.positron.custom.connector.auth.ClientCredentialsAuthenticator;
 import com.oxygenxml.positron.custom.connector.auth.PreemptiveAuthInterceptor;
+import com.oxygenxml.positron.custom.connector.cache.ModerationCache;
+import com.oxygenxml.positron.custom.connector.cache.ResponseCache;
+import com.oxygenxml.positron.custom.connector.concurrent.ConnectorScheduler;
+import com.oxygenxml.positron.custom.connector.concurrent.MicroBatcher;
+import com.oxygenxml.positron.custom.connector.concurrent.SingleFlight;
 import com.oxygenxml.positron.custom.connector.config.CustomAiServiceConfigSupplier;
 import com.oxygenxml.positron.custom.connector.config.HeadersQueryInterceptor;
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.http.CircuitBreakerInterceptor;
+import com.oxygenxml.positron.custom.connector.http.ConnectionWarmer;
+import com.oxygenxml.positron.custom.connector.http.LoadBalancer;
+import com.oxygenxml.positron.custom.connector.http.LoadBalancingInterceptor;
+import com.oxygenxml.positron.custom.connector.http.RateLimitInterceptor;
+import com.oxygenxml.positron.custom.connector.http.RetryBudget;
+import com.oxygenxml.positron.custom.connector.http.RetryInterceptor;
+import com.oxygenxml.positron.custom.connector.http.SharedHttpClients;
+import com.oxygenxml.positron.custom.connector.json.CanonicalJson;
+import com.oxygenxml.positron.custom.connector.json.JsonMappers;
 import com.oxygenxml.positron.custom.connector.log.RequestLoggingInterceptor;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+import com.oxygenxml.positron.custom.connector.metrics.LatencyHistogram;
+import com.oxygenxml.positron.custom.connector.moderation.Blocklist;
+import com.oxygenxml.positron.custom.connector.moderation.SpeculativeModeration;
+import com.oxygenxml.positron.custom.connector.moderation.StreamingModerator;
+import com.oxygenxml.positron.custom.connector.stream.BackpressurePublisher;
+import com.oxygenxml.positron.custom.connector.stream.StreamTimer;
+import com.oxygenxml.positron.custom.connector.stream.StreamingExecutor;
 
-import okhttp3.ConnectionPool;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import retrofit2.Call;
 import retrofit2.Retrofit;
 import retrofit2.converter.jackson.JacksonConverterFactory;
 
@@ -61,6 +100,52 @@ public class CustomAIService implements AIService {
    */
   private static final Logger LOGGER = LoggerFactory.getLogger(CustomAIService.class.getName());
   
+  /**
+   * The delay in milliseconds before sending a hedge request. By default, the 95th percentile of the latency.
+   */
+  public static final String HEDGE_DELAY = "POSITRON_CONNECTOR_HEDGE_DELAY";
+  
+  /**
+   * The maximum percent of the completions for which a hedge request is sent.
+   */
+  public static final String HEDGE_MAX_PERCENT = "POSITRON_CONNECTOR_HEDGE_MAX_PERCENT";
+  
+  /**
+   * The model used for the hedge requests. By default, the model of the original request.
+   */
+  public static final String HEDGE_MODEL = "POSITRON_CONNECTOR_HEDGE_MODEL";
+  
+  /**
+   * The time in milliseconds a moderation waits for other concurrent moderations to be sent together.
+   */
+  public static final String MODERATION_BATCH_WINDOW = "POSITRON_CONNECTOR_MODERATION_BATCH_WINDOW";
+  
+  /**
+   * The maximum number of inputs sent in a moderation request.
+   */
+  public static final String MODERATION_BATCH_SIZE = "POSITRON_CONNECTOR_MODERATION_BATCH_SIZE";
+  
+  /**
+   * The error message of a completion whose input was flagged by a speculative moderation.
+   */
+  private static final String FLAGGED_INPUT_MESSAGE = "The input was flagged by the moderation.";
+  
+  /**
+   * The number of measured completions needed before using their latency percentile as hedge delay.
+   */
+  private static final int HEDGE_MIN_SAMPLES = 20;
+  
+  /**
+   * The hedge delay in milliseconds used until enough completions are measured.
+   */
+  private static final long DEFAULT_HEDGE_DELAY = 3000;
+  
+  /**
+   * The highest choice index, exclusive, accepted from a streamed chunk. 
+   * A choice with a larger index is tracked by its position in the chunk.
+   */
+  private static final int MAX_TRACKED_CHOICES = 128;
+  
   /**
    * OpenAI API
    */
@@ -76,6 +161,76 @@ public class CustomAIService implements AIService {
    */
   private boolean shouldApplyModeration;
 
+  /**
+   * <code>true</code> when the consecutive streamed content deltas should be merged
+   */
+  private boolean coalesceStreamedChunks;
+
+  /**
+   * The identical completion requests in progress, shared by all the services
+   */
+  private static final SingleFlight<CompletionResponse> completionsInFlight = new SingleFlight<>("completion");
+
+  /**
+   * The identical moderation requests in progress, shared by all the services
+   */
+  private static final SingleFlight<Boolean> moderationsInFlight = new SingleFlight<>("moderation");
+
+  /**
+   * Prefix of the keys of the requests in progress, identifying the AI service and the credentials
+   */
+  private String requestsScope;
+
+  /**
+   * <code>true</code> when a hedge request is sent for the slow completions
+   */
+  private boolean hedgeCompletions;
+
+  /**
+   * Limits the hedge requests to a percent of the completions
+   */
+  private RetryBudget hedgeBudget;
+
+  /**
+   * The cache of the deterministic completions, or <code>null</code> when disabled
+   */
+  private ResponseCache responseCache;
+
+  /**
+   * The cache of the moderation verdicts, or <code>null</code> when disabled
+   */
+  private ModerationCache moderationCache;
+
+  /**
+   * Groups the concurrent moderations into multi-input requests, or <code>null</code> when disabled
+   */
+  private MicroBatcher<JsonNode, Moderation> moderationBatcher;
+
+  /**
+   * <code>true</code> when the streamed responses are moderated while they are received
+   */
+  private boolean moderateStreams;
+
+  /**
+   * Tracks the input moderations that run in parallel with the completions, or <code>null</code> when disabled
+   */
+  private SpeculativeModeration speculativeModeration;
+
+  /**
+   * Mapper used to copy the completion requests
+   */
+  private static final ObjectMapper mapper = JsonMappers.getMapper();
+
+  /**
+   * The base URL of the AI service
+   */
+  private String baseUrl;
+
+  /**
+   * The provider of the access token, or <code>null</code> when an API key is used
+   */
+  private AccessTokenProvider accessTokenProvider;
+
   /**
    * Proxy provider
    */
@@ -97,17 +252,36 @@ public class CustomAIService implements AIService {
     this.proxyProvider = proxyProvider;
     this.timeout = timeout;
     this.shouldApplyModeration = configSupplier.isModerationEnabled();
+    this.coalesceStreamedChunks = configSupplier.isStreamCoalescingEnabled();
+    this.hedgeCompletions = configSupplier.isHedgingEnabled();
+    this.moderationCache = ModerationCache.getInstance();
+    this.moderateStreams = shouldApplyModeration && configSupplier.isStreamModerationEnabled();
+    if (configSupplier.isModerationBatchingEnabled()) {
+      this.moderationBatcher = new MicroBatcher<>("moderation", 
+          PropertiesUtil.getLongProperty(MODERATION_BATCH_WINDOW, 10), 
+          PropertiesUtil.getIntProperty(MODERATION_BATCH_SIZE, 32));
+    }
+    if (configSupplier.isResponseCacheEnabled()) {
+      this.responseCache = ResponseCache.getInstance();
+    }
+    this.hedgeBudget = new RetryBudget(
+        Math.max(0, PropertiesUtil.getIntProperty(HEDGE_MAX_PERCENT, 5)) / 100.0, 1);
     
-    String baseUrl = configSupplier.getBaseUrl();
+    this.baseUrl = configSupplier.getBaseUrl();
+    this.requestsScope = CanonicalJson.sha256(baseUrl + "\n" + configSupplier.getApiKey()) + ":";
+    if (shouldApplyModeration && configSupplier.isSpeculativeModerationEnabled()) {
+      // Shared by the services of the scope, as the host may moderate and complete through different services
+      this.speculativeModeration = SpeculativeModeration.getInstance(requestsScope);
+    }
     OkHttpClient client = createServiceHttpClient(configSupplier);
-    ObjectMapper mapper = new ObjectMapper();
-    mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-    mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
-    mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
     Retrofit retrofit = new Retrofit.Builder().baseUrl(baseUrl).client(client)
         .addConverterFactory(JacksonConverterFactory.create(mapper)).build();
 
     api = retrofit.create(OpenAiApi.class);
+    
+    if (ConnectionWarmer.isEnabled()) {
+      ConnectionWarmer.warmUp(SharedHttpClients.getClient(baseUrl, proxyProvider), baseUrl, accessTokenProvider);
+    }
   }
 
   /**
@@ -115,7 +289,53 @@ public class CustomAIService implements AIService {
    */
   @Override
   public Flow.Publisher<CompletionChunk> getCompletionFlux(CompletionRequest completionRequest) {
-    return AiServiceUtil.streamFlow(api.createChatCompletionStream(completionRequest), CompletionChunk.class);
+    CompletableFuture<Boolean> inputVerdict = getInputVerdict(completionRequest);
+    if (inputVerdict != null && inputVerdict.isDone()) {
+      try {
+        checkInputVerdict(inputVerdict);
+      } catch (AIConnectionException e) {
+        // Do not send the completion of a flagged input
+        BackpressurePublisher<CompletionChunk> failed = new BackpressurePublisher<>(StreamingExecutor.getInstance());
+        failed.closeExceptionally(e);
+        return failed;
+      }
+    }
+    SpeculativeModeration.Output output = speculativeModeration != null ? speculativeModeration.addOutput() : null;
+    
+    BackpressurePublisher<CompletionChunk> publisher = null;
+    String cacheKey = getCacheKey(completionRequest);
+    if (cacheKey != null) {
+      CompletionResponse cached = getCachedCompletion(cacheKey);
+      if (cached != null) {
+        List<CompletionChunk> chunks = toCompletionChunks(cached);
+        if (chunks != null) {
+          publisher = AiServiceUtil.replayFlow(chunks);
+          if (output != null) {
+            chunks.forEach(chunk -> appendCompletionText(output, null, chunk));
+          }
+          gate(publisher, inputVerdict);
+        }
+      }
+    }
+    
+    if (publisher == null) {
+      publisher = new BackpressurePublisher<>(StreamingExecutor.getInstance());
+      StreamingModerator streamingModerator = moderateStreams 
+          ? new StreamingModerator(publisher, this::moderateText, ConnectorScheduler::execute, 
+              PropertiesUtil.getIntProperty(StreamingModerator.STREAM_MODERATION_WINDOW, 1000))
+          : null;
+      if (output != null || streamingModerator != null) {
+        publisher.setItemListener(chunk -> appendCompletionText(output, streamingModerator, chunk));
+      }
+      gate(publisher, inputVerdict);
+      AiServiceUtil.streamFlow(
+          publisher,
+          api.createChatCompletionStream(completionRequest), 
+          CompletionChunk.class, 
+          coalesceStreamedChunks, 
+          new StreamTimer(baseUrl, completionRequest.getModel()));
+    }
+    return publisher;
   }
 
   /**
@@ -123,7 +343,391 @@ public class CustomAIService implements AIService {
    */
   @Override
   public CompletionResponse getCompletion(CompletionRequest completionRequest) throws AIConnectionException {
-    return AiServiceUtil.execute(api.createChatCompletion(completionRequest));
+    CompletableFuture<Boolean> inputVerdict = getInputVerdict(completionRequest);
+    if (inputVerdict != null && inputVerdict.isDone()) {
+      // Do not send the completion of a flagged input
+      checkInputVerdict(inputVerdict);
+    }
+    
+    String cacheKey = getCacheKey(completionRequest);
+    CompletionResponse response = cacheKey != null ? getCachedCompletion(cacheKey) : null;
+    boolean received = response == null;
+    if (received) {
+      response = completionsInFlight.execute(
+          requestsScope + CanonicalJson.sha256(mapper, completionRequest), 
+          () -> executeCompletion(completionRequest), 
+          this::copyCompletionResponse);
+    }
+    
+    if (inputVerdict != null) {
+      checkInputVerdict(inputVerdict);
+    }
+    // Cache only the responses of the inputs that passed the moderation
+    if (received && cacheKey != null) {
+      cacheCompletion(cacheKey, response);
+    }
+    if (speculativeModeration != null && response.getChoices() != null) {
+      SpeculativeModeration.Output output = speculativeModeration.addOutput();
+      for (int i = 0; i < response.getChoices().size(); i++) {
+        output.append(i, String.valueOf(response.getChoices().get(i).getCompletionText()));
+      }
+    }
+    return response;
+  }
+  
+  /**
+   * Get the verdict of the speculative moderations of the input of a completion.
+   * 
+   * @param completionRequest The completion request.
+   * 
+   * @return The verdict, <code>true</code> if the input is flagged, 
+   * or <code>null</code> if there is no speculative moderation.
+   */
+  private CompletableFuture<Boolean> getInputVerdict(CompletionRequest completionRequest) {
+    CompletableFuture<Boolean> verdict = null;
+    if (speculativeModeration != null) {
+      String text = "";
+      try {
+        text = SpeculativeModeration.getText(mapper.valueToTree(completionRequest).get("messages"));
+      } catch (IllegalArgumentException e) {
+        LOGGER.debug("Cannot read the messages of the completion request: " + e.getMessage(), e);
+      }
+      verdict = speculativeModeration.getVerdict(text);
+    }
+    return verdict;
+  }
+  
+  /**
+   * Wait for the verdict of the speculative moderations of the input of a completion.
+   * 
+   * @param inputVerdict The verdict.
+   * 
+   * @throws AIConnectionException If the input is flagged or the moderation failed.
+   */
+  private void checkInputVerdict(CompletableFuture<Boolean> inputVerdict) throws AIConnectionException {
+    boolean flagged;
+    try {
+      flagged = inputVerdict.get(timeout > 0 ? timeout : DEFAULT_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AIConnectionException(e.getMessage(), "", e);
+    } catch (ExecutionException e) {
+      throw toAIConnectionException(e.getCause());
+    } catch (TimeoutException e) {
+      throw new AIConnectionException("The moderation of the input timed out", "", e);
+    }
+    if (flagged) {
+      throw new AIConnectionException(FLAGGED_INPUT_MESSAGE, "", null);
+    }
+  }
+  
+  /**
+   * Hold back the streamed chunks until the speculative moderations of the input pass, 
+   * or fail the stream and cancel its request if the input is flagged.
+   * 
+   * @param publisher     The publisher of the chunks.
+   * @param inputVerdict  The verdict of the speculative moderations of the input. May be <code>null</code>.
+   */
+  private static void gate(BackpressurePublisher<CompletionChunk> publisher, CompletableFuture<Boolean> inputVerdict) {
+    if (inputVerdict != null) {
+      publisher.hold();
+      inputVerdict.whenComplete((flagged, failure) -> {
+        if (failure != null) {
+          publisher.abort(toAIConnectionException(
+              failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure));
+        } else if (Boolean.TRUE.equals(flagged)) {
+          publisher.abort(new AIConnectionException(FLAGGED_INPUT_MESSAGE, "", null));
+        } else {
+          publisher.release();
+        }
+      });
+    }
+  }
+  
+  /**
+   * Pass the text of a streamed chunk to the choices of the response and to the moderator of the stream.
+   * 
+   * @param output    The response. May be <code>null</code>.
+   * @param moderator The moderator of the stream. May be <code>null</code>.
+   * @param chunk     The chunk.
+   */
+  private void appendCompletionText(SpeculativeModeration.Output output, StreamingModerator moderator, 
+      CompletionChunk chunk) {
+    try {
+      JsonNode tree = mapper.valueToTree(chunk);
+      if (output != null) {
+        int position = 0;
+        for (JsonNode choice : tree.path("choices")) {
+          JsonNode content = choice.path("delta").path("content");
+          if (content.isTextual()) {
+            int index = choice.path("index").asInt(position);
+            output.append(index >= 0 && index < MAX_TRACKED_CHOICES ? index : position, content.textValue());
+          }
+          position++;
+        }
+      }
+      if (moderator != null) {
+        moderator.append(getDeltaContent(tree));
+      }
+    } catch (IllegalArgumentException e) {
+      LOGGER.debug("Cannot read the streamed chunk: " + e.getMessage(), e);
+    }
+  }
+  
+  /**
+   * Get the text content of a streamed chunk.
+   * 
+   * @param chunk The JSON tree of the chunk.
+   * 
+   * @return The content deltas of the choices.
+   */
+  static String getDeltaContent(JsonNode chunk) {
+    StringBuilder text = new StringBuilder();
+    for (JsonNode choice : chunk.path("choices")) {
+      JsonNode content = choice.path("delta").path("content");
+      if (content.isTextual()) {
+        text.append(content.textValue());
+      }
+    }
+    return text.toString();
+  }
+  
+  /**
+   * Convert a failure to an AI connection exception.
+   * 
+   * @param t The failure.
+   * 
+   * @return The AI connection exception.
+   */
+  private static AIConnectionException toAIConnectionException(Throwable t) {
+    return t instanceof AIConnectionException 
+        ? (AIConnectionException) t : new AIConnectionException(t.getMessage(), "", t);
+  }
+  
+  /**
+   * Get the key of a completion request in the response cache.
+   * 
+   * @param completionRequest The completion request.
+   * 
+   * @return The key, or <code>null</code> if the cache is disabled or the request is not deterministic.
+   */
+  private String getCacheKey(CompletionRequest completionRequest) {
+    String key = null;
+    if (responseCache != null) {
+      try {
+        JsonNode tree = mapper.valueToTree(completionRequest);
+        if (ResponseCache.isDeterministic(tree)) {
+          key = ResponseCache.getKey(requestsScope, tree);
+        }
+      } catch (IllegalArgumentException e) {
+        LOGGER.debug("Cannot compute the cache key of the completion request: " + e.getMessage(), e);
+      }
+    }
+    return key;
+  }
+  
+  /**
+   * Get a completion response from the cache.
+   * 
+   * @param cacheKey The key of the completion request.
+   * 
+   * @return A new copy of the cached response, or <code>null</code> if it is not cached.
+   */
+  private CompletionResponse getCachedCompletion(String cacheKey) {
+    CompletionResponse response = null;
+    byte[] cached = responseCache.get(cacheKey);
+    if (cached != null) {
+      try {
+        response = JsonMappers.COMPLETION_RESPONSE_READER.readValue(cached);
+      } catch (IOException e) {
+        LOGGER.debug("Cannot read the cached completion response: " + e.getMessage(), e);
+      }
+    }
+    return response;
+  }
+  
+  /**
+   * Cache a completion response.
+   * 
+   * @param cacheKey The key of the completion request.
+   * @param response The completion response.
+   */
+  private void cacheCompletion(String cacheKey, CompletionResponse response) {
+    try {
+      responseCache.put(cacheKey, JsonMappers.WRITER.writeValueAsBytes(response));
+    } catch (IOException e) {
+      LOGGER.debug("Cannot cache the completion response: " + e.getMessage(), e);
+    }
+  }
+  
+  /**
+   * Convert a completion response to the chunks of a synthetic stream, one for each choice, 
+   * followed by a chunk with the usage when the response has one. 
+   * The delta of a choice is its whole message, including the tool calls, and its finish reason is kept.
+   * 
+   * @param response The completion response.
+   * 
+   * @return The chunks, or <code>null</code> if the response cannot be converted.
+   */
+  static List<CompletionChunk> toCompletionChunks(CompletionResponse response) {
+    List<CompletionChunk> chunks = null;
+    if (response.getChoices() != null) {
+      try {
+        JsonNode tree = mapper.valueToTree(response);
+        chunks = new ArrayList<>();
+        int position = 0;
+        for (JsonNode cachedChoice : tree.path("choices")) {
+          ObjectNode chunk = createChunk(tree);
+          ObjectNode choice = chunk.putArray("choices").addObject();
+          choice.put("index", cachedChoice.path("index").asInt(position));
+          choice.set("delta", toDelta(cachedChoice.path("message")));
+          JsonNode finishReason = cachedChoice.path("finish_reason");
+          choice.put("finish_reason", finishReason.isTextual() ? finishReason.textValue() : "stop");
+          chunks.add(mapper.treeToValue(chunk, CompletionChunk.class));
+          position++;
+        }
+        JsonNode usage = tree.path("usage");
+        if (usage.isObject()) {
+          ObjectNode chunk = createChunk(tree);
+          chunk.putArray("choices");
+          chunk.set("usage", usage);
+          chunks.add(mapper.treeToValue(chunk, CompletionChunk.class));
+        }
+      } catch (IOException | IllegalArgumentException e) {
+        LOGGER.debug("Cannot convert the cached completion response to chunks: " + e.getMessage(), e);
+        chunks = null;
+      }
+    }
+    return chunks;
+  }
+  
+  /**
+   * Create a chunk of a synthetic stream, with the identification fields of the response.
+   * 
+   * @param response The JSON tree of the completion response.
+   * 
+   * @return The chunk, without choices.
+   */
+  private static ObjectNode createChunk(JsonNode response) {
+    ObjectNode chunk = mapper.createObjectNode();
+    for (String field : new String[] {"id", "created", "model", "system_fingerprint"}) {
+      if (response.hasNonNull(field)) {
+        chunk.set(field, response.get(field));
+      }
+    }
+    chunk.put("object", "chat.completion.chunk");
+    return chunk;
+  }
+  
+  /**
+   * Convert the message of a choice to the delta of a streamed chunk.
+   * 
+   * @param message The JSON tree of the message.
+   * 
+   * @return The delta, with the index set on each tool call, as in the streamed chunks.
+   */
+  private static ObjectNode toDelta(JsonNode message) {
+    ObjectNode delta = message.isObject() ? ((ObjectNode) message).deepCopy() : mapper.createObjectNode();
+    if (!delta.hasNonNull("role")) {
+      delta.put("role", "assistant");
+    }
+    JsonNode toolCalls = delta.path("tool_calls");
+    for (int i = 0; i < toolCalls.size(); i++) {
+      JsonNode toolCall = toolCalls.get(i);
+      if (toolCall.isObject() && !toolCall.has("index")) {
+        ((ObjectNode) toolCall).put("index", i);
+      }
+    }
+    return delta;
+  }
+  
+  /**
+   * Execute a completion request.
+   * 
+   * @param completionRequest The completion request.
+   * 
+   * @return The completion response.
+   * 
+   * @throws AIConnectionException If the request fails.
+   */
+  private CompletionResponse executeCompletion(CompletionRequest completionRequest) throws AIConnectionException {
+    String model = String.valueOf(completionRequest.getModel());
+    LatencyHistogram latency = ConnectorMetrics.getHistogram(
+        "completion.latency.millis", "model", model, "baseUrl", baseUrl);
+    // The latency of the primary requests only, as the hedge delay must not depend on the hedge requests.
+    LatencyHistogram primaryLatency = ConnectorMetrics.getHistogram(
+        "completion.primary.latency.millis", "model", model, "baseUrl", baseUrl);
+    long start = System.nanoTime();
+    
+    CompletionResponse response;
+    if (hedgeCompletions) {
+      response = AiServiceUtil.executeHedged(
+          api.createChatCompletion(completionRequest), 
+          () -> createHedgeCall(completionRequest), 
+          getHedgeDelay(primaryLatency), 
+          hedgeBudget,
+          primaryLatency);
+    } else {
+      response = AiServiceUtil.execute(api.createChatCompletion(completionRequest));
+      primaryLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+    
+    latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return response;
+  }
+  
+  /**
+   * Create the hedge call for a completion, using the alternate model when one is configured.
+   * 
+   * @param completionRequest The completion request.
+   * 
+   * @return The hedge call.
+   */
+  private Call<CompletionResponse> createHedgeCall(CompletionRequest completionRequest) {
+    CompletionRequest hedgeRequest = completionRequest;
+    String hedgeModel = PropertiesUtil.getProperty(HEDGE_MODEL);
+    if (hedgeModel != null && !hedgeModel.isBlank()) {
+      try {
+        hedgeRequest = mapper.convertValue(completionRequest, CompletionRequest.class);
+        hedgeRequest.setModel(hedgeModel.trim());
+      } catch (IllegalArgumentException e) {
+        LOGGER.debug("Cannot copy the completion request for the hedge model: " + e.getMessage(), e);
+      }
+    }
+    return api.createChatCompletion(hedgeRequest);
+  }
+  
+  /**
+   * Get the delay before sending a hedge request: the configured one or, by default, 
+   * the 95th percentile of the latency of the primary completion requests.
+   * 
+   * @param latency The latency histogram of the primary completion requests.
+   * 
+   * @return The delay in milliseconds.
+   */
+  private static long getHedgeDelay(LatencyHistogram latency) {
+    long delay = PropertiesUtil.getLongProperty(HEDGE_DELAY, 0);
+    if (delay <= 0) {
+      delay = latency.getCount() >= HEDGE_MIN_SAMPLES ? latency.getPercentile(95) : DEFAULT_HEDGE_DELAY;
+    }
+    return delay;
+  }
+  
+  /**
+   * Copy a completion response, for a caller that shared the request of another caller.
+   * 
+   * @param response The completion response.
+   * 
+   * @return The copy.
+   */
+  private CompletionResponse copyCompletionResponse(CompletionResponse response) {
+    CompletionResponse copy = response;
+    try {
+      copy = mapper.convertValue(response, CompletionResponse.class);
+    } catch (IllegalArgumentException e) {
+      LOGGER.debug("Cannot copy the completion response: " + e.getMessage(), e);
+    }
+    return copy;
   }
 
   /**
@@ -139,8 +743,250 @@ public class CustomAIService implements AIService {
    */
   @Override
   public boolean applyModeration(ModerationRequest moderationRequest) throws AIConnectionException {
-     boolean isFlagged = false;
-    List<Moderation> results = AiServiceUtil.execute(api.createModeration(moderationRequest)).getResults();
+    Blocklist blocklist = Blocklist.getInstance();
+    String text = null;
+    if (blocklist != null || speculativeModeration != null) {
+      try {
+        text = SpeculativeModeration.getText(mapper.valueToTree(moderationRequest).get("input"));
+      } catch (IllegalArgumentException e) {
+        LOGGER.debug("Cannot read the moderation input: " + e.getMessage(), e);
+      }
+    }
+    
+    if (blocklist != null && text != null) {
+      Boolean verdict = blocklist.check(text);
+      if (verdict != null) {
+        return verdict;
+      }
+    }
+    
+    if (speculativeModeration != null) {
+      CompletableFuture<Boolean> verdict = new CompletableFuture<>();
+      if (text != null && !text.isBlank() && speculativeModeration.canSpeculate(text) 
+          && speculativeModeration.start(text, verdict)) {
+        try {
+          ConnectorScheduler.execute(() -> moderate(moderationRequest, verdict));
+          // Reported as passed: the verdict gates the completion that follows
+          return false;
+        } catch (RejectedExecutionException e) {
+          // No worker is available, so the verdict is awaited
+          moderate(moderationRequest, verdict);
+          try {
+            return verdict.join();
+          } catch (CompletionException ex) {
+            throw toAIConnectionException(ex.getCause());
+          }
+        }
+      }
+    }
+    return moderate(moderationRequest);
+  }
+  
+  /**
+   * Moderate content and complete the verdict with the result.
+   * 
+   * @param moderationRequest The moderation request.
+   * @param verdict           The verdict, <code>true</code> if the content is flagged.
+   */
+  private void moderate(ModerationRequest moderationRequest, CompletableFuture<Boolean> verdict) {
+    try {
+      verdict.complete(moderate(moderationRequest));
+    } catch (Exception e) {
+      verdict.completeExceptionally(e);
+    } finally {
+      if (!verdict.isDone()) {
+        verdict.completeExceptionally(new IllegalStateException("The moderation was aborted"));
+      }
+    }
+  }
+  
+  /**
+   * Moderate content, sharing the identical moderations in progress.
+   * 
+   * @param moderationRequest The moderation request.
+   * 
+   * @return <code>true</code> if the content is flagged.
+   * 
+   * @throws AIConnectionException If the request fails.
+   */
+  private boolean moderate(ModerationRequest moderationRequest) throws AIConnectionException {
+    return moderationsInFlight.execute(
+        requestsScope + CanonicalJson.sha256(mapper, moderationRequest), 
+        () -> executeModeration(moderationRequest), 
+        UnaryOperator.identity());
+  }
+  
+  /**
+   * Execute a moderation request.
+   * 
+   * @param moderationRequest The moderation request.
+   * 
+   * @return <code>true</code> if the content is flagged.
+   * 
+   * @throws AIConnectionException If the request fails.
+   */
+  private boolean executeModeration(ModerationRequest moderationRequest) throws AIConnectionException {
+    if (moderationCache != null || moderationBatcher != null) {
+      JsonNode request = null;
+      try {
+        request = mapper.valueToTree(moderationRequest);
+      } catch (IllegalArgumentException e) {
+        LOGGER.debug("Cannot split the moderation request: " + e.getMessage(), e);
+      }
+      if (request != null && request.isObject()) {
+        return executeModeration((ObjectNode) request);
+      }
+    }
+    return isFlagged(AiServiceUtil.execute(api.createModeration(moderationRequest)).getResults());
+  }
+  
+  /**
+   * Moderate a text, like a part of a streamed response.
+   * 
+   * @param text The text.
+   * 
+   * @return <code>true</code> if the text is flagged.
+   * 
+   * @throws AIConnectionException If the request fails.
+   */
+  private boolean moderateText(String text) throws AIConnectionException {
+    Blocklist blocklist = Blocklist.getInstance();
+    Boolean verdict = blocklist != null ? blocklist.check(text) : null;
+    if (verdict != null) {
+      return verdict;
+    }
+    ObjectNode request = mapper.createObjectNode();
+    request.put("input", text);
+    return executeModeration(request);
+  }
+  
+  /**
+   * Execute a moderation request given as JSON tree, using the verdicts cache and the batching when enabled.
+   * 
+   * @param request The JSON tree of the moderation request.
+   * 
+   * @return <code>true</code> if the content is flagged.
+   * 
+   * @throws AIConnectionException If the request fails.
+   */
+  private boolean executeModeration(ObjectNode request) throws AIConnectionException {
+    List<JsonNode> segments = moderationCache != null || moderationBatcher != null 
+        ? ModerationCache.getSegments(request.get("input")) : Collections.emptyList();
+    return segments.isEmpty() 
+        ? isFlagged(AiServiceUtil.execute(api.createModeration(request)).getResults()) 
+        : executeSegmentedModeration(request, segments);
+  }
+  
+  /**
+   * Execute a moderation request, sending only the segments of its input without a cached verdict.
+   * 
+   * @param request   The JSON tree of the moderation request.
+   * @param segments  The segments of the moderation input.
+   * 
+   * @return <code>true</code> if the content is flagged.
+   * 
+   * @throws AIConnectionException If the request fails.
+   */
+  private boolean executeSegmentedModeration(ObjectNode request, List<JsonNode> segments) throws AIConnectionException {
+    String scope = requestsScope + request.path("model").asText();
+    Map<String, JsonNode> unseen = new LinkedHashMap<>();
+    for (JsonNode segment : segments) {
+      String key = ModerationCache.getKey(scope, segment);
+      Boolean flagged = moderationCache != null ? moderationCache.get(key) : null;
+      if (Boolean.TRUE.equals(flagged)) {
+        return true;
+      } else if (flagged == null) {
+        unseen.put(key, segment);
+      }
+    }
+    if (unseen.isEmpty()) {
+      // Every segment is known to be clean
+      return false;
+    }
+    
+    List<Moderation> results;
+    if (moderationBatcher != null) {
+      ObjectNode batchRequest = request.deepCopy();
+      batchRequest.remove("input");
+      results = moderationBatcher.execute(
+          requestsScope + CanonicalJson.sha256(batchRequest), 
+          new ArrayList<>(unseen.values()), 
+          inputs -> moderateInputs(batchRequest, inputs));
+    } else {
+      results = moderateSegments(request, unseen.values());
+    }
+    
+    boolean isFlagged = isFlagged(results);
+    if (moderationCache != null) {
+      List<String> keys = new ArrayList<>(unseen.keySet());
+      if (results != null && results.size() == keys.size()) {
+        // One result for each segment
+        for (int i = 0; i < keys.size(); i++) {
+          moderationCache.put(keys.get(i), results.get(i).isFlagged());
+        }
+      } else if (!isFlagged) {
+        keys.forEach(key -> moderationCache.put(key, false));
+      }
+    }
+    return isFlagged;
+  }
+  
+  /**
+   * Moderate some segments of the input of a moderation request.
+   * 
+   * @param request   The JSON tree of the moderation request.
+   * @param segments  The segments to moderate.
+   * 
+   * @return The moderation results.
+   * 
+   * @throws AIConnectionException If the request fails.
+   */
+  private List<Moderation> moderateSegments(ObjectNode request, Collection<JsonNode> segments) 
+      throws AIConnectionException {
+    ObjectNode partialRequest = request.deepCopy();
+    if (request.get("input").isArray()) {
+      ArrayNode partialInput = partialRequest.putArray("input");
+      segments.forEach(partialInput::add);
+    } else {
+      // Keep a single text, as the original request
+      StringBuilder text = new StringBuilder();
+      for (JsonNode segment : segments) {
+        if (text.length() > 0) {
+          text.append(ModerationCache.SEGMENT_SEPARATOR);
+        }
+        text.append(segment.textValue());
+      }
+      partialRequest.put("input", text.toString());
+    }
+    return AiServiceUtil.execute(api.createModeration(partialRequest)).getResults();
+  }
+  
+  /**
+   * Moderate a batch of inputs with a single multi-input request.
+   * 
+   * @param request The JSON tree of the moderation request, without input.
+   * @param inputs  The inputs.
+   * 
+   * @return The moderation results, one for each input.
+   * 
+   * @throws AIConnectionException If the request fails.
+   */
+  private List<Moderation> moderateInputs(ObjectNode request, List<JsonNode> inputs) throws AIConnectionException {
+    ObjectNode batchRequest = request.deepCopy();
+    ArrayNode batchInput = batchRequest.putArray("input");
+    inputs.forEach(batchInput::add);
+    return AiServiceUtil.execute(api.createModeration(batchRequest)).getResults();
+  }
+  
+  /**
+   * Check if the moderation flagged the content.
+   * 
+   * @param results The moderation results. May be <code>null</code>.
+   * 
+   * @return <code>true</code> if one of the results is flagged.
+   */
+  private static boolean isFlagged(List<Moderation> results) {
+    boolean isFlagged = false;
     if(results != null) {
       for (Moderation moderation : results) {
         if(moderation.isFlagged()) {
@@ -163,19 +1009,42 @@ public class CustomAIService implements AIService {
     String baseUrl = configSupplier.getBaseUrl();
     String token = configSupplier.getApiKey();
 
-    OkHttpClient.Builder builder = new OkHttpClient.Builder();
-
-    builder = AiServiceUtil.configureProxy(builder, baseUrl, proxyProvider);
+    // Derive from the shared client, to reuse its connections, dispatcher and TLS sessions.
+    OkHttpClient.Builder builder = SharedHttpClients.getClient(baseUrl, proxyProvider).newBuilder();
+    
+    // The outermost interceptor, so each attempt goes again through authentication and the other interceptors.
+    builder.addInterceptor(new RetryInterceptor(baseUrl));
+    
+    List<Pair<String, String>> rateLimits = configSupplier.getRateLimits();
+    if (RateLimitInterceptor.hasLimits(rateLimits)) {
+      // After the retries, so each attempt is throttled.
+      builder.addInterceptor(new RateLimitInterceptor(baseUrl, rateLimits));
+    }
+    
+    LoadBalancer loadBalancer = LoadBalancer.create(baseUrl, configSupplier.getEndpoints());
+    if (loadBalancer != null) {
+      builder.addInterceptor(new LoadBalancingInterceptor(baseUrl, loadBalancer));
+    }
+    
+    // After the load balancer, so each endpoint has its own circuit breaker.
+    builder.addInterceptor(new CircuitBreakerInterceptor());
 
-    if (token != null && !token.isBlank() && !token.equals("null")) {
+    ApiKeyPool apiKeyPool = token != null && !token.equals("null") ? ApiKeyPool.create(token, baseUrl) : null;
+    if (apiKeyPool != null) {
+      LOGGER.debug("Found {} API keys in preferences page", apiKeyPool.getKeys().size());
+      builder = builder.addInterceptor(new ApiKeyInterceptor(apiKeyPool));
+    } else if (token != null && !token.isBlank() && !token.equals("null")) {
       LOGGER.debug("Found API key in preferences page");
       builder = builder.addInterceptor(chain -> {
         Request request = chain.request();
-        Request newRequest = request.newBuilder().addHeader(AUTHORIZATION_HEADER_NAME, "Bearer " + token).build();
-        return chain.proceed(newRequest);
+        if (request.header(AUTHORIZATION_HEADER_NAME) == null) {
+          // Not set already for an endpoint with its own API key
+          request = request.newBuilder().addHeader(AUTHORIZATION_HEADER_NAME, "Bearer " + token).build();
+        }
+        return chain.proceed(request);
       });
     } else {
-      AccessTokenProvider accessTokenProvider = new AccessTokenProvider(proxyProvider);
+      accessTokenProvider = new AccessTokenProvider(proxyProvider);
       builder = builder.addInterceptor(new PreemptiveAuthInterceptor(accessTokenProvider));
       builder.authenticator(new ClientCredentialsAuthenticator(accessTokenProvider));
     }
@@ -188,7 +1057,6 @@ public class CustomAIService implements AIService {
       builder = builder.addInterceptor(new RequestLoggingInterceptor(LOGGER));
     }
 
-    return builder.connectionPool(new ConnectionPool(5, 1, TimeUnit.SECONDS))
-        .readTimeout(timeout, TimeUnit.MILLISECONDS).build();
+    return builder.readTimeout(timeout, TimeUnit.MILLISECONDS).build();
   }
 }
@@ -14,6 +14,7 @@
  */
 package com.oxygenxml.positron.custom.connector;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.oxygenxml.positron.api.connector.dto.CompletionRequest;
 import com.oxygenxml.positron.api.connector.dto.CompletionResponse;
 import com.oxygenxml.positron.api.connector.dto.ModerationRequest;
@@ -61,4 +62,14 @@ public interface OpenAiApi {
    */
   @POST("moderations")
   Call<ModerationResult> createModeration(@Body ModerationRequest request);
+
+  /**
+   * Create a moderation request from a JSON tree, used when only a part of the input is moderated
+   * 
+   * @param request The request body
+   * 
+   * @return The moderation response
+   */
+  @POST("moderations")
+  Call<ModerationResult> createModeration(@Body JsonNode request);
 }
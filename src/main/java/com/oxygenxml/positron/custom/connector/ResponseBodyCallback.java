@@ -14,34 +14,37 @@
  */
 package com.oxygenxml.positron.custom.connector;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.SubmissionPublisher;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.oxygenxml.positron.api.connector.AIConnectionException;
+import com.oxygenxml.positron.custom.connector.http.CircuitOpenException;
+import com.oxygenxml.positron.custom.connector.json.JsonMappers;
+import com.oxygenxml.positron.custom.connector.stream.BackpressurePublisher;
+import com.oxygenxml.positron.custom.connector.stream.ChunkCoalescer;
+import com.oxygenxml.positron.custom.connector.stream.ServerSentEventParser;
+import com.oxygenxml.positron.custom.connector.stream.StreamTimer;
 
 import okhttp3.ResponseBody;
+import okio.Buffer;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.HttpException;
 import retrofit2.Response;
 
 /**
- * Callback to parse Server Sent Events (SSE) from raw InputStream and
- * emit the events with {@link SubmissionPublisher} to allow streaming of SSE.
+ * Callback to parse Server Sent Events (SSE) from the raw response bytes and
+ * emit the events with {@link BackpressurePublisher} to allow streaming of SSE.
+ * The response is read only as fast as the subscriber of the publisher requests chunks.
  * 
  * @param <T> The type of the chunks
  */
-public class ResponseBodyCallback<T> implements Callback<ResponseBody> {
+public class ResponseBodyCallback<T> implements Callback<ResponseBody>, ServerSentEventParser.Listener {
 
   /**
    * Logger for logging.
@@ -51,29 +54,79 @@ public class ResponseBodyCallback<T> implements Callback<ResponseBody> {
   /**
    * The publisher used to emit chunks of data.
    */
-  private SubmissionPublisher<T> submissionPublisher;
+  private BackpressurePublisher<T> publisher;
 
   /**
-   * The expected type of data (chunks).
+   * The data of the event that marks the end of the stream.
    */
-  private Class<T> dataType;
-
+  private static final byte[] DONE_MARKER = "[DONE]".getBytes(StandardCharsets.US_ASCII);
+  
+  /**
+   * Reader of the chunks.
+   */
+  private final ObjectReader reader;
+  
+  /**
+   * Merges the consecutive content deltas, or <code>null</code> when the chunks are published as received.
+   */
+  private final ChunkCoalescer<T> coalescer;
+  
+  /**
+   * Records the timings of the stream, or <code>null</code>.
+   */
+  private final StreamTimer timer;
+  
   /**
-   * ObjectMapper instance for JSON deserialization.
+   * The content received before any SSE event, used when the server does not respond in SSE format.
    */
-  private static final ObjectMapper mapper = new ObjectMapper();
+  private final Buffer nonSSEContent = new Buffer();
+  
+  /**
+   * <code>true</code> if at least an SSE event was received.
+   */
+  private boolean isSSE = false;
+  
+  /**
+   * <code>true</code> when the event marking the end of the stream was received.
+   */
+  private boolean isDone = false;
 
   /**
    * Constructor 
    * 
-   * @param submissionPublisher  The publisher of chunks
+   * @param publisher  The publisher of chunks
+   * @param dataType The expected type of data (chunks).
+   */
+  public ResponseBodyCallback(BackpressurePublisher<T> publisher, Class<T> dataType) {
+    this(publisher, dataType, false);
+  }
+  
+  /**
+   * Constructor 
+   * 
+   * @param publisher  The publisher of chunks
+   * @param dataType The expected type of data (chunks).
+   * @param coalesceChunks <code>true</code> to merge the consecutive content deltas before publishing them.
+   */
+  public ResponseBodyCallback(BackpressurePublisher<T> publisher, Class<T> dataType, boolean coalesceChunks) {
+    this(publisher, dataType, coalesceChunks, null);
+  }
+  
+  /**
+   * Constructor 
+   * 
+   * @param publisher  The publisher of chunks
    * @param dataType The expected type of data (chunks).
+   * @param coalesceChunks <code>true</code> to merge the consecutive content deltas before publishing them.
+   * @param timer Records the timings of the stream. May be <code>null</code>.
    */
-  public ResponseBodyCallback(SubmissionPublisher<T> submissionPublisher, Class<T> dataType) {
-    this.submissionPublisher = submissionPublisher;
-    this.dataType = dataType;
+  public ResponseBodyCallback(BackpressurePublisher<T> publisher, Class<T> dataType, boolean coalesceChunks, 
+      StreamTimer timer) {
+    this.publisher = publisher;
+    this.timer = timer;
 
-    mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    this.reader = JsonMappers.getReader(dataType);
+    this.coalescer = coalesceChunks ? new ChunkCoalescer<>(publisher, reader) : null;
   }
 
 
@@ -85,7 +138,10 @@ public class ResponseBodyCallback<T> implements Callback<ResponseBody> {
    */
   @Override
   public void onResponse(Call<ResponseBody> call, Response<ResponseBody> response) {
-    BufferedReader reader = null;
+    ResponseBody body = null;
+    if (timer != null) {
+      timer.onResponse();
+    }
 
     if (LOGGER.isDebugEnabled()) {
       LOGGER.debug("<-- Received response;\n\t Code: {};", response.code());
@@ -107,76 +163,124 @@ public class ResponseBodyCallback<T> implements Callback<ResponseBody> {
         throw new AIConnectionException(errorMesssage, "", processHttpException);
       }
 
-      InputStream in = response.body().byteStream();
-      reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
-      String line;
-      String sse = null;
-
-      StringBuilder nonSSEContent = new StringBuilder();
-      boolean isSEE = false;
-      while (!isPublisherCancelled() && (line = reader.readLine()) != null) {
-        if(line.startsWith("event:")) {
-          //Skip over claude event lines.
-        } else if (line.startsWith("data:")) {
-          isSEE = true;
-          String data = line.substring(5).trim();
-          sse = data;
-        } else if (!line.isEmpty() && sse == null && !isSEE) {
-          nonSSEContent.append(line);
-        } else if (line.equals("") && sse != null) {
-          if ("[DONE]".equals(sse)) {
-            break;
-          }
-
-          submit(sse);
-          sse = null;
-        } else {
-          throw new AIConnectionException("Invalid sse format! " + line, "500", null);
-        }
+      body = response.body();
+      ServerSentEventParser parser = new ServerSentEventParser(body.source());
+      while (!isPublisherCancelled() && !isDone && parser.next(this)) {
+        // The events are handled by the listener methods.
+      }
+      if (coalescer != null) {
+        coalescer.flush();
       }
 
-      String nonSseResponse = nonSSEContent.toString();
-      boolean hasContentThatIsNotSSE = !isSEE && !nonSseResponse.isEmpty();
+      boolean hasContentThatIsNotSSE = !isSSE && nonSSEContent.size() > 0;
       if(hasContentThatIsNotSSE) {
         // Handle response that is valid and even if it's not SSE
+        byte[] nonSseResponse = nonSSEContent.readByteArray();
         try {
-          mapper.readValue(nonSseResponse, dataType);
           // This is a valid data but it is not in SSE format
-          submit(nonSseResponse);
+          publisher.submit(reader.readValue(nonSseResponse));
         } catch (JsonProcessingException e){
           LOGGER.debug(e.getMessage(), e);
-          new AIConnectionException("Invalid sse format! " + nonSseResponse, "500", null);
         }
       }
 
-      submissionPublisher.close();
+      // Recorded before closing, as the publisher is closed afterwards also when the stream completes.
+      if (timer != null && !publisher.isCancelled()) {
+        timer.onComplete();
+      }
+      publisher.close();
 
     } catch (Throwable t) {
       onFailure(call, t);
     } finally {
-      if (reader != null) {
-        try {
-          reader.close();
-        } catch (IOException e) {
-          // do nothing
-        }
+      if (body != null) {
+        body.close();
+      }
+    }
+  }
+  
+  /**
+   * Submits the data of a parsed SSE event to the publisher.
+   * 
+   * @see ServerSentEventParser.Listener#onEvent(String, String, byte[], int)
+   */
+  @Override
+  public void onEvent(String lastEventId, String eventType, byte[] data, int length) throws IOException {
+    isSSE = true;
+    if (isDoneMarker(data, length)) {
+      isDone = true;
+    } else {
+      if (timer != null) {
+        timer.onChunk(data, length);
       }
+      publishChunk(data, length);
+    }
+  }
+  
+  /**
+   * Publishes the data of an SSE event, through the coalescer when it is enabled.
+   * 
+   * @param data    The buffer with the SSE chunk.
+   * @param length  The length of the chunk in the buffer.
+   */
+  private void publishChunk(byte[] data, int length) throws IOException {
+    if (coalescer != null) {
+      coalescer.accept(data, length);
+    } else {
+      submit(data, length);
+    }
+  }
+  
+  /**
+   * Collects the content that is not in SSE format.
+   * 
+   * @see ServerSentEventParser.Listener#onIgnoredLine(byte[], int)
+   */
+  @Override
+  public void onIgnoredLine(byte[] line, int length) {
+    if (!isSSE) {
+      nonSSEContent.write(line, 0, length);
     }
   }
 
   /**
    * Submits a parsed SSE chunk to the publisher.
    * 
-   * @param item The SSE chunk as a string.
+   * @param data    The buffer with the SSE chunk.
+   * @param length  The length of the chunk in the buffer.
    */
-  private void submit(String item){
+  private void submit(byte[] data, int length){
     try {
-      T chunkItem = mapper.readValue(item, dataType);
-      submissionPublisher.submit(chunkItem);
+      T chunkItem = reader.readValue(data, 0, length);
+      publisher.submit(chunkItem);
     } catch (Exception e) {
       submitError(e);
     }
   }
+  
+  /**
+   * Checks if the event data is the marker for the end of the stream, ignoring the surrounding whitespaces.
+   * 
+   * @param data    The buffer with the event data.
+   * @param length  The length of the data in the buffer.
+   * 
+   * @return <code>true</code> if the event data is the "[DONE]" marker.
+   */
+  private static boolean isDoneMarker(byte[] data, int length) {
+    int start = 0;
+    while (start < length && data[start] <= ' ') {
+      start++;
+    }
+    int end = length;
+    while (end > start && data[end - 1] <= ' ') {
+      end--;
+    }
+    boolean isDoneMarker = end - start == DONE_MARKER.length;
+    for (int i = 0; isDoneMarker && i < DONE_MARKER.length; i++) {
+      isDoneMarker = data[start + i] == DONE_MARKER[i];
+    }
+    return isDoneMarker;
+  }
 
   /**
    * Checks if the publisher is cancelled.
@@ -184,7 +288,7 @@ public class ResponseBodyCallback<T> implements Callback<ResponseBody> {
    * @return true if the publisher is closed, false otherwise.
    */
   private boolean isPublisherCancelled(){
-    return submissionPublisher != null && submissionPublisher.isClosed();
+    return publisher != null && publisher.isClosed();
   }
 
   /**
@@ -195,7 +299,13 @@ public class ResponseBodyCallback<T> implements Callback<ResponseBody> {
    */
   @Override
   public void onFailure(Call<ResponseBody> call, Throwable t) {
-    submitError(t);
+    if (call.isCanceled() || publisher.isCancelled()) {
+      LOGGER.debug("The streaming call was cancelled");
+    } else if (t instanceof CircuitOpenException) {
+      submitError(AiServiceUtil.toAIConnectionException((CircuitOpenException) t));
+    } else {
+      submitError(t);
+    }
   }
 
   /**
@@ -204,6 +314,6 @@ public class ResponseBodyCallback<T> implements Callback<ResponseBody> {
    * @param t The exception to submit.
    */
   private void submitError(Throwable t) {
-    submissionPublisher.closeExceptionally(t);
+    publisher.closeExceptionally(t);
   }
 }
@@ -15,15 +15,24 @@
 package com.oxygenxml.positron.custom.connector.auth;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.oxygenxml.positron.api.connector.ProxyProvider;
-import com.oxygenxml.positron.custom.connector.AiServiceUtil;
+import com.oxygenxml.positron.custom.connector.concurrent.ConnectorScheduler;
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.http.SharedHttpClients;
+import com.oxygenxml.positron.custom.connector.json.JsonMappers;
 
 import okhttp3.FormBody;
 import okhttp3.FormBody.Builder;
@@ -34,12 +43,18 @@ import okhttp3.Response;
 /**
  * Provides functionality to obtain and manage an access token for authentication.
  * This class interacts with an OAuth2.0 provider to fetch tokens using client credentials.
+ * When the provider specifies the lifetime of the token, a new token is obtained in background 
+ * before the current one expires, so the requests do not wait for it.
+ * Only one token request is made at a time: the concurrent callers that need a token wait for its result,
+ * and a failed request is not repeated for a while, with a delay growing with each consecutive failure.
+ * The token can also be stored encrypted on disk, with {@link TokenStore}, to be reused after a restart.
  */
 public class AccessTokenProvider  {
   /**
    * Logger for logging.
    */
   private static final Logger LOGGER = LoggerFactory.getLogger(AccessTokenProvider.class.getName());
+  
 
   
   /**
@@ -77,16 +92,114 @@ public class AccessTokenProvider  {
    */
   public static final String AUTH_ORGANIZATION = "POSITRON_CONNECTOR_AUTH_ORGANIZATION";
   
+  /**
+   * The percent of the token lifetime after which a new token is obtained in background.
+   */
+  public static final String AUTH_REFRESH_PERCENT = "POSITRON_CONNECTOR_AUTH_REFRESH_PERCENT";
+  
+  /**
+   * The default percent of the token lifetime after which a new token is obtained.
+   */
+  private static final int DEFAULT_REFRESH_PERCENT = 80;
+  
+  /**
+   * The maximum time in milliseconds before the expiration when a token is no longer used, 
+   * to allow for the clock skew and the duration of the request.
+   */
+  private static final long EXPIRY_MARGIN = 30000;
+  
+  /**
+   * The minimum delay in milliseconds before retrying a failed background refresh.
+   */
+  private static final long MIN_REFRESH_RETRY_DELAY = 5000;
+  
+  /**
+   * The maximum time in milliseconds to wait for the token request in progress.
+   */
+  public static final String AUTH_TIMEOUT = "POSITRON_CONNECTOR_AUTH_TIMEOUT";
+  
+  /**
+   * The default time in milliseconds to wait for the token request in progress.
+   */
+  private static final long DEFAULT_AUTH_TIMEOUT = 30000;
+  
+  /**
+   * The delay in milliseconds before requesting a token again after a failed request.
+   * It doubles with each consecutive failure.
+   */
+  private static final long FAILURE_BACKOFF = 1000;
+  
+  /**
+   * The maximum delay in milliseconds before requesting a token again after a failed request.
+   */
+  private static final long MAX_FAILURE_BACKOFF = 60000;
+  
   /**
    * The current access token
    */
-  private Optional<String> accessToken = Optional.empty();
+  private volatile Optional<String> accessToken = Optional.empty();
+  
+  /**
+   * The time in milliseconds when the current token should no longer be used, 
+   * or {@link Long#MAX_VALUE} if its lifetime is not known.
+   */
+  private volatile long expirationTime = Long.MAX_VALUE;
+  
+  /**
+   * The scheduled background refresh of the token.
+   */
+  private ScheduledFuture<?> refreshTask;
+  
+  /**
+   * The token request in progress, completed with the new token.
+   */
+  private CompletableFuture<String> tokenRequest;
+  
+  /**
+   * The failure of the last token request, reported until {@link #retryTime}.
+   */
+  private AuthRequestException lastFailure;
+  
+  /**
+   * The time in milliseconds after which a failed token request can be made again.
+   */
+  private long retryTime;
+  
+  /**
+   * The number of consecutive failed token requests.
+   */
+  private int consecutiveFailures;
+
+  /**
+   * <code>true</code> after trying to use the stored token.
+   */
+  private boolean restoreAttempted;
 
   /**
    * Proxy provider
    */
   private ProxyProvider proxyProvider;
   
+  /**
+   * The authentication configuration, read on first use.
+   */
+  private volatile AuthConfig config;
+  
+  /**
+   * The client for the token requests.
+   */
+  private OkHttpClient client;
+  
+  /**
+   * The token endpoint URL for which {@link #client} was created.
+   */
+  private String clientUrl;
+  
+  /**
+   * Stores the token on disk, or <code>null</code>.
+   */
+  private final TokenStore tokenStore = TokenStore.create();
+  
   /**
    * Constructor
    * 
@@ -97,12 +210,17 @@ public class AccessTokenProvider  {
   
   
   /**
-   * Retrieves the current access token, if available.
+   * Retrieves the current access token, if available and not expired.
    * 
-   * @return An {@link Optional} containing the access token, or empty if not set.
+   * @return An {@link Optional} containing the access token, or empty if not set or expired.
    */
   public Optional<String> getAccessToken() {
-    return accessToken;
+    Optional<String> token = accessToken;
+    if (token.isPresent() && currentTimeMillis() >= expirationTime) {
+      LOGGER.debug("The access token expired");
+      token = Optional.empty();
+    }
+    return token;
   }
   
   /**
@@ -111,57 +229,227 @@ public class AccessTokenProvider  {
    * @param accessToken The access token to set. Can be null to clear the token.
    */
   public void setAccessToken(String accessToken) {
-    this.accessToken = Optional.ofNullable(accessToken);
+    setAccessToken(accessToken, 0);
   }
   
   /**
-   * Loads the authentication token by making a request to the OAuth2.0 provider.
-   * This method uses client credentials to fetch the token.
+   * Get a valid access token, requesting a new one if needed.
    * 
-   * @throws AuthRequestException If any required parameter is missing or the request fails.
+   * @return The access token, or <code>null</code> if the provider did not return one.
+   * 
+   * @throws AuthRequestException If the token request failed.
    */
-  public void loadAuthenticationToken() throws AuthRequestException {
-    LOGGER.debug("Loading access token using client credentials");
-    String authDomain = getProperty(AUTH_DOMAIN);
-    String accessTokenUrl = getProperty(AUTH_TOKEN_URL);
-    if(authDomain == null && accessTokenUrl == null) {
-      throw getAuthRequestExceptionForMissingParameter(AUTH_TOKEN_URL + " or " + AUTH_DOMAIN);
+  public String getOrLoadAccessToken() throws AuthRequestException {
+    return refreshAccessToken(null);
+  }
+  
+  /**
+   * Get a new access token, to replace a rejected one. 
+   * If the current token is valid and different, because it was already replaced, it is returned without a new request.
+   * 
+   * @param rejectedToken The rejected token, or <code>null</code>.
+   * 
+   * @return The access token, or <code>null</code> if the provider did not return one.
+   * 
+   * @throws AuthRequestException If the token request failed.
+   */
+  public String refreshAccessToken(String rejectedToken) throws AuthRequestException {
+    Optional<String> current = getAccessToken();
+    if (current.isPresent() && !current.get().equals(rejectedToken)) {
+      return current.get();
     }
-    
-    String clientId = getProperty(CLIENT_ID);
-    if(clientId == null) {
-      throw getAuthRequestExceptionForMissingParameter(CLIENT_ID);
+    return requestAccessToken();
+  }
+  
+  /**
+   * Request a new access token, or wait for the request in progress.
+   * 
+   * @return The access token, or <code>null</code> if the provider did not return one.
+   * 
+   * @throws AuthRequestException If the token request failed, or it failed recently.
+   */
+  private String requestAccessToken() throws AuthRequestException {
+    CompletableFuture<String> request;
+    boolean leader = false;
+    synchronized (this) {
+      if (lastFailure != null && currentTimeMillis() < retryTime) {
+        throw new AuthRequestException(lastFailure.getMessage());
+      }
+      request = tokenRequest;
+      if (request == null) {
+        request = new CompletableFuture<>();
+        tokenRequest = request;
+        leader = true;
+      }
     }
-    String clientSecret = getProperty(CLIENT_SECRET);
-    if(clientSecret == null) {
-      throw getAuthRequestExceptionForMissingParameter(CLIENT_SECRET);
+    
+    if (leader) {
+      try {
+        String token = null;
+        if (!restoreAttempted) {
+          // Only once, because a stored token may have been revoked
+          restoreAttempted = true;
+          token = restoreStoredToken();
+        }
+        if (token == null) {
+          loadAuthenticationToken();
+          token = accessToken.orElse(null);
+        }
+        requestCompleted(request, null);
+        request.complete(token);
+        return token;
+      } catch (AuthRequestException | RuntimeException e) {
+        AuthRequestException failure = e instanceof AuthRequestException 
+            ? (AuthRequestException) e : new AuthRequestException(e.getMessage());
+        requestCompleted(request, failure);
+        request.completeExceptionally(failure);
+        throw e;
+      }
     }
-    String audience = getProperty(AUTH_AUDIENCE);
-    String organization = getProperty(AUTH_ORGANIZATION);
-    String scope = getProperty(AUTH_SCOPE);
     
-    // Create an OkHttpClient
-    final String requestUrl;
-    if (accessTokenUrl != null) {
-      requestUrl = accessTokenUrl;
+    long timeout = PropertiesUtil.getLongProperty(AUTH_TIMEOUT, DEFAULT_AUTH_TIMEOUT);
+    try {
+      return request.get(timeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AuthRequestException("Interrupted while waiting for the access token");
+    } catch (ExecutionException e) {
+      throw new AuthRequestException(e.getCause().getMessage());
+    } catch (TimeoutException e) {
+      throw new AuthRequestException("Timed out waiting for the access token after " + timeout + " ms");
+    }
+  }
+  
+  /**
+   * Record the result of the token request in progress.
+   * 
+   * @param request The token request.
+   * @param failure The failure of the request, or <code>null</code> if it succeeded.
+   */
+  private synchronized void requestCompleted(CompletableFuture<String> request, AuthRequestException failure) {
+    if (tokenRequest == request) {
+      tokenRequest = null;
+    }
+    if (failure == null) {
+      lastFailure = null;
+      consecutiveFailures = 0;
     } else {
-      requestUrl = "https://" + authDomain + "/oauth/token";
+      lastFailure = failure;
+      long backoff = FAILURE_BACKOFF << Math.min(consecutiveFailures, 16);
+      retryTime = currentTimeMillis() + Math.min(backoff, MAX_FAILURE_BACKOFF);
+      consecutiveFailures++;
+    }
+  }
+  
+  /**
+   * Sets the access token and schedules its refresh in background.
+   * 
+   * @param accessToken The access token to set. Can be null to clear the token.
+   * @param lifetime    The lifetime of the token in milliseconds, or 0 if it is not known.
+   */
+  void setAccessToken(String accessToken, long lifetime) {
+    long now = currentTimeMillis();
+    synchronized (this) {
+      if (refreshTask != null) {
+        refreshTask.cancel(false);
+        refreshTask = null;
+      }
+      if (accessToken != null && lifetime > 0) {
+        this.expirationTime = now + lifetime - Math.min(EXPIRY_MARGIN, lifetime / 10);
+        int refreshPercent = PropertiesUtil.getIntProperty(AUTH_REFRESH_PERCENT, DEFAULT_REFRESH_PERCENT);
+        if (refreshPercent > 0 && refreshPercent < 100) {
+          scheduleRefresh(lifetime * refreshPercent / 100);
+        }
+      } else {
+        this.expirationTime = Long.MAX_VALUE;
+      }
+      this.accessToken = Optional.ofNullable(accessToken);
     }
-    OkHttpClient client = createClient(requestUrl);
+  }
+  
+  /**
+   * Schedule the background refresh of the token. 
+   * The scheduled task does not keep this provider reachable, so it ends when the provider is no longer used.
+   * 
+   * @param delay The delay in milliseconds.
+   */
+  private synchronized void scheduleRefresh(long delay) {
+    if (refreshTask != null) {
+      refreshTask.cancel(false);
+    }
+    WeakReference<AccessTokenProvider> providerRef = new WeakReference<>(this);
+    refreshTask = ConnectorScheduler.schedule(
+        // The scheduler threads must not block, so the token is requested on a worker thread.
+        () -> {
+          try {
+            ConnectorScheduler.execute(() -> {
+              AccessTokenProvider provider = providerRef.get();
+              if (provider != null) {
+                provider.refreshInBackground();
+              }
+            });
+          } catch (RejectedExecutionException e) {
+            // All the workers are busy. The current token is used meanwhile.
+            AccessTokenProvider provider = providerRef.get();
+            if (provider != null) {
+              provider.scheduleRefresh(MIN_REFRESH_RETRY_DELAY);
+            }
+          }
+        },
+        delay, TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Obtain a new token in background. If it fails, the current token is used until it expires
+   * and the refresh is retried after half of its remaining lifetime.
+   */
+  private void refreshInBackground() {
+    LOGGER.debug("Refreshing the access token in background");
+    try {
+      requestAccessToken();
+    } catch (AuthRequestException e) {
+      LOGGER.debug("Cannot refresh the access token: " + e.getMessage(), e);
+      long remaining = expirationTime - currentTimeMillis();
+      if (remaining > 2 * MIN_REFRESH_RETRY_DELAY) {
+        scheduleRefresh(remaining / 2);
+      }
+    }
+  }
+  
+  /**
+   * @return The current time in milliseconds.
+   */
+  long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+  
+  /**
+   * Loads the authentication token by making a request to the OAuth2.0 provider.
+   * This method uses client credentials to fetch the token.
+   * The concurrent callers should use {@link #getOrLoadAccessToken()} or {@link #refreshAccessToken(String)}, 
+   * which share the request in progress.
+   * 
+   * @throws AuthRequestException If any required parameter is missing or the request fails.
+   */
+  public void loadAuthenticationToken() throws AuthRequestException {
+    LOGGER.debug("Loading access token using client credentials");
+    AuthConfig authConfig = getConfig();
+    String requestUrl = authConfig.getTokenUrl();
+    OkHttpClient client = getClient(requestUrl);
 
     Builder formBodyBuilder = new FormBody.Builder()
             .add("grant_type", "client_credentials")
-            .add("client_id", clientId)
-            .add("client_secret", clientSecret);
+            .add("client_id", authConfig.getClientId())
+            .add("client_secret", authConfig.getClientSecret());
 
-    if(scope != null) {
-      formBodyBuilder.add("scope", scope);
+    if(authConfig.getScope() != null) {
+      formBodyBuilder.add("scope", authConfig.getScope());
     }
-    if(audience != null) {
-      formBodyBuilder.add("audience", audience);
+    if(authConfig.getAudience() != null) {
+      formBodyBuilder.add("audience", authConfig.getAudience());
     }
-    if(organization != null) {
-      formBodyBuilder.add("organization", organization);
+    if(authConfig.getOrganization() != null) {
+      formBodyBuilder.add("organization", authConfig.getOrganization());
     }
     // Create the request
     Request request = new Request.Builder()
@@ -173,10 +461,13 @@ public class AccessTokenProvider  {
     // Execute the request and get the response
     try (Response response = client.newCall(request).execute()) {
       if (response.isSuccessful()) {
-        String responseContent = response.body().string();
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode rootNode = objectMapper.readTree(responseContent);
-        setAccessToken(rootNode.path("access_token").asText());
+        JsonNode rootNode = JsonMappers.TREE_READER.readTree(response.body().byteStream());
+        String token = rootNode.path("access_token").asText();
+        long lifetime = TimeUnit.SECONDS.toMillis(rootNode.path("expires_in").asLong(0));
+        setAccessToken(token, lifetime);
+        if (tokenStore != null && lifetime > 0) {
+          tokenStore.save(authConfig, token, currentTimeMillis() + lifetime);
+        }
         LOGGER.debug("Access token successfully obtained");
       } else {
         String errorMessage = "";
@@ -195,45 +486,68 @@ public class AccessTokenProvider  {
   }
   
   /**
-   * Creates an exception indicating that a required parameter is missing.
+   * Get the authentication configuration, read on first use.
+   * 
+   * @return The configuration.
    * 
-   * @param paramName The name of the missing parameter.
-   * @return An {@link AuthRequestException} with a descriptive message.
+   * @throws AuthRequestException If a required parameter is missing.
    */
-  private static AuthRequestException getAuthRequestExceptionForMissingParameter(String paramName){
-    return new AuthRequestException(
-        "API Key or OAuth Client Credentials Flow is not configured. Missing: " + paramName);
+  private AuthConfig getConfig() throws AuthRequestException {
+    AuthConfig authConfig = config;
+    if (authConfig == null) {
+      // Not kept when incomplete, so it is read again on the next request
+      authConfig = AuthConfig.read();
+      config = authConfig;
+    }
+    return authConfig;
   }
   
   /**
-   * Creates and returns an instance of {@link OkHttpClient}.
+   * Get the client for the token requests, reused while the token endpoint does not change.
    * 
-   * @param requestUrl The URL to create the client for
+   * @param requestUrl The URL of the token endpoint.
    * 
-   * @return A new {@link OkHttpClient} instance.
+   * @return The client.
    */
-  OkHttpClient createClient(String requestUrl){
-    OkHttpClient.Builder builder = new OkHttpClient.Builder();
-
-    builder = AiServiceUtil.configureProxy(builder, requestUrl, proxyProvider);
-    return builder.build();
+  private synchronized OkHttpClient getClient(String requestUrl) {
+    if (client == null || !requestUrl.equals(clientUrl)) {
+      client = createClient(requestUrl);
+      clientUrl = requestUrl;
+    }
+    return client;
   }
   
   /**
-   * Retrieves the value of a property from the environment variables or system properties.
+   * Use the stored token obtained with the same configuration, if it is still valid.
    * 
-   * @param propertyName The name of the property to retrieve.
-   * @return The value of the property, or null if not found.
+   * @return The stored token, or <code>null</code> if there is no valid stored token.
    */
-  private static String getProperty(String propertyName) {
-    String value = null;
-    
-    value = System.getenv(propertyName);
-    
-    if(value == null) {
-      value = System.getProperty(propertyName);
+  private String restoreStoredToken() {
+    String token = null;
+    if (tokenStore != null) {
+      try {
+        TokenStore.StoredToken stored = tokenStore.load(getConfig());
+        long lifetime = stored != null ? stored.getExpirationTime() - currentTimeMillis() : 0;
+        if (lifetime > 2 * EXPIRY_MARGIN) {
+          setAccessToken(stored.getToken(), lifetime);
+          token = stored.getToken();
+          LOGGER.debug("Using the stored access token");
+        }
+      } catch (AuthRequestException e) {
+        // Reported by the token request
+      }
     }
-    
-    return value;
+    return token;
+  }
+  
+  /**
+   * Creates and returns an instance of {@link OkHttpClient}.
+   * 
+   * @param requestUrl The URL to create the client for
+   * 
+   * @return The {@link OkHttpClient} instance, sharing the connection pool of the connector.
+   */
+  OkHttpClient createClient(String requestUrl){
+    return SharedHttpClients.getClient(requestUrl, proxyProvider);
   }
 }
@@ -0,0 +1,110 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.auth;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.custom.connector.http.RateLimitHeaders;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Interceptor that authenticates the requests with a key of an {@link ApiKeyPool}.
+ * A request throttled by the AI service (HTTP 429) is sent again right away with another key, 
+ * if there is one that is not cooling down.
+ * 
+ * @author cosmin_duna
+ */
+public class ApiKeyInterceptor implements Interceptor {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(ApiKeyInterceptor.class.getName());
+  
+  /**
+   * The header for authorization
+   */
+  private static final String AUTHORIZATION_HEADER = "Authorization";
+  
+  /**
+   * The status code of the throttled requests.
+   */
+  private static final int TOO_MANY_REQUESTS = 429;
+  
+  /**
+   * The pool of API keys.
+   */
+  private final ApiKeyPool pool;
+  
+  /**
+   * Constructor.
+   * 
+   * @param pool The pool of API keys.
+   */
+  public ApiKeyInterceptor(ApiKeyPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Intercept the request and authenticate it with a key of the pool, trying another key when it is throttled.
+   * 
+   * @param chain     The chain of interceptors
+   * @return          The response
+   * 
+   * @throws IOException If the request fails
+   */
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    if (request.header(AUTHORIZATION_HEADER) != null) {
+      // Set already for an endpoint with its own API key
+      return chain.proceed(request);
+    }
+    
+    Set<ApiKeyPool.ApiKey> tried = new HashSet<>();
+    ApiKeyPool.ApiKey key = pool.choose(tried);
+    while (true) {
+      tried.add(key);
+      pool.onStart(key);
+      Response response = chain.proceed(
+          request.newBuilder().header(AUTHORIZATION_HEADER, "Bearer " + key.getValue()).build());
+      if (response.code() != TOO_MANY_REQUESTS) {
+        return response;
+      }
+      
+      pool.onThrottled(key, RateLimitHeaders.getRetryDelayMillis(response));
+      ApiKeyPool.ApiKey next = chain.call().isCanceled() ? null : pool.choose(tried);
+      if (next == null || pool.isCoolingDown(next)) {
+        // No other key can be used now, the retry interceptor decides when to try again
+        return response;
+      }
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Moving the throttled request {} from {} to {}", request.url(), key, next);
+      }
+      ConnectorMetrics.getCounter("apikey.failovers").increment();
+      response.close();
+      key = next;
+    }
+  }
+}
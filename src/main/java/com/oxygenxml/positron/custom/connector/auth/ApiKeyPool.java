@@ -0,0 +1,337 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.auth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.json.CanonicalJson;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+/**
+ * Pool of API keys with separate rate limits, used in turn to spread the requests.
+ * A key that was throttled is not used until its cooldown ends.
+ * 
+ * @author cosmin_duna
+ */
+public class ApiKeyPool {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(ApiKeyPool.class.getName());
+  
+  /**
+   * The selection strategy: "round-robin" or "least-recently-throttled".
+   */
+  public static final String API_KEY_STRATEGY = "POSITRON_CONNECTOR_API_KEY_STRATEGY";
+  
+  /**
+   * The time in milliseconds a throttled key is not used, when the AI service does not specify it.
+   */
+  public static final String API_KEY_COOLDOWN = "POSITRON_CONNECTOR_API_KEY_COOLDOWN";
+  
+  /**
+   * The selection strategies.
+   */
+  public enum Strategy {
+    /**
+     * The keys are used in turn.
+     */
+    ROUND_ROBIN,
+    /**
+     * The key throttled the longest time ago, or never throttled, is used.
+     */
+    LEAST_RECENTLY_THROTTLED
+  }
+  
+  /**
+   * An API key of the pool.
+   */
+  public static class ApiKey {
+    /**
+     * The API key.
+     */
+    private final String value;
+    
+    /**
+     * The name of the key in logs and metrics, with its position and a short hash, which does not reveal the key.
+     */
+    private final String name;
+    
+    /**
+     * The time in milliseconds until which the key is not used.
+     */
+    private long cooldownEnd;
+    
+    /**
+     * The time in milliseconds when the key was last throttled, or 0.
+     */
+    private long lastThrottled;
+    
+    /**
+     * The number of requests sent with the key.
+     */
+    private final LongAdder requests = new LongAdder();
+    
+    /**
+     * The number of throttled requests sent with the key.
+     */
+    private final LongAdder throttled = new LongAdder();
+    
+    /**
+     * Constructor.
+     * 
+     * @param value The API key.
+     * @param name  The name of the key in logs and metrics.
+     */
+    ApiKey(String value, String name) {
+      this.value = value;
+      this.name = name;
+    }
+    
+    /**
+     * @return The API key.
+     */
+    public String getValue() {
+      return value;
+    }
+    
+    /**
+     * @return The number of requests sent with the key.
+     */
+    public long getRequests() {
+      return requests.sum();
+    }
+    
+    /**
+     * @return The number of throttled requests sent with the key.
+     */
+    public long getThrottled() {
+      return throttled.sum();
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+  
+  /**
+   * The keys.
+   */
+  private final List<ApiKey> keys;
+  
+  /**
+   * The selection strategy.
+   */
+  private final Strategy strategy;
+  
+  /**
+   * The time in milliseconds a throttled key is not used, when the AI service does not specify it.
+   */
+  private final long defaultCooldown;
+  
+  /**
+   * The index of the next key for the round-robin strategy.
+   */
+  private int nextIndex;
+  
+  /**
+   * Constructor.
+   * 
+   * @param keys            The API keys.
+   * @param strategy        The selection strategy.
+   * @param defaultCooldown The time in milliseconds a throttled key is not used, when the AI service does not specify it.
+   */
+  public ApiKeyPool(List<String> keys, Strategy strategy, long defaultCooldown) {
+    List<ApiKey> apiKeys = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      // The hash keeps apart the keys with the same position in different pools
+      apiKeys.add(new ApiKey(keys.get(i), "key-" + (i + 1) + "-" + CanonicalJson.sha256(keys.get(i)).substring(0, 8)));
+    }
+    this.keys = Collections.unmodifiableList(apiKeys);
+    this.strategy = strategy;
+    this.defaultCooldown = defaultCooldown;
+  }
+  
+  /**
+   * Create a pool for the API keys of the preferences, 
+   * configured from the environment variables or system properties.
+   * 
+   * @param apiKeys The API keys, separated by commas, semicolons or whitespace.
+   * @param baseUrl The base URL of the AI service, used in the metrics of the keys.
+   * 
+   * @return The pool, or <code>null</code> if there is only one key.
+   */
+  public static ApiKeyPool create(String apiKeys, String baseUrl) {
+    ApiKeyPool pool = null;
+    List<String> keys = parseKeys(apiKeys);
+    if (keys.size() > 1) {
+      pool = new ApiKeyPool(
+          keys,
+          parseStrategy(PropertiesUtil.getProperty(API_KEY_STRATEGY)),
+          PropertiesUtil.getLongProperty(API_KEY_COOLDOWN, 60000));
+      for (ApiKey key : pool.keys) {
+        ConnectorMetrics.registerGauge("apikey.requests", key::getRequests, "baseUrl", baseUrl, "key", key.name);
+        ConnectorMetrics.registerGauge("apikey.throttled", key::getThrottled, "baseUrl", baseUrl, "key", key.name);
+      }
+    }
+    return pool;
+  }
+  
+  /**
+   * @return The keys.
+   */
+  public List<ApiKey> getKeys() {
+    return keys;
+  }
+  
+  /**
+   * Choose a key. If all the keys are cooling down, the key whose cooldown ends first is chosen.
+   * 
+   * @param excluded The keys that were already tried for the request.
+   * 
+   * @return The key, or <code>null</code> if all the keys were tried.
+   */
+  public synchronized ApiKey choose(Set<ApiKey> excluded) {
+    long now = currentTimeMillis();
+    ApiKey chosen = null;
+    ApiKey firstAvailable = null;
+    for (int i = 0; i < keys.size(); i++) {
+      // Starting from the next key in turn, so equal candidates are used in turn.
+      ApiKey key = keys.get(Math.floorMod(nextIndex + i, keys.size()));
+      if (excluded.contains(key)) {
+        continue;
+      }
+      if (key.cooldownEnd <= now) {
+        if (firstAvailable == null) {
+          firstAvailable = key;
+        }
+        if (strategy == Strategy.LEAST_RECENTLY_THROTTLED 
+            && (chosen == null || key.lastThrottled < chosen.lastThrottled)) {
+          chosen = key;
+        }
+      }
+    }
+    if (strategy == Strategy.ROUND_ROBIN) {
+      chosen = firstAvailable;
+    }
+    if (chosen == null) {
+      // Better to try a throttled key than to fail the request
+      for (ApiKey key : keys) {
+        if (!excluded.contains(key) && (chosen == null || key.cooldownEnd < chosen.cooldownEnd)) {
+          chosen = key;
+        }
+      }
+    }
+    if (chosen != null) {
+      nextIndex = keys.indexOf(chosen) + 1;
+    }
+    return chosen;
+  }
+  
+  /**
+   * Check if a key is cooling down after it was throttled.
+   * 
+   * @param key The key.
+   * 
+   * @return <code>true</code> if the key should not be used yet.
+   */
+  public synchronized boolean isCoolingDown(ApiKey key) {
+    return key.cooldownEnd > currentTimeMillis();
+  }
+  
+  /**
+   * Record the start of a request with a key.
+   * 
+   * @param key The key.
+   */
+  public void onStart(ApiKey key) {
+    key.requests.increment();
+  }
+  
+  /**
+   * Record that a request with a key was throttled.
+   * 
+   * @param key       The key.
+   * @param cooldown  The time in milliseconds until the key can be used again, 
+   * or a negative value if it is not known.
+   */
+  public synchronized void onThrottled(ApiKey key, long cooldown) {
+    long now = currentTimeMillis();
+    long duration = cooldown >= 0 ? cooldown : defaultCooldown;
+    key.lastThrottled = now;
+    key.cooldownEnd = Math.max(key.cooldownEnd, now + duration);
+    key.throttled.increment();
+    LOGGER.debug("The API key {} was throttled, not used for {} ms", key, duration);
+  }
+  
+  /**
+   * @return The current time in milliseconds.
+   */
+  long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+  
+  /**
+   * Parse the API keys.
+   * 
+   * @param apiKeys The API keys, separated by commas, semicolons or whitespace.
+   * 
+   * @return The keys, without duplicates.
+   */
+  static List<String> parseKeys(String apiKeys) {
+    List<String> keys = new ArrayList<>();
+    if (apiKeys != null) {
+      for (String key : apiKeys.split("[,;\\s]+")) {
+        if (!key.isEmpty() && !keys.contains(key)) {
+          keys.add(key);
+        }
+      }
+    }
+    return keys;
+  }
+  
+  /**
+   * Parse the selection strategy.
+   * 
+   * @param strategy The strategy name.
+   * 
+   * @return The strategy, {@link Strategy#ROUND_ROBIN} by default.
+   */
+  static Strategy parseStrategy(String strategy) {
+    Strategy parsed = Strategy.ROUND_ROBIN;
+    if (strategy != null && !strategy.isBlank()) {
+      try {
+        parsed = Strategy.valueOf(strategy.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+      } catch (IllegalArgumentException e) {
+        LOGGER.warn("Unknown API key selection strategy: {}", strategy);
+      }
+    }
+    return parsed;
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.auth;
+
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+
+/**
+ * Snapshot of the OAuth client credentials configuration, 
+ * read once from the environment variables or system properties.
+ * 
+ * @author cosmin_duna
+ */
+public class AuthConfig {
+  
+  /**
+   * The URL of the token endpoint.
+   */
+  private final String tokenUrl;
+  
+  /**
+   * The client id.
+   */
+  private final String clientId;
+  
+  /**
+   * The client secret.
+   */
+  private final String clientSecret;
+  
+  /**
+   * The audience, or <code>null</code>.
+   */
+  private final String audience;
+  
+  /**
+   * The organization, or <code>null</code>.
+   */
+  private final String organization;
+  
+  /**
+   * The scope, or <code>null</code>.
+   */
+  private final String scope;
+
+  /**
+   * Constructor.
+   * 
+   * @param tokenUrl      The URL of the token endpoint.
+   * @param clientId      The client id.
+   * @param clientSecret  The client secret.
+   * @param audience      The audience, or <code>null</code>.
+   * @param organization  The organization, or <code>null</code>.
+   * @param scope         The scope, or <code>null</code>.
+   */
+  public AuthConfig(String tokenUrl, String clientId, String clientSecret, String audience, String organization,
+      String scope) {
+    this.tokenUrl = tokenUrl;
+    this.clientId = clientId;
+    this.clientSecret = clientSecret;
+    this.audience = audience;
+    this.organization = organization;
+    this.scope = scope;
+  }
+  
+  /**
+   * Read the configuration from the environment variables or system properties.
+   * 
+   * @return The configuration.
+   * 
+   * @throws AuthRequestException If a required parameter is missing.
+   */
+  public static AuthConfig read() throws AuthRequestException {
+    String authDomain = PropertiesUtil.getProperty(AccessTokenProvider.AUTH_DOMAIN);
+    String accessTokenUrl = PropertiesUtil.getProperty(AccessTokenProvider.AUTH_TOKEN_URL);
+    if(authDomain == null && accessTokenUrl == null) {
+      throw getAuthRequestExceptionForMissingParameter(
+          AccessTokenProvider.AUTH_TOKEN_URL + " or " + AccessTokenProvider.AUTH_DOMAIN);
+    }
+    
+    String clientId = PropertiesUtil.getProperty(AccessTokenProvider.CLIENT_ID);
+    if(clientId == null) {
+      throw getAuthRequestExceptionForMissingParameter(AccessTokenProvider.CLIENT_ID);
+    }
+    String clientSecret = PropertiesUtil.getProperty(AccessTokenProvider.CLIENT_SECRET);
+    if(clientSecret == null) {
+      throw getAuthRequestExceptionForMissingParameter(AccessTokenProvider.CLIENT_SECRET);
+    }
+    
+    final String requestUrl;
+    if (accessTokenUrl != null) {
+      requestUrl = accessTokenUrl;
+    } else {
+      requestUrl = "https://" + authDomain + "/oauth/token";
+    }
+    return new AuthConfig(requestUrl, clientId, clientSecret, 
+        PropertiesUtil.getProperty(AccessTokenProvider.AUTH_AUDIENCE),
+        PropertiesUtil.getProperty(AccessTokenProvider.AUTH_ORGANIZATION),
+        PropertiesUtil.getProperty(AccessTokenProvider.AUTH_SCOPE));
+  }
+  
+  /**
+   * Creates an exception indicating that a required parameter is missing.
+   * 
+   * @param paramName The name of the missing parameter.
+   * @return An {@link AuthRequestException} with a descriptive message.
+   */
+  private static AuthRequestException getAuthRequestExceptionForMissingParameter(String paramName){
+    return new AuthRequestException(
+        "API Key or OAuth Client Credentials Flow is not configured. Missing: " + paramName);
+  }
+  
+  /**
+   * @return The URL of the token endpoint.
+   */
+  public String getTokenUrl() {
+    return tokenUrl;
+  }
+  
+  /**
+   * @return The client id.
+   */
+  public String getClientId() {
+    return clientId;
+  }
+  
+  /**
+   * @return The client secret.
+   */
+  public String getClientSecret() {
+    return clientSecret;
+  }
+  
+  /**
+   * @return The audience, or <code>null</code>.
+   */
+  public String getAudience() {
+    return audience;
+  }
+  
+  /**
+   * @return The organization, or <code>null</code>.
+   */
+  public String getOrganization() {
+    return organization;
+  }
+  
+  /**
+   * @return The scope, or <code>null</code>.
+   */
+  public String getScope() {
+    return scope;
+  }
+  
+  /**
+   * @return The identity of the tokens obtained with this configuration: 
+   * the token endpoint, the client and the requested audience, organization and scope.
+   */
+  public String getTokenIdentity() {
+    return tokenUrl + "\n" + clientId + "\n" + audience + "\n" + organization + "\n" + scope;
+  }
+}
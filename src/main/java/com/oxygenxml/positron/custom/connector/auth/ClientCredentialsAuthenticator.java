@@ -37,6 +37,11 @@ public class ClientCredentialsAuthenticator implements Authenticator {
    * The header for authorization
    */
   private static final String AUTHORIZATION_HEADER = "Authorization";
+  
+  /**
+   * The prefix of the bearer token in the authorization header
+   */
+  private static final String BEARER_PREFIX = "Bearer ";
 
   /**
    * Token provider that supplies and manages access tokens.
@@ -67,27 +72,40 @@ public class ClientCredentialsAuthenticator implements Authenticator {
       return null;
     }
 
-    if (!tokenProvider.getAccessToken().isPresent()
-        || response.request().header(AUTHORIZATION_HEADER) == null
-        || response.code() == 401) {
-      try {
-        tokenProvider.loadAuthenticationToken();
-      } catch (AuthRequestException e) {
-        LOGGER.error(e.getMessage(), e);
-        throw new IOException(e.getMessage(), e);
-      }
+    String token;
+    try {
+      // The token is requested again only if it was not already replaced by a concurrent request.
+      token = tokenProvider.refreshAccessToken(getBearerToken(response.request()));
+    } catch (AuthRequestException e) {
+      LOGGER.error(e.getMessage(), e);
+      throw new IOException(e.getMessage(), e);
     }
 
-    if (tokenProvider.getAccessToken().isPresent()) {
+    if (token != null) {
       return response.request().newBuilder()
-          .header(AUTHORIZATION_HEADER, "Bearer " + tokenProvider.getAccessToken().get())
+          .header(AUTHORIZATION_HEADER, "Bearer " + token)
           .build();
     } else {
       return null;
     }
   }
-
   
+  /**
+   * Get the bearer token sent with a request.
+   * 
+   * @param request The request.
+   * 
+   * @return The token, or <code>null</code> if the request has no bearer token.
+   */
+  private static String getBearerToken(Request request) {
+    String header = request.header(AUTHORIZATION_HEADER);
+    String token = null;
+    if (header != null && header.startsWith(BEARER_PREFIX)) {
+      token = header.substring(BEARER_PREFIX.length());
+    }
+    return token;
+  }
+
   /**
    * Counts the number of prior responses.
    *
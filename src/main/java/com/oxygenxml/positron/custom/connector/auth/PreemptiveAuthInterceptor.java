@@ -38,17 +38,16 @@ public class PreemptiveAuthInterceptor implements Interceptor {
   public Response intercept(Chain chain) throws IOException {
     Request request = chain.request();
     if(request.header(AUTHORIZATION_HEADER) == null) {
-      if(tokenProvider.getAccessToken().isEmpty()) {
-        try {
-          tokenProvider.loadAuthenticationToken();
-        } catch (AuthRequestException e) {
-          throw new IOException(e.getMessage(), e);
-        }
+      String token;
+      try {
+        // Waits for the token request in progress, if any, instead of making another one.
+        token = tokenProvider.getOrLoadAccessToken();
+      } catch (AuthRequestException e) {
+        throw new IOException(e.getMessage(), e);
       }
       
-      if(tokenProvider.getAccessToken().isPresent()) {
-        request = request.newBuilder().addHeader(
-            AUTHORIZATION_HEADER, "Bearer " + tokenProvider.getAccessToken().get()).build();
+      if(token != null) {
+        request = request.newBuilder().addHeader(AUTHORIZATION_HEADER, "Bearer " + token).build();
       }
     } 
     return chain.proceed(request);
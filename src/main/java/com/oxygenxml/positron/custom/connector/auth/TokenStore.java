@@ -0,0 +1,297 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.auth;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.json.CanonicalJson;
+
+/**
+ * Encrypted on-disk store of the current access token and its expiration time, 
+ * so a restarted application can reuse a valid token instead of requesting a new one.
+ * <br>
+ * The token is encrypted with AES-GCM, with a key derived from the client secret, 
+ * so it can be read only with the same credentials. A file that cannot be decrypted is ignored.
+ * 
+ * @author cosmin_duna
+ */
+public class TokenStore {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(TokenStore.class.getName());
+  
+  /**
+   * The directory where the access tokens are stored. The tokens are not stored when it is not set.
+   */
+  public static final String AUTH_TOKEN_CACHE_DIR = "POSITRON_CONNECTOR_AUTH_TOKEN_CACHE_DIR";
+  
+  /**
+   * The cipher transformation.
+   */
+  private static final String CIPHER = "AES/GCM/NoPadding";
+  
+  /**
+   * The length in bytes of the initialization vector.
+   */
+  private static final int IV_LENGTH = 12;
+  
+  /**
+   * The length in bits of the authentication tag.
+   */
+  private static final int TAG_LENGTH = 128;
+  
+  /**
+   * The number of iterations for deriving the key from the client secret.
+   */
+  private static final int KEY_ITERATIONS = 10000;
+  
+  /**
+   * Random generator for the initialization vectors.
+   */
+  private static final SecureRandom random = new SecureRandom();
+  
+  /**
+   * The directory of the token files.
+   */
+  private final Path dir;
+  
+  /**
+   * The identity of the tokens for which the key was derived.
+   */
+  private String keyIdentity;
+  
+  /**
+   * The key derived for {@link #keyIdentity}.
+   */
+  private SecretKey key;
+  
+  /**
+   * A stored token.
+   */
+  public static class StoredToken {
+    /**
+     * The access token.
+     */
+    private final String token;
+    
+    /**
+     * The expiration time in milliseconds.
+     */
+    private final long expirationTime;
+    
+    /**
+     * Constructor.
+     * 
+     * @param token           The access token.
+     * @param expirationTime  The expiration time in milliseconds.
+     */
+    StoredToken(String token, long expirationTime) {
+      this.token = token;
+      this.expirationTime = expirationTime;
+    }
+    
+    /**
+     * @return The access token.
+     */
+    public String getToken() {
+      return token;
+    }
+    
+    /**
+     * @return The expiration time in milliseconds.
+     */
+    public long getExpirationTime() {
+      return expirationTime;
+    }
+  }
+  
+  /**
+   * Constructor.
+   * 
+   * @param dir The directory of the token files.
+   */
+  public TokenStore(Path dir) {
+    this.dir = dir;
+  }
+  
+  /**
+   * Create the store configured with {@link #AUTH_TOKEN_CACHE_DIR}.
+   * 
+   * @return The store, or <code>null</code> if the tokens should not be stored.
+   */
+  public static TokenStore create() {
+    String dir = PropertiesUtil.getProperty(AUTH_TOKEN_CACHE_DIR);
+    return dir != null && !dir.isBlank() ? new TokenStore(Paths.get(dir.trim())) : null;
+  }
+  
+  /**
+   * Read the stored token obtained with a configuration.
+   * 
+   * @param config The authentication configuration.
+   * 
+   * @return The token, or <code>null</code> if there is no readable token.
+   */
+  public StoredToken load(AuthConfig config) {
+    StoredToken stored = null;
+    Path file = getFile(config);
+    if (Files.isRegularFile(file)) {
+      try {
+        byte[] content = Files.readAllBytes(file);
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, getKey(config), new GCMParameterSpec(TAG_LENGTH, content, 0, IV_LENGTH));
+        cipher.updateAAD(config.getTokenIdentity().getBytes(StandardCharsets.UTF_8));
+        ByteBuffer plain = ByteBuffer.wrap(cipher.doFinal(content, IV_LENGTH, content.length - IV_LENGTH));
+        long expirationTime = plain.getLong();
+        stored = new StoredToken(StandardCharsets.UTF_8.decode(plain).toString(), expirationTime);
+      } catch (IOException | GeneralSecurityException | RuntimeException e) {
+        LOGGER.debug("Cannot read the stored access token: " + e.getMessage(), e);
+        delete(file);
+      }
+    }
+    return stored;
+  }
+  
+  /**
+   * Store a token.
+   * 
+   * @param config          The configuration with which the token was obtained.
+   * @param token           The access token.
+   * @param expirationTime  The expiration time in milliseconds.
+   */
+  public void save(AuthConfig config, String token, long expirationTime) {
+    Path file = getFile(config);
+    try {
+      byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+      byte[] plain = ByteBuffer.allocate(Long.BYTES + tokenBytes.length)
+          .putLong(expirationTime).put(tokenBytes).array();
+      byte[] iv = new byte[IV_LENGTH];
+      random.nextBytes(iv);
+      Cipher cipher = Cipher.getInstance(CIPHER);
+      cipher.init(Cipher.ENCRYPT_MODE, getKey(config), new GCMParameterSpec(TAG_LENGTH, iv));
+      cipher.updateAAD(config.getTokenIdentity().getBytes(StandardCharsets.UTF_8));
+      byte[] encrypted = cipher.doFinal(plain);
+      
+      Files.createDirectories(dir);
+      Path temp = Files.createTempFile(dir, "token", ".tmp");
+      try {
+        restrictToOwner(temp);
+        Files.write(temp, ByteBuffer.allocate(IV_LENGTH + encrypted.length).put(iv).put(encrypted).array());
+        try {
+          Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch (IOException | GeneralSecurityException e) {
+      LOGGER.debug("Cannot store the access token: " + e.getMessage(), e);
+    }
+  }
+  
+  /**
+   * Delete the stored token obtained with a configuration.
+   * 
+   * @param config The authentication configuration.
+   */
+  public void delete(AuthConfig config) {
+    delete(getFile(config));
+  }
+  
+  /**
+   * Delete a token file.
+   * 
+   * @param file The file.
+   */
+  private static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      LOGGER.debug("Cannot delete the stored access token: " + e.getMessage(), e);
+    }
+  }
+  
+  /**
+   * Get the file of the token obtained with a configuration.
+   * 
+   * @param config The authentication configuration.
+   * 
+   * @return The file.
+   */
+  private Path getFile(AuthConfig config) {
+    return dir.resolve(CanonicalJson.sha256(config.getTokenIdentity()) + ".token");
+  }
+  
+  /**
+   * Get the encryption key, derived from the client secret.
+   * 
+   * @param config The authentication configuration.
+   * 
+   * @return The key.
+   * 
+   * @throws GeneralSecurityException If the key cannot be derived.
+   */
+  private synchronized SecretKey getKey(AuthConfig config) throws GeneralSecurityException {
+    String identity = config.getTokenIdentity() + "\n" + config.getClientSecret();
+    if (key == null || !identity.equals(keyIdentity)) {
+      byte[] salt = CanonicalJson.sha256(config.getTokenIdentity()).getBytes(StandardCharsets.UTF_8);
+      KeySpec spec = new PBEKeySpec(config.getClientSecret().toCharArray(), salt, KEY_ITERATIONS, 256);
+      byte[] encoded = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+      key = new SecretKeySpec(encoded, "AES");
+      keyIdentity = identity;
+    }
+    return key;
+  }
+  
+  /**
+   * Allow only the owner to read and write a file, when the file system supports it.
+   * 
+   * @param file The file.
+   */
+  private static void restrictToOwner(Path file) {
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      try {
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+      } catch (IOException | UnsupportedOperationException e) {
+        LOGGER.debug("Cannot restrict the permissions of the access token file: " + e.getMessage(), e);
+      }
+    }
+  }
+}
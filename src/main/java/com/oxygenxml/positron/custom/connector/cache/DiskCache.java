@@ -0,0 +1,289 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.cache;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache storing each value in a file of a directory, so it survives restarts.
+ * The files older than the time to live are ignored and deleted, and the oldest files are deleted 
+ * when the total size exceeds the limit.
+ * The directory and the files can be accessed only by their owner, as they contain the AI responses.
+ * 
+ * @author cosmin_duna
+ */
+public class DiskCache {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskCache.class.getName());
+  
+  /**
+   * The extension of the cache files.
+   */
+  private static final String EXTENSION = ".cache";
+  
+  /**
+   * The directory of the cache.
+   */
+  private final Path directory;
+  
+  /**
+   * The maximum total size of the files, in bytes.
+   */
+  private final long maxBytes;
+  
+  /**
+   * The time to live of a file, in milliseconds.
+   */
+  private final long ttlMillis;
+  
+  /**
+   * The total size of the files, or -1 until the directory is scanned.
+   */
+  private long totalBytes = -1;
+  
+  /**
+   * <code>true</code> after the directory was created and its permissions restricted.
+   */
+  private boolean directoryPrepared;
+  
+  /**
+   * Constructor.
+   * 
+   * @param directory The directory of the cache.
+   * @param maxBytes  The maximum total size of the files, in bytes.
+   * @param ttlMillis The time to live of a file, in milliseconds.
+   */
+  public DiskCache(Path directory, long maxBytes, long ttlMillis) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.ttlMillis = ttlMillis;
+  }
+  
+  /**
+   * Get a value.
+   * 
+   * @param key The key, which must be usable as file name, like a hash.
+   * 
+   * @return The value, or <code>null</code> if it is missing, expired or cannot be read.
+   */
+  public byte[] get(String key) {
+    return get(key, null);
+  }
+  
+  /**
+   * Get a value and its remaining time to live.
+   * 
+   * @param key               The key, which must be usable as file name, like a hash.
+   * @param remainingLifetime Receives the remaining time to live of the value, in milliseconds, 
+   * when the value is found. May be <code>null</code>.
+   * 
+   * @return The value, or <code>null</code> if it is missing, expired or cannot be read.
+   */
+  public byte[] get(String key, LongConsumer remainingLifetime) {
+    byte[] value = null;
+    Path file = directory.resolve(key + EXTENSION);
+    try {
+      FileTime lastModified = Files.getLastModifiedTime(file);
+      if (isExpired(lastModified)) {
+        delete(file);
+      } else {
+        value = Files.readAllBytes(file);
+        if (remainingLifetime != null) {
+          remainingLifetime.accept(ttlMillis - (System.currentTimeMillis() - lastModified.toMillis()));
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // Not cached
+    } catch (IOException e) {
+      LOGGER.debug("Cannot read the cache file " + file + ": " + e.getMessage());
+    }
+    return value;
+  }
+  
+  /**
+   * Put a value, deleting the oldest files if the total size exceeds the limit.
+   * 
+   * @param key   The key, which must be usable as file name, like a hash.
+   * @param value The value.
+   */
+  public synchronized void put(String key, byte[] value) {
+    if (value.length > maxBytes) {
+      return;
+    }
+    Path file = directory.resolve(key + EXTENSION);
+    try {
+      prepareDirectory();
+      if (totalBytes < 0) {
+        totalBytes = scan(false);
+      }
+      delete(file);
+      
+      // Write in a temporary file first, so the other readers never see a partial file.
+      Path temp = Files.createTempFile(directory, key, ".tmp");
+      restrictToOwner(temp, "rw-------");
+      Files.write(temp, value);
+      try {
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+      totalBytes += value.length;
+      
+      if (totalBytes > maxBytes) {
+        totalBytes = scan(true);
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Cannot write the cache file " + file + ": " + e.getMessage());
+    }
+  }
+  
+  /**
+   * Create the directory, if needed, and allow only its owner to access it.
+   * 
+   * @throws IOException If the directory cannot be created.
+   */
+  private void prepareDirectory() throws IOException {
+    if (!directoryPrepared) {
+      Files.createDirectories(directory);
+      restrictToOwner(directory, "rwx------");
+      directoryPrepared = true;
+    }
+  }
+  
+  /**
+   * Remove all the values.
+   */
+  public synchronized void clear() {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+      for (Path file : files) {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Cannot clear the cache directory " + directory + ": " + e.getMessage());
+    }
+    totalBytes = 0;
+  }
+  
+  /**
+   * Compute the total size of the files, deleting the expired ones 
+   * and, when asked, the oldest ones over the size limit.
+   * 
+   * @param evict <code>true</code> to delete the oldest files over the size limit.
+   * 
+   * @return The total size of the remaining files.
+   * 
+   * @throws IOException If the directory cannot be read.
+   */
+  private long scan(boolean evict) throws IOException {
+    List<Path> files = new ArrayList<>();
+    long total = 0;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+      for (Path file : stream) {
+        if (isExpired(Files.getLastModifiedTime(file))) {
+          delete(file);
+        } else {
+          files.add(file);
+          total += Files.size(file);
+        }
+      }
+    }
+    
+    if (evict && total > maxBytes) {
+      files.sort(Comparator.comparing(DiskCache::getLastModifiedTime));
+      // Leave room for the next values
+      long target = maxBytes * 3 / 4;
+      for (int i = 0; i < files.size() && total > target; i++) {
+        long size = Files.size(files.get(i));
+        delete(files.get(i));
+        total -= size;
+      }
+    }
+    return total;
+  }
+  
+  /**
+   * Check if a file is expired.
+   * 
+   * @param lastModified The last modified time of the file.
+   * 
+   * @return <code>true</code> if the file is older than the time to live.
+   */
+  private boolean isExpired(FileTime lastModified) {
+    return System.currentTimeMillis() - lastModified.toMillis() >= ttlMillis;
+  }
+  
+  /**
+   * Get the last modified time of a file.
+   * 
+   * @param file The file.
+   * 
+   * @return The last modified time, or the epoch if it cannot be read.
+   */
+  private static FileTime getLastModifiedTime(Path file) {
+    try {
+      return Files.getLastModifiedTime(file);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+  
+  /**
+   * Set the permissions of a file or directory, on the file systems that support POSIX permissions.
+   * 
+   * @param path        The file or directory.
+   * @param permissions The permissions, like "rw-------".
+   */
+  private static void restrictToOwner(Path path, String permissions) {
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      try {
+        Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+      } catch (IOException | UnsupportedOperationException e) {
+        LOGGER.debug("Cannot restrict the permissions of " + path + ": " + e.getMessage());
+      }
+    }
+  }
+  
+  /**
+   * Delete a file, ignoring the failures.
+   * 
+   * @param file The file.
+   */
+  private static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      LOGGER.debug("Cannot delete the cache file " + file + ": " + e.getMessage());
+    }
+  }
+}
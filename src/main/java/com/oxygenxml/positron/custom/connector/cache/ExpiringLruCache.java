@@ -0,0 +1,203 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * In-memory cache that evicts the least recently used entries when it exceeds its number of entries or its weight,
+ * and drops the entries older than their time to live.
+ * An entry may have a shorter time to live, like a value loaded from a slower tier that already spent a part of it.
+ * 
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ * 
+ * @author cosmin_duna
+ */
+public class ExpiringLruCache<K, V> {
+  
+  /**
+   * The entries, in access order.
+   */
+  private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  
+  /**
+   * The maximum number of entries.
+   */
+  private final int maxEntries;
+  
+  /**
+   * The maximum total weight of the entries.
+   */
+  private final long maxWeight;
+  
+  /**
+   * The time to live of an entry, in nanoseconds.
+   */
+  private final long ttlNanos;
+  
+  /**
+   * Computes the weight of a value.
+   */
+  private final ToLongFunction<V> weigher;
+  
+  /**
+   * The total weight of the entries.
+   */
+  private long totalWeight;
+  
+  /**
+   * Constructor.
+   * 
+   * @param maxEntries  The maximum number of entries.
+   * @param maxWeight   The maximum total weight of the entries.
+   * @param ttlMillis   The time to live of an entry, in milliseconds.
+   * @param weigher     Computes the weight of a value.
+   */
+  public ExpiringLruCache(int maxEntries, long maxWeight, long ttlMillis, ToLongFunction<V> weigher) {
+    this.maxEntries = Math.max(1, maxEntries);
+    this.maxWeight = Math.max(1, maxWeight);
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.weigher = weigher;
+  }
+  
+  /**
+   * Get a value.
+   * 
+   * @param key The key.
+   * 
+   * @return The value, or <code>null</code> if it is missing or expired.
+   */
+  public synchronized V get(K key) {
+    V value = null;
+    Entry<V> entry = entries.get(key);
+    if (entry != null) {
+      if (System.nanoTime() - entry.expires >= 0) {
+        remove(key);
+      } else {
+        value = entry.value;
+      }
+    }
+    return value;
+  }
+  
+  /**
+   * Put a value, evicting the least recently used entries if needed. 
+   * A value heavier than the maximum weight is not cached.
+   * 
+   * @param key   The key.
+   * @param value The value.
+   */
+  public void put(K key, V value) {
+    put(key, value, Long.MAX_VALUE);
+  }
+  
+  /**
+   * Put a value with a time to live not longer than the one of the cache, 
+   * evicting the least recently used entries if needed. 
+   * A value heavier than the maximum weight is not cached.
+   * 
+   * @param key       The key.
+   * @param value     The value.
+   * @param ttlMillis The time to live of the value, in milliseconds. 
+   * The time to live of the cache is used if it is shorter.
+   */
+  public synchronized void put(K key, V value, long ttlMillis) {
+    long weight = weigher.applyAsLong(value);
+    remove(key);
+    if (weight <= maxWeight) {
+      long ttl = Math.min(ttlNanos, TimeUnit.MILLISECONDS.toNanos(Math.max(0, ttlMillis)));
+      entries.put(key, new Entry<>(value, weight, System.nanoTime() + ttl));
+      totalWeight += weight;
+      Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+      while ((entries.size() > maxEntries || totalWeight > maxWeight) && iterator.hasNext()) {
+        Map.Entry<K, Entry<V>> eldest = iterator.next();
+        totalWeight -= eldest.getValue().weight;
+        iterator.remove();
+      }
+    }
+  }
+  
+  /**
+   * Remove a value.
+   * 
+   * @param key The key.
+   */
+  public synchronized void remove(K key) {
+    Entry<V> removed = entries.remove(key);
+    if (removed != null) {
+      totalWeight -= removed.weight;
+    }
+  }
+  
+  /**
+   * Remove all the values.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    totalWeight = 0;
+  }
+  
+  /**
+   * @return The number of entries.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+  
+  /**
+   * @return The total weight of the entries.
+   */
+  public synchronized long getWeight() {
+    return totalWeight;
+  }
+  
+  /**
+   * A cached value.
+   * 
+   * @param <V> The type of the value.
+   */
+  private static class Entry<V> {
+    /**
+     * The value.
+     */
+    final V value;
+    /**
+     * The weight of the value.
+     */
+    final long weight;
+    /**
+     * The time the entry expires, in nanoseconds.
+     */
+    final long expires;
+    
+    /**
+     * Constructor.
+     * 
+     * @param value   The value.
+     * @param weight  The weight of the value.
+     * @param expires The time the entry expires, in nanoseconds.
+     */
+    Entry(V value, long weight, long expires) {
+      this.value = value;
+      this.weight = weight;
+      this.expires = expires;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.json.CanonicalJson;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+/**
+ * Cache of the moderation verdicts of the segments of the moderated content: 
+ * the elements of a multi-input moderation, or the paragraphs of a text.
+ * The earlier messages of a conversation are moderated again on every turn, 
+ * so only the segments not seen before need to be sent to the AI service.
+ * 
+ * @author cosmin_duna
+ */
+public class ModerationCache {
+  
+  /**
+   * The maximum number of cached verdicts. 0 disables the cache.
+   */
+  public static final String MODERATION_CACHE_SIZE = "POSITRON_CONNECTOR_MODERATION_CACHE_SIZE";
+  
+  /**
+   * The time to live of a cached verdict, in milliseconds.
+   */
+  public static final String MODERATION_CACHE_TTL = "POSITRON_CONNECTOR_MODERATION_CACHE_TTL";
+  
+  /**
+   * The separator of the paragraphs of a text.
+   */
+  private static final Pattern PARAGRAPH_SEPARATOR = Pattern.compile("\\n\\s*\\n");
+  
+  /**
+   * The separator used when joining text segments.
+   */
+  public static final String SEGMENT_SEPARATOR = "\n\n";
+  
+  /**
+   * The shared instance.
+   */
+  private static ModerationCache instance;
+  
+  /**
+   * <code>true</code> after the shared instance was created, or found disabled.
+   */
+  private static boolean initialized;
+  
+  /**
+   * Number of segments with a cached verdict.
+   */
+  private static final LongAdder hits = ConnectorMetrics.getCounter("moderation.cache.hits");
+  
+  /**
+   * Number of segments sent to moderation.
+   */
+  private static final LongAdder misses = ConnectorMetrics.getCounter("moderation.cache.misses");
+  
+  /**
+   * The verdicts, <code>true</code> for flagged content.
+   */
+  private final ExpiringLruCache<String, Boolean> verdicts;
+  
+  /**
+   * Constructor.
+   * 
+   * @param maxEntries  The maximum number of cached verdicts.
+   * @param ttlMillis   The time to live of a verdict, in milliseconds.
+   */
+  public ModerationCache(int maxEntries, long ttlMillis) {
+    verdicts = new ExpiringLruCache<>(maxEntries, maxEntries, ttlMillis, value -> 1);
+  }
+  
+  /**
+   * @return The shared cache, configured from the properties, or <code>null</code> when disabled.
+   */
+  public static synchronized ModerationCache getInstance() {
+    if (!initialized) {
+      int size = PropertiesUtil.getIntProperty(MODERATION_CACHE_SIZE, 5000);
+      if (size > 0) {
+        instance = new ModerationCache(size, PropertiesUtil.getLongProperty(MODERATION_CACHE_TTL, 60 * 60 * 1000L));
+      }
+      initialized = true;
+    }
+    return instance;
+  }
+  
+  /**
+   * Split the input of a moderation into segments: the elements of an array, 
+   * or the paragraphs of a text.
+   * 
+   * @param input The input of the moderation.
+   * 
+   * @return The segments, empty if the input is missing or has another type.
+   */
+  public static List<JsonNode> getSegments(JsonNode input) {
+    List<JsonNode> segments = new ArrayList<>();
+    if (input != null) {
+      if (input.isArray()) {
+        input.forEach(segments::add);
+      } else if (input.isTextual()) {
+        for (String paragraph : PARAGRAPH_SEPARATOR.split(input.textValue())) {
+          if (!paragraph.isBlank()) {
+            segments.add(TextNode.valueOf(paragraph.trim()));
+          }
+        }
+      }
+    }
+    return segments;
+  }
+  
+  /**
+   * Compute the cache key of a segment.
+   * 
+   * @param scope   Identifies the AI service, the credentials and the moderation model.
+   * @param segment The segment.
+   * 
+   * @return The key.
+   */
+  public static String getKey(String scope, JsonNode segment) {
+    return CanonicalJson.sha256(scope + "\n" + CanonicalJson.sha256(segment));
+  }
+  
+  /**
+   * Get the verdict of a segment.
+   * 
+   * @param key The key of the segment.
+   * 
+   * @return <code>true</code> if the segment was flagged, <code>false</code> if it is clean, 
+   * or <code>null</code> if it is not known.
+   */
+  public Boolean get(String key) {
+    Boolean verdict = verdicts.get(key);
+    if (verdict != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+    }
+    return verdict;
+  }
+  
+  /**
+   * Cache the verdict of a segment.
+   * 
+   * @param key     The key of the segment.
+   * @param flagged <code>true</code> if the segment was flagged.
+   */
+  public void put(String key, boolean flagged) {
+    verdicts.put(key, flagged);
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.cache;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.json.CanonicalJson;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+/**
+ * Two-tier cache of the serialized AI responses: a bounded in-memory tier 
+ * backed by an on-disk tier that survives restarts.
+ * Only the deterministic requests, with the temperature 0, should be cached.
+ * 
+ * @author cosmin_duna
+ */
+public class ResponseCache {
+  
+  /**
+   * The time to live of a cached response, in milliseconds.
+   */
+  public static final String CACHE_TTL = "POSITRON_CONNECTOR_CACHE_TTL";
+  
+  /**
+   * The maximum number of responses cached in memory.
+   */
+  public static final String CACHE_MEMORY_ENTRIES = "POSITRON_CONNECTOR_CACHE_MEMORY_ENTRIES";
+  
+  /**
+   * The maximum size of the responses cached in memory, in bytes.
+   */
+  public static final String CACHE_MEMORY_SIZE = "POSITRON_CONNECTOR_CACHE_MEMORY_SIZE";
+  
+  /**
+   * The maximum size of the responses cached on disk, in bytes. 0 disables the disk cache.
+   */
+  public static final String CACHE_DISK_SIZE = "POSITRON_CONNECTOR_CACHE_DISK_SIZE";
+  
+  /**
+   * The directory of the disk cache. By default, a directory in the home of the user.
+   */
+  public static final String CACHE_DIR = "POSITRON_CONNECTOR_CACHE_DIR";
+  
+  /**
+   * The request fields that do not change the response.
+   */
+  private static final String[] IGNORED_FIELDS = {"stream", "stream_options"};
+  
+  /**
+   * The shared instance.
+   */
+  private static ResponseCache instance;
+  
+  /**
+   * Number of responses found in memory.
+   */
+  private static final LongAdder memoryHits = ConnectorMetrics.getCounter("cache.hits.memory");
+  
+  /**
+   * Number of responses found on disk.
+   */
+  private static final LongAdder diskHits = ConnectorMetrics.getCounter("cache.hits.disk");
+  
+  /**
+   * Number of responses not found.
+   */
+  private static final LongAdder misses = ConnectorMetrics.getCounter("cache.misses");
+  
+  /**
+   * The in-memory tier.
+   */
+  private final ExpiringLruCache<String, byte[]> memory;
+  
+  /**
+   * The on-disk tier, or <code>null</code> when disabled.
+   */
+  private final DiskCache disk;
+  
+  /**
+   * Constructor.
+   * 
+   * @param memory  The in-memory tier.
+   * @param disk    The on-disk tier, or <code>null</code>.
+   */
+  public ResponseCache(ExpiringLruCache<String, byte[]> memory, DiskCache disk) {
+    this.memory = memory;
+    this.disk = disk;
+  }
+  
+  /**
+   * @return The shared cache, configured from the properties.
+   */
+  public static synchronized ResponseCache getInstance() {
+    if (instance == null) {
+      long ttl = PropertiesUtil.getLongProperty(CACHE_TTL, 24 * 60 * 60 * 1000L);
+      ExpiringLruCache<String, byte[]> memory = new ExpiringLruCache<>(
+          PropertiesUtil.getIntProperty(CACHE_MEMORY_ENTRIES, 500), 
+          PropertiesUtil.getLongProperty(CACHE_MEMORY_SIZE, 16 * 1024 * 1024L), 
+          ttl, 
+          value -> value.length);
+      
+      DiskCache disk = null;
+      long diskSize = PropertiesUtil.getLongProperty(CACHE_DISK_SIZE, 128 * 1024 * 1024L);
+      if (diskSize > 0) {
+        String dir = PropertiesUtil.getProperty(CACHE_DIR);
+        Path directory = dir != null && !dir.isBlank() 
+            ? Paths.get(dir.trim()) : Paths.get(System.getProperty("user.home"), ".positron-connector", "cache");
+        disk = new DiskCache(directory, diskSize, ttl);
+      }
+      instance = new ResponseCache(memory, disk);
+    }
+    return instance;
+  }
+  
+  /**
+   * Check if a request is deterministic, so its response can be cached.
+   * 
+   * @param request The JSON tree of the request.
+   * 
+   * @return <code>true</code> if the temperature of the request is 0.
+   */
+  public static boolean isDeterministic(JsonNode request) {
+    JsonNode temperature = request.get("temperature");
+    return temperature != null && temperature.isNumber() && temperature.doubleValue() == 0;
+  }
+  
+  /**
+   * Compute the cache key of a request: a hash of the model, the messages and the generation parameters,
+   * the same for the streamed and non-streamed requests.
+   * 
+   * @param scope   Identifies the AI service and the credentials.
+   * @param request The JSON tree of the request.
+   * 
+   * @return The key.
+   */
+  public static String getKey(String scope, JsonNode request) {
+    JsonNode content = request;
+    if (request.isObject()) {
+      ObjectNode copy = ((ObjectNode) request).deepCopy();
+      copy.remove(Arrays.asList(IGNORED_FIELDS));
+      content = copy;
+    }
+    return CanonicalJson.sha256(scope + "\n" + CanonicalJson.sha256(content));
+  }
+  
+  /**
+   * Get a cached response, looking first in memory and then on disk.
+   * 
+   * @param key The key.
+   * 
+   * @return The serialized response, or <code>null</code> if it is not cached.
+   */
+  public byte[] get(String key) {
+    byte[] value = memory.get(key);
+    long[] remainingLifetime = new long[1];
+    if (value != null) {
+      memoryHits.increment();
+    } else if (disk != null && (value = disk.get(key, remaining -> remainingLifetime[0] = remaining)) != null) {
+      diskHits.increment();
+      // Kept in memory only for the rest of its lifetime on disk
+      memory.put(key, value, remainingLifetime[0]);
+    } else {
+      misses.increment();
+    }
+    return value;
+  }
+  
+  /**
+   * Cache a response in memory and on disk.
+   * 
+   * @param key   The key.
+   * @param value The serialized response.
+   */
+  public void put(String key, byte[] value) {
+    memory.put(key, value);
+    if (disk != null) {
+      disk.put(key, value);
+    }
+  }
+  
+  /**
+   * Remove all the cached responses.
+   */
+  public void clear() {
+    memory.clear();
+    if (disk != null) {
+      disk.clear();
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+
+/**
+ * Connector-wide scheduler for timers and short background tasks, 
+ * with a separate bounded pool of worker threads for the background tasks that may block.
+ * The scheduled tasks must not block for long, because the scheduler has only a few threads.
+ * When all the workers are busy and their queue is full, a background task is rejected 
+ * and the caller decides how to continue without it.
+ * 
+ * @author cosmin_duna
+ */
+public class ConnectorScheduler {
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConnectorScheduler.class.getName());
+  
+  /**
+   * The maximum number of worker threads running the background tasks.
+   */
+  public static final String WORKER_THREADS = "POSITRON_CONNECTOR_WORKER_THREADS";
+  
+  /**
+   * The maximum number of background tasks waiting for a worker thread.
+   */
+  public static final String WORKER_QUEUE_SIZE = "POSITRON_CONNECTOR_WORKER_QUEUE_SIZE";
+  
+  /**
+   * The number of scheduler threads.
+   */
+  private static final int THREADS = 2;
+  
+  /**
+   * The shared executor.
+   */
+  private static ScheduledThreadPoolExecutor executor;
+  
+  /**
+   * The shared executor of the background tasks that may block, like requests.
+   */
+  private static ThreadPoolExecutor workers;
+  
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(ConnectorScheduler::shutdown, "positron-connector-scheduler-shutdown"));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @throws UnsupportedOperationException when invoked.
+   */
+  private ConnectorScheduler() {
+    // Private to avoid instantiations
+    throw new UnsupportedOperationException("Instantiation of this utility class is not allowed!");
+  }
+  
+  /**
+   * Schedule a task.
+   * 
+   * @param task  The task to run.
+   * @param delay The delay.
+   * @param unit  The unit of the delay.
+   * 
+   * @return The future of the scheduled task, that can be used to cancel it.
+   */
+  public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+    return getExecutor().schedule(() -> {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        LOGGER.debug(e.getMessage(), e);
+      }
+    }, delay, unit);
+  }
+  
+  /**
+   * Run a background task that may block, like a request, on a worker thread.
+   * 
+   * @param task The task to run.
+   * 
+   * @throws RejectedExecutionException If all the workers are busy and too many tasks are waiting.
+   */
+  public static void execute(Runnable task) {
+    getWorkers().execute(() -> {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        LOGGER.debug(e.getMessage(), e);
+      }
+    });
+  }
+  
+  /**
+   * Shuts down the scheduler. A new one is created when a task is scheduled again.
+   */
+  public static synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    if (workers != null) {
+      workers.shutdownNow();
+      workers = null;
+    }
+  }
+  
+  /**
+   * @return The shared executor of the background tasks, created if needed. 
+   * Its idle threads are released after a minute.
+   */
+  private static synchronized ThreadPoolExecutor getWorkers() {
+    if (workers == null) {
+      int threads = Math.max(1, PropertiesUtil.getIntProperty(WORKER_THREADS, 16));
+      int queueSize = Math.max(1, PropertiesUtil.getIntProperty(WORKER_QUEUE_SIZE, 256));
+      AtomicInteger threadsCounter = new AtomicInteger();
+      workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+        Thread thread = new Thread(r, "positron-connector-worker-" + threadsCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }, 
+          // The callers may be scheduler or stream threads that must not block, so they handle the rejection.
+          new ThreadPoolExecutor.AbortPolicy());
+      workers.allowCoreThreadTimeOut(true);
+    }
+    return workers;
+  }
+  
+  /**
+   * @return The shared executor, created if needed.
+   */
+  private static synchronized ScheduledThreadPoolExecutor getExecutor() {
+    if (executor == null) {
+      AtomicInteger threadsCounter = new AtomicInteger();
+      executor = new ScheduledThreadPoolExecutor(THREADS, r -> {
+        Thread thread = new Thread(r, "positron-connector-scheduler-" + threadsCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      executor.setRemoveOnCancelPolicy(true);
+    }
+    return executor;
+  }
+}
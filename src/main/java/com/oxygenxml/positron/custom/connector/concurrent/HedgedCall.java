@@ -0,0 +1,267 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.concurrent;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.custom.connector.http.RetryBudget;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Executes a call and, if it did not respond after a delay, a second identical (hedge) call.
+ * The first successful response wins and the other call is cancelled.
+ * The hedge calls are limited by a budget, as a percent of the executions.
+ * 
+ * @param <T> The type of the response body.
+ * 
+ * @author cosmin_duna
+ */
+public class HedgedCall<T> {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(HedgedCall.class.getName());
+  
+  /**
+   * The primary call.
+   */
+  private final Call<T> primary;
+  
+  /**
+   * Creates the hedge call.
+   */
+  private final Supplier<Call<T>> hedgeFactory;
+  
+  /**
+   * The delay in milliseconds before sending the hedge call.
+   */
+  private final long hedgeDelay;
+  
+  /**
+   * Limits the number of hedge calls.
+   */
+  private final RetryBudget budget;
+  
+  /**
+   * Completed with the winning response or with the failure.
+   */
+  private final CompletableFuture<Response<T>> result = new CompletableFuture<>();
+  
+  /**
+   * The started calls.
+   */
+  private final List<Call<T>> calls = new ArrayList<>(2);
+  
+  /**
+   * The number of calls in progress.
+   */
+  private int running;
+  
+  /**
+   * <code>true</code> when the result is decided.
+   */
+  private boolean done;
+  
+  /**
+   * The task that sends the hedge call.
+   */
+  private ScheduledFuture<?> hedgeTask;
+  
+  /**
+   * Notified with the latency of the primary call, in milliseconds, or <code>null</code>.
+   */
+  private LongConsumer primaryLatencyListener;
+  
+  /**
+   * The time the primary call was started, in nanoseconds.
+   */
+  private long startTime;
+  
+  /**
+   * Constructor.
+   * 
+   * @param primary       The primary call.
+   * @param hedgeFactory  Creates the hedge call.
+   * @param hedgeDelay    The delay in milliseconds before sending the hedge call.
+   * @param budget        Limits the number of hedge calls.
+   */
+  public HedgedCall(Call<T> primary, Supplier<Call<T>> hedgeFactory, long hedgeDelay, RetryBudget budget) {
+    this.primary = primary;
+    this.hedgeFactory = hedgeFactory;
+    this.hedgeDelay = hedgeDelay;
+    this.budget = budget;
+  }
+  
+  /**
+   * Set the listener notified with the latency of the primary call, in milliseconds.
+   * Only the primary calls that received a response are reported. When the hedge call wins, the primary call 
+   * is cancelled and its latency is unknown, as the time until the cancellation only bounds it from below, 
+   * so it is not reported. The latency of a winning hedge call is not reported either, 
+   * so a hedge delay computed from these latencies is not lowered by the hedge calls themselves.
+   * 
+   * @param primaryLatencyListener The listener, or <code>null</code>.
+   */
+  public void setPrimaryLatencyListener(LongConsumer primaryLatencyListener) {
+    this.primaryLatencyListener = primaryLatencyListener;
+  }
+  
+  /**
+   * Execute the calls and wait for the result.
+   * 
+   * @return The first successful response, or the last unsuccessful one.
+   * 
+   * @throws IOException If the calls failed or the thread was interrupted.
+   */
+  public Response<T> execute() throws IOException {
+    budget.onRequest();
+    startTime = System.nanoTime();
+    start(primary);
+    synchronized (this) {
+      if (!done) {
+        hedgeTask = ConnectorScheduler.schedule(this::startHedge, hedgeDelay, TimeUnit.MILLISECONDS);
+      }
+    }
+    
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      cancelAll();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause.getMessage(), cause);
+    }
+  }
+  
+  /**
+   * Send the hedge call, if the result is not decided yet and the budget allows it.
+   */
+  private void startHedge() {
+    boolean shouldStart;
+    synchronized (this) {
+      shouldStart = !done && budget.tryAcquire();
+    }
+    if (shouldStart) {
+      try {
+        Call<T> hedge = hedgeFactory.get();
+        LOGGER.debug("No response after {} ms, sending a hedge request", hedgeDelay);
+        ConnectorMetrics.getCounter("hedge.sent").increment();
+        start(hedge);
+      } catch (RuntimeException e) {
+        LOGGER.debug("Cannot send the hedge request: " + e.getMessage(), e);
+      }
+    }
+  }
+  
+  /**
+   * Start a call.
+   * 
+   * @param call The call.
+   */
+  private void start(Call<T> call) {
+    synchronized (this) {
+      if (done) {
+        return;
+      }
+      calls.add(call);
+      running++;
+    }
+    call.enqueue(new Callback<T>() {
+      @Override
+      public void onResponse(Call<T> c, Response<T> response) {
+        onOutcome(c, response, null);
+      }
+      
+      @Override
+      public void onFailure(Call<T> c, Throwable t) {
+        onOutcome(c, null, t);
+      }
+    });
+  }
+  
+  /**
+   * Handle the outcome of a call. 
+   * A successful response wins right away, a failure wins only if no other call is in progress.
+   * 
+   * @param call      The call.
+   * @param response  The response, or <code>null</code> if the call failed.
+   * @param failure   The failure, or <code>null</code>.
+   */
+  private void onOutcome(Call<T> call, Response<T> response, Throwable failure) {
+    if (call == primary && primaryLatencyListener != null && response != null) {
+      // A failure without response, or a cancellation, says nothing about the latency of the service.
+      primaryLatencyListener.accept(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+    boolean success = response != null && response.isSuccessful();
+    synchronized (this) {
+      running--;
+      if (done || (!success && running > 0)) {
+        // Already decided, or wait for the other call
+        return;
+      }
+      done = true;
+    }
+    
+    if (success && call != primary) {
+      ConnectorMetrics.getCounter("hedge.won").increment();
+    }
+    cancelAll();
+    if (failure != null) {
+      result.completeExceptionally(failure);
+    } else {
+      result.complete(response);
+    }
+  }
+  
+  /**
+   * Cancel the hedge task and the calls still in progress.
+   */
+  private void cancelAll() {
+    List<Call<T>> toCancel;
+    synchronized (this) {
+      done = true;
+      if (hedgeTask != null) {
+        hedgeTask.cancel(false);
+      }
+      toCancel = new ArrayList<>(calls);
+    }
+    for (Call<T> call : toCancel) {
+      if (!call.isCanceled()) {
+        call.cancel();
+      }
+    }
+  }
+}
@@ -0,0 +1,354 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.concurrent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oxygenxml.positron.api.connector.AIConnectionException;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+import retrofit2.HttpException;
+
+/**
+ * Groups the inputs of the concurrent calls into batches executed as a single call.
+ * The first caller of a batch waits a short window for other callers, or until the batch is full, 
+ * then executes the batch on its own thread and hands each caller the results of its inputs.
+ * The first caller does not wait when the group was idle recently, as no other caller is likely to come.
+ * When a batch with several callers is rejected because of its inputs, each caller executes its own inputs separately.
+ * Any other failure, like an unavailable AI service, is reported to all the callers, so an outage is not amplified.
+ * 
+ * @param <I> The type of the inputs.
+ * @param <O> The type of the results, one for each input.
+ * 
+ * @author cosmin_duna
+ */
+public class MicroBatcher<I, O> {
+  
+  /**
+   * Executes a batch.
+   * 
+   * @param <I> The type of the inputs.
+   * @param <O> The type of the results.
+   */
+  @FunctionalInterface
+  public interface BatchCall<I, O> {
+    /**
+     * Execute a batch.
+     * 
+     * @param inputs The inputs.
+     * 
+     * @return The results, one for each input, in the same order.
+     * 
+     * @throws AIConnectionException If the call failed.
+     */
+    List<O> execute(List<I> inputs) throws AIConnectionException;
+  }
+  
+  /**
+   * The time after the last batch of a group during which the group is considered busy, in nanoseconds.
+   */
+  private static final long RECENT_ACTIVITY_NANOS = TimeUnit.SECONDS.toNanos(1);
+  
+  /**
+   * HTTP request timeout.
+   */
+  private static final int HTTP_REQUEST_TIMEOUT = 408;
+  
+  /**
+   * HTTP too many requests.
+   */
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+  
+  /**
+   * The batches accepting inputs, by group.
+   */
+  private final Map<String, Batch<I, O>> open = new HashMap<>();
+  
+  /**
+   * The activity of the groups. Guarded by {@link #open}.
+   */
+  private final Map<String, Activity> activities = new HashMap<>();
+  
+  /**
+   * The time the first caller waits for other callers, in nanoseconds.
+   */
+  private final long windowNanos;
+  
+  /**
+   * The number of inputs that closes a batch.
+   */
+  private final int maxSize;
+  
+  /**
+   * Number of executed batches.
+   */
+  private final LongAdder batches;
+  
+  /**
+   * Number of batched inputs.
+   */
+  private final LongAdder inputs;
+  
+  /**
+   * Number of callers that executed their inputs separately after their batch failed.
+   */
+  private final LongAdder fallbacks;
+  
+  /**
+   * Constructor.
+   * 
+   * @param name          The name used in the metrics.
+   * @param windowMillis  The time the first caller waits for other callers, in milliseconds.
+   * @param maxSize       The number of inputs that closes a batch.
+   */
+  public MicroBatcher(String name, long windowMillis, int maxSize) {
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+    this.maxSize = Math.max(1, maxSize);
+    this.batches = ConnectorMetrics.getCounter("batch." + name + ".calls");
+    this.inputs = ConnectorMetrics.getCounter("batch." + name + ".inputs");
+    this.fallbacks = ConnectorMetrics.getCounter("batch." + name + ".fallbacks");
+  }
+  
+  /**
+   * Add inputs to the open batch of a group and wait for their results.
+   * 
+   * @param group   Identifies the calls that can be batched together.
+   * @param items   The inputs.
+   * @param call    Executes the batch, if this caller is the first one.
+   * 
+   * @return The results of the inputs, in the same order.
+   * 
+   * @throws AIConnectionException If the batch failed, or if it was rejected because of its inputs 
+   * and the separate execution of the inputs failed.
+   */
+  public List<O> execute(String group, List<I> items, BatchCall<I, O> call) throws AIConnectionException {
+    Batch<I, O> batch;
+    boolean first = false;
+    boolean wait = false;
+    int offset;
+    synchronized (open) {
+      batch = open.get(group);
+      if (batch == null) {
+        batch = new Batch<>();
+        open.put(group, batch);
+        first = true;
+        wait = isBusy(group);
+      }
+      offset = batch.inputs.size();
+      batch.inputs.addAll(items);
+      batch.callers++;
+      if (batch.inputs.size() >= maxSize) {
+        open.remove(group);
+        batch.full.countDown();
+      }
+    }
+    
+    if (first) {
+      executeBatch(group, batch, call, wait);
+    }
+    
+    try {
+      return batch.results.get().subList(offset, offset + items.size());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AIConnectionException(e.getMessage(), "", e);
+    } catch (ExecutionException e) {
+      // The callers are no longer added to the batch once it is executed.
+      if (batch.callers > 1 && batch.rejectedInputs) {
+        // The batch may have been rejected because of the inputs of another caller.
+        fallbacks.increment();
+        return executeCall(call, items);
+      }
+      Throwable cause = e.getCause();
+      throw cause instanceof AIConnectionException 
+          ? (AIConnectionException) cause : new AIConnectionException(cause.getMessage(), "", cause);
+    }
+  }
+  
+  /**
+   * Check if a group had a batch in flight recently. Called while holding the lock of {@link #open}.
+   * 
+   * @param group The group.
+   * 
+   * @return <code>true</code> if a batch of the group is executing or ended recently.
+   */
+  private boolean isBusy(String group) {
+    Activity activity = activities.get(group);
+    return activity != null 
+        && (activity.inFlight > 0 || System.nanoTime() - activity.lastEnd < RECENT_ACTIVITY_NANOS);
+  }
+  
+  /**
+   * Wait for the batch to fill or for the window to pass, then execute it.
+   * 
+   * @param group The group of the batch.
+   * @param batch The batch.
+   * @param call  Executes the batch.
+   * @param wait  <code>true</code> to wait for other callers.
+   */
+  private void executeBatch(String group, Batch<I, O> batch, BatchCall<I, O> call, boolean wait) {
+    if (wait) {
+      try {
+        batch.full.await(windowNanos, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    
+    List<I> batchInputs;
+    Activity activity;
+    synchronized (open) {
+      open.remove(group, batch);
+      batchInputs = new ArrayList<>(batch.inputs);
+      activity = activities.computeIfAbsent(group, g -> new Activity());
+      activity.inFlight++;
+    }
+    
+    batches.increment();
+    inputs.add(batchInputs.size());
+    try {
+      List<O> results = call.execute(batchInputs);
+      batch.rejectedInputs = !hasResultForEachInput(results, batchInputs);
+      batch.results.complete(checkResults(results, batchInputs));
+    } catch (Exception e) {
+      batch.rejectedInputs = batch.rejectedInputs || isRejectedRequest(e);
+      batch.results.completeExceptionally(e);
+    } finally {
+      synchronized (open) {
+        activity.inFlight--;
+        activity.lastEnd = System.nanoTime();
+      }
+      if (!batch.results.isDone()) {
+        batch.results.completeExceptionally(new IllegalStateException("The batch was aborted"));
+      }
+    }
+  }
+  
+  /**
+   * Execute a call and check that it returns a result for each input.
+   * 
+   * @param call        The call.
+   * @param callInputs  The inputs.
+   * 
+   * @return The results.
+   * 
+   * @throws AIConnectionException If the call failed or the results do not match the inputs.
+   */
+  private static <I, O> List<O> executeCall(BatchCall<I, O> call, List<I> callInputs) throws AIConnectionException {
+    return checkResults(call.execute(callInputs), callInputs);
+  }
+  
+  /**
+   * Check that a call returned a result for each input.
+   * 
+   * @param results     The results of the call. May be <code>null</code>.
+   * @param callInputs  The inputs.
+   * 
+   * @return The results.
+   * 
+   * @throws AIConnectionException If the results do not match the inputs.
+   */
+  private static <I, O> List<O> checkResults(List<O> results, List<I> callInputs) throws AIConnectionException {
+    if (!hasResultForEachInput(results, callInputs)) {
+      throw new AIConnectionException(
+          "Received " + (results == null ? 0 : results.size()) + " results for " + callInputs.size() + " inputs", 
+          "", null);
+    }
+    return results;
+  }
+  
+  /**
+   * Check if a call returned a result for each input.
+   * 
+   * @param results     The results of the call. May be <code>null</code>.
+   * @param callInputs  The inputs.
+   * 
+   * @return <code>true</code> if there are as many results as inputs.
+   */
+  private static <I, O> boolean hasResultForEachInput(List<O> results, List<I> callInputs) {
+    return results != null && results.size() == callInputs.size();
+  }
+  
+  /**
+   * Check if a call failed because the AI service rejected the request, which may be caused by some of its inputs: 
+   * a client error status, except the timeouts and the rate limits.
+   * 
+   * @param failure The failure of the call.
+   * 
+   * @return <code>true</code> if the request was rejected.
+   */
+  static boolean isRejectedRequest(Throwable failure) {
+    boolean rejected = false;
+    for (Throwable t = failure; t != null; t = t.getCause() != t ? t.getCause() : null) {
+      if (t instanceof HttpException) {
+        int code = ((HttpException) t).code();
+        rejected = code >= 400 && code < 500 && code != HTTP_REQUEST_TIMEOUT && code != HTTP_TOO_MANY_REQUESTS;
+        break;
+      }
+    }
+    return rejected;
+  }
+  
+  /**
+   * The activity of a group.
+   */
+  private static class Activity {
+    /**
+     * The number of batches executing.
+     */
+    int inFlight;
+    /**
+     * The time the last batch ended, in nanoseconds.
+     */
+    long lastEnd;
+  }
+  
+  /**
+   * The inputs of a batch and their results.
+   * 
+   * @param <I> The type of the inputs.
+   * @param <O> The type of the results.
+   */
+  private static class Batch<I, O> {
+    /**
+     * The inputs.
+     */
+    final List<I> inputs = new ArrayList<>();
+    /**
+     * The number of callers that added inputs. Guarded by {@link MicroBatcher#open}.
+     */
+    int callers;
+    /**
+     * <code>true</code> if the batch failed because of its inputs. Set before the results are completed.
+     */
+    boolean rejectedInputs;
+    /**
+     * Released when the batch is full.
+     */
+    final CountDownLatch full = new CountDownLatch(1);
+    /**
+     * The results.
+     */
+    final CompletableFuture<List<O>> results = new CompletableFuture<>();
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.concurrent;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.UnaryOperator;
+
+import com.oxygenxml.positron.api.connector.AIConnectionException;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+/**
+ * Coalesces the identical concurrent calls: while a call with a key is in progress, 
+ * the other calls with the same key wait for its result instead of executing again.
+ * The caller that executed the call gets its result and each waiting caller gets a copy.
+ * 
+ * @param <V> The type of the result.
+ * 
+ * @author cosmin_duna
+ */
+public class SingleFlight<V> {
+  
+  /**
+   * The calls in progress, by key.
+   */
+  private final Map<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+  
+  /**
+   * The name used in the metrics.
+   */
+  private final String name;
+  
+  /**
+   * Constructor.
+   * 
+   * @param name The name used in the metrics.
+   */
+  public SingleFlight(String name) {
+    this.name = name;
+  }
+  
+  /**
+   * Execute a call, or wait for the identical call in progress.
+   * 
+   * @param key     The key identifying the identical calls.
+   * @param call    The call.
+   * @param copier  Copies the result for the waiting callers.
+   * 
+   * @return The result of the call.
+   * 
+   * @throws AIConnectionException If the call failed.
+   */
+  public V execute(String key, Callable<V> call, UnaryOperator<V> copier) throws AIConnectionException {
+    CompletableFuture<V> created = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+    V result;
+    if (existing == null) {
+      try {
+        result = call.call();
+        inFlight.remove(key, created);
+        created.complete(result);
+      } catch (Exception e) {
+        inFlight.remove(key, created);
+        created.completeExceptionally(e);
+        throw toAIConnectionException(e);
+      } finally {
+        if (!created.isDone()) {
+          inFlight.remove(key, created);
+          created.completeExceptionally(new IllegalStateException("The call was aborted"));
+        }
+      }
+    } else {
+      ConnectorMetrics.getCounter("singleflight." + name + ".shared").increment();
+      try {
+        result = copier.apply(existing.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new AIConnectionException(e.getMessage(), "", e);
+      } catch (ExecutionException e) {
+        throw toAIConnectionException(e.getCause());
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * @return The number of calls in progress.
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+  
+  /**
+   * Convert the failure of a call to an AI connection exception.
+   * 
+   * @param t The failure.
+   * 
+   * @return The AI connection exception.
+   */
+  private static AIConnectionException toAIConnectionException(Throwable t) {
+    return t instanceof AIConnectionException 
+        ? (AIConnectionException) t : new AIConnectionException(t.getMessage(), "", t);
+  }
+}
@@ -55,4 +55,67 @@ public interface CustomAiServiceConfigSupplier {
    * @return <code>true</code> if the moderation is enabled, <code>false</code> otherwise.
    */
   boolean isModerationEnabled();
+  
+  /**
+   * @return <code>true</code> if the consecutive streamed content deltas should be merged before being published.
+   */
+  default boolean isStreamCoalescingEnabled() {
+    return false;
+  }
+  
+  /**
+   * @return <code>true</code> if a hedge request should be sent when a non-streamed completion is slow.
+   */
+  default boolean isHedgingEnabled() {
+    return false;
+  }
+  
+  /**
+   * @return <code>true</code> if the responses of the deterministic completions should be cached.
+   */
+  default boolean isResponseCacheEnabled() {
+    return false;
+  }
+  
+  /**
+   * @return <code>true</code> if the concurrent moderations should be sent together, as multi-input requests.
+   */
+  default boolean isModerationBatchingEnabled() {
+    return false;
+  }
+  
+  /**
+   * @return <code>true</code> if the input moderation should run in parallel with the completion.
+   */
+  default boolean isSpeculativeModerationEnabled() {
+    return false;
+  }
+  
+  /**
+   * @return <code>true</code> if the streamed responses should be moderated while they are received.
+   */
+  default boolean isStreamModerationEnabled() {
+    return false;
+  }
+  
+  /**
+   * Get the client-side rate limits. 
+   * The key is a model, or "*" for all the other models, and the value is "requests per minute/tokens per minute".
+   * 
+   * @return A list of rate limits, or <code>null</code>.
+   */
+  default List<Pair<String, String>> getRateLimits() {
+    return null;
+  }
+  
+  /**
+   * Get the additional endpoints, used together with the base URL. 
+   * The key is the base URL of an endpoint and the value is "weight" or "weight;variable", 
+   * where "variable" is the name of the environment variable or system property holding the API key of the endpoint.
+   * 
+   * @return A list of endpoints, or <code>null</code>.
+   */
+  default List<Pair<String, String>> getEndpoints() {
+    return null;
+  }
 }
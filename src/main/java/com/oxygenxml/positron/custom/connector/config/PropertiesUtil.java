@@ -0,0 +1,103 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utility methods for reading the connector tuning properties. 
+ * A property is looked up first in the environment variables and then in the system properties.
+ * 
+ * @author cosmin_duna
+ */
+public class PropertiesUtil {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(PropertiesUtil.class.getName());
+
+  /**
+   * Constructor.
+   *
+   * @throws UnsupportedOperationException when invoked.
+   */
+  private PropertiesUtil() {
+    // Private to avoid instantiations
+    throw new UnsupportedOperationException("Instantiation of this utility class is not allowed!");
+  }
+  
+  /**
+   * Retrieves the value of a property from the environment variables or system properties.
+   * 
+   * @param propertyName The name of the property to retrieve.
+   * 
+   * @return The value of the property, or null if not found.
+   */
+  public static String getProperty(String propertyName) {
+    String value = System.getenv(propertyName);
+    if(value == null) {
+      value = System.getProperty(propertyName);
+    }
+    return value;
+  }
+  
+  /**
+   * Retrieves the integer value of a property.
+   * 
+   * @param propertyName The name of the property to retrieve.
+   * @param defaultValue The value to return when the property is not set or is not a valid number.
+   * 
+   * @return The value of the property.
+   */
+  public static int getIntProperty(String propertyName, int defaultValue) {
+    return (int) getLongProperty(propertyName, defaultValue);
+  }
+  
+  /**
+   * Retrieves the long value of a property.
+   * 
+   * @param propertyName The name of the property to retrieve.
+   * @param defaultValue The value to return when the property is not set or is not a valid number.
+   * 
+   * @return The value of the property.
+   */
+  public static long getLongProperty(String propertyName, long defaultValue) {
+    long toReturn = defaultValue;
+    String value = getProperty(propertyName);
+    if(value != null && !value.isBlank()) {
+      try {
+        toReturn = Long.parseLong(value.trim());
+      } catch (NumberFormatException e) {
+        LOGGER.debug("Invalid value for " + propertyName + ": " + value);
+      }
+    }
+    return toReturn;
+  }
+  
+  /**
+   * Retrieves the boolean value of a property.
+   * 
+   * @param propertyName The name of the property to retrieve.
+   * @param defaultValue The value to return when the property is not set.
+   * 
+   * @return The value of the property.
+   */
+  public static boolean getBooleanProperty(String propertyName, boolean defaultValue) {
+    String value = getProperty(propertyName);
+    return value != null && !value.isBlank() ? Boolean.parseBoolean(value.trim()) : defaultValue;
+  }
+}
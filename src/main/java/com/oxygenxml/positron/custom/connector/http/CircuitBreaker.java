@@ -0,0 +1,354 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+/**
+ * Circuit breaker of an AI service endpoint. 
+ * It opens when too many of the recent calls failed or were slow, rejecting the calls while it is open.
+ * After a while it lets a limited number of probe calls through, closing again if they all succeed.
+ * 
+ * @author cosmin_duna
+ */
+public class CircuitBreaker {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class.getName());
+  
+  /**
+   * The number of recent calls considered for computing the failure and slow call rates.
+   */
+  public static final String CIRCUIT_WINDOW = "POSITRON_CONNECTOR_CIRCUIT_WINDOW";
+  
+  /**
+   * The minimum number of recent calls needed before the circuit can open.
+   */
+  public static final String CIRCUIT_MIN_CALLS = "POSITRON_CONNECTOR_CIRCUIT_MIN_CALLS";
+  
+  /**
+   * The percent of failed recent calls that opens the circuit. 0 disables the circuit breaker.
+   */
+  public static final String CIRCUIT_FAILURE_RATE = "POSITRON_CONNECTOR_CIRCUIT_FAILURE_RATE";
+  
+  /**
+   * The time in milliseconds after which a call waiting for the response is considered slow.
+   */
+  public static final String CIRCUIT_SLOW_CALL_DURATION = "POSITRON_CONNECTOR_CIRCUIT_SLOW_CALL_DURATION";
+  
+  /**
+   * The percent of slow recent calls that opens the circuit.
+   */
+  public static final String CIRCUIT_SLOW_CALL_RATE = "POSITRON_CONNECTOR_CIRCUIT_SLOW_CALL_RATE";
+  
+  /**
+   * The time in milliseconds the circuit stays open before allowing probe calls.
+   */
+  public static final String CIRCUIT_OPEN_DURATION = "POSITRON_CONNECTOR_CIRCUIT_OPEN_DURATION";
+  
+  /**
+   * The number of probe calls allowed when the circuit is half-open.
+   */
+  public static final String CIRCUIT_HALF_OPEN_PROBES = "POSITRON_CONNECTOR_CIRCUIT_HALF_OPEN_PROBES";
+  
+  /**
+   * The state of a circuit breaker.
+   */
+  public enum State {
+    /**
+     * The calls are allowed.
+     */
+    CLOSED,
+    /**
+     * The calls are rejected.
+     */
+    OPEN,
+    /**
+     * Only a limited number of probe calls are allowed.
+     */
+    HALF_OPEN
+  }
+  
+  /**
+   * The circuit breakers, by endpoint.
+   */
+  private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+  
+  /**
+   * The endpoint.
+   */
+  private final String endpoint;
+  
+  /**
+   * The outcomes of the recent calls, as a ring buffer.
+   */
+  private final byte[] outcomes;
+  
+  /**
+   * The minimum number of recent calls needed before the circuit can open.
+   */
+  private final int minCalls;
+  
+  /**
+   * The percent of failed recent calls that opens the circuit.
+   */
+  private final int failureRateThreshold;
+  
+  /**
+   * The duration in nanoseconds after which a call is considered slow.
+   */
+  private final long slowCallNanos;
+  
+  /**
+   * The percent of slow recent calls that opens the circuit.
+   */
+  private final int slowCallRateThreshold;
+  
+  /**
+   * The time in nanoseconds the circuit stays open.
+   */
+  private final long openNanos;
+  
+  /**
+   * The number of probe calls allowed when the circuit is half-open.
+   */
+  private final int halfOpenProbes;
+  
+  /**
+   * The current state.
+   */
+  private State state = State.CLOSED;
+  
+  /**
+   * The number of recorded outcomes, up to the window size.
+   */
+  private int recorded;
+  
+  /**
+   * The position of the next outcome in the ring buffer.
+   */
+  private int next;
+  
+  /**
+   * The number of failed calls in the window.
+   */
+  private int failures;
+  
+  /**
+   * The number of slow calls in the window.
+   */
+  private int slowCalls;
+  
+  /**
+   * The time the circuit was opened, in nanoseconds.
+   */
+  private long openedAt;
+  
+  /**
+   * The number of probe calls started while half-open.
+   */
+  private int probesStarted;
+  
+  /**
+   * The number of successful probe calls while half-open.
+   */
+  private int probesSucceeded;
+  
+  /**
+   * Outcome flag for a failed call.
+   */
+  private static final byte FAILED = 1;
+  
+  /**
+   * Outcome flag for a slow call.
+   */
+  private static final byte SLOW = 2;
+  
+  /**
+   * Constructor.
+   * 
+   * @param endpoint              The endpoint.
+   * @param windowSize            The number of recent calls considered.
+   * @param minCalls              The minimum number of recent calls needed before the circuit can open.
+   * @param failureRateThreshold  The percent of failed recent calls that opens the circuit.
+   * @param slowCallMillis        The duration in milliseconds after which a call is considered slow.
+   * @param slowCallRateThreshold The percent of slow recent calls that opens the circuit.
+   * @param openMillis            The time in milliseconds the circuit stays open.
+   * @param halfOpenProbes        The number of probe calls allowed when the circuit is half-open.
+   */
+  public CircuitBreaker(String endpoint, int windowSize, int minCalls, int failureRateThreshold, 
+      long slowCallMillis, int slowCallRateThreshold, long openMillis, int halfOpenProbes) {
+    this.endpoint = endpoint;
+    this.outcomes = new byte[Math.max(1, windowSize)];
+    this.minCalls = Math.max(1, Math.min(minCalls, outcomes.length));
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    this.halfOpenProbes = Math.max(1, halfOpenProbes);
+  }
+  
+  /**
+   * Get the shared circuit breaker of an endpoint, configured from the environment variables or system properties.
+   * 
+   * @param endpoint The endpoint.
+   * 
+   * @return The circuit breaker, or <code>null</code> when the circuit breaker is disabled.
+   */
+  public static CircuitBreaker forEndpoint(String endpoint) {
+    CircuitBreaker breaker = null;
+    int failureRate = PropertiesUtil.getIntProperty(CIRCUIT_FAILURE_RATE, 50);
+    if (failureRate > 0) {
+      breaker = breakers.computeIfAbsent(endpoint, e -> {
+        CircuitBreaker created = new CircuitBreaker(e,
+            PropertiesUtil.getIntProperty(CIRCUIT_WINDOW, 20),
+            PropertiesUtil.getIntProperty(CIRCUIT_MIN_CALLS, 10),
+            failureRate,
+            PropertiesUtil.getLongProperty(CIRCUIT_SLOW_CALL_DURATION, 60000),
+            PropertiesUtil.getIntProperty(CIRCUIT_SLOW_CALL_RATE, 80),
+            PropertiesUtil.getLongProperty(CIRCUIT_OPEN_DURATION, 30000),
+            PropertiesUtil.getIntProperty(CIRCUIT_HALF_OPEN_PROBES, 2));
+        ConnectorMetrics.registerGauge("circuit.breaker.state", () -> created.getState().ordinal(), "endpoint", e);
+        return created;
+      });
+    }
+    return breaker;
+  }
+  
+  /**
+   * @return The states of the circuit breakers, by endpoint.
+   */
+  public static Map<String, State> getStates() {
+    Map<String, State> states = new TreeMap<>();
+    breakers.forEach((endpoint, breaker) -> states.put(endpoint, breaker.getState()));
+    return states;
+  }
+  
+  /**
+   * Ask permission for a call.
+   * 
+   * @throws CircuitOpenException If the circuit is open, or half-open with all the probes in progress.
+   */
+  public synchronized void acquirePermission() throws CircuitOpenException {
+    if (state == State.OPEN) {
+      long remaining = openNanos - (System.nanoTime() - openedAt);
+      if (remaining > 0) {
+        ConnectorMetrics.getCounter("circuit.breaker.rejected").increment();
+        throw new CircuitOpenException(endpoint, TimeUnit.NANOSECONDS.toMillis(remaining));
+      }
+      transitionTo(State.HALF_OPEN);
+    }
+    if (state == State.HALF_OPEN) {
+      if (probesStarted >= halfOpenProbes) {
+        ConnectorMetrics.getCounter("circuit.breaker.rejected").increment();
+        throw new CircuitOpenException(endpoint, 0);
+      }
+      probesStarted++;
+    }
+  }
+  
+  /**
+   * Release the permission of a call whose outcome does not tell about the health of the endpoint, 
+   * like a cancelled call.
+   */
+  public synchronized void releasePermission() {
+    if (state == State.HALF_OPEN && probesStarted > 0) {
+      probesStarted--;
+    }
+  }
+  
+  /**
+   * Record the outcome of a call.
+   * 
+   * @param durationNanos The time the call waited for the response.
+   * @param failed        <code>true</code> if the call failed.
+   */
+  public synchronized void onResult(long durationNanos, boolean failed) {
+    boolean slow = durationNanos >= slowCallNanos;
+    if (state == State.HALF_OPEN) {
+      if (failed || slow) {
+        transitionTo(State.OPEN);
+      } else if (++probesSucceeded >= halfOpenProbes) {
+        transitionTo(State.CLOSED);
+      }
+    } else if (state == State.CLOSED) {
+      record((byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0)));
+      if (recorded >= minCalls 
+          && (failures * 100 >= failureRateThreshold * recorded || slowCalls * 100 >= slowCallRateThreshold * recorded)) {
+        transitionTo(State.OPEN);
+      }
+    }
+  }
+  
+  /**
+   * @return The current state.
+   */
+  public synchronized State getState() {
+    return state;
+  }
+  
+  /**
+   * Record an outcome in the window.
+   * 
+   * @param outcome The outcome flags.
+   */
+  private void record(byte outcome) {
+    if (recorded == outcomes.length) {
+      byte evicted = outcomes[next];
+      failures -= evicted & FAILED;
+      slowCalls -= (evicted & SLOW) >> 1;
+    } else {
+      recorded++;
+    }
+    outcomes[next] = outcome;
+    failures += outcome & FAILED;
+    slowCalls += (outcome & SLOW) >> 1;
+    next = (next + 1) % outcomes.length;
+  }
+  
+  /**
+   * Change the state.
+   * 
+   * @param newState The new state.
+   */
+  private void transitionTo(State newState) {
+    if (state != newState) {
+      LOGGER.info("Circuit breaker for {} changed from {} to {}", endpoint, state, newState);
+      ConnectorMetrics.getCounter("circuit.breaker.transitions." + newState.name().toLowerCase()).increment();
+    }
+    state = newState;
+    probesStarted = 0;
+    probesSucceeded = 0;
+    if (newState == State.OPEN) {
+      openedAt = System.nanoTime();
+    } else if (newState == State.CLOSED) {
+      recorded = 0;
+      next = 0;
+      failures = 0;
+      slowCalls = 0;
+    }
+  }
+}
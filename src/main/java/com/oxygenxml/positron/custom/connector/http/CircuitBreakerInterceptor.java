@@ -0,0 +1,66 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * OkHttp Interceptor that guards the requests with the circuit breaker of the endpoint they are sent to.
+ * The server errors, the timeouts and the connection failures are counted as failures. 
+ * The duration of a call is the time until the response headers are received.
+ * 
+ * @author cosmin_duna
+ */
+public class CircuitBreakerInterceptor implements Interceptor {
+  
+  /**
+   * Intercept the request, failing fast when the circuit is open.
+   * 
+   * @param chain     The chain of interceptors
+   * @return          The response
+   * 
+   * @throws IOException If the request fails or the circuit is open
+   */
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    CircuitBreaker breaker = CircuitBreaker.forEndpoint(SharedHttpClients.getOrigin(chain.request().url().toString()));
+    if (breaker == null) {
+      return chain.proceed(chain.request());
+    }
+    
+    breaker.acquirePermission();
+    long start = System.nanoTime();
+    Response response;
+    try {
+      response = chain.proceed(chain.request());
+    } catch (IOException e) {
+      if (chain.call().isCanceled()) {
+        breaker.releasePermission();
+      } else {
+        breaker.onResult(System.nanoTime() - start, true);
+      }
+      throw e;
+    } catch (RuntimeException e) {
+      breaker.releasePermission();
+      throw e;
+    }
+    int code = response.code();
+    breaker.onResult(System.nanoTime() - start, code >= 500 || code == 408);
+    return response;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request is rejected because the circuit breaker of the AI service is open.
+ * 
+ * @author cosmin_duna
+ */
+public class CircuitOpenException extends IOException {
+
+  /**
+   * Serial version UID.
+   */
+  private static final long serialVersionUID = 1L;
+  
+  /**
+   * The time in milliseconds until the next probe request is allowed.
+   */
+  private final long retryAfterMillis;
+
+  /**
+   * Constructor.
+   * 
+   * @param endpoint          The endpoint of the AI service.
+   * @param retryAfterMillis  The time in milliseconds until the next probe request is allowed.
+   */
+  public CircuitOpenException(String endpoint, long retryAfterMillis) {
+    super("The AI service at " + endpoint + " is currently unavailable, as most of the recent requests failed or were too slow. "
+        + "Please try again in " + Math.max(1, (retryAfterMillis + 999) / 1000) + " seconds.");
+    this.retryAfterMillis = retryAfterMillis;
+  }
+  
+  /**
+   * @return The time in milliseconds until the next probe request is allowed.
+   */
+  public long getRetryAfterMillis() {
+    return retryAfterMillis;
+  }
+}
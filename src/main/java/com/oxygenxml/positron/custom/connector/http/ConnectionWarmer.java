@@ -0,0 +1,113 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.custom.connector.auth.AccessTokenProvider;
+import com.oxygenxml.positron.custom.connector.auth.AuthRequestException;
+import com.oxygenxml.positron.custom.connector.concurrent.ConnectorScheduler;
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Prepares the connection to an AI service in background, so the first completion does not wait for 
+ * the DNS resolution, the TCP and TLS handshakes or the access token request.
+ * The warm-up never blocks the caller and its failures are only logged.
+ * 
+ * @author cosmin_duna
+ */
+public class ConnectionWarmer {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionWarmer.class.getName());
+  
+  /**
+   * <code>true</code> to warm up the connection when an AI service is created.
+   */
+  public static final String WARM_UP = "POSITRON_CONNECTOR_WARM_UP";
+
+  /**
+   * Constructor.
+   *
+   * @throws UnsupportedOperationException when invoked.
+   */
+  private ConnectionWarmer() {
+    // Private to avoid instantiations
+    throw new UnsupportedOperationException("Instantiation of this utility class is not allowed!");
+  }
+  
+  /**
+   * @return <code>true</code> if the warm-up is enabled.
+   */
+  public static boolean isEnabled() {
+    return PropertiesUtil.getBooleanProperty(WARM_UP, false);
+  }
+  
+  /**
+   * Open a pooled connection to the base URL and load the access token, in background.
+   * 
+   * @param client              The shared client, without the authentication interceptors.
+   * @param baseUrl             The base URL of the AI service.
+   * @param accessTokenProvider The access token provider, or <code>null</code> when an API key is used.
+   */
+  public static void warmUp(OkHttpClient client, String baseUrl, AccessTokenProvider accessTokenProvider) {
+    try {
+      // The response does not matter, the connection remains in the pool for the next request.
+      Request request = new Request.Builder().url(baseUrl).head().build();
+      client.newCall(request).enqueue(new Callback() {
+        @Override
+        public void onResponse(Call call, Response response) {
+          LOGGER.debug("Connection to {} warmed up", baseUrl);
+          response.close();
+        }
+        
+        @Override
+        public void onFailure(Call call, IOException e) {
+          LOGGER.warn("Cannot warm up the connection to {}: {}", baseUrl, e.getMessage());
+        }
+      });
+    } catch (IllegalArgumentException e) {
+      LOGGER.warn("Cannot warm up the connection to {}: {}", baseUrl, e.getMessage());
+    }
+    
+    if (accessTokenProvider != null && accessTokenProvider.getAccessToken().isEmpty()) {
+      try {
+        ConnectorScheduler.execute(() -> {
+          try {
+            accessTokenProvider.getOrLoadAccessToken();
+            LOGGER.debug("Access token loaded in background");
+          } catch (AuthRequestException e) {
+            LOGGER.warn("Cannot load the access token in background: {}", e.getMessage());
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // The first request loads the token anyway
+        LOGGER.debug("The access token is not loaded in background, the workers are busy");
+      }
+    }
+  }
+}
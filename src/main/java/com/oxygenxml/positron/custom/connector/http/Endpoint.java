@@ -0,0 +1,204 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An OpenAI compatible endpoint used by the {@link LoadBalancer}, with its routing statistics.
+ * 
+ * @author cosmin_duna
+ */
+public class Endpoint {
+  
+  /**
+   * The weight of the latest latency in the moving average.
+   */
+  private static final double EWMA_ALPHA = 0.3;
+  
+  /**
+   * The base URL, ending with "/".
+   */
+  private final String baseUrl;
+  
+  /**
+   * The API key of the endpoint, or <code>null</code> to use the one of the connector.
+   */
+  private final String apiKey;
+  
+  /**
+   * The weight of the endpoint.
+   */
+  private final int weight;
+  
+  /**
+   * The number of requests in progress.
+   */
+  private final AtomicInteger outstanding = new AtomicInteger();
+  
+  /**
+   * The exponentially weighted moving average of the response latency, in nanoseconds.
+   */
+  private double latencyEwma;
+  
+  /**
+   * The current weight used by the smooth weighted round-robin.
+   */
+  private int currentWeight;
+  
+  /**
+   * The number of consecutive failures.
+   */
+  private int consecutiveFailures;
+  
+  /**
+   * The time until the endpoint is ejected, in nanoseconds.
+   */
+  private long ejectedUntil;
+  
+  /**
+   * <code>true</code> if the endpoint is ejected.
+   */
+  private boolean ejected;
+  
+  /**
+   * Constructor.
+   * 
+   * @param baseUrl The base URL.
+   * @param apiKey  The API key of the endpoint, or <code>null</code> to use the one of the connector.
+   * @param weight  The weight of the endpoint.
+   */
+  public Endpoint(String baseUrl, String apiKey, int weight) {
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+    this.apiKey = apiKey != null && !apiKey.isBlank() ? apiKey.trim() : null;
+    this.weight = Math.max(1, weight);
+  }
+  
+  /**
+   * @return The base URL, ending with "/".
+   */
+  public String getBaseUrl() {
+    return baseUrl;
+  }
+  
+  /**
+   * @return The API key of the endpoint, or <code>null</code> to use the one of the connector.
+   */
+  public String getApiKey() {
+    return apiKey;
+  }
+  
+  /**
+   * @return The weight of the endpoint.
+   */
+  public int getWeight() {
+    return weight;
+  }
+  
+  /**
+   * @return The number of requests in progress.
+   */
+  public int getOutstanding() {
+    return outstanding.get();
+  }
+  
+  /**
+   * @return The moving average of the response latency, in nanoseconds.
+   */
+  public synchronized double getLatencyEwma() {
+    return latencyEwma;
+  }
+  
+  /**
+   * Called when a request is sent to the endpoint.
+   */
+  void onStart() {
+    outstanding.incrementAndGet();
+  }
+  
+  /**
+   * Called when the endpoint responded successfully.
+   * 
+   * @param latencyNanos The time until the response was received.
+   */
+  synchronized void onSuccess(long latencyNanos) {
+    latencyEwma = latencyEwma == 0 ? latencyNanos : EWMA_ALPHA * latencyNanos + (1 - EWMA_ALPHA) * latencyEwma;
+    consecutiveFailures = 0;
+    ejected = false;
+  }
+  
+  /**
+   * Called when the request to the endpoint failed.
+   * 
+   * @param latencyNanos      The time until the failure.
+   * @param maxFailures       The number of consecutive failures that eject the endpoint.
+   * @param ejectionMillis    The time the endpoint is ejected.
+   * 
+   * @return <code>true</code> if the endpoint was ejected.
+   */
+  synchronized boolean onFailure(long latencyNanos, int maxFailures, long ejectionMillis) {
+    // Penalize the failures, so the latency based routing avoids the endpoint too.
+    latencyEwma = Math.max(latencyEwma * 2, latencyNanos);
+    consecutiveFailures++;
+    boolean eject = consecutiveFailures >= maxFailures;
+    if (eject) {
+      ejected = true;
+      ejectedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ejectionMillis);
+      consecutiveFailures = 0;
+    }
+    return eject;
+  }
+  
+  /**
+   * Called when a request to the endpoint ended: its response body was closed, it failed or it was cancelled.
+   */
+  void onEnd() {
+    outstanding.decrementAndGet();
+  }
+  
+  /**
+   * @return <code>true</code> if the endpoint is ejected.
+   */
+  synchronized boolean isEjected() {
+    if (ejected && System.nanoTime() - ejectedUntil >= 0) {
+      // Give the endpoint a new chance
+      ejected = false;
+    }
+    return ejected;
+  }
+  
+  /**
+   * @return The current weight used by the smooth weighted round-robin.
+   */
+  int getCurrentWeight() {
+    return currentWeight;
+  }
+  
+  /**
+   * @param currentWeight The current weight used by the smooth weighted round-robin.
+   */
+  void setCurrentWeight(int currentWeight) {
+    this.currentWeight = currentWeight;
+  }
+  
+  /**
+   * @see Object#toString()
+   */
+  @Override
+  public String toString() {
+    return baseUrl;
+  }
+}
@@ -0,0 +1,386 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.api.connector.dto.Pair;
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+/**
+ * Chooses the endpoint for each request, among the configured OpenAI compatible endpoints.
+ * The endpoints with consecutive failures are ejected for a while.
+ * 
+ * @author cosmin_duna
+ */
+public class LoadBalancer {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(LoadBalancer.class.getName());
+  
+  /**
+   * The routing strategy: "round-robin", "weighted", "least-outstanding" or "ewma".
+   */
+  public static final String LOAD_BALANCING_STRATEGY = "POSITRON_CONNECTOR_LOAD_BALANCING";
+  
+  /**
+   * The number of consecutive failures that eject an endpoint.
+   */
+  public static final String ENDPOINT_MAX_FAILURES = "POSITRON_CONNECTOR_ENDPOINT_MAX_FAILURES";
+  
+  /**
+   * The time in milliseconds an endpoint is ejected.
+   */
+  public static final String ENDPOINT_EJECTION_TIME = "POSITRON_CONNECTOR_ENDPOINT_EJECTION_TIME";
+  
+  /**
+   * The routing strategies.
+   */
+  public enum Strategy {
+    /**
+     * The endpoints are used in turn.
+     */
+    ROUND_ROBIN,
+    /**
+     * The endpoints are used in turn, proportionally with their weights.
+     */
+    WEIGHTED,
+    /**
+     * The endpoint with the fewest requests in progress, relative to its weight.
+     */
+    LEAST_OUTSTANDING,
+    /**
+     * The endpoint with the lowest moving average of the latency, multiplied by the requests in progress.
+     */
+    EWMA
+  }
+  
+  /**
+   * The endpoints.
+   */
+  private final List<Endpoint> endpoints;
+  
+  /**
+   * The routing strategy.
+   */
+  private final Strategy strategy;
+  
+  /**
+   * The number of consecutive failures that eject an endpoint.
+   */
+  private final int maxFailures;
+  
+  /**
+   * The time in milliseconds an endpoint is ejected.
+   */
+  private final long ejectionMillis;
+  
+  /**
+   * The index of the next endpoint for the round-robin strategy.
+   */
+  private int nextIndex;
+  
+  /**
+   * Constructor.
+   * 
+   * @param endpoints       The endpoints.
+   * @param strategy        The routing strategy.
+   * @param maxFailures     The number of consecutive failures that eject an endpoint.
+   * @param ejectionMillis  The time in milliseconds an endpoint is ejected.
+   */
+  public LoadBalancer(List<Endpoint> endpoints, Strategy strategy, int maxFailures, long ejectionMillis) {
+    this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+    this.strategy = strategy;
+    this.maxFailures = Math.max(1, maxFailures);
+    this.ejectionMillis = ejectionMillis;
+  }
+  
+  /**
+   * Create a load balancer for the primary base URL and the additional endpoints, 
+   * configured from the environment variables or system properties.
+   * 
+   * @param baseUrl   The primary base URL.
+   * @param endpoints The additional endpoints. The key is the base URL and the value is "weight" or "weight;API key variable",
+   *                  where the variable is an environment variable or system property holding the API key.
+   * 
+   * @return The load balancer, or <code>null</code> if there are no additional endpoints.
+   */
+  public static LoadBalancer create(String baseUrl, List<Pair<String, String>> endpoints) {
+    LoadBalancer loadBalancer = null;
+    List<Endpoint> parsed = parseEndpoints(endpoints);
+    if (!parsed.isEmpty()) {
+      parsed.add(0, new Endpoint(baseUrl, null, 1));
+      loadBalancer = new LoadBalancer(
+          parsed,
+          parseStrategy(PropertiesUtil.getProperty(LOAD_BALANCING_STRATEGY)),
+          PropertiesUtil.getIntProperty(ENDPOINT_MAX_FAILURES, 3),
+          PropertiesUtil.getLongProperty(ENDPOINT_EJECTION_TIME, 30000));
+      for (Endpoint endpoint : parsed) {
+        ConnectorMetrics.registerGauge(
+            "loadbalancer.outstanding", endpoint::getOutstanding, "endpoint", endpoint.getBaseUrl());
+      }
+    }
+    return loadBalancer;
+  }
+  
+  /**
+   * @return The endpoints.
+   */
+  public List<Endpoint> getEndpoints() {
+    return endpoints;
+  }
+  
+  /**
+   * Choose an endpoint.
+   * 
+   * @param excluded The endpoints that were already tried for the request.
+   * 
+   * @return The endpoint, or <code>null</code> if all the endpoints were tried.
+   */
+  public synchronized Endpoint choose(Set<Endpoint> excluded) {
+    List<Endpoint> candidates = new ArrayList<>(endpoints.size());
+    for (Endpoint endpoint : endpoints) {
+      if (!excluded.contains(endpoint) && !endpoint.isEjected()) {
+        candidates.add(endpoint);
+      }
+    }
+    if (candidates.isEmpty()) {
+      // Better to try an ejected endpoint than to fail the request
+      for (Endpoint endpoint : endpoints) {
+        if (!excluded.contains(endpoint)) {
+          candidates.add(endpoint);
+        }
+      }
+    }
+    
+    Endpoint chosen = null;
+    if (!candidates.isEmpty()) {
+      switch (strategy) {
+        case ROUND_ROBIN:
+          chosen = candidates.get(Math.floorMod(nextIndex++, candidates.size()));
+          break;
+        case LEAST_OUTSTANDING:
+          chosen = chooseLeastOutstanding(candidates);
+          break;
+        case EWMA:
+          chosen = chooseLowestLatency(candidates);
+          break;
+        case WEIGHTED:
+        default:
+          chosen = chooseWeighted(candidates);
+          break;
+      }
+    }
+    return chosen;
+  }
+  
+  /**
+   * Record the start of a request to an endpoint.
+   * 
+   * @param endpoint The endpoint.
+   */
+  public void onStart(Endpoint endpoint) {
+    endpoint.onStart();
+  }
+  
+  /**
+   * Record the success of a request to an endpoint.
+   * 
+   * @param endpoint      The endpoint.
+   * @param latencyNanos  The time until the response was received.
+   */
+  public void onSuccess(Endpoint endpoint, long latencyNanos) {
+    endpoint.onSuccess(latencyNanos);
+  }
+  
+  /**
+   * Record the failure of a request to an endpoint.
+   * 
+   * @param endpoint      The endpoint.
+   * @param latencyNanos  The time until the failure.
+   */
+  public void onFailure(Endpoint endpoint, long latencyNanos) {
+    if (endpoint.onFailure(latencyNanos, maxFailures, ejectionMillis)) {
+      LOGGER.warn("The endpoint {} is ejected for {} ms after {} consecutive failures", 
+          endpoint, ejectionMillis, maxFailures);
+      ConnectorMetrics.getCounter("loadbalancer.ejections").increment();
+    }
+  }
+  
+  /**
+   * Record the end of a request to an endpoint: its response body was closed, it failed or it was cancelled.
+   * The request is in progress from {@link #onStart(Endpoint)} until this call.
+   * 
+   * @param endpoint The endpoint.
+   */
+  public void onEnd(Endpoint endpoint) {
+    endpoint.onEnd();
+  }
+  
+  /**
+   * Smooth weighted round-robin: the endpoints are interleaved proportionally with their weights.
+   * 
+   * @param candidates The candidate endpoints.
+   * 
+   * @return The chosen endpoint.
+   */
+  private static Endpoint chooseWeighted(List<Endpoint> candidates) {
+    Endpoint chosen = null;
+    int totalWeight = 0;
+    for (Endpoint endpoint : candidates) {
+      endpoint.setCurrentWeight(endpoint.getCurrentWeight() + endpoint.getWeight());
+      totalWeight += endpoint.getWeight();
+      if (chosen == null || endpoint.getCurrentWeight() > chosen.getCurrentWeight()) {
+        chosen = endpoint;
+      }
+    }
+    chosen.setCurrentWeight(chosen.getCurrentWeight() - totalWeight);
+    return chosen;
+  }
+  
+  /**
+   * Choose the endpoint with the fewest requests in progress, relative to its weight.
+   * 
+   * @param candidates The candidate endpoints.
+   * 
+   * @return The chosen endpoint.
+   */
+  private static Endpoint chooseLeastOutstanding(List<Endpoint> candidates) {
+    Endpoint chosen = null;
+    double chosenLoad = Double.MAX_VALUE;
+    for (Endpoint endpoint : candidates) {
+      double load = (double) endpoint.getOutstanding() / endpoint.getWeight();
+      if (load < chosenLoad) {
+        chosen = endpoint;
+        chosenLoad = load;
+      }
+    }
+    return chosen;
+  }
+  
+  /**
+   * Choose the endpoint with the lowest expected latency, as the moving average of the latency 
+   * multiplied by the requests in progress. The endpoints without measurements are tried first.
+   * 
+   * @param candidates The candidate endpoints.
+   * 
+   * @return The chosen endpoint.
+   */
+  private static Endpoint chooseLowestLatency(List<Endpoint> candidates) {
+    Endpoint chosen = null;
+    double chosenCost = Double.MAX_VALUE;
+    for (Endpoint endpoint : candidates) {
+      double cost = endpoint.getLatencyEwma() * (endpoint.getOutstanding() + 1) / endpoint.getWeight();
+      if (cost < chosenCost) {
+        chosen = endpoint;
+        chosenCost = cost;
+      }
+    }
+    return chosen;
+  }
+  
+  /**
+   * Parse the configured endpoints.
+   * 
+   * @param endpoints The configured endpoints.
+   * 
+   * @return The parsed endpoints.
+   */
+  private static List<Endpoint> parseEndpoints(List<Pair<String, String>> endpoints) {
+    List<Endpoint> parsed = new ArrayList<>();
+    if (endpoints != null) {
+      for (Pair<String, String> endpoint : endpoints) {
+        String url = endpoint.getFirst() != null ? endpoint.getFirst().trim() : "";
+        if (!url.isEmpty()) {
+          String value = endpoint.getSecond() != null ? endpoint.getSecond().trim() : "";
+          int separator = value.indexOf(';');
+          String weight = separator != -1 ? value.substring(0, separator) : value;
+          String apiKeyVariable = separator != -1 ? value.substring(separator + 1).trim() : "";
+          parsed.add(new Endpoint(url, resolveApiKey(url, apiKeyVariable), parseWeight(weight)));
+        }
+      }
+    }
+    return parsed;
+  }
+  
+  /**
+   * Resolve the API key of an endpoint. The key is not stored in the connector options,
+   * but in the environment variable or system property with the given name.
+   * 
+   * @param url             The base URL of the endpoint.
+   * @param apiKeyVariable  The name of the variable holding the API key, or an empty string.
+   * 
+   * @return The API key, or <code>null</code> to use the one of the connector.
+   */
+  private static String resolveApiKey(String url, String apiKeyVariable) {
+    String apiKey = null;
+    if (!apiKeyVariable.isEmpty()) {
+      apiKey = PropertiesUtil.getProperty(apiKeyVariable);
+      if (apiKey == null || apiKey.isBlank()) {
+        LOGGER.warn("The API key variable {} of the endpoint {} is not set, the API key of the connector is used", 
+            apiKeyVariable, url);
+      }
+    }
+    return apiKey;
+  }
+  
+  /**
+   * Parse the weight of an endpoint.
+   * 
+   * @param weight The weight.
+   * 
+   * @return The weight, or 1 if it is missing or invalid.
+   */
+  private static int parseWeight(String weight) {
+    int parsed = 1;
+    if (!weight.isBlank()) {
+      try {
+        parsed = Integer.parseInt(weight.trim());
+      } catch (NumberFormatException e) {
+        LOGGER.warn("Invalid endpoint weight: {}", weight);
+      }
+    }
+    return parsed;
+  }
+  
+  /**
+   * Parse the routing strategy.
+   * 
+   * @param strategy The strategy name.
+   * 
+   * @return The strategy, {@link Strategy#WEIGHTED} by default.
+   */
+  static Strategy parseStrategy(String strategy) {
+    Strategy parsed = Strategy.WEIGHTED;
+    if (strategy != null && !strategy.isBlank()) {
+      try {
+        parsed = Strategy.valueOf(strategy.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+      } catch (IllegalArgumentException e) {
+        LOGGER.warn("Unknown load balancing strategy: {}", strategy);
+      }
+    }
+    return parsed;
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * OkHttp Interceptor that sends each request to an endpoint chosen by the {@link LoadBalancer}.
+ * The request URL is moved from the primary base URL to the base URL of the endpoint, 
+ * and the endpoint is attached to the request as a tag.
+ * When an endpoint fails with a connection error or a server error, the request is moved to 
+ * another endpoint, which happens before any byte of the response is streamed.
+ * A request stays in progress on its endpoint until the response body is closed.
+ * 
+ * @author cosmin_duna
+ */
+public class LoadBalancingInterceptor implements Interceptor {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(LoadBalancingInterceptor.class.getName());
+  
+  /**
+   * The header for authorization.
+   */
+  private static final String AUTHORIZATION_HEADER = "Authorization";
+  
+  /**
+   * The primary base URL, ending with "/".
+   */
+  private final String primaryBaseUrl;
+  
+  /**
+   * The load balancer.
+   */
+  private final LoadBalancer loadBalancer;
+  
+  /**
+   * Constructor.
+   * 
+   * @param primaryBaseUrl  The primary base URL, used by the requests created by the API.
+   * @param loadBalancer    The load balancer.
+   */
+  public LoadBalancingInterceptor(String primaryBaseUrl, LoadBalancer loadBalancer) {
+    this.primaryBaseUrl = primaryBaseUrl.endsWith("/") ? primaryBaseUrl : primaryBaseUrl + "/";
+    this.loadBalancer = loadBalancer;
+  }
+
+  /**
+   * Intercept the request and send it to the chosen endpoint, failing over to the other endpoints.
+   * 
+   * @param chain     The chain of interceptors
+   * @return          The response
+   * 
+   * @throws IOException If the request fails on all the endpoints
+   */
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    String url = request.url().toString();
+    if (!url.startsWith(primaryBaseUrl)) {
+      return chain.proceed(request);
+    }
+    String relativeUrl = url.substring(primaryBaseUrl.length());
+    
+    Set<Endpoint> tried = new HashSet<>();
+    // A preferred endpoint may be attached by the caller, for example to send a hedged request elsewhere.
+    Endpoint endpoint = request.tag(Endpoint.class);
+    if (endpoint == null || !loadBalancer.getEndpoints().contains(endpoint)) {
+      endpoint = loadBalancer.choose(tried);
+    }
+    while (true) {
+      tried.add(endpoint);
+      Request.Builder builder = request.newBuilder()
+          .url(endpoint.getBaseUrl() + relativeUrl)
+          .tag(Endpoint.class, endpoint);
+      if (endpoint.getApiKey() != null) {
+        builder.header(AUTHORIZATION_HEADER, "Bearer " + endpoint.getApiKey());
+      }
+      
+      loadBalancer.onStart(endpoint);
+      long start = System.nanoTime();
+      Response response = null;
+      IOException failure = null;
+      try {
+        response = chain.proceed(builder.build());
+      } catch (IOException e) {
+        failure = e;
+      } catch (RuntimeException e) {
+        loadBalancer.onEnd(endpoint);
+        throw e;
+      }
+      
+      long latency = System.nanoTime() - start;
+      boolean failed = failure != null || response.code() >= 500;
+      if (!chain.call().isCanceled()) {
+        if (failed) {
+          loadBalancer.onFailure(endpoint, latency);
+        } else {
+          loadBalancer.onSuccess(endpoint, latency);
+        }
+      }
+      
+      Endpoint next = null;
+      if (!chain.call().isCanceled() && failed) {
+        next = loadBalancer.choose(tried);
+      }
+      if (next == null) {
+        if (failure != null) {
+          loadBalancer.onEnd(endpoint);
+          throw failure;
+        }
+        return releaseOnClose(response, endpoint);
+      }
+      
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Moving the request from {} to {}; cause: {}", endpoint, next,
+            failure != null ? failure.getMessage() : String.valueOf(response.code()));
+      }
+      ConnectorMetrics.getCounter("loadbalancer.failovers").increment();
+      if (response != null) {
+        response.close();
+      }
+      loadBalancer.onEnd(endpoint);
+      endpoint = next;
+    }
+  }
+  
+  /**
+   * Keep the request in progress on the endpoint until the response body is closed, 
+   * so a streamed response counts for the routing until its last chunk is read.
+   * 
+   * @param response  The response.
+   * @param endpoint  The endpoint that sent the response.
+   * 
+   * @return The response, with a body that ends the request on the endpoint when closed.
+   */
+  private Response releaseOnClose(Response response, Endpoint endpoint) {
+    ResponseBody body = response.body();
+    if (body == null) {
+      loadBalancer.onEnd(endpoint);
+      return response;
+    }
+    AtomicBoolean ended = new AtomicBoolean();
+    Source source = new ForwardingSource(body.source()) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          // The body may be closed more than once
+          if (ended.compareAndSet(false, true)) {
+            loadBalancer.onEnd(endpoint);
+          }
+        }
+      }
+    };
+    return response.newBuilder()
+        .body(ResponseBody.create(Okio.buffer(source), body.contentType(), body.contentLength()))
+        .build();
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Response;
+
+/**
+ * Utility methods for reading the rate limit headers sent by the OpenAI compatible services.
+ * 
+ * @author cosmin_duna
+ */
+public class RateLimitHeaders {
+  
+  /**
+   * Header with the number of seconds, or the date, after which the request can be retried.
+   */
+  public static final String RETRY_AFTER = "Retry-After";
+  
+  /**
+   * Header with the number of milliseconds after which the request can be retried.
+   */
+  public static final String RETRY_AFTER_MS = "retry-after-ms";
+  
+  /**
+   * Header with the time until the requests limit is reset, like "1s" or "6m0s".
+   */
+  public static final String RESET_REQUESTS = "x-ratelimit-reset-requests";
+  
+  /**
+   * Header with the time until the tokens limit is reset, like "1s" or "6m0s".
+   */
+  public static final String RESET_TOKENS = "x-ratelimit-reset-tokens";
+  
+  /**
+   * Header with the number of requests allowed in the current window.
+   */
+  public static final String LIMIT_REQUESTS = "x-ratelimit-limit-requests";
+  
+  /**
+   * Header with the number of tokens allowed in the current window.
+   */
+  public static final String LIMIT_TOKENS = "x-ratelimit-limit-tokens";
+  
+  /**
+   * Header with the number of requests remaining in the current window.
+   */
+  public static final String REMAINING_REQUESTS = "x-ratelimit-remaining-requests";
+  
+  /**
+   * Header with the number of tokens remaining in the current window.
+   */
+  public static final String REMAINING_TOKENS = "x-ratelimit-remaining-tokens";
+  
+  /**
+   * Pattern for a component of a duration, like "6m" or "1.5s".
+   */
+  private static final Pattern DURATION_COMPONENT = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+  /**
+   * Constructor.
+   *
+   * @throws UnsupportedOperationException when invoked.
+   */
+  private RateLimitHeaders() {
+    // Private to avoid instantiations
+    throw new UnsupportedOperationException("Instantiation of this utility class is not allowed!");
+  }
+  
+  /**
+   * Get the delay requested by the server before retrying, from the "retry-after-ms", "Retry-After" 
+   * and, for 429 responses, the "x-ratelimit-reset-*" headers.
+   * 
+   * @param response The response.
+   * 
+   * @return The delay in milliseconds, or -1 when the server did not specify one.
+   */
+  public static long getRetryDelayMillis(Response response) {
+    long delay = parseLong(response.header(RETRY_AFTER_MS));
+    if (delay < 0) {
+      delay = parseRetryAfter(response.header(RETRY_AFTER));
+    }
+    if (delay < 0 && response.code() == 429) {
+      delay = Math.max(parseDuration(response.header(RESET_REQUESTS)), parseDuration(response.header(RESET_TOKENS)));
+    }
+    return delay;
+  }
+  
+  /**
+   * Get a numeric header.
+   * 
+   * @param response  The response.
+   * @param name      The name of the header.
+   * 
+   * @return The value of the header, or -1 if it is missing or not a number.
+   */
+  public static long getLongHeader(Response response, String name) {
+    return parseLong(response.header(name));
+  }
+  
+  /**
+   * Parse the value of the "Retry-After" header, which is a number of seconds or an HTTP date.
+   * 
+   * @param value The value of the header.
+   * 
+   * @return The delay in milliseconds, or -1 if the value cannot be parsed.
+   */
+  static long parseRetryAfter(String value) {
+    long delay = -1;
+    if (value != null && !value.isBlank()) {
+      String trimmed = value.trim();
+      try {
+        delay = Math.round(Double.parseDouble(trimmed) * 1000);
+      } catch (NumberFormatException e) {
+        try {
+          ZonedDateTime date = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME);
+          delay = Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException e1) {
+          // Not a valid date
+        }
+      }
+    }
+    return delay < 0 ? -1 : delay;
+  }
+  
+  /**
+   * Parse a duration like "20ms", "1.5s" or "6m0s", as sent in the "x-ratelimit-reset-*" headers.
+   * 
+   * @param value The duration.
+   * 
+   * @return The duration in milliseconds, or -1 if the value cannot be parsed.
+   */
+  static long parseDuration(String value) {
+    long duration = -1;
+    if (value != null && !value.isBlank()) {
+      Matcher matcher = DURATION_COMPONENT.matcher(value.trim());
+      double total = 0;
+      int end = 0;
+      boolean matched = false;
+      while (matcher.find() && matcher.start() == end) {
+        double amount = Double.parseDouble(matcher.group(1));
+        String unit = matcher.group(2);
+        if ("h".equals(unit)) {
+          total += amount * 3_600_000;
+        } else if ("m".equals(unit)) {
+          total += amount * 60_000;
+        } else if ("s".equals(unit)) {
+          total += amount * 1000;
+        } else {
+          total += amount;
+        }
+        end = matcher.end();
+        matched = true;
+      }
+      if (matched && end == value.trim().length()) {
+        duration = Math.round(total);
+      }
+    }
+    return duration;
+  }
+  
+  /**
+   * Parse a non-negative number.
+   * 
+   * @param value The value.
+   * 
+   * @return The number, or -1 if the value cannot be parsed.
+   */
+  private static long parseLong(String value) {
+    long number = -1;
+    if (value != null && !value.isBlank()) {
+      try {
+        number = Math.round(Double.parseDouble(value.trim()));
+      } catch (NumberFormatException e) {
+        // Not a number
+      }
+    }
+    return number < 0 ? -1 : number;
+  }
+}
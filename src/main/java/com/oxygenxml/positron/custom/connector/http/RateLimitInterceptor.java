@@ -0,0 +1,364 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.oxygenxml.positron.api.connector.dto.Pair;
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+import com.oxygenxml.positron.custom.connector.metrics.LatencyHistogram;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+
+/**
+ * OkHttp Interceptor that throttles the completion requests on the client side, 
+ * by the number of requests and the estimated number of tokens per minute.
+ * The limits are configured per model, and the limiters are shared by all the AI services with the same base URL,
+ * so the quota is not exceeded by the Oxygen instance. 
+ * The limiters are recalibrated from the "x-ratelimit-remaining-*" response headers, 
+ * so they also take account of the quota used by the other clients.
+ * A request waits for the limiters up to a maximum time, then it is sent anyway.
+ * 
+ * @author cosmin_duna
+ */
+public class RateLimitInterceptor implements Interceptor {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(RateLimitInterceptor.class.getName());
+  
+  /**
+   * The maximum time in milliseconds a request waits for the rate limiter.
+   */
+  public static final String RATE_LIMIT_MAX_WAIT = "POSITRON_CONNECTOR_RATE_LIMIT_MAX_WAIT";
+  
+  /**
+   * The key of the limits that apply to all the models without specific limits.
+   */
+  public static final String ANY_MODEL = "*";
+  
+  /**
+   * The path of the completion requests.
+   */
+  private static final String COMPLETIONS_PATH = "chat/completions";
+  
+  /**
+   * The average number of characters of a token, used to estimate the tokens of the prompt.
+   */
+  private static final int CHARS_PER_TOKEN = 4;
+  
+  /**
+   * The interval in milliseconds at which a waiting request checks if the call was cancelled.
+   */
+  private static final long CANCEL_CHECK_INTERVAL = 100;
+  
+  /**
+   * The limiters, by base URL origin, model and limits.
+   */
+  private static final Map<String, ModelLimiter> limiters = new ConcurrentHashMap<>();
+  
+  /**
+   * Parses the request bodies.
+   */
+  private static final JsonFactory jsonFactory = new JsonFactory();
+  
+  /**
+   * The origin of the base URL.
+   */
+  private final String origin;
+  
+  /**
+   * The configured limits, by model.
+   */
+  private final Map<String, long[]> limits;
+  
+  /**
+   * The maximum time in nanoseconds a request waits for the rate limiter.
+   */
+  private final long maxWaitNanos;
+  
+  /**
+   * Constructor.
+   * 
+   * @param baseUrl The base URL of the AI service.
+   * @param limits  The configured limits. The key is a model or {@value #ANY_MODEL}, 
+   *                the value is "requests per minute/tokens per minute", like "500/30000". 
+   *                A missing or empty part means no limit.
+   */
+  public RateLimitInterceptor(String baseUrl, List<Pair<String, String>> limits) {
+    this.origin = SharedHttpClients.getOrigin(baseUrl);
+    this.limits = parseLimits(limits);
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(
+        Math.max(0, PropertiesUtil.getLongProperty(RATE_LIMIT_MAX_WAIT, 30000)));
+  }
+  
+  /**
+   * Check if there are limits configured.
+   * 
+   * @param limits The configured limits.
+   * 
+   * @return <code>true</code> if at least a limit is configured.
+   */
+  public static boolean hasLimits(List<Pair<String, String>> limits) {
+    return !parseLimits(limits).isEmpty();
+  }
+
+  /**
+   * Intercept the request and wait for the rate limiter.
+   * 
+   * @param chain     The chain of interceptors
+   * @return          The response
+   * 
+   * @throws IOException If the request fails
+   */
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    ModelLimiter limiter = null;
+    if (request.body() != null && request.url().encodedPath().endsWith(COMPLETIONS_PATH)) {
+      RequestEstimation estimation = estimate(request.body());
+      long[] modelLimits = limits.getOrDefault(estimation.model, limits.get(ANY_MODEL));
+      if (modelLimits != null) {
+        String model = String.valueOf(estimation.model);
+        limiter = limiters.computeIfAbsent(
+            origin + "|" + model + "|" + modelLimits[0] + "/" + modelLimits[1],
+            k -> new ModelLimiter(model, modelLimits[0], modelLimits[1]));
+        limiter.acquire(chain, estimation.tokens, maxWaitNanos);
+      }
+    }
+    
+    Response response = chain.proceed(request);
+    if (limiter != null) {
+      limiter.recalibrate(response);
+    }
+    return response;
+  }
+  
+  /**
+   * Estimate the tokens of a completion request, as the tokens of the prompt and the maximum output tokens.
+   * 
+   * @param body The request body.
+   * 
+   * @return The estimation.
+   * 
+   * @throws IOException If the body cannot be read.
+   */
+  private static RequestEstimation estimate(RequestBody body) throws IOException {
+    Buffer buffer = new Buffer();
+    body.writeTo(buffer);
+    RequestEstimation estimation = new RequestEstimation();
+    estimation.tokens = buffer.size() / CHARS_PER_TOKEN;
+    try (JsonParser parser = jsonFactory.createParser(buffer.inputStream())) {
+      if (parser.nextToken() == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String field = parser.getCurrentName();
+          JsonToken value = parser.nextToken();
+          if ("model".equals(field) && value == JsonToken.VALUE_STRING) {
+            estimation.model = parser.getText();
+          } else if (("max_tokens".equals(field) || "max_completion_tokens".equals(field)) 
+              && value == JsonToken.VALUE_NUMBER_INT) {
+            estimation.tokens += parser.getLongValue();
+          } else {
+            parser.skipChildren();
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Cannot estimate the request tokens: " + e.getMessage());
+    }
+    return estimation;
+  }
+  
+  /**
+   * Parse the configured limits.
+   * 
+   * @param limits The configured limits.
+   * 
+   * @return The requests and tokens per minute, by model. A limit is 0 when it is missing.
+   */
+  private static Map<String, long[]> parseLimits(List<Pair<String, String>> limits) {
+    Map<String, long[]> parsed = new HashMap<>();
+    if (limits != null) {
+      for (Pair<String, String> limit : limits) {
+        String model = limit.getFirst() != null ? limit.getFirst().trim() : "";
+        String value = limit.getSecond() != null ? limit.getSecond().trim() : "";
+        String[] parts = value.split("/", -1);
+        long requests = parts.length > 0 ? parseLimit(parts[0]) : 0;
+        long tokens = parts.length > 1 ? parseLimit(parts[1]) : 0;
+        if (!model.isEmpty() && (requests > 0 || tokens > 0)) {
+          parsed.put(model, new long[] {requests, tokens});
+        } else if (!model.isEmpty() || !value.isEmpty()) {
+          LOGGER.warn("Invalid rate limit for model {}: {}", model, value);
+        }
+      }
+    }
+    return parsed;
+  }
+  
+  /**
+   * Parse a limit.
+   * 
+   * @param limit The limit.
+   * 
+   * @return The limit, or 0 if it is missing or invalid.
+   */
+  private static long parseLimit(String limit) {
+    long parsed = 0;
+    if (!limit.isBlank()) {
+      try {
+        parsed = Math.max(0, Long.parseLong(limit.trim()));
+      } catch (NumberFormatException e) {
+        LOGGER.debug("Invalid rate limit: " + limit);
+      }
+    }
+    return parsed;
+  }
+  
+  /**
+   * The estimation of a completion request.
+   */
+  private static class RequestEstimation {
+    /**
+     * The model.
+     */
+    String model;
+    /**
+     * The estimated number of tokens.
+     */
+    long tokens;
+  }
+  
+  /**
+   * The requests and tokens limiters of a model.
+   */
+  private static class ModelLimiter {
+    /**
+     * The requests per minute limiter, or <code>null</code>.
+     */
+    private final TokenBucket requests;
+    /**
+     * The tokens per minute limiter, or <code>null</code>.
+     */
+    private final TokenBucket tokens;
+    /**
+     * The time spent waiting for the limiter, in milliseconds.
+     */
+    private final LatencyHistogram waitTime;
+    
+    /**
+     * Constructor.
+     * 
+     * @param model             The model.
+     * @param requestsPerMinute The requests per minute, or 0 for no limit.
+     * @param tokensPerMinute   The tokens per minute, or 0 for no limit.
+     */
+    ModelLimiter(String model, long requestsPerMinute, long tokensPerMinute) {
+      this.requests = requestsPerMinute > 0 ? new TokenBucket(requestsPerMinute) : null;
+      this.tokens = tokensPerMinute > 0 ? new TokenBucket(tokensPerMinute) : null;
+      this.waitTime = ConnectorMetrics.getHistogram("ratelimit.wait.millis", "model", model);
+    }
+    
+    /**
+     * Wait until the request can be sent.
+     * 
+     * @param chain         The chain of interceptors.
+     * @param tokenCount    The estimated tokens of the request.
+     * @param maxWaitNanos  The maximum time to wait.
+     * 
+     * @throws IOException If the call was cancelled or the thread interrupted.
+     */
+    void acquire(Chain chain, long tokenCount, long maxWaitNanos) throws IOException {
+      long requestsWait = requests != null ? requests.reserve(1, maxWaitNanos) : 0;
+      long tokensWait = tokens != null ? tokens.reserve(tokenCount, maxWaitNanos) : 0;
+      long wait = Math.max(requestsWait, tokensWait);
+      if (requestsWait < 0 || tokensWait < 0) {
+        LOGGER.debug("The rate limit wait would exceed {} ms, sending the request", 
+            TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+        ConnectorMetrics.getCounter("ratelimit.wait.exceeded").increment();
+        // The request still uses the quota, so it is taken from the limiters that did not reserve it.
+        if (requestsWait < 0) {
+          requests.consume(1);
+        }
+        if (tokensWait < 0) {
+          tokens.consume(tokenCount);
+        }
+        wait = 0;
+      } else if (wait > 0) {
+        ConnectorMetrics.getCounter("ratelimit.throttled").increment();
+      }
+      waitTime.record(TimeUnit.NANOSECONDS.toMillis(wait));
+      sleep(chain, wait);
+    }
+    
+    /**
+     * Recalibrate the limiters from the response headers.
+     * 
+     * @param response The response.
+     */
+    void recalibrate(Response response) {
+      long remainingRequests = RateLimitHeaders.getLongHeader(response, RateLimitHeaders.REMAINING_REQUESTS);
+      if (requests != null && remainingRequests >= 0) {
+        requests.recalibrate(remainingRequests);
+      }
+      long remainingTokens = RateLimitHeaders.getLongHeader(response, RateLimitHeaders.REMAINING_TOKENS);
+      if (tokens != null && remainingTokens >= 0) {
+        tokens.recalibrate(remainingTokens);
+      }
+    }
+    
+    /**
+     * Wait, stopping earlier if the call is cancelled.
+     * 
+     * @param chain     The chain of interceptors.
+     * @param waitNanos The time to wait in nanoseconds.
+     * 
+     * @throws IOException If the call was cancelled or the thread interrupted.
+     */
+    private static void sleep(Chain chain, long waitNanos) throws IOException {
+      long deadline = System.nanoTime() + waitNanos;
+      try {
+        long remaining = waitNanos;
+        while (remaining > 0) {
+          if (chain.call().isCanceled()) {
+            throw new IOException("Canceled");
+          }
+          TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(CANCEL_CHECK_INTERVAL)));
+          remaining = deadline - System.nanoTime();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      }
+    }
+  }
+}
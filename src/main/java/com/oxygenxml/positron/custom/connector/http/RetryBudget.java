@@ -0,0 +1,72 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+/**
+ * Limits the retries, or the hedge requests, to a ratio of the requests. 
+ * Each request deposits a fraction of a retry in the budget and each retry withdraws a whole one.
+ * 
+ * @author cosmin_duna
+ */
+public class RetryBudget {
+  
+  /**
+   * The fraction of a retry deposited by each request.
+   */
+  private final double ratio;
+  
+  /**
+   * The maximum number of retries that can be accumulated.
+   */
+  private final double capacity;
+  
+  /**
+   * The number of retries currently available.
+   */
+  private double available;
+  
+  /**
+   * Constructor.
+   * 
+   * @param ratio       The fraction of the requests that can be retried.
+   * @param minRetries  The number of retries available from start, which is also 
+   *                    the maximum number of retries that can be accumulated.
+   */
+  public RetryBudget(double ratio, int minRetries) {
+    this.ratio = ratio;
+    this.capacity = Math.max(minRetries, 1);
+    this.available = minRetries;
+  }
+  
+  /**
+   * Called for every new request.
+   */
+  public synchronized void onRequest() {
+    available = Math.min(capacity, available + ratio);
+  }
+  
+  /**
+   * Try to withdraw a retry from the budget.
+   * 
+   * @return <code>true</code> if a retry is allowed.
+   */
+  public synchronized boolean tryAcquire() {
+    boolean acquired = available >= 1;
+    if (acquired) {
+      available -= 1;
+    }
+    return acquired;
+  }
+}
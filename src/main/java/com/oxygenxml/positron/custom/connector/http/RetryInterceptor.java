@@ -0,0 +1,259 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * OkHttp Interceptor that retries the requests failed with a transient error (throttling, server overload or 
+ * connection failure). 
+ * The delay between attempts grows exponentially, with full jitter, unless the server specifies it in the 
+ * "Retry-After" or "x-ratelimit-reset-*" headers.
+ * The retries are limited by a budget that grows with the number of requests, so they cannot amplify an outage.
+ * The budget is shared by all the AI services with the same base URL origin, as they share the outage too.
+ * For streamed responses, a request is retried only before its body is read.
+ * 
+ * @author cosmin_duna
+ */
+public class RetryInterceptor implements Interceptor {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(RetryInterceptor.class.getName());
+  
+  /**
+   * The maximum number of retries for a request. 0 disables the retries.
+   */
+  public static final String MAX_RETRIES = "POSITRON_CONNECTOR_MAX_RETRIES";
+  
+  /**
+   * The base delay in milliseconds of the exponential backoff.
+   */
+  public static final String RETRY_BASE_DELAY = "POSITRON_CONNECTOR_RETRY_BASE_DELAY";
+  
+  /**
+   * The maximum delay in milliseconds before a retry. 
+   * When the server asks for a longer delay, the request is not retried.
+   */
+  public static final String RETRY_MAX_DELAY = "POSITRON_CONNECTOR_RETRY_MAX_DELAY";
+  
+  /**
+   * The percent of the requests that can be retried, over the minimum number of retries allowed at any time.
+   */
+  public static final String RETRY_BUDGET_PERCENT = "POSITRON_CONNECTOR_RETRY_BUDGET_PERCENT";
+  
+  /**
+   * The interval in milliseconds at which a waiting retry checks if the call was cancelled.
+   */
+  private static final long CANCEL_CHECK_INTERVAL = 100;
+  
+  /**
+   * The error code of a 429 response that will not be solved by waiting.
+   */
+  private static final String INSUFFICIENT_QUOTA = "insufficient_quota";
+  
+  /**
+   * The number of retries available from start in a budget.
+   */
+  private static final int MIN_RETRIES = 10;
+  
+  /**
+   * The retry budgets, by base URL origin.
+   */
+  private static final Map<String, RetryBudget> budgets = new ConcurrentHashMap<>();
+  
+  /**
+   * The maximum number of retries for a request.
+   */
+  private final int maxRetries;
+  
+  /**
+   * The base delay in milliseconds of the exponential backoff.
+   */
+  private final long baseDelay;
+  
+  /**
+   * The maximum delay in milliseconds before a retry.
+   */
+  private final long maxDelay;
+  
+  /**
+   * Limits the number of retries.
+   */
+  private final RetryBudget budget;
+  
+  /**
+   * Constructor, reading the configuration from the environment variables or system properties.
+   * 
+   * @param baseUrl The base URL of the AI service, whose origin selects the shared retry budget.
+   */
+  public RetryInterceptor(String baseUrl) {
+    this(
+        Math.max(0, PropertiesUtil.getIntProperty(MAX_RETRIES, 2)),
+        Math.max(1, PropertiesUtil.getLongProperty(RETRY_BASE_DELAY, 500)),
+        Math.max(1, PropertiesUtil.getLongProperty(RETRY_MAX_DELAY, 30000)),
+        budgets.computeIfAbsent(SharedHttpClients.getOrigin(baseUrl), origin -> new RetryBudget(
+            Math.max(0, PropertiesUtil.getIntProperty(RETRY_BUDGET_PERCENT, 20)) / 100.0, MIN_RETRIES)));
+  }
+  
+  /**
+   * Constructor.
+   * 
+   * @param maxRetries  The maximum number of retries for a request.
+   * @param baseDelay   The base delay in milliseconds of the exponential backoff.
+   * @param maxDelay    The maximum delay in milliseconds before a retry.
+   * @param budget      Limits the number of retries.
+   */
+  public RetryInterceptor(int maxRetries, long baseDelay, long maxDelay, RetryBudget budget) {
+    this.maxRetries = maxRetries;
+    this.baseDelay = baseDelay;
+    this.maxDelay = maxDelay;
+    this.budget = budget;
+  }
+
+  /**
+   * @return The budget limiting the number of retries.
+   */
+  RetryBudget getBudget() {
+    return budget;
+  }
+
+  /**
+   * Intercept the request and retry it on transient failures.
+   * 
+   * @param chain     The chain of interceptors
+   * @return          The response
+   * 
+   * @throws IOException If the request fails
+   */
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    budget.onRequest();
+    int attempt = 0;
+    while (true) {
+      Response response = null;
+      IOException failure = null;
+      try {
+        response = chain.proceed(chain.request());
+      } catch (ConnectException e) {
+        failure = e;
+      }
+      
+      long delay = -1;
+      if (attempt < maxRetries && !chain.call().isCanceled()) {
+        if (failure != null) {
+          delay = getBackoffDelay(attempt);
+        } else if (isRetryable(response)) {
+          long serverDelay = RateLimitHeaders.getRetryDelayMillis(response);
+          delay = serverDelay >= 0 ? serverDelay : getBackoffDelay(attempt);
+        }
+      }
+      
+      boolean shouldRetry = delay >= 0 && delay <= maxDelay && budget.tryAcquire();
+      if (!shouldRetry) {
+        if (delay >= 0 && delay <= maxDelay) {
+          ConnectorMetrics.getCounter("http.retry.budget.exhausted").increment();
+        }
+        if (failure != null) {
+          throw failure;
+        }
+        return response;
+      }
+      
+      attempt++;
+      ConnectorMetrics.getCounter("http.retry.attempts").increment();
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Retrying {} in {} ms, attempt {}; cause: {}", chain.request().url(), delay, attempt,
+            failure != null ? failure.getMessage() : String.valueOf(response.code()));
+      }
+      if (response != null) {
+        response.close();
+      }
+      sleep(chain, delay);
+    }
+  }
+  
+  /**
+   * Check if a response has a transient error.
+   * 
+   * @param response The response.
+   * 
+   * @return <code>true</code> if the request should be retried.
+   */
+  private static boolean isRetryable(Response response) throws IOException {
+    int code = response.code();
+    boolean isRetryable = code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    if (code == 429) {
+      // An exhausted quota is reported with 429 too, but it is not transient.
+      isRetryable = !response.peekBody(4096).string().contains(INSUFFICIENT_QUOTA);
+    }
+    return isRetryable;
+  }
+  
+  /**
+   * Compute the exponential backoff delay with full jitter.
+   * 
+   * @param attempt The number of the previous attempts, starting from 0.
+   * 
+   * @return The delay in milliseconds.
+   */
+  long getBackoffDelay(int attempt) {
+    long ceiling = Math.min(maxDelay, baseDelay << Math.min(attempt, 20));
+    return ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+  
+  /**
+   * Wait before retrying, stopping earlier if the call is cancelled.
+   * 
+   * @param chain The chain of interceptors.
+   * @param delay The delay in milliseconds.
+   * 
+   * @throws IOException If the call was cancelled or the thread interrupted.
+   */
+  private static void sleep(Chain chain, long delay) throws IOException {
+    long deadline = System.currentTimeMillis() + delay;
+    try {
+      long remaining = delay;
+      while (remaining > 0) {
+        if (chain.call().isCanceled()) {
+          throw new IOException("Canceled");
+        }
+        Thread.sleep(Math.min(remaining, CANCEL_CHECK_INTERVAL));
+        remaining = deadline - System.currentTimeMillis();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    }
+    if (chain.call().isCanceled()) {
+      throw new IOException("Canceled");
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+import java.net.Proxy;
+import java.net.URI;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.oxygenxml.positron.api.connector.ProxyProvider;
+import com.oxygenxml.positron.custom.connector.AiServiceUtil;
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * Process-wide registry of HTTP clients. 
+ * All the clients share the same connection pool, dispatcher and TLS configuration, 
+ * so the connections to an AI service are reused by all the AI services created by the connector.
+ * The AI services derive their own clients with {@link OkHttpClient#newBuilder()}.
+ * 
+ * @author cosmin_duna
+ */
+public class SharedHttpClients {
+  
+  /**
+   * The maximum number of idle connections kept in the pool.
+   */
+  public static final String MAX_IDLE_CONNECTIONS = "POSITRON_CONNECTOR_MAX_IDLE_CONNECTIONS";
+  
+  /**
+   * The time in milliseconds an idle connection is kept in the pool.
+   */
+  public static final String KEEP_ALIVE = "POSITRON_CONNECTOR_KEEP_ALIVE";
+  
+  /**
+   * The maximum number of concurrent asynchronous requests to the same host.
+   */
+  public static final String MAX_REQUESTS_PER_HOST = "POSITRON_CONNECTOR_MAX_REQUESTS_PER_HOST";
+  
+  /**
+   * The clients, by base URL origin and proxy.
+   */
+  private static final Map<String, OkHttpClient> clients = new ConcurrentHashMap<>();
+  
+  static {
+    ConnectorMetrics.registerGauge("http.pool.connections", () -> RootClientHolder.ROOT.connectionPool().connectionCount());
+    ConnectorMetrics.registerGauge("http.pool.idle", () -> RootClientHolder.ROOT.connectionPool().idleConnectionCount());
+    ConnectorMetrics.registerGauge("http.dispatcher.running", () -> RootClientHolder.ROOT.dispatcher().runningCallsCount());
+    ConnectorMetrics.registerGauge("http.dispatcher.queued", () -> RootClientHolder.ROOT.dispatcher().queuedCallsCount());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @throws UnsupportedOperationException when invoked.
+   */
+  private SharedHttpClients() {
+    // Private to avoid instantiations
+    throw new UnsupportedOperationException("Instantiation of this utility class is not allowed!");
+  }
+  
+  /**
+   * Holder of the client from which all the other clients are derived, created on first use.
+   */
+  private static class RootClientHolder {
+    /**
+     * The root client.
+     */
+    static final OkHttpClient ROOT = createRootClient();
+  }
+  
+  /**
+   * Get the shared client for accessing the given base URL.
+   * 
+   * @param baseUrl       The base URL of the AI service.
+   * @param proxyProvider The proxy provider.
+   * 
+   * @return The shared client, configured with the proxy for the base URL.
+   */
+  public static OkHttpClient getClient(String baseUrl, ProxyProvider proxyProvider) {
+    Proxy proxy = AiServiceUtil.getProxy(baseUrl, proxyProvider);
+    String key = getOrigin(baseUrl) + "|" + proxy;
+    return clients.computeIfAbsent(key, k -> {
+      OkHttpClient.Builder builder = RootClientHolder.ROOT.newBuilder();
+      if (proxy != null) {
+        builder.proxy(proxy);
+      }
+      return builder.build();
+    });
+  }
+  
+  /**
+   * Close the idle connections of the shared pool.
+   */
+  public static void evictIdleConnections() {
+    RootClientHolder.ROOT.connectionPool().evictAll();
+  }
+  
+  /**
+   * Create the client from which all the other clients are derived.
+   * 
+   * @return The root client.
+   */
+  private static OkHttpClient createRootClient() {
+    ConnectionPool connectionPool = new ConnectionPool(
+        Math.max(1, PropertiesUtil.getIntProperty(MAX_IDLE_CONNECTIONS, 5)),
+        Math.max(1, PropertiesUtil.getLongProperty(KEEP_ALIVE, TimeUnit.MINUTES.toMillis(5))),
+        TimeUnit.MILLISECONDS);
+    Dispatcher dispatcher = new Dispatcher();
+    // The streamed completions are long-lived calls, so allow more of them to the same AI service.
+    dispatcher.setMaxRequestsPerHost(Math.max(1, PropertiesUtil.getIntProperty(MAX_REQUESTS_PER_HOST, 16)));
+    return new OkHttpClient.Builder()
+        .connectionPool(connectionPool)
+        .dispatcher(dispatcher)
+        .build();
+  }
+  
+  /**
+   * Get the origin of an URL, as scheme, host and port.
+   * 
+   * @param url The URL.
+   * 
+   * @return The origin, or the URL itself if it cannot be parsed.
+   */
+  public static String getOrigin(String url) {
+    String origin = url;
+    try {
+      URI uri = URI.create(url.trim());
+      if (uri.getScheme() != null && uri.getHost() != null) {
+        origin = uri.getScheme().toLowerCase(Locale.ROOT) + "://" + uri.getHost().toLowerCase(Locale.ROOT) 
+            + (uri.getPort() != -1 ? ":" + uri.getPort() : "");
+      }
+    } catch (IllegalArgumentException e) {
+      // Use the URL as it is
+    }
+    return origin;
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.http;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket refilled continuously with a number of permits per minute.
+ * The permits are reserved ahead, so the callers are served in the order they asked and each one 
+ * only has to wait for the time returned by {@link #reserve(long, long)}.
+ * 
+ * @author cosmin_duna
+ */
+public class TokenBucket {
+  
+  /**
+   * The number of nanoseconds in a minute.
+   */
+  private static final double NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+  
+  /**
+   * The maximum number of permits, which is also the number of permits added per minute.
+   */
+  private final long capacity;
+  
+  /**
+   * The number of available permits. It is negative when permits were reserved ahead.
+   */
+  private double available;
+  
+  /**
+   * The last time the bucket was refilled, in nanoseconds.
+   */
+  private long lastRefill;
+  
+  /**
+   * Constructor. The bucket starts full.
+   * 
+   * @param permitsPerMinute The number of permits added per minute.
+   */
+  public TokenBucket(long permitsPerMinute) {
+    this.capacity = Math.max(1, permitsPerMinute);
+    this.available = capacity;
+    this.lastRefill = System.nanoTime();
+  }
+  
+  /**
+   * Reserve permits.
+   * 
+   * @param permits     The number of permits. It is limited to the capacity of the bucket.
+   * @param maxWaitNanos The maximum time the caller accepts to wait.
+   * 
+   * @return The time in nanoseconds the caller must wait before using the permits, 
+   *         or -1 if the permits would not be available in the accepted time, in which case nothing is reserved.
+   */
+  public synchronized long reserve(long permits, long maxWaitNanos) {
+    refill();
+    double needed = Math.min(permits, capacity);
+    long wait = 0;
+    if (available < needed) {
+      wait = (long) Math.ceil((needed - available) * NANOS_PER_MINUTE / capacity);
+    }
+    if (wait <= maxWaitNanos) {
+      available -= needed;
+    } else {
+      wait = -1;
+    }
+    return wait;
+  }
+  
+  /**
+   * Take permits without waiting, for a request that is sent even if the permits are not available.
+   * The debt is limited to the permits of a minute, so the bucket recovers after the burst.
+   * 
+   * @param permits The number of permits. It is limited to the capacity of the bucket.
+   */
+  public synchronized void consume(long permits) {
+    refill();
+    available = Math.max(-capacity, available - Math.min(permits, capacity));
+  }
+  
+  /**
+   * Align the bucket with the number of permits the server reports as remaining, 
+   * as the quota may be shared with other clients.
+   * 
+   * @param remaining The number of remaining permits reported by the server.
+   */
+  public synchronized void recalibrate(long remaining) {
+    refill();
+    if (remaining < available) {
+      available = remaining;
+    }
+  }
+  
+  /**
+   * @return The number of available permits.
+   */
+  public synchronized long getAvailable() {
+    refill();
+    return (long) available;
+  }
+  
+  /**
+   * Add the permits accumulated since the last refill.
+   */
+  private void refill() {
+    long now = System.nanoTime();
+    available = Math.min(capacity, available + (now - lastRefill) * capacity / NANOS_PER_MINUTE);
+    lastRefill = now;
+  }
+}
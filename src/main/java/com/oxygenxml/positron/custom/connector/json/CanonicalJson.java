@@ -0,0 +1,160 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Utility methods for hashing JSON content in a canonical form, with the object properties sorted by name,
+ * so equal requests have equal hashes no matter the order of their properties.
+ * 
+ * @author cosmin_duna
+ */
+public class CanonicalJson {
+  
+  /**
+   * Factory for the generators writing the canonical form. Has a codec, so it can write the value nodes.
+   */
+  private static final JsonFactory jsonFactory = new MappingJsonFactory();
+
+  /**
+   * Constructor.
+   *
+   * @throws UnsupportedOperationException when invoked.
+   */
+  private CanonicalJson() {
+    // Private to avoid instantiations
+    throw new UnsupportedOperationException("Instantiation of this utility class is not allowed!");
+  }
+  
+  /**
+   * Compute the SHA-256 hash of the canonical JSON form of an object.
+   * 
+   * @param mapper  The mapper used to serialize the object.
+   * @param value   The object.
+   * 
+   * @return The hash, as hexadecimal string.
+   */
+  public static String sha256(ObjectMapper mapper, Object value) {
+    return sha256(mapper.valueToTree(value));
+  }
+  
+  /**
+   * Compute the SHA-256 hash of the canonical form of a JSON tree.
+   * 
+   * @param node The JSON tree.
+   * 
+   * @return The hash, as hexadecimal string.
+   */
+  public static String sha256(JsonNode node) {
+    MessageDigest digest = newDigest();
+    try (DigestOutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest);
+        JsonGenerator generator = jsonFactory.createGenerator(out)) {
+      writeCanonical(generator, node);
+    } catch (IOException e) {
+      // Not expected when writing to memory
+      throw new IllegalStateException(e);
+    }
+    return toHex(digest.digest());
+  }
+  
+  /**
+   * Compute the SHA-256 hash of a text.
+   * 
+   * @param text The text.
+   * 
+   * @return The hash, as hexadecimal string.
+   */
+  public static String sha256(String text) {
+    return toHex(newDigest().digest(String.valueOf(text).getBytes(StandardCharsets.UTF_8)));
+  }
+  
+  /**
+   * Write a JSON tree with the object properties sorted by name.
+   * 
+   * @param generator The generator.
+   * @param node      The JSON tree.
+   * 
+   * @throws IOException If the writing fails.
+   */
+  private static void writeCanonical(JsonGenerator generator, JsonNode node) throws IOException {
+    if (node == null) {
+      generator.writeNull();
+    } else if (node.isObject()) {
+      List<String> names = new ArrayList<>(node.size());
+      Iterator<String> fieldNames = node.fieldNames();
+      while (fieldNames.hasNext()) {
+        names.add(fieldNames.next());
+      }
+      Collections.sort(names);
+      generator.writeStartObject();
+      for (String name : names) {
+        generator.writeFieldName(name);
+        writeCanonical(generator, node.get(name));
+      }
+      generator.writeEndObject();
+    } else if (node.isArray()) {
+      generator.writeStartArray();
+      for (JsonNode element : node) {
+        writeCanonical(generator, element);
+      }
+      generator.writeEndArray();
+    } else {
+      generator.writeTree(node);
+    }
+  }
+  
+  /**
+   * @return A new SHA-256 message digest.
+   */
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM provides SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+  
+  /**
+   * Convert bytes to a hexadecimal string.
+   * 
+   * @param bytes The bytes.
+   * 
+   * @return The hexadecimal string.
+   */
+  private static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+}
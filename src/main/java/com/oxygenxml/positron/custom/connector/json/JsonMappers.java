@@ -0,0 +1,175 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.json;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.oxygenxml.positron.api.connector.dto.CompletionChunk;
+import com.oxygenxml.positron.api.connector.dto.CompletionResponse;
+import com.oxygenxml.positron.custom.connector.AIError;
+import com.oxygenxml.positron.custom.connector.ModerationResult;
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+
+/**
+ * Registry of the JSON mapper, readers and writers shared by the connector. 
+ * The mapper is configured once, when this class is loaded, and must not be reconfigured afterwards: 
+ * the readers and writers derived from it are immutable and can be used concurrently.
+ * <br>
+ * When the Jackson Blackbird module is available in the class path, it is registered 
+ * to generate the (de)serializers of the data objects, instead of using reflection.
+ * 
+ * @author cosmin_duna
+ */
+public class JsonMappers {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(JsonMappers.class.getName());
+  
+  /**
+   * Set to <code>false</code> to not use the Jackson Blackbird module, even if it is available.
+   */
+  public static final String JSON_BLACKBIRD = "POSITRON_CONNECTOR_JSON_BLACKBIRD";
+  
+  /**
+   * The class of the Jackson Blackbird module.
+   */
+  private static final String BLACKBIRD_MODULE = "com.fasterxml.jackson.module.blackbird.BlackbirdModule";
+  
+  /**
+   * The shared mapper.
+   */
+  private static final ObjectMapper mapper = createMapper();
+  
+  /**
+   * Reader of the JSON trees, like the token responses.
+   */
+  public static final ObjectReader TREE_READER = mapper.readerFor(JsonNode.class);
+  
+  /**
+   * Reader of the streamed completion chunks.
+   */
+  public static final ObjectReader COMPLETION_CHUNK_READER = mapper.readerFor(CompletionChunk.class);
+  
+  /**
+   * Reader of the completion responses.
+   */
+  public static final ObjectReader COMPLETION_RESPONSE_READER = mapper.readerFor(CompletionResponse.class);
+  
+  /**
+   * Reader of the moderation results.
+   */
+  public static final ObjectReader MODERATION_RESULT_READER = mapper.readerFor(ModerationResult.class);
+  
+  /**
+   * Reader of the error responses.
+   */
+  public static final ObjectReader AI_ERROR_READER = mapper.readerFor(AIError.class);
+  
+  /**
+   * The shared writer.
+   */
+  public static final ObjectWriter WRITER = mapper.writer();
+  
+  /**
+   * The readers, by type.
+   */
+  private static final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+  
+  static {
+    readers.put(JsonNode.class, TREE_READER);
+    readers.put(CompletionChunk.class, COMPLETION_CHUNK_READER);
+    readers.put(CompletionResponse.class, COMPLETION_RESPONSE_READER);
+    readers.put(ModerationResult.class, MODERATION_RESULT_READER);
+    readers.put(AIError.class, AI_ERROR_READER);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @throws UnsupportedOperationException when invoked.
+   */
+  private JsonMappers() {
+    // Private to avoid instantiations
+    throw new UnsupportedOperationException("Instantiation of this utility class is not allowed!");
+  }
+  
+  /**
+   * Get the shared mapper, for the conversions between objects and trees and for the API converters.
+   * It must not be reconfigured.
+   * 
+   * @return The shared mapper.
+   */
+  public static ObjectMapper getMapper() {
+    return mapper;
+  }
+  
+  /**
+   * Get the reader of a type, created once.
+   * 
+   * @param type The type.
+   * 
+   * @return The reader.
+   */
+  public static ObjectReader getReader(Class<?> type) {
+    return readers.computeIfAbsent(type, mapper::readerFor);
+  }
+  
+  /**
+   * Create the shared mapper. The unknown properties are ignored and the null properties are not written.
+   * 
+   * @return The mapper.
+   */
+  private static ObjectMapper createMapper() {
+    ObjectMapper objectMapper = new ObjectMapper();
+    objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+    objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    if (PropertiesUtil.getBooleanProperty(JSON_BLACKBIRD, true)) {
+      registerBlackbird(objectMapper);
+    }
+    return objectMapper;
+  }
+  
+  /**
+   * Register the Jackson Blackbird module, if it is available in the class path.
+   * 
+   * @param objectMapper The mapper.
+   */
+  private static void registerBlackbird(ObjectMapper objectMapper) {
+    try {
+      Module module = (Module) Class.forName(BLACKBIRD_MODULE).getDeclaredConstructor().newInstance();
+      objectMapper.registerModule(module);
+      LOGGER.debug("Registered the Jackson Blackbird module");
+    } catch (ClassNotFoundException e) {
+      // Optional, not available
+    } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+      LOGGER.debug("Cannot register the Jackson Blackbird module: " + e.getMessage(), e);
+    }
+  }
+}
@@ -18,8 +18,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.oxygenxml.positron.custom.connector.json.JsonMappers;
 
 /**
  * Utility class for logging
@@ -46,11 +46,10 @@ public class LoggerUtil {
    * @return The filtered request body
    */
   public static String filterMessagesFromRequestBody(String requestBody) {
-    ObjectMapper objectMapper = new ObjectMapper();
     try {
-      JsonNode root = objectMapper.readTree(requestBody);
+      JsonNode root = JsonMappers.TREE_READER.readTree(requestBody);
       filterSensitiveFields(root);
-      return objectMapper.writeValueAsString(root);
+      return JsonMappers.WRITER.writeValueAsString(root);
     } catch (Exception e) {
       // If not valid JSON, fallback to old regex (or just return original)
       return requestBody;
@@ -0,0 +1,156 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Connector-wide registry of metrics.
+ * 
+ * @author cosmin_duna
+ */
+public class ConnectorMetrics {
+  
+  /**
+   * The registered gauges, by name.
+   */
+  private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+  
+  /**
+   * The counters, by name.
+   */
+  private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+  
+  /**
+   * The histograms, by name and tags.
+   */
+  private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @throws UnsupportedOperationException when invoked.
+   */
+  private ConnectorMetrics() {
+    // Private to avoid instantiations
+    throw new UnsupportedOperationException("Instantiation of this utility class is not allowed!");
+  }
+  
+  /**
+   * Register a gauge. A gauge registered with the same name is replaced.
+   * 
+   * @param name     The name of the gauge.
+   * @param supplier Supplies the current value of the gauge.
+   */
+  public static void registerGauge(String name, LongSupplier supplier) {
+    gauges.put(name, supplier);
+  }
+  
+  /**
+   * Register a tagged gauge, replacing the previous one with the same name and tags.
+   * 
+   * @param name     The name of the gauge.
+   * @param supplier Supplies the current value of the gauge.
+   * @param tags     The tags of the gauge, as alternating names and values.
+   */
+  public static void registerGauge(String name, LongSupplier supplier, String... tags) {
+    gauges.put(toKey(name, tags), supplier);
+  }
+  
+  /**
+   * @return A snapshot with the current values of all the gauges, sorted by name.
+   */
+  public static Map<String, Long> getGaugeValues() {
+    Map<String, Long> values = new TreeMap<>();
+    gauges.forEach((name, supplier) -> values.put(name, supplier.getAsLong()));
+    return values;
+  }
+  
+  /**
+   * Get a counter, creating it if needed.
+   * 
+   * @param name The name of the counter.
+   * 
+   * @return The counter.
+   */
+  public static LongAdder getCounter(String name) {
+    return counters.computeIfAbsent(name, k -> new LongAdder());
+  }
+  
+  /**
+   * @return A snapshot with the current values of all the counters, sorted by name.
+   */
+  public static Map<String, Long> getCounterValues() {
+    Map<String, Long> values = new TreeMap<>();
+    counters.forEach((name, counter) -> values.put(name, counter.sum()));
+    return values;
+  }
+  
+  /**
+   * Get a histogram, creating it if needed.
+   * 
+   * @param name The name of the histogram.
+   * @param tags The tags of the histogram, as alternating names and values.
+   * 
+   * @return The histogram.
+   */
+  public static LatencyHistogram getHistogram(String name, String... tags) {
+    return histograms.computeIfAbsent(toKey(name, tags), k -> new LatencyHistogram());
+  }
+  
+  /**
+   * @return Snapshots of all the histograms, sorted by name and tags.
+   */
+  public static Map<String, LatencyHistogram.Snapshot> getHistogramSnapshots() {
+    Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+    histograms.forEach((key, histogram) -> snapshots.put(key, histogram.getSnapshot()));
+    return snapshots;
+  }
+  
+  /**
+   * Reset all the counters and histograms. The gauges reflect the current state, so they are not affected.
+   */
+  public static void reset() {
+    counters.values().forEach(LongAdder::reset);
+    histograms.values().forEach(LatencyHistogram::reset);
+  }
+  
+  /**
+   * Build the key of a metric from its name and tags, like <code>name{tag1=value1,tag2=value2}</code>.
+   * 
+   * @param name The name of the metric.
+   * @param tags The tags, as alternating names and values.
+   * 
+   * @return The key of the metric.
+   */
+  private static String toKey(String name, String... tags) {
+    String key = name;
+    if (tags.length > 0) {
+      StringBuilder sb = new StringBuilder(name).append('{');
+      for (int i = 0; i + 1 < tags.length; i += 2) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        sb.append(tags[i]).append('=').append(tags[i + 1]);
+      }
+      key = sb.append('}').toString();
+    }
+    return key;
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values. 
+ * The values are counted in logarithmic buckets, each power of two being split in 
+ * {@value #SUB_BUCKETS} linear sub-buckets, so the reported percentiles have a relative error below 12.5%.
+ * 
+ * @author cosmin_duna
+ */
+public class LatencyHistogram {
+  
+  /**
+   * The number of sub-buckets for a power of two.
+   */
+  private static final int SUB_BUCKETS = 8;
+  
+  /**
+   * The number of bits needed for the sub-bucket index.
+   */
+  private static final int SUB_BUCKET_BITS = 3;
+  
+  /**
+   * The counts for each bucket.
+   */
+  private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+  
+  /**
+   * The number of recorded values.
+   */
+  private final LongAdder count = new LongAdder();
+  
+  /**
+   * The sum of the recorded values.
+   */
+  private final LongAdder sum = new LongAdder();
+  
+  /**
+   * The maximum recorded value.
+   */
+  private final AtomicLong max = new AtomicLong();
+  
+  /**
+   * Record a value. Negative values are recorded as 0.
+   * 
+   * @param value The value to record.
+   */
+  public void record(long value) {
+    long v = Math.max(0, value);
+    buckets.incrementAndGet(bucketIndex(v));
+    count.increment();
+    sum.add(v);
+    max.accumulateAndGet(v, Math::max);
+  }
+  
+  /**
+   * Reset the histogram.
+   */
+  public void reset() {
+    for (int i = 0; i < buckets.length(); i++) {
+      buckets.set(i, 0);
+    }
+    count.reset();
+    sum.reset();
+    max.set(0);
+  }
+  
+  /**
+   * @return The number of recorded values.
+   */
+  public long getCount() {
+    return count.sum();
+  }
+  
+  /**
+   * Get an estimation of the value at the given percentile.
+   * 
+   * @param percentile The percentile, between 0 and 100.
+   * 
+   * @return The estimated value, or 0 if nothing was recorded.
+   */
+  public long getPercentile(double percentile) {
+    long[] counts = new long[buckets.length()];
+    long total = 0;
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    
+    long value = 0;
+    if (total > 0) {
+      long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          value = Math.min(bucketUpperBound(i), max.get());
+          break;
+        }
+      }
+    }
+    return value;
+  }
+  
+  /**
+   * @return A snapshot of the histogram.
+   */
+  public Snapshot getSnapshot() {
+    long currentCount = count.sum();
+    return new Snapshot(
+        currentCount,
+        currentCount > 0 ? sum.sum() / currentCount : 0,
+        getPercentile(50),
+        getPercentile(90),
+        getPercentile(95),
+        getPercentile(99),
+        max.get());
+  }
+  
+  /**
+   * Compute the bucket of a value.
+   * 
+   * @param value The value.
+   * 
+   * @return The index of the bucket.
+   */
+  static int bucketIndex(long value) {
+    int index;
+    if (value < SUB_BUCKETS) {
+      index = (int) value;
+    } else {
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+      index = (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+    return index;
+  }
+  
+  /**
+   * Compute the largest value counted in a bucket.
+   * 
+   * @param index The index of the bucket.
+   * 
+   * @return The upper bound of the bucket.
+   */
+  static long bucketUpperBound(int index) {
+    long upperBound;
+    if (index < SUB_BUCKETS) {
+      upperBound = index;
+    } else {
+      int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      long subBucket = index % SUB_BUCKETS;
+      int shift = exponent - SUB_BUCKET_BITS;
+      long lowerBound = (1L << exponent) | (subBucket << shift);
+      upperBound = lowerBound + (1L << shift) - 1;
+    }
+    return upperBound;
+  }
+  
+  /**
+   * Snapshot of a histogram.
+   */
+  public static class Snapshot {
+    /**
+     * The number of recorded values.
+     */
+    private final long count;
+    /**
+     * The mean of the recorded values.
+     */
+    private final long mean;
+    /**
+     * The 50th percentile.
+     */
+    private final long p50;
+    /**
+     * The 90th percentile.
+     */
+    private final long p90;
+    /**
+     * The 95th percentile.
+     */
+    private final long p95;
+    /**
+     * The 99th percentile.
+     */
+    private final long p99;
+    /**
+     * The maximum recorded value.
+     */
+    private final long max;
+    
+    /**
+     * Constructor.
+     * 
+     * @param count The number of recorded values.
+     * @param mean  The mean of the recorded values.
+     * @param p50   The 50th percentile.
+     * @param p90   The 90th percentile.
+     * @param p95   The 95th percentile.
+     * @param p99   The 99th percentile.
+     * @param max   The maximum recorded value.
+     */
+    Snapshot(long count, long mean, long p50, long p90, long p95, long p99, long max) {
+      this.count = count;
+      this.mean = mean;
+      this.p50 = p50;
+      this.p90 = p90;
+      this.p95 = p95;
+      this.p99 = p99;
+      this.max = max;
+    }
+
+    /**
+     * @return The number of recorded values.
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * @return The mean of the recorded values.
+     */
+    public long getMean() {
+      return mean;
+    }
+
+    /**
+     * @return The 50th percentile.
+     */
+    public long getP50() {
+      return p50;
+    }
+
+    /**
+     * @return The 90th percentile.
+     */
+    public long getP90() {
+      return p90;
+    }
+
+    /**
+     * @return The 95th percentile.
+     */
+    public long getP95() {
+      return p95;
+    }
+
+    /**
+     * @return The 99th percentile.
+     */
+    public long getP99() {
+      return p99;
+    }
+
+    /**
+     * @return The maximum recorded value.
+     */
+    public long getMax() {
+      return max;
+    }
+    
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString() {
+      return "count=" + count + ", mean=" + mean + ", p50=" + p50 + ", p90=" + p90 
+          + ", p95=" + p95 + ", p99=" + p99 + ", max=" + max;
+    }
+  }
+}
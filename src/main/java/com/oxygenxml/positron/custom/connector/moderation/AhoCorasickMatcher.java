@@ -0,0 +1,211 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.moderation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds any of many terms in a text in a single pass, in linear time, with the Aho-Corasick automaton.
+ * <br>
+ * The text and the terms are normalized the same way, while they are scanned: 
+ * the letters are lower-cased and each run of other characters becomes a single space. 
+ * Only whole words match: "ban" is found in "a ban." but not in "banana".
+ * 
+ * @author cosmin_duna
+ */
+public class AhoCorasickMatcher {
+  
+  /**
+   * The characters of the transitions of each state, sorted.
+   */
+  private final char[][] transitionChars;
+  
+  /**
+   * The target states of the transitions of each state, in the order of their characters.
+   */
+  private final int[][] transitionTargets;
+  
+  /**
+   * The failure link of each state: the state of the longest proper suffix that is also a prefix of a term.
+   */
+  private final int[] failure;
+  
+  /**
+   * <code>true</code> for the states that end a term, directly or through their failure links.
+   */
+  private final boolean[] terminal;
+  
+  /**
+   * Constructor.
+   * 
+   * @param terms The terms to find.
+   */
+  public AhoCorasickMatcher(Collection<String> terms) {
+    // Build the trie
+    List<Map<Character, Integer>> trie = new ArrayList<>();
+    List<Boolean> ends = new ArrayList<>();
+    trie.add(new TreeMap<>());
+    ends.add(false);
+    for (String term : terms) {
+      String normalized = normalize(term);
+      if (normalized.length() > 2) {
+        int state = 0;
+        for (int i = 0; i < normalized.length(); i++) {
+          Integer next = trie.get(state).get(normalized.charAt(i));
+          if (next == null) {
+            next = trie.size();
+            trie.add(new TreeMap<>());
+            ends.add(false);
+            trie.get(state).put(normalized.charAt(i), next);
+          }
+          state = next;
+        }
+        ends.set(state, true);
+      }
+    }
+    
+    int size = trie.size();
+    transitionChars = new char[size][];
+    transitionTargets = new int[size][];
+    terminal = new boolean[size];
+    for (int state = 0; state < size; state++) {
+      Map<Character, Integer> transitions = trie.get(state);
+      transitionChars[state] = new char[transitions.size()];
+      transitionTargets[state] = new int[transitions.size()];
+      int i = 0;
+      for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+        transitionChars[state][i] = transition.getKey();
+        transitionTargets[state][i] = transition.getValue();
+        i++;
+      }
+      terminal[state] = ends.get(state);
+    }
+    
+    // Compute the failure links, breadth first
+    failure = new int[size];
+    ArrayDeque<Integer> queue = new ArrayDeque<>();
+    for (int target : transitionTargets[0]) {
+      queue.add(target);
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+      for (int i = 0; i < transitionChars[state].length; i++) {
+        char c = transitionChars[state][i];
+        int target = transitionTargets[state][i];
+        int fallback = failure[state];
+        while (fallback != 0 && next(fallback, c) < 0) {
+          fallback = failure[fallback];
+        }
+        int link = next(fallback, c);
+        failure[target] = link >= 0 && link != target ? link : 0;
+        terminal[target] |= terminal[failure[target]];
+        queue.add(target);
+      }
+    }
+  }
+  
+  /**
+   * Check if the text contains any of the terms, as whole words.
+   * 
+   * @param text The text.
+   * 
+   * @return <code>true</code> if a term was found.
+   */
+  public boolean matches(CharSequence text) {
+    int state = step(0, ' ');
+    char previous = ' ';
+    int length = text.length();
+    for (int i = 0; i <= length; i++) {
+      // A space is added at the end, to match the terms at the end of the text
+      char c = i < length ? normalize(text.charAt(i)) : ' ';
+      if (c != ' ' || previous != ' ') {
+        state = step(state, c);
+        if (terminal[state]) {
+          return true;
+        }
+        previous = c;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Follow the transition of a character, falling back on the failure links.
+   * 
+   * @param state The current state.
+   * @param c     The character.
+   * 
+   * @return The next state.
+   */
+  private int step(int state, char c) {
+    int next = next(state, c);
+    while (next < 0 && state != 0) {
+      state = failure[state];
+      next = next(state, c);
+    }
+    return next < 0 ? 0 : next;
+  }
+  
+  /**
+   * Get the target of the transition of a character.
+   * 
+   * @param state The state.
+   * @param c     The character.
+   * 
+   * @return The target state, or -1 if there is no transition.
+   */
+  private int next(int state, char c) {
+    int index = Arrays.binarySearch(transitionChars[state], c);
+    return index >= 0 ? transitionTargets[state][index] : -1;
+  }
+  
+  /**
+   * Normalize a character.
+   * 
+   * @param c The character.
+   * 
+   * @return The lower-case letter or digit, or a space for the other characters.
+   */
+  private static char normalize(char c) {
+    return Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : ' ';
+  }
+  
+  /**
+   * Normalize a term, surrounding it with spaces so it matches only whole words.
+   * 
+   * @param term The term.
+   * 
+   * @return The normalized term.
+   */
+  static String normalize(String term) {
+    StringBuilder normalized = new StringBuilder(term.length() + 2).append(' ');
+    for (int i = 0; i < term.length(); i++) {
+      char c = normalize(term.charAt(i));
+      if (c != ' ' || normalized.charAt(normalized.length() - 1) != ' ') {
+        normalized.append(c);
+      }
+    }
+    if (normalized.charAt(normalized.length() - 1) != ' ') {
+      normalized.append(' ');
+    }
+    return normalized.toString();
+  }
+}
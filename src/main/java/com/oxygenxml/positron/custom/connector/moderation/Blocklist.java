@@ -0,0 +1,371 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.moderation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+/**
+ * Local moderation policy, checked before the remote moderation. 
+ * The content with a blocked term or pattern is flagged right away, 
+ * and the content matching an allow pattern, like a known-safe content type, skips the remote moderation.
+ * <br>
+ * The policy is read from a text file with one rule per line:
+ * <ul>
+ * <li>a term or phrase to block, matched as whole words, ignoring the case and the punctuation;</li>
+ * <li><code>regex:</code> followed by a regular expression to block, found anywhere in the content;</li>
+ * <li><code>allow:</code> followed by a regular expression that the whole content must match to skip the remote moderation.</li>
+ * </ul>
+ * The empty lines and the lines starting with <code>#</code> are ignored.
+ * <br>
+ * The terms are found in linear time. The regular expressions may backtrack, so they see at most 
+ * {@link #BLOCKLIST_REGEX_MAX_LENGTH} characters: only the start of a longer content is searched for blocked patterns,
+ * a longer content is never allowed, and a pattern that takes too many steps is considered not matching.
+ * 
+ * @author cosmin_duna
+ */
+public class Blocklist {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(Blocklist.class.getName());
+  
+  /**
+   * The path of the file with the moderation rules.
+   */
+  public static final String BLOCKLIST_FILE = "POSITRON_CONNECTOR_BLOCKLIST_FILE";
+  
+  /**
+   * The maximum number of characters of the content checked by the regular expressions.
+   */
+  public static final String BLOCKLIST_REGEX_MAX_LENGTH = "POSITRON_CONNECTOR_BLOCKLIST_REGEX_MAX_LENGTH";
+  
+  /**
+   * The interval, in nanoseconds, at which the blocklist file is checked for changes.
+   */
+  private static final long CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+  
+  /**
+   * The number of steps a regular expression can take for each checked character, before it is stopped.
+   */
+  private static final long REGEX_STEPS_PER_CHAR = 1000;
+  
+  /**
+   * The prefix of the blocked patterns.
+   */
+  private static final String REGEX_PREFIX = "regex:";
+  
+  /**
+   * The prefix of the allowed patterns.
+   */
+  private static final String ALLOW_PREFIX = "allow:";
+  
+  /**
+   * Number of contents flagged by the blocklist.
+   */
+  private static final LongAdder blocked = ConnectorMetrics.getCounter("moderation.blocklist.blocked");
+  
+  /**
+   * Number of contents allowed without remote moderation.
+   */
+  private static final LongAdder allowed = ConnectorMetrics.getCounter("moderation.blocklist.allowed");
+  
+  /**
+   * The loaded blocklist.
+   */
+  private static volatile Blocklist loaded;
+  
+  /**
+   * The file and the modification time of the loaded blocklist.
+   */
+  private static String loadedVersion;
+  
+  /**
+   * The file of the loaded blocklist.
+   */
+  private static volatile String loadedFile;
+  
+  /**
+   * The last time the blocklist file was checked, in nanoseconds.
+   */
+  private static volatile long lastCheck;
+  
+  /**
+   * Finds the blocked terms.
+   */
+  private final AhoCorasickMatcher terms;
+  
+  /**
+   * <code>true</code> if there are blocked terms.
+   */
+  private final boolean hasTerms;
+  
+  /**
+   * The blocked patterns.
+   */
+  private final List<Pattern> blockedPatterns;
+  
+  /**
+   * The allowed patterns.
+   */
+  private final List<Pattern> allowedPatterns;
+  
+  /**
+   * The maximum number of characters checked by the regular expressions.
+   */
+  private final int regexMaxLength;
+  
+  /**
+   * Constructor.
+   * 
+   * @param blockedTerms    The blocked terms.
+   * @param blockedPatterns The blocked patterns.
+   * @param allowedPatterns The allowed patterns.
+   */
+  public Blocklist(List<String> blockedTerms, List<Pattern> blockedPatterns, List<Pattern> allowedPatterns) {
+    this.terms = new AhoCorasickMatcher(blockedTerms);
+    this.hasTerms = !blockedTerms.isEmpty();
+    this.blockedPatterns = blockedPatterns;
+    this.allowedPatterns = allowedPatterns;
+    this.regexMaxLength = Math.max(1, PropertiesUtil.getIntProperty(BLOCKLIST_REGEX_MAX_LENGTH, 4096));
+  }
+  
+  /**
+   * Parse the rules of a blocklist.
+   * 
+   * @param lines The lines with the rules.
+   * 
+   * @return The blocklist.
+   */
+  public static Blocklist parse(List<String> lines) {
+    List<String> blockedTerms = new ArrayList<>();
+    List<Pattern> blockedPatterns = new ArrayList<>();
+    List<Pattern> allowedPatterns = new ArrayList<>();
+    for (String line : lines) {
+      String rule = line.trim();
+      try {
+        if (rule.startsWith(REGEX_PREFIX)) {
+          blockedPatterns.add(Pattern.compile(rule.substring(REGEX_PREFIX.length()).trim(), 
+              Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+        } else if (rule.startsWith(ALLOW_PREFIX)) {
+          allowedPatterns.add(Pattern.compile(rule.substring(ALLOW_PREFIX.length()).trim(), Pattern.DOTALL));
+        } else if (!rule.isEmpty() && !rule.startsWith("#")) {
+          blockedTerms.add(rule);
+        }
+      } catch (PatternSyntaxException e) {
+        LOGGER.warn("Invalid moderation pattern: " + e.getMessage());
+      }
+    }
+    return new Blocklist(blockedTerms, blockedPatterns, allowedPatterns);
+  }
+  
+  /**
+   * Get the blocklist of the file set with {@link #BLOCKLIST_FILE}, reloaded when the file changes.
+   * The file is checked for changes at most every few seconds.
+   * 
+   * @return The blocklist, or <code>null</code> if no file is set or it cannot be read.
+   */
+  public static Blocklist getInstance() {
+    String file = PropertiesUtil.getProperty(BLOCKLIST_FILE);
+    if (file == null || file.isBlank()) {
+      return null;
+    }
+    if (file.equals(loadedFile) && System.nanoTime() - lastCheck < CHECK_INTERVAL) {
+      return loaded;
+    }
+    return reload(file);
+  }
+  
+  /**
+   * Load the blocklist file, if it changed since it was loaded.
+   * 
+   * @param file The path of the blocklist file.
+   * 
+   * @return The blocklist, or <code>null</code> if the file cannot be read.
+   */
+  private static synchronized Blocklist reload(String file) {
+    Path path = Paths.get(file.trim());
+    try {
+      String version = path + "@" + Files.getLastModifiedTime(path).toMillis();
+      if (!version.equals(loadedVersion)) {
+        loaded = parse(Files.readAllLines(path, StandardCharsets.UTF_8));
+        loadedVersion = version;
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Cannot read the moderation blocklist " + path + ": " + e.getMessage());
+      loaded = null;
+      loadedVersion = null;
+    }
+    lastCheck = System.nanoTime();
+    loadedFile = file;
+    return loaded;
+  }
+  
+  /**
+   * Check the content against the local policy.
+   * 
+   * @param text The content.
+   * 
+   * @return <code>true</code> if the content is blocked, <code>false</code> if it is allowed 
+   * without remote moderation, or <code>null</code> if it must be moderated remotely.
+   */
+  public Boolean check(CharSequence text) {
+    Boolean verdict = null;
+    if (isBlocked(text)) {
+      blocked.increment();
+      verdict = Boolean.TRUE;
+    } else if (isAllowed(text)) {
+      allowed.increment();
+      verdict = Boolean.FALSE;
+    }
+    return verdict;
+  }
+  
+  /**
+   * Check if the content has a blocked term or pattern.
+   * 
+   * @param text The content.
+   * 
+   * @return <code>true</code> if the content is blocked.
+   */
+  private boolean isBlocked(CharSequence text) {
+    boolean isBlocked = hasTerms && terms.matches(text);
+    if (!isBlocked && !blockedPatterns.isEmpty()) {
+      CharSequence start = text.length() > regexMaxLength ? text.subSequence(0, regexMaxLength) : text;
+      for (int i = 0; !isBlocked && i < blockedPatterns.size(); i++) {
+        try {
+          isBlocked = blockedPatterns.get(i).matcher(new BoundedCharSequence(start)).find();
+        } catch (RegexTooSlowException e) {
+          LOGGER.debug("The moderation pattern {} was stopped after too many steps", blockedPatterns.get(i));
+        }
+      }
+    }
+    return isBlocked;
+  }
+  
+  /**
+   * Check if the whole content matches an allowed pattern.
+   * 
+   * @param text The content.
+   * 
+   * @return <code>true</code> if the content is allowed.
+   */
+  private boolean isAllowed(CharSequence text) {
+    boolean isAllowed = false;
+    if (text.length() <= regexMaxLength) {
+      for (int i = 0; !isAllowed && i < allowedPatterns.size(); i++) {
+        try {
+          isAllowed = allowedPatterns.get(i).matcher(new BoundedCharSequence(text)).matches();
+        } catch (RegexTooSlowException e) {
+          LOGGER.debug("The moderation pattern {} was stopped after too many steps", allowedPatterns.get(i));
+        }
+      }
+    }
+    return isAllowed;
+  }
+  
+  /**
+   * Thrown when a regular expression takes too many steps.
+   */
+  private static class RegexTooSlowException extends RuntimeException {
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Constructor.
+     */
+    RegexTooSlowException() {
+      super("The regular expression takes too many steps", null, false, false);
+    }
+  }
+  
+  /**
+   * Character sequence that stops a regular expression after a number of character reads 
+   * proportional with its length, so a backtracking expression cannot run for a long time.
+   */
+  private static class BoundedCharSequence implements CharSequence {
+    /**
+     * The wrapped characters.
+     */
+    private final CharSequence text;
+    /**
+     * The number of character reads left.
+     */
+    private long steps;
+    
+    /**
+     * Constructor.
+     * 
+     * @param text The wrapped characters.
+     */
+    BoundedCharSequence(CharSequence text) {
+      this.text = text;
+      this.steps = (text.length() + 1) * REGEX_STEPS_PER_CHAR;
+    }
+    
+    /**
+     * @see CharSequence#charAt(int)
+     */
+    @Override
+    public char charAt(int index) {
+      if (--steps < 0) {
+        throw new RegexTooSlowException();
+      }
+      return text.charAt(index);
+    }
+    
+    /**
+     * @see CharSequence#length()
+     */
+    @Override
+    public int length() {
+      return text.length();
+    }
+    
+    /**
+     * @see CharSequence#subSequence(int, int)
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return text.subSequence(start, end);
+    }
+    
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString() {
+      return text.toString();
+    }
+  }
+}
@@ -0,0 +1,408 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.moderation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.oxygenxml.positron.custom.connector.cache.ModerationCache;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+/**
+ * Tracks the input moderations that run in parallel with the completions. 
+ * The host waits for the input moderation before sending the completion, so a speculative moderation 
+ * is reported as passed right away and its real verdict gates the completion that uses the moderated input:
+ * the completion fails if the input is flagged, and nothing is shown before the verdict.
+ * <br>
+ * The moderation of a response must not be speculative, because no completion follows it. 
+ * A moderation is considered to be of a response when a paragraph of its text overlaps with a choice of a recent response,
+ * and no moderation is speculative while the recent responses are not all remembered.
+ * <br>
+ * The moderations and responses are shared by all the services of a scope (base URL and API key), 
+ * because the host may moderate and complete through different services. 
+ * A moderation that cannot be tracked, because too many are in progress, is not speculative.
+ * 
+ * @author cosmin_duna
+ */
+public class SpeculativeModeration {
+  
+  /**
+   * The time, in milliseconds, a finished moderation is kept to gate the completions.
+   */
+  private static final long RECORD_TTL = 60000;
+  
+  /**
+   * The maximum number of recent responses remembered.
+   */
+  private static final int MAX_OUTPUTS = 64;
+  
+  /**
+   * The maximum number of speculative moderations tracked.
+   */
+  private static final int MAX_MODERATIONS = 256;
+  
+  /**
+   * Matches the sequences of whitespaces.
+   */
+  private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+  
+  /**
+   * Number of speculative moderations.
+   */
+  private static final LongAdder started = ConnectorMetrics.getCounter("moderation.speculative.started");
+  
+  /**
+   * Number of completions stopped by a speculative moderation.
+   */
+  private static final LongAdder blocked = ConnectorMetrics.getCounter("moderation.speculative.blocked");
+  
+  /**
+   * The speculative moderations, by scope.
+   */
+  private static final Map<String, SpeculativeModeration> instances = new ConcurrentHashMap<>();
+  
+  /**
+   * The speculative moderations, the oldest first.
+   */
+  private final Deque<Moderation> moderations = new ArrayDeque<>();
+  
+  /**
+   * The recent responses, the oldest first. The texts of the streamed responses grow while they are received.
+   */
+  private final Deque<Output> outputs = new ArrayDeque<>();
+  
+  /**
+   * The time, in nanoseconds, a response was forgotten before the end of its time to live, or 0.
+   * Guarded by {@link #outputs}.
+   */
+  private long recentOutputEvicted;
+  
+  /**
+   * Constructor.
+   */
+  SpeculativeModeration() {
+    // Use getInstance, so the scope is shared
+  }
+  
+  /**
+   * Get the speculative moderations of a scope, shared by all its services.
+   * 
+   * @param scope The scope of the requests, like the base URL and the API key.
+   * 
+   * @return The speculative moderations.
+   */
+  public static SpeculativeModeration getInstance(String scope) {
+    return instances.computeIfAbsent(scope, s -> new SpeculativeModeration());
+  }
+  
+  /**
+   * Check if a moderation can be speculative.
+   * 
+   * @param text The moderated text.
+   * 
+   * @return <code>true</code> if no paragraph of the text overlaps with a choice of a recent response.
+   */
+  public boolean canSpeculate(String text) {
+    List<String> paragraphs = new ArrayList<>();
+    for (JsonNode paragraph : ModerationCache.getSegments(TextNode.valueOf(text))) {
+      paragraphs.add(normalize(paragraph.textValue()));
+    }
+    
+    synchronized (outputs) {
+      long now = System.nanoTime();
+      pruneOutputs(now);
+      if (recentOutputEvicted != 0 && now - recentOutputEvicted < TimeUnit.MILLISECONDS.toNanos(RECORD_TTL)) {
+        // A recent response may be moderated and it is no longer known
+        return false;
+      }
+      for (Output output : outputs) {
+        for (String choice : output.getChoices()) {
+          for (String paragraph : paragraphs) {
+            if (!choice.isEmpty() && (choice.contains(paragraph) || paragraph.contains(choice))) {
+              return false;
+            }
+          }
+        }
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Remember a response, so its moderation is not speculative.
+   * 
+   * @return The response, whose choices can be appended while the response is streamed.
+   */
+  public Output addOutput() {
+    Output output = new Output();
+    synchronized (outputs) {
+      long now = System.nanoTime();
+      pruneOutputs(now);
+      outputs.add(output);
+      if (outputs.size() > MAX_OUTPUTS) {
+        Output evicted = outputs.poll();
+        if (now - evicted.lastUpdate < TimeUnit.MILLISECONDS.toNanos(RECORD_TTL)) {
+          recentOutputEvicted = now;
+        }
+      }
+    }
+    return output;
+  }
+  
+  /**
+   * Remove the responses not updated for a long time. Must be called with the outputs lock held.
+   * 
+   * @param now The current time, in nanoseconds.
+   */
+  private void pruneOutputs(long now) {
+    Iterator<Output> iterator = outputs.iterator();
+    while (iterator.hasNext()) {
+      if (now - iterator.next().lastUpdate > TimeUnit.MILLISECONDS.toNanos(RECORD_TTL)) {
+        iterator.remove();
+      }
+    }
+  }
+  
+  /**
+   * Normalize a text for comparison, as the host may change the whitespaces of a response.
+   * 
+   * @param text The text.
+   * 
+   * @return The text with the whitespace sequences replaced by a space, trimmed.
+   */
+  private static String normalize(String text) {
+    return WHITESPACES.matcher(text).replaceAll(" ").trim();
+  }
+  
+  /**
+   * Register a speculative moderation.
+   * 
+   * @param text    The moderated text.
+   * @param verdict The verdict of the moderation, <code>true</code> if the text is flagged.
+   * 
+   * @return <code>true</code> if the moderation is tracked, so it can be speculative, 
+   * <code>false</code> if too many moderations are tracked and the caller must wait for the verdict.
+   */
+  public boolean start(String text, CompletableFuture<Boolean> verdict) {
+    Moderation moderation = new Moderation(text, verdict);
+    boolean tracked = false;
+    synchronized (moderations) {
+      prune();
+      if (moderations.size() < MAX_MODERATIONS) {
+        moderations.add(moderation);
+        tracked = true;
+      }
+    }
+    if (tracked) {
+      started.increment();
+    }
+    return tracked;
+  }
+  
+  /**
+   * Get the verdict that gates a completion: of the speculative moderations of its input, 
+   * or of all the recent speculative moderations if none matches its input.
+   * A flagged or failed moderation is consumed only by a completion that contains its text, 
+   * otherwise it stops all the completions until it expires.
+   * 
+   * @param completionText The text of the completion request.
+   * 
+   * @return The verdict, <code>true</code> if the input is flagged, 
+   * or <code>null</code> if there are no speculative moderations.
+   */
+  public CompletableFuture<Boolean> getVerdict(String completionText) {
+    List<Moderation> gate = new ArrayList<>();
+    boolean matched;
+    synchronized (moderations) {
+      prune();
+      for (Moderation moderation : moderations) {
+        if (moderation.isContainedIn(completionText)) {
+          gate.add(moderation);
+        }
+      }
+      matched = !gate.isEmpty();
+      if (!matched) {
+        gate.addAll(moderations);
+      }
+    }
+    if (gate.isEmpty()) {
+      return null;
+    }
+    
+    CompletableFuture<?>[] verdicts = gate.stream().map(m -> m.verdict).toArray(CompletableFuture[]::new);
+    return CompletableFuture.allOf(verdicts).handle((v, failure) -> {
+      boolean flagged = false;
+      for (Moderation moderation : gate) {
+        if (moderation.verdict.isCompletedExceptionally() || Boolean.TRUE.equals(moderation.verdict.join())) {
+          flagged = true;
+          if (matched) {
+            // A flagged or failed moderation stops a single completion of its text
+            synchronized (moderations) {
+              moderations.remove(moderation);
+            }
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure instanceof CompletionException 
+            ? (CompletionException) failure : new CompletionException(failure);
+      }
+      if (flagged) {
+        blocked.increment();
+      }
+      return flagged;
+    });
+  }
+  
+  /**
+   * Remove the moderations finished long ago. Must be called with the moderations lock held.
+   */
+  private void prune() {
+    long now = System.nanoTime();
+    Iterator<Moderation> iterator = moderations.iterator();
+    while (iterator.hasNext()) {
+      Moderation moderation = iterator.next();
+      if (moderation.verdict.isDone() && now - moderation.started > TimeUnit.MILLISECONDS.toNanos(RECORD_TTL)) {
+        iterator.remove();
+      }
+    }
+  }
+  
+  /**
+   * Get the text of a JSON tree, like a moderation input or the messages of a completion.
+   * 
+   * @param node The JSON tree. May be <code>null</code>.
+   * 
+   * @return The text values of the tree, one per line.
+   */
+  public static String getText(JsonNode node) {
+    StringBuilder text = new StringBuilder();
+    appendText(node, text);
+    return text.toString();
+  }
+  
+  /**
+   * Append the text values of a JSON tree.
+   * 
+   * @param node  The JSON tree. May be <code>null</code>.
+   * @param text  The text to append to.
+   */
+  private static void appendText(JsonNode node, StringBuilder text) {
+    if (node != null) {
+      if (node.isTextual()) {
+        text.append(node.textValue()).append('\n');
+      } else if (node.isContainerNode()) {
+        node.forEach(child -> appendText(child, text));
+      }
+    }
+  }
+  
+  /**
+   * A recent response, with the text of each choice.
+   */
+  public static class Output {
+    /**
+     * The texts of the choices, by index.
+     */
+    private final List<StringBuilder> choices = new ArrayList<>(1);
+    /**
+     * The time of the last update, in nanoseconds.
+     */
+    private volatile long lastUpdate = System.nanoTime();
+    
+    /**
+     * Append text to a choice.
+     * 
+     * @param index The index of the choice.
+     * @param text  The text to append.
+     */
+    public synchronized void append(int index, String text) {
+      while (choices.size() <= index) {
+        choices.add(new StringBuilder());
+      }
+      choices.get(index).append(text);
+      lastUpdate = System.nanoTime();
+    }
+    
+    /**
+     * @return The normalized texts of the choices.
+     */
+    synchronized List<String> getChoices() {
+      List<String> texts = new ArrayList<>(choices.size());
+      for (StringBuilder choice : choices) {
+        texts.add(normalize(choice.toString()));
+      }
+      return texts;
+    }
+  }
+  
+  /**
+   * A speculative moderation.
+   */
+  private static class Moderation {
+    /**
+     * The paragraphs of the moderated text.
+     */
+    final List<String> paragraphs = new ArrayList<>();
+    /**
+     * The verdict, <code>true</code> if the text is flagged.
+     */
+    final CompletableFuture<Boolean> verdict;
+    /**
+     * The time the moderation started, in nanoseconds.
+     */
+    final long started = System.nanoTime();
+    
+    /**
+     * Constructor.
+     * 
+     * @param text    The moderated text.
+     * @param verdict The verdict.
+     */
+    Moderation(String text, CompletableFuture<Boolean> verdict) {
+      this.verdict = verdict;
+      for (JsonNode paragraph : ModerationCache.getSegments(TextNode.valueOf(text))) {
+        paragraphs.add(paragraph.textValue());
+      }
+    }
+    
+    /**
+     * Check if the moderated text is part of a completion request.
+     * 
+     * @param completionText The text of the completion request.
+     * 
+     * @return <code>true</code> if all the paragraphs of the moderated text are in the completion request.
+     */
+    boolean isContainedIn(String completionText) {
+      boolean contained = !paragraphs.isEmpty();
+      for (int i = 0; contained && i < paragraphs.size(); i++) {
+        contained = completionText.contains(paragraphs.get(i));
+      }
+      return contained;
+    }
+  }
+}
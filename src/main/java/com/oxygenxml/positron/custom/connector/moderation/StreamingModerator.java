@@ -0,0 +1,214 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.moderation;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.api.connector.AIConnectionException;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+import com.oxygenxml.positron.custom.connector.stream.BackpressurePublisher;
+
+/**
+ * Moderates a streamed response while it is received, in growing windows: 
+ * the text received so far is moderated each time its length doubles, starting from a window size.
+ * The moderations run in the background, one at a time, and the stream continues meanwhile.
+ * When a window is flagged, the stream fails with a moderation error and its request is cancelled, 
+ * so the rest of the response is neither generated nor displayed.
+ * <br>
+ * The complete response is still moderated by the host at the end of the stream.
+ * 
+ * @author cosmin_duna
+ */
+public class StreamingModerator {
+  
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(StreamingModerator.class.getName());
+  
+  /**
+   * The number of characters of the first moderated window.
+   */
+  public static final String STREAM_MODERATION_WINDOW = "POSITRON_CONNECTOR_STREAM_MODERATION_WINDOW";
+  
+  /**
+   * The error message of a stream whose response was flagged.
+   */
+  public static final String FLAGGED_OUTPUT_MESSAGE = "The response was flagged by the moderation.";
+  
+  /**
+   * Number of moderated windows.
+   */
+  private static final LongAdder windows = ConnectorMetrics.getCounter("moderation.stream.windows");
+  
+  /**
+   * Number of streams stopped by the moderation.
+   */
+  private static final LongAdder stopped = ConnectorMetrics.getCounter("moderation.stream.flagged");
+  
+  /**
+   * Moderates a text.
+   */
+  @FunctionalInterface
+  public interface Moderator {
+    /**
+     * Moderate a text.
+     * 
+     * @param text The text.
+     * 
+     * @return <code>true</code> if the text is flagged.
+     * 
+     * @throws AIConnectionException If the moderation failed.
+     */
+    boolean isFlagged(String text) throws AIConnectionException;
+  }
+  
+  /**
+   * The publisher of the stream.
+   */
+  private final BackpressurePublisher<?> publisher;
+  
+  /**
+   * Moderates the windows.
+   */
+  private final Moderator moderator;
+  
+  /**
+   * Runs the moderations.
+   */
+  private final Executor executor;
+  
+  /**
+   * The text received so far.
+   */
+  private final StringBuilder text = new StringBuilder();
+  
+  /**
+   * The length of the text that triggers the next moderation.
+   */
+  private int nextWindow;
+  
+  /**
+   * <code>true</code> while a moderation is in progress.
+   */
+  private boolean moderating;
+  
+  /**
+   * <code>true</code> after a window was flagged.
+   */
+  private boolean flagged;
+  
+  /**
+   * Constructor.
+   * 
+   * @param publisher   The publisher of the stream.
+   * @param moderator   Moderates the windows.
+   * @param executor    Runs the moderations.
+   * @param windowSize  The number of characters of the first window.
+   */
+  public StreamingModerator(BackpressurePublisher<?> publisher, Moderator moderator, Executor executor, int windowSize) {
+    this.publisher = publisher;
+    this.moderator = moderator;
+    this.executor = executor;
+    this.nextWindow = Math.max(1, windowSize);
+  }
+  
+  /**
+   * Append a part of the streamed text, starting a moderation if a window is complete.
+   * 
+   * @param delta The received text.
+   */
+  public void append(String delta) {
+    if (!delta.isEmpty()) {
+      String window = null;
+      synchronized (this) {
+        text.append(delta);
+        window = nextWindow();
+      }
+      moderate(window);
+    }
+  }
+  
+  /**
+   * Get the next window to moderate. Must be called with the lock held.
+   * 
+   * @return The text of the window, or <code>null</code> if no moderation should start.
+   */
+  private String nextWindow() {
+    String window = null;
+    if (!moderating && !flagged && text.length() >= nextWindow) {
+      moderating = true;
+      window = text.toString();
+      nextWindow = window.length() * 2;
+    }
+    return window;
+  }
+  
+  /**
+   * Moderate a window in the background.
+   * 
+   * @param window The text of the window. May be <code>null</code>.
+   */
+  private void moderate(String window) {
+    if (window != null) {
+      windows.increment();
+      try {
+        executor.execute(() -> moderateInBackground(window));
+      } catch (RejectedExecutionException e) {
+        // No worker is available. The window is skipped, as the complete response is moderated at the end anyway.
+        LOGGER.debug("The moderation of the streamed response was skipped: " + e.getMessage(), e);
+        synchronized (this) {
+          moderating = false;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Moderate a window, then the next one if the text grew enough meanwhile.
+   * 
+   * @param window The text of the window.
+   */
+  private void moderateInBackground(String window) {
+    boolean isFlagged = false;
+    try {
+      isFlagged = moderator.isFlagged(window);
+    } catch (AIConnectionException | RuntimeException e) {
+      // The complete response is moderated at the end anyway
+      LOGGER.debug("The moderation of the streamed response failed: " + e.getMessage(), e);
+    }
+    
+    String next = null;
+    synchronized (this) {
+      moderating = false;
+      if (isFlagged) {
+        flagged = true;
+      } else if (!publisher.isClosed()) {
+        next = nextWindow();
+      }
+    }
+    if (isFlagged) {
+      stopped.increment();
+      publisher.abort(new AIConnectionException(FLAGGED_OUTPUT_MESSAGE, "", null));
+    } else {
+      moderate(next);
+    }
+  }
+}
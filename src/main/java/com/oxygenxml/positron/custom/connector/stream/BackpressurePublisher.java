@@ -0,0 +1,698 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.stream;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.api.connector.AIConnectionException;
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+/**
+ * Publisher for a single subscriber that buffers at most a configured number of items.
+ * The producer is blocked while the buffer is full, so when it is the thread reading from the network,
+ * the socket is read only as fast as the subscriber requests items.
+ * <br><br>
+ * The items are delivered on the given executor. The completion is signaled after all the buffered items are delivered,
+ * while an error is signaled right away and the buffered items are dropped.
+ * 
+ * @param <T> The type of the published items.
+ * 
+ * @author cosmin_duna
+ */
+public class BackpressurePublisher<T> implements Flow.Publisher<T> {
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(BackpressurePublisher.class.getName());
+  
+  /**
+   * The maximum number of items buffered for a stream.
+   */
+  public static final String STREAM_BUFFER_SIZE = "POSITRON_CONNECTOR_STREAM_BUFFER_SIZE";
+  
+  /**
+   * The maximum time, in milliseconds, the producer waits for the subscriber to request more items.
+   */
+  public static final String STREAM_MAX_BLOCK_TIME = "POSITRON_CONNECTOR_STREAM_MAX_BLOCK_TIME";
+  
+  /**
+   * The default maximum time the producer waits for the subscriber to request more items.
+   */
+  private static final long DEFAULT_MAX_BLOCK_TIME = 600000;
+  
+  /**
+   * The total number of items buffered by all the publishers.
+   */
+  private static final AtomicLong totalBuffered = new AtomicLong();
+  
+  /**
+   * Total time the producers were blocked, in nanoseconds.
+   */
+  private static final LongAdder totalBlockedNanos = ConnectorMetrics.getCounter("streaming.backpressure.blocked.nanos");
+  
+  /**
+   * Number of times the producers were blocked.
+   */
+  private static final LongAdder totalBlockedCount = ConnectorMetrics.getCounter("streaming.backpressure.blocked.count");
+  
+  /**
+   * Number of items dropped because the stream was cancelled or failed.
+   */
+  private static final LongAdder totalDropped = ConnectorMetrics.getCounter("streaming.backpressure.dropped");
+  
+  static {
+    ConnectorMetrics.registerGauge("streaming.backpressure.buffered", totalBuffered::get);
+  }
+  
+  /**
+   * The executor that delivers the items.
+   */
+  private final Executor executor;
+  
+  /**
+   * The maximum number of buffered items.
+   */
+  private final int bufferSize;
+  
+  /**
+   * The maximum time the producer waits for the subscriber to request more items, in nanoseconds.
+   */
+  private final long maxBlockNanos;
+  
+  /**
+   * Guards the buffer, the demand and the terminal state.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+  
+  /**
+   * Signaled when there is space in the buffer or the stream is cancelled.
+   */
+  private final Condition notFull = lock.newCondition();
+  
+  /**
+   * The buffered items.
+   */
+  private final ArrayDeque<T> buffer = new ArrayDeque<>();
+  
+  /**
+   * The number of items requested by the subscriber and not yet delivered.
+   */
+  private long demand;
+  
+  /**
+   * <code>true</code> when the producer has published all the items.
+   */
+  private volatile boolean completed;
+  
+  /**
+   * The error to signal to the subscriber.
+   */
+  private volatile Throwable error;
+  
+  /**
+   * <code>true</code> after the terminal signal was scheduled for delivery.
+   */
+  private boolean terminated;
+  
+  /**
+   * <code>true</code> when the subscription is cancelled.
+   */
+  private volatile boolean cancelled;
+  
+  /**
+   * Invoked once, when the stream is cancelled.
+   */
+  private Runnable cancellationHandler;
+  
+  /**
+   * <code>true</code> while the buffered items are held back from the subscriber.
+   */
+  private boolean held;
+  
+  /**
+   * Notified of each published item, on the producer thread, or <code>null</code>.
+   */
+  private volatile Consumer<? super T> itemListener;
+  
+  /**
+   * The subscriber.
+   */
+  private volatile Flow.Subscriber<? super T> subscriber;
+  
+  /**
+   * <code>true</code> after the subscriber received the subscription. Accessed only by the drain loop.
+   */
+  private boolean subscriptionSignaled;
+  
+  /**
+   * Work-in-progress counter that serializes the drain loop.
+   */
+  private final AtomicInteger wip = new AtomicInteger();
+  
+  /**
+   * The maximum number of items that were buffered at once.
+   */
+  private int maxLag;
+  
+  /**
+   * The time the producer was blocked, in nanoseconds.
+   */
+  private long blockedNanos;
+  
+  /**
+   * Constructor that reads the buffer size and the maximum blocking time from the properties.
+   * 
+   * @param executor The executor that delivers the items.
+   */
+  public BackpressurePublisher(Executor executor) {
+    this(executor, 
+        PropertiesUtil.getIntProperty(STREAM_BUFFER_SIZE, Flow.defaultBufferSize()),
+        PropertiesUtil.getLongProperty(STREAM_MAX_BLOCK_TIME, DEFAULT_MAX_BLOCK_TIME));
+  }
+  
+  /**
+   * Constructor.
+   * 
+   * @param executor      The executor that delivers the items.
+   * @param bufferSize    The maximum number of buffered items.
+   * @param maxBlockTime  The maximum time, in milliseconds, the producer waits for the subscriber to request more items.
+   */
+  public BackpressurePublisher(Executor executor, int bufferSize, long maxBlockTime) {
+    this.executor = executor;
+    this.bufferSize = Math.max(1, bufferSize);
+    this.maxBlockNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, maxBlockTime));
+  }
+
+  /**
+   * @see Flow.Publisher#subscribe(Flow.Subscriber)
+   */
+  @Override
+  public void subscribe(Flow.Subscriber<? super T> subscriber) {
+    boolean accepted = false;
+    lock.lock();
+    try {
+      if (this.subscriber == null) {
+        this.subscriber = subscriber;
+        accepted = true;
+      }
+    } finally {
+      lock.unlock();
+    }
+    
+    if (accepted) {
+      signal();
+    } else {
+      subscriber.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+          // Nothing to deliver.
+        }
+        @Override
+        public void cancel() {
+          // Nothing to cancel.
+        }
+      });
+      subscriber.onError(new IllegalStateException("The stream supports only one subscriber"));
+    }
+  }
+  
+  /**
+   * Publish an item, blocking while the buffer is full.
+   * 
+   * @param item The item to publish.
+   * 
+   * @return <code>true</code> if the item was published, <code>false</code> if the stream is cancelled or closed.
+   */
+  public boolean submit(T item) {
+    boolean published = false;
+    Throwable failure = null;
+    lock.lock();
+    try {
+      if (buffer.size() >= bufferSize && !isClosed()) {
+        failure = awaitSpace();
+      }
+      if (failure == null && !isClosed()) {
+        buffer.add(item);
+        totalBuffered.incrementAndGet();
+        maxLag = Math.max(maxLag, buffer.size());
+        published = true;
+      }
+    } finally {
+      lock.unlock();
+    }
+    
+    if (failure != null) {
+      closeExceptionally(failure);
+    } else if (published) {
+      notifyItemListener(item);
+      signal();
+    }
+    return published;
+  }
+  
+  /**
+   * Publish an item only if this can be done without blocking.
+   * 
+   * @param item The item to publish.
+   * 
+   * @return <code>true</code> if the item was published, <code>false</code> if the buffer is full or the stream is closed.
+   */
+  public boolean offer(T item) {
+    boolean published = false;
+    lock.lock();
+    try {
+      if (buffer.size() < bufferSize && !isClosed()) {
+        buffer.add(item);
+        totalBuffered.incrementAndGet();
+        maxLag = Math.max(maxLag, buffer.size());
+        published = true;
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (published) {
+      notifyItemListener(item);
+      signal();
+    }
+    return published;
+  }
+  
+  /**
+   * Notify the item listener of a published item.
+   * 
+   * @param item The item.
+   */
+  private void notifyItemListener(T item) {
+    Consumer<? super T> listener = itemListener;
+    if (listener != null) {
+      try {
+        listener.accept(item);
+      } catch (RuntimeException e) {
+        LOGGER.debug(e.getMessage(), e);
+      }
+    }
+  }
+  
+  /**
+   * Set the listener notified of each published item, on the producer thread.
+   * 
+   * @param itemListener The listener, or <code>null</code>.
+   */
+  public void setItemListener(Consumer<? super T> itemListener) {
+    this.itemListener = itemListener;
+  }
+  
+  /**
+   * Hold back the items, and the completion, from the subscriber until {@link #release()} is called.
+   * The producer blocks when the buffer is full.
+   */
+  public void hold() {
+    lock.lock();
+    try {
+      held = true;
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Deliver the held items to the subscriber.
+   */
+  public void release() {
+    lock.lock();
+    try {
+      held = false;
+    } finally {
+      lock.unlock();
+    }
+    signal();
+  }
+  
+  /**
+   * Fail the stream with an error, dropping the buffered items, and abort the producer with the cancellation handler.
+   * 
+   * @param throwable The error to signal.
+   */
+  public void abort(Throwable throwable) {
+    fail(throwable);
+    signal();
+  }
+  
+  /**
+   * Set the error of the stream and abort the producer with the cancellation handler.
+   * 
+   * @param throwable The error to signal.
+   */
+  private void fail(Throwable throwable) {
+    Runnable handler = null;
+    lock.lock();
+    try {
+      if (!terminated && error == null && !cancelled) {
+        error = throwable;
+        handler = cancellationHandler;
+        cancellationHandler = null;
+      }
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    
+    if (handler != null) {
+      try {
+        handler.run();
+      } catch (RuntimeException e) {
+        LOGGER.debug(e.getMessage(), e);
+      }
+    }
+  }
+  
+  /**
+   * Wait until there is space in the buffer. Must be called with the lock held.
+   * 
+   * @return The failure if the subscriber did not request items in time, or <code>null</code>.
+   */
+  private Throwable awaitSpace() {
+    Throwable failure = null;
+    long start = System.nanoTime();
+    long remaining = maxBlockNanos;
+    try {
+      while (buffer.size() >= bufferSize && !isClosed() && remaining > 0) {
+        remaining = notFull.awaitNanos(remaining);
+      }
+      if (buffer.size() >= bufferSize && !isClosed()) {
+        failure = new AIConnectionException(
+            "The stream consumer did not request chunks for " + TimeUnit.NANOSECONDS.toMillis(maxBlockNanos) + " ms", "", null);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure = e;
+    }
+    long blocked = System.nanoTime() - start;
+    blockedNanos += blocked;
+    totalBlockedNanos.add(blocked);
+    totalBlockedCount.increment();
+    return failure;
+  }
+  
+  /**
+   * Complete the stream. The subscriber is notified after it receives all the buffered items.
+   */
+  public void close() {
+    lock.lock();
+    try {
+      completed = true;
+    } finally {
+      lock.unlock();
+    }
+    signal();
+  }
+  
+  /**
+   * Complete the stream with an error. The buffered items are dropped.
+   * 
+   * @param throwable The error to signal.
+   */
+  public void closeExceptionally(Throwable throwable) {
+    lock.lock();
+    try {
+      if (!terminated && error == null) {
+        error = throwable;
+        notFull.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+    signal();
+  }
+  
+  /**
+   * @return <code>true</code> if the stream is completed, failed or cancelled.
+   */
+  public boolean isClosed() {
+    return cancelled || completed || error != null;
+  }
+  
+  /**
+   * @return <code>true</code> if the subscriber cancelled the subscription.
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+  
+  /**
+   * @return The number of items buffered and not yet delivered to the subscriber.
+   */
+  public int getLag() {
+    lock.lock();
+    try {
+      return buffer.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * @return The maximum number of items that were buffered at once.
+   */
+  public int getMaxLag() {
+    lock.lock();
+    try {
+      return maxLag;
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * @return The time the producer was blocked waiting for the subscriber, in nanoseconds.
+   */
+  public long getBlockedNanos() {
+    lock.lock();
+    try {
+      return blockedNanos;
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Schedule the drain loop on the executor, unless it is already running.
+   */
+  private void signal() {
+    if (wip.getAndIncrement() == 0) {
+      try {
+        executor.execute(this::drainLoop);
+      } catch (RejectedExecutionException e) {
+        // The executor was shut down. Fail the stream and signal the error on this thread, so it does not stall.
+        LOGGER.debug("Cannot deliver the stream: " + e.getMessage(), e);
+        fail(new AIConnectionException("The stream delivery was rejected: " + e.getMessage(), "", e));
+        drainLoop();
+      }
+    }
+  }
+  
+  /**
+   * Deliver signals until there is no more missed work.
+   */
+  private void drainLoop() {
+    int missed = 1;
+    do {
+      drain();
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+  
+  /**
+   * Deliver the buffered items, as permitted by the demand, and the terminal signal.
+   */
+  private void drain() {
+    Flow.Subscriber<? super T> s = subscriber;
+    if (s == null) {
+      return;
+    }
+    if (!subscriptionSignaled) {
+      subscriptionSignaled = true;
+      s.onSubscribe(new BackpressureSubscription());
+    }
+    
+    boolean keepDelivering = true;
+    while (keepDelivering) {
+      T item = null;
+      Throwable terminalError = null;
+      boolean complete = false;
+      lock.lock();
+      try {
+        if (cancelled) {
+          dropBuffered();
+        } else if (error != null && !terminated) {
+          terminated = true;
+          terminalError = error;
+          dropBuffered();
+        } else if (held) {
+          // Nothing is delivered until the items are released
+        } else if (demand > 0 && !buffer.isEmpty()) {
+          item = buffer.poll();
+          totalBuffered.decrementAndGet();
+          if (demand != Long.MAX_VALUE) {
+            demand--;
+          }
+          notFull.signal();
+        } else if (buffer.isEmpty() && completed && !terminated) {
+          terminated = true;
+          complete = true;
+        }
+      } finally {
+        lock.unlock();
+      }
+      
+      if (item != null) {
+        deliver(s, item);
+      } else {
+        keepDelivering = false;
+        if (terminalError != null) {
+          s.onError(terminalError);
+        } else if (complete) {
+          s.onComplete();
+        }
+      }
+    }
+  }
+  
+  /**
+   * Deliver an item to the subscriber. If the subscriber fails, the subscription is cancelled.
+   * 
+   * @param s     The subscriber.
+   * @param item  The item.
+   */
+  private void deliver(Flow.Subscriber<? super T> s, T item) {
+    try {
+      s.onNext(item);
+    } catch (RuntimeException e) {
+      LOGGER.debug(e.getMessage(), e);
+      cancel();
+    }
+  }
+  
+  /**
+   * Drop the buffered items. Must be called with the lock held.
+   */
+  private void dropBuffered() {
+    int size = buffer.size();
+    if (size > 0) {
+      buffer.clear();
+      totalBuffered.addAndGet(-size);
+      totalDropped.add(size);
+      notFull.signalAll();
+    }
+  }
+  
+  /**
+   * Set the handler invoked when the stream is cancelled, used to abort the producer of the items.
+   * If the stream is already cancelled, the handler is invoked right away.
+   * 
+   * @param cancellationHandler The handler invoked when the stream is cancelled.
+   */
+  public void setCancellationHandler(Runnable cancellationHandler) {
+    boolean alreadyCancelled;
+    lock.lock();
+    try {
+      alreadyCancelled = cancelled;
+      if (!alreadyCancelled) {
+        this.cancellationHandler = cancellationHandler;
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (alreadyCancelled) {
+      cancellationHandler.run();
+    }
+  }
+  
+  /**
+   * Cancel the stream.
+   */
+  private void cancel() {
+    Runnable handler = null;
+    lock.lock();
+    try {
+      if (!cancelled) {
+        cancelled = true;
+        handler = cancellationHandler;
+        cancellationHandler = null;
+      }
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    
+    if (handler != null) {
+      try {
+        handler.run();
+      } catch (RuntimeException e) {
+        LOGGER.debug(e.getMessage(), e);
+      }
+    }
+  }
+  
+  /**
+   * The subscription given to the subscriber.
+   */
+  private class BackpressureSubscription implements Flow.Subscription {
+    /**
+     * @see Flow.Subscription#request(long)
+     */
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        closeExceptionally(new IllegalArgumentException("The number of requested items must be positive: " + n));
+      } else {
+        lock.lock();
+        try {
+          demand += n;
+          if (demand < 0) {
+            // Overflow means unbounded demand.
+            demand = Long.MAX_VALUE;
+          }
+        } finally {
+          lock.unlock();
+        }
+        signal();
+      }
+    }
+
+    /**
+     * @see Flow.Subscription#cancel()
+     */
+    @Override
+    public void cancel() {
+      BackpressurePublisher.this.cancel();
+      signal();
+    }
+  }
+}
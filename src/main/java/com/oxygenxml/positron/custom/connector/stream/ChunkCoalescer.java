@@ -0,0 +1,325 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.stream;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.oxygenxml.positron.custom.connector.concurrent.ConnectorScheduler;
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.json.JsonMappers;
+
+/**
+ * Merges consecutive streamed chunks that only carry content deltas, so the subscriber receives fewer chunks.
+ * The merged chunk is published when the time window elapses, when the byte budget is exceeded or when 
+ * a chunk that cannot be merged arrives. 
+ * Chunks carrying a role, a finish reason, tool calls or usage are never merged, so these boundaries are preserved.
+ * 
+ * @param <T> The type of the chunks.
+ * 
+ * @author cosmin_duna
+ */
+public class ChunkCoalescer<T> {
+  
+  /**
+   * The time window, in milliseconds, in which consecutive content deltas are merged.
+   */
+  public static final String COALESCING_WINDOW = "POSITRON_CONNECTOR_COALESCING_WINDOW";
+  
+  /**
+   * The maximum number of event bytes merged in a chunk.
+   */
+  public static final String COALESCING_MAX_BYTES = "POSITRON_CONNECTOR_COALESCING_MAX_BYTES";
+  
+  /**
+   * Reader of the chunk trees
+   */
+  private static final ObjectReader treeReader = JsonMappers.TREE_READER;
+  
+  /**
+   * The index field of a choice.
+   */
+  private static final String INDEX_FIELD = "index";
+  
+  /**
+   * The field with the delta of a choice.
+   */
+  private static final String DELTA_FIELD = "delta";
+  
+  /**
+   * The content field of the delta.
+   */
+  private static final String CONTENT_FIELD = "content";
+  
+  /**
+   * The publisher of the chunks.
+   */
+  private final BackpressurePublisher<T> publisher;
+  
+  /**
+   * Reader of the chunks.
+   */
+  private final ObjectReader reader;
+  
+  /**
+   * The time window, in nanoseconds.
+   */
+  private final long windowNanos;
+  
+  /**
+   * The maximum number of event bytes merged in a chunk.
+   */
+  private final int maxBytes;
+  
+  /**
+   * Guards the pending chunk.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+  
+  /**
+   * The first chunk of the merged sequence, or <code>null</code> when nothing is pending.
+   */
+  private ObjectNode pending;
+  
+  /**
+   * The merged content of the pending chunk.
+   */
+  private final StringBuilder pendingContent = new StringBuilder();
+  
+  /**
+   * The number of event bytes merged in the pending chunk.
+   */
+  private int pendingBytes;
+  
+  /**
+   * The time when the pending chunk was started, in nanoseconds.
+   */
+  private long pendingStart;
+  
+  /**
+   * The timer that publishes the pending chunk when the window elapses.
+   */
+  private ScheduledFuture<?> flushTimer;
+  
+  /**
+   * Constructor that reads the time window and the byte budget from the properties.
+   * 
+   * @param publisher The publisher of the chunks.
+   * @param reader    Reader of the chunks.
+   */
+  public ChunkCoalescer(BackpressurePublisher<T> publisher, ObjectReader reader) {
+    this(publisher, reader, 
+        PropertiesUtil.getLongProperty(COALESCING_WINDOW, 30),
+        PropertiesUtil.getIntProperty(COALESCING_MAX_BYTES, 4096));
+  }
+  
+  /**
+   * Constructor.
+   * 
+   * @param publisher     The publisher of the chunks.
+   * @param reader        Reader of the chunks.
+   * @param windowMillis  The time window, in milliseconds, in which consecutive content deltas are merged.
+   * @param maxBytes      The maximum number of event bytes merged in a chunk.
+   */
+  public ChunkCoalescer(BackpressurePublisher<T> publisher, ObjectReader reader, long windowMillis, int maxBytes) {
+    this.publisher = publisher;
+    this.reader = reader;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+    this.maxBytes = Math.max(1, maxBytes);
+  }
+  
+  /**
+   * Accept the data of a streamed event.
+   * 
+   * @param data    The buffer with the event data.
+   * @param length  The length of the data in the buffer.
+   * 
+   * @throws IOException If the data cannot be parsed.
+   */
+  public void accept(byte[] data, int length) throws IOException {
+    JsonNode chunk = treeReader.readTree(data, 0, length);
+    lock.lock();
+    try {
+      String content = getMergeableContent(chunk);
+      if (pending != null && (content == null || getChoiceIndex(chunk) != getChoiceIndex(pending))) {
+        publishPending();
+      }
+      
+      if (content == null) {
+        publish(chunk);
+      } else {
+        if (pending == null) {
+          pending = (ObjectNode) chunk;
+          pendingStart = System.nanoTime();
+          flushTimer = ConnectorScheduler.schedule(this::onWindowElapsed, windowNanos, TimeUnit.NANOSECONDS);
+        }
+        pendingContent.append(content);
+        pendingBytes += length;
+        if (pendingBytes >= maxBytes || System.nanoTime() - pendingStart >= windowNanos) {
+          publishPending();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Publish the pending chunk. Called at the end of the stream.
+   * 
+   * @throws IOException If the chunk cannot be converted.
+   */
+  public void flush() throws IOException {
+    lock.lock();
+    try {
+      publishPending();
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Called by the timer when the window elapses. Publishes the pending chunk only if this can be done without blocking,
+   * otherwise the chunk is published by the producer.
+   */
+  private void onWindowElapsed() {
+    if (lock.tryLock()) {
+      try {
+        if (pending != null && publisher.offer(toChunk())) {
+          clearPending();
+        }
+      } catch (IOException e) {
+        publisher.closeExceptionally(e);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+  
+  /**
+   * Publish the pending chunk, if any. Must be called with the lock held.
+   * 
+   * @throws IOException If the chunk cannot be converted.
+   */
+  private void publishPending() throws IOException {
+    if (pending != null) {
+      T chunk = toChunk();
+      clearPending();
+      publisher.submit(chunk);
+    }
+  }
+  
+  /**
+   * Convert the pending chunk. Must be called with the lock held.
+   * 
+   * @return The pending chunk, containing the merged content.
+   * 
+   * @throws IOException If the chunk cannot be converted.
+   */
+  private T toChunk() throws IOException {
+    ObjectNode delta = (ObjectNode) pending.get("choices").get(0).get(DELTA_FIELD);
+    delta.put(CONTENT_FIELD, pendingContent.toString());
+    return reader.readValue(pending);
+  }
+  
+  /**
+   * Discard the pending chunk. Must be called with the lock held.
+   */
+  private void clearPending() {
+    pending = null;
+    pendingContent.setLength(0);
+    pendingBytes = 0;
+    if (flushTimer != null) {
+      flushTimer.cancel(false);
+      flushTimer = null;
+    }
+  }
+  
+  /**
+   * Publish a chunk that cannot be merged.
+   * 
+   * @param chunk The chunk.
+   * 
+   * @throws IOException If the chunk cannot be converted.
+   */
+  private void publish(JsonNode chunk) throws IOException {
+    T item = reader.readValue(chunk);
+    publisher.submit(item);
+  }
+  
+  /**
+   * Get the content of a chunk that only carries a content delta for a single choice.
+   * 
+   * @param chunk The chunk.
+   * 
+   * @return The content or <code>null</code> if the chunk cannot be merged.
+   */
+  static String getMergeableContent(JsonNode chunk) {
+    String content = null;
+    JsonNode choices = chunk.get("choices");
+    JsonNode usage = chunk.get("usage");
+    if (chunk.isObject() && choices != null && choices.isArray() && choices.size() == 1 
+        && (usage == null || usage.isNull())) {
+      JsonNode choice = choices.get(0);
+      JsonNode delta = choice.get(DELTA_FIELD);
+      if (delta != null && delta.isObject() && hasOnlyNullFieldsExcept(choice, INDEX_FIELD, DELTA_FIELD)
+          && hasOnlyNullFieldsExcept(delta, CONTENT_FIELD)) {
+        JsonNode contentNode = delta.get(CONTENT_FIELD);
+        if (contentNode != null && contentNode.isTextual()) {
+          content = contentNode.asText();
+        }
+      }
+    }
+    return content;
+  }
+  
+  /**
+   * Check that all the fields of an object, except the given ones, are null.
+   * 
+   * @param node    The object.
+   * @param allowed The names of the fields that can have a value.
+   * 
+   * @return <code>true</code> if the other fields are null.
+   */
+  private static boolean hasOnlyNullFieldsExcept(JsonNode node, String... allowed) {
+    boolean onlyNull = true;
+    Iterator<Entry<String, JsonNode>> fields = node.fields();
+    while (onlyNull && fields.hasNext()) {
+      Entry<String, JsonNode> field = fields.next();
+      onlyNull = field.getValue().isNull() || Arrays.asList(allowed).contains(field.getKey());
+    }
+    return onlyNull;
+  }
+  
+  /**
+   * Get the index of the first choice of a chunk.
+   * 
+   * @param chunk The chunk.
+   * 
+   * @return The index of the choice, or -1.
+   */
+  private static int getChoiceIndex(JsonNode chunk) {
+    JsonNode choices = chunk.get("choices");
+    return choices != null && choices.size() > 0 ? choices.get(0).path(INDEX_FIELD).asInt(-1) : -1;
+  }
+}
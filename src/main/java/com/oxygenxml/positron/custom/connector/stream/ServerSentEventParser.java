@@ -0,0 +1,352 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.stream;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * Parser for Server Sent Events (SSE) that works directly on the bytes of a {@link BufferedSource}.
+ * The lines are copied in reusable buffers and the data of an event is handed to the listener as a byte slice,
+ * so no intermediate strings are built for the event data.
+ * <br><br>
+ * Supports multi-line <code>data</code> fields, <code>event</code>, <code>id</code>, <code>retry</code> and comments. 
+ * Lines can be terminated by LF, CR or CRLF. An event that is not terminated by an empty line before the end of the stream
+ * is incomplete and it is discarded.
+ * 
+ * @author cosmin_duna
+ */
+public class ServerSentEventParser {
+  
+  /**
+   * Listener notified about the parsed events.
+   */
+  public interface Listener {
+    /**
+     * Called when an event is dispatched.
+     * 
+     * @param lastEventId The last event ID, or <code>null</code>.
+     * @param eventType   The event type, or <code>null</code> when the event has no type.
+     * @param data        The buffer containing the data of the event. Valid only during this call.
+     * @param length      The length of the data from the buffer.
+     * 
+     * @throws IOException If the event cannot be processed.
+     */
+    void onEvent(String lastEventId, String eventType, byte[] data, int length) throws IOException;
+    
+    /**
+     * Called when the server changes the reconnection time.
+     * 
+     * @param reconnectionTime The reconnection time, in milliseconds.
+     */
+    default void onRetry(long reconnectionTime) {
+      // Nothing by default.
+    }
+    
+    /**
+     * Called for a line that is ignored because it does not contain a known SSE field.
+     * 
+     * @param line   The buffer containing the line. Valid only during this call.
+     * @param length The length of the line from the buffer.
+     * 
+     * @throws IOException If the line cannot be processed.
+     */
+    default void onIgnoredLine(byte[] line, int length) throws IOException {
+      // Nothing by default.
+    }
+  }
+  
+  /**
+   * The maximum size of a line or of the data of an event.
+   */
+  private static final int MAX_SIZE = 16 * 1024 * 1024;
+  
+  /**
+   * The bytes that terminate a line.
+   */
+  private static final ByteString LINE_TERMINATORS = ByteString.encodeUtf8("\r\n");
+  
+  /**
+   * The source with the SSE bytes.
+   */
+  private final BufferedSource source;
+  
+  /**
+   * The reusable buffer for the current line.
+   */
+  private byte[] line = new byte[512];
+  
+  /**
+   * The reusable buffer for the data of the current event.
+   */
+  private byte[] data = new byte[1024];
+  
+  /**
+   * The length of the data of the current event.
+   */
+  private int dataLength;
+  
+  /**
+   * <code>true</code> if the current event has at least one data field.
+   */
+  private boolean hasData;
+  
+  /**
+   * The type of the current event.
+   */
+  private String eventType;
+  
+  /**
+   * The last event ID.
+   */
+  private String lastEventId;
+  
+  /**
+   * <code>true</code> if the last line was terminated by CR, so a LF that follows it belongs to the same terminator.
+   */
+  private boolean skipLineFeed;
+  
+  /**
+   * Constructor.
+   * 
+   * @param source The source with the SSE bytes.
+   */
+  public ServerSentEventParser(BufferedSource source) {
+    this.source = source;
+  }
+  
+  /**
+   * Read lines until an event is dispatched to the listener or the source is exhausted.
+   * 
+   * @param listener The listener notified about the parsed events.
+   * 
+   * @return <code>true</code> if an event was dispatched, <code>false</code> if the source was exhausted.
+   * 
+   * @throws IOException If the source cannot be read or the listener fails.
+   */
+  public boolean next(Listener listener) throws IOException {
+    boolean dispatched = false;
+    int lineLength;
+    while (!dispatched && (lineLength = readLine()) != -1) {
+      if (lineLength == 0) {
+        dispatched = dispatch(listener);
+      } else if (line[0] != ':') {
+        processField(lineLength, listener);
+      }
+      // Lines starting with colon are comments.
+    }
+    // At the end of the stream, the incomplete event is discarded.
+    return dispatched;
+  }
+  
+  /**
+   * Dispatch the current event, if it has data.
+   * 
+   * @param listener The listener to notify.
+   * 
+   * @return <code>true</code> if an event was dispatched.
+   * 
+   * @throws IOException If the listener fails.
+   */
+  private boolean dispatch(Listener listener) throws IOException {
+    boolean dispatched = false;
+    if (hasData) {
+      listener.onEvent(lastEventId, eventType, data, dataLength);
+      dispatched = true;
+    }
+    hasData = false;
+    dataLength = 0;
+    eventType = null;
+    return dispatched;
+  }
+
+  /**
+   * Process a line containing a field.
+   * 
+   * @param lineLength The length of the line.
+   * @param listener   The listener to notify.
+   * 
+   * @throws IOException If the listener fails.
+   */
+  private void processField(int lineLength, Listener listener) throws IOException {
+    int colon = 0;
+    while (colon < lineLength && line[colon] != ':') {
+      colon++;
+    }
+    int valueStart = colon + 1;
+    if (valueStart < lineLength && line[valueStart] == ' ') {
+      valueStart++;
+    }
+    valueStart = Math.min(valueStart, lineLength);
+    int valueLength = lineLength - valueStart;
+    
+    if (isField("data", colon)) {
+      appendData(valueStart, valueLength);
+    } else if (isField("event", colon)) {
+      eventType = new String(line, valueStart, valueLength, StandardCharsets.UTF_8);
+    } else if (isField("id", colon)) {
+      if (indexOf((byte) 0, valueStart, lineLength) == -1) {
+        lastEventId = new String(line, valueStart, valueLength, StandardCharsets.UTF_8);
+      }
+    } else if (isField("retry", colon)) {
+      long retry = parseDigits(valueStart, lineLength);
+      if (retry >= 0) {
+        listener.onRetry(retry);
+      }
+    } else {
+      listener.onIgnoredLine(line, lineLength);
+    }
+  }
+  
+  /**
+   * Append a data field value to the data of the current event.
+   * 
+   * @param valueStart  The start of the value in the line buffer.
+   * @param valueLength The length of the value.
+   * 
+   * @throws IOException If the data of the event is too large.
+   */
+  private void appendData(int valueStart, int valueLength) throws IOException {
+    int separatorLength = hasData ? 1 : 0;
+    int newLength = dataLength + separatorLength + valueLength;
+    if (newLength > data.length) {
+      data = grow(data, newLength);
+    }
+    if (hasData) {
+      data[dataLength] = '\n';
+    }
+    System.arraycopy(line, valueStart, data, dataLength + separatorLength, valueLength);
+    dataLength = newLength;
+    hasData = true;
+  }
+  
+  /**
+   * Read the next line in the line buffer, without the line terminator.
+   * 
+   * @return The length of the line or -1 if the source is exhausted.
+   * 
+   * @throws IOException If the source cannot be read or the line is too large.
+   */
+  private int readLine() throws IOException {
+    if (skipLineFeed) {
+      skipLineFeed = false;
+      if (source.request(1) && source.getBuffer().getByte(0) == '\n') {
+        source.skip(1);
+      }
+    }
+    
+    int lineLength = -1;
+    long terminator = source.indexOfElement(LINE_TERMINATORS);
+    Buffer buffer = source.getBuffer();
+    long available = terminator != -1 ? terminator : buffer.size();
+    if (terminator != -1 || available > 0) {
+      if (available > MAX_SIZE) {
+        throw new IOException("SSE line exceeds " + MAX_SIZE + " bytes");
+      }
+      lineLength = (int) available;
+      if (lineLength > line.length) {
+        line = grow(line, lineLength);
+      }
+      int read = 0;
+      while (read < lineLength) {
+        read += buffer.read(line, read, lineLength - read);
+      }
+      if (terminator != -1) {
+        // The LF of a CRLF terminator may not have arrived yet, so it is skipped before reading the next line.
+        skipLineFeed = buffer.readByte() == '\r';
+      }
+    }
+    return lineLength;
+  }
+  
+  /**
+   * Check if the line starts with the given field name.
+   * 
+   * @param name        The field name.
+   * @param nameLength  The length of the field name from the line.
+   * 
+   * @return <code>true</code> if the line contains the given field.
+   */
+  private boolean isField(String name, int nameLength) {
+    boolean matches = name.length() == nameLength;
+    for (int i = 0; matches && i < nameLength; i++) {
+      matches = line[i] == name.charAt(i);
+    }
+    return matches;
+  }
+  
+  /**
+   * Search a byte in the line buffer.
+   * 
+   * @param b     The byte to search.
+   * @param from  The start index, inclusive.
+   * @param to    The end index, exclusive.
+   * 
+   * @return The index of the byte or -1.
+   */
+  private int indexOf(byte b, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (line[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+  
+  /**
+   * Parse the ASCII digits from the line buffer.
+   * 
+   * @param from  The start index, inclusive.
+   * @param to    The end index, exclusive.
+   * 
+   * @return The parsed number, or -1 if the value is not made only of digits.
+   */
+  private long parseDigits(int from, int to) {
+    long value = from < to ? 0 : -1;
+    for (int i = from; i < to && value >= 0; i++) {
+      byte b = line[i];
+      if (b >= '0' && b <= '9' && value < Long.MAX_VALUE / 10) {
+        value = value * 10 + (b - '0');
+      } else {
+        value = -1;
+      }
+    }
+    return value;
+  }
+  
+  /**
+   * Grow a buffer.
+   * 
+   * @param buffer      The buffer to grow.
+   * @param minCapacity The minimum capacity needed.
+   * 
+   * @return The new buffer, containing the bytes of the old one.
+   * 
+   * @throws IOException If the needed capacity is too large.
+   */
+  private static byte[] grow(byte[] buffer, int minCapacity) throws IOException {
+    if (minCapacity > MAX_SIZE) {
+      throw new IOException("SSE event exceeds " + MAX_SIZE + " bytes");
+    }
+    int newCapacity = Math.max(minCapacity, Math.min(MAX_SIZE, buffer.length * 2));
+    byte[] newBuffer = new byte[newCapacity];
+    System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
+    return newBuffer;
+  }
+}
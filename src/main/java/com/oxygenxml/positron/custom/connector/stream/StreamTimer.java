@@ -0,0 +1,204 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.stream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+import com.oxygenxml.positron.custom.connector.metrics.LatencyHistogram;
+
+/**
+ * Records the timings of a streamed completion in the connector metrics, tagged by model and base URL:
+ * <ul>
+ * <li><code>streaming.time.to.first.byte.micros</code>: until the response is received.</li>
+ * <li><code>streaming.time.to.first.content.micros</code>: until the first chunk with content is received.</li>
+ * <li><code>streaming.chunk.gap.micros</code>: between consecutive chunks.</li>
+ * <li><code>streaming.duration.micros</code>: of the whole stream.</li>
+ * <li><code>streaming.tokens.per.second</code>: output throughput, counting a content chunk as a token.</li>
+ * </ul>
+ * A timer is used by a single stream and is called only from the thread reading the response.
+ * 
+ * @author cosmin_duna
+ */
+public class StreamTimer {
+  
+  /**
+   * The content field, as it appears in the JSON of a chunk.
+   */
+  private static final byte[] CONTENT_FIELD = "\"content\"".getBytes(StandardCharsets.US_ASCII);
+  
+  /**
+   * Histogram for the time to first byte.
+   */
+  private final LatencyHistogram timeToFirstByte;
+  
+  /**
+   * Histogram for the time to first content chunk.
+   */
+  private final LatencyHistogram timeToFirstContent;
+  
+  /**
+   * Histogram for the gaps between chunks.
+   */
+  private final LatencyHistogram chunkGaps;
+  
+  /**
+   * Histogram for the total duration.
+   */
+  private final LatencyHistogram duration;
+  
+  /**
+   * Histogram for the output throughput.
+   */
+  private final LatencyHistogram throughput;
+  
+  /**
+   * The start of the stream, in nanoseconds.
+   */
+  private final long start = System.nanoTime();
+  
+  /**
+   * The time the previous chunk was received, in nanoseconds, or 0.
+   */
+  private long previousChunk;
+  
+  /**
+   * The number of chunks with content.
+   */
+  private long contentChunks;
+  
+  /**
+   * Constructor.
+   * 
+   * @param baseUrl The base URL of the AI service.
+   * @param model   The model of the completion.
+   */
+  public StreamTimer(String baseUrl, String model) {
+    String[] tags = new String[] {"model", String.valueOf(model), "baseUrl", String.valueOf(baseUrl)};
+    timeToFirstByte = ConnectorMetrics.getHistogram("streaming.time.to.first.byte.micros", tags);
+    timeToFirstContent = ConnectorMetrics.getHistogram("streaming.time.to.first.content.micros", tags);
+    chunkGaps = ConnectorMetrics.getHistogram("streaming.chunk.gap.micros", tags);
+    duration = ConnectorMetrics.getHistogram("streaming.duration.micros", tags);
+    throughput = ConnectorMetrics.getHistogram("streaming.tokens.per.second", tags);
+  }
+  
+  /**
+   * Called when the response is received.
+   */
+  public void onResponse() {
+    timeToFirstByte.record(elapsedMicros(start, System.nanoTime()));
+  }
+  
+  /**
+   * Called when a chunk is received.
+   * 
+   * @param data    The buffer with the chunk data.
+   * @param length  The length of the data in the buffer.
+   */
+  public void onChunk(byte[] data, int length) {
+    long now = System.nanoTime();
+    if (previousChunk != 0) {
+      chunkGaps.record(elapsedMicros(previousChunk, now));
+    }
+    previousChunk = now;
+    
+    if (hasContent(data, length)) {
+      if (contentChunks == 0) {
+        timeToFirstContent.record(elapsedMicros(start, now));
+      }
+      contentChunks++;
+    }
+  }
+  
+  /**
+   * Called when the stream was completely received.
+   */
+  public void onComplete() {
+    long elapsedNanos = System.nanoTime() - start;
+    duration.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    if (elapsedNanos > 0 && contentChunks > 0) {
+      throughput.record(Math.round(contentChunks * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos));
+    }
+  }
+  
+  /**
+   * Compute the elapsed microseconds.
+   * 
+   * @param from  The start, in nanoseconds.
+   * @param to    The end, in nanoseconds.
+   * 
+   * @return The elapsed microseconds.
+   */
+  private static long elapsedMicros(long from, long to) {
+    return TimeUnit.NANOSECONDS.toMicros(to - from);
+  }
+  
+  /**
+   * Check if the JSON of a chunk contains a non-empty "content" string, without parsing it.
+   * 
+   * @param data    The buffer with the chunk data.
+   * @param length  The length of the data in the buffer.
+   * 
+   * @return <code>true</code> if the chunk has content.
+   */
+  static boolean hasContent(byte[] data, int length) {
+    boolean hasContent = false;
+    int last = length - CONTENT_FIELD.length;
+    for (int i = 0; !hasContent && i <= last; i++) {
+      if (data[i] == '"' && matchesContentField(data, i)) {
+        int j = skipWhitespaces(data, i + CONTENT_FIELD.length, length);
+        if (j < length && data[j] == ':') {
+          j = skipWhitespaces(data, j + 1, length);
+          hasContent = j + 1 < length && data[j] == '"' && data[j + 1] != '"';
+        }
+      }
+    }
+    return hasContent;
+  }
+  
+  /**
+   * Check if the content field name starts at the given index.
+   * 
+   * @param data  The buffer.
+   * @param index The index.
+   * 
+   * @return <code>true</code> if the content field name starts at the given index.
+   */
+  private static boolean matchesContentField(byte[] data, int index) {
+    boolean matches = true;
+    for (int k = 1; matches && k < CONTENT_FIELD.length; k++) {
+      matches = data[index + k] == CONTENT_FIELD[k];
+    }
+    return matches;
+  }
+  
+  /**
+   * Skip the JSON whitespaces.
+   * 
+   * @param data  The buffer.
+   * @param from  The start index.
+   * @param to    The end index, exclusive.
+   * 
+   * @return The index of the first character that is not a whitespace.
+   */
+  private static int skipWhitespaces(byte[] data, int from, int to) {
+    int i = from;
+    while (i < to && (data[i] == ' ' || data[i] == '\t' || data[i] == '\n' || data[i] == '\r')) {
+      i++;
+    }
+    return i;
+  }
+}
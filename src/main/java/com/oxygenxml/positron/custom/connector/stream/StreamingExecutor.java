@@ -0,0 +1,249 @@
+/*
+ *   Copyright 2025 Syncro Soft SRL
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * `*   `[`http://www.apache.org/licenses/LICENSE-2.0`](http://www.apache.org/licenses/LICENSE-2.0)
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.oxygenxml.positron.custom.connector.stream;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.oxygenxml.positron.custom.connector.config.PropertiesUtil;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+/**
+ * Connector-wide executor used to deliver the streamed chunks to the subscribers.
+ * It uses virtual threads when the JVM has them, otherwise a bounded pool of named daemon threads.
+ * 
+ * @author cosmin_duna
+ */
+public class StreamingExecutor implements Executor {
+  /**
+   * Logger for logging.
+   */
+  private static final Logger LOGGER = LoggerFactory.getLogger(StreamingExecutor.class.getName());
+  
+  /**
+   * The maximum number of platform threads used for delivering chunks.
+   */
+  public static final String STREAMING_THREADS = "POSITRON_CONNECTOR_STREAMING_THREADS";
+  
+  /**
+   * The maximum number of deliveries waiting for a platform thread.
+   */
+  public static final String STREAMING_QUEUE_SIZE = "POSITRON_CONNECTOR_STREAMING_QUEUE_SIZE";
+  
+  /**
+   * <code>false</code> to avoid using virtual threads even if the JVM supports them.
+   */
+  public static final String STREAMING_VIRTUAL_THREADS = "POSITRON_CONNECTOR_STREAMING_VIRTUAL_THREADS";
+  
+  /**
+   * The prefix for the names of the delivery threads.
+   */
+  private static final String THREAD_NAME_PREFIX = "positron-connector-stream-";
+  
+  /**
+   * Runs a rejected delivery on the publishing thread when all the threads are busy and the queue is full.
+   * After a shutdown, the delivery is rejected with an exception, so the publisher can fail the stream.
+   */
+  private static final RejectedExecutionHandler CALLER_RUNS_UNLESS_SHUT_DOWN = (task, executor) -> {
+    if (executor.isShutdown()) {
+      throw new RejectedExecutionException("The streaming executor was shut down");
+    }
+    task.run();
+  };
+  
+  /**
+   * The shared instance.
+   */
+  private static StreamingExecutor instance;
+  
+  /**
+   * The executor that runs the deliveries.
+   */
+  private final ExecutorService delegate;
+  
+  /**
+   * The number of deliveries that are currently running.
+   */
+  private final AtomicInteger activeDeliveries = new AtomicInteger();
+  
+  /**
+   * The number of deliveries waiting to be run.
+   */
+  private final AtomicInteger queuedDeliveries = new AtomicInteger();
+  
+  static {
+    ConnectorMetrics.registerGauge("streaming.executor.active", () -> getInstance().getActiveDeliveries());
+    ConnectorMetrics.registerGauge("streaming.executor.queued", () -> getInstance().getQueuedDeliveries());
+    Runtime.getRuntime().addShutdownHook(new Thread(StreamingExecutor::shutdownShared, "positron-connector-stream-shutdown"));
+  }
+  
+  /**
+   * Constructor.
+   * 
+   * @param delegate The executor that runs the deliveries.
+   */
+  StreamingExecutor(ExecutorService delegate) {
+    this.delegate = delegate;
+  }
+  
+  /**
+   * Get the shared streaming executor. A new one is created if the previous one was shut down.
+   * 
+   * @return The shared streaming executor.
+   */
+  public static synchronized StreamingExecutor getInstance() {
+    if (instance == null || instance.delegate.isShutdown()) {
+      instance = new StreamingExecutor(createDelegate());
+    }
+    return instance;
+  }
+  
+  /**
+   * Shuts down the shared streaming executor, if it was created.
+   */
+  public static synchronized void shutdownShared() {
+    if (instance != null) {
+      instance.shutdown();
+    }
+  }
+
+  /**
+   * @see Executor#execute(Runnable)
+   */
+  @Override
+  public void execute(Runnable command) {
+    queuedDeliveries.incrementAndGet();
+    try {
+      delegate.execute(() -> {
+        queuedDeliveries.decrementAndGet();
+        activeDeliveries.incrementAndGet();
+        try {
+          command.run();
+        } finally {
+          activeDeliveries.decrementAndGet();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // Not queued, after a shutdown. The caller handles the rejection.
+      queuedDeliveries.decrementAndGet();
+      throw e;
+    }
+  }
+  
+  /**
+   * @return The number of deliveries that are currently running.
+   */
+  public int getActiveDeliveries() {
+    return activeDeliveries.get();
+  }
+  
+  /**
+   * @return The number of deliveries waiting to be run.
+   */
+  public int getQueuedDeliveries() {
+    return queuedDeliveries.get();
+  }
+  
+  /**
+   * Shuts down the executor, letting the already submitted deliveries finish.
+   */
+  public void shutdown() {
+    delegate.shutdown();
+    try {
+      if (!delegate.awaitTermination(1, TimeUnit.SECONDS)) {
+        delegate.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      delegate.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  /**
+   * Create the executor that runs the deliveries.
+   * 
+   * @return The executor.
+   */
+  private static ExecutorService createDelegate() {
+    ExecutorService executor = null;
+    if (PropertiesUtil.getBooleanProperty(STREAMING_VIRTUAL_THREADS, true)) {
+      executor = createVirtualThreadsExecutor();
+    }
+    
+    if (executor == null) {
+      int threads = Math.max(1, PropertiesUtil.getIntProperty(
+          STREAMING_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors())));
+      int queueSize = Math.max(1, PropertiesUtil.getIntProperty(STREAMING_QUEUE_SIZE, 1024));
+      executor = createThreadPool(threads, queueSize);
+    }
+    return executor;
+  }
+  
+  /**
+   * Create a bounded pool of named daemon threads.
+   * 
+   * @param threads   The maximum number of threads.
+   * @param queueSize The maximum number of deliveries waiting for a thread.
+   * 
+   * @return The executor.
+   */
+  static ThreadPoolExecutor createThreadPool(int threads, int queueSize) {
+    AtomicInteger threadsCounter = new AtomicInteger();
+    ThreadFactory threadFactory = r -> {
+      Thread thread = new Thread(r, THREAD_NAME_PREFIX + threadsCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+        threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory,
+        CALLER_RUNS_UNLESS_SHUT_DOWN);
+    threadPoolExecutor.allowCoreThreadTimeOut(true);
+    return threadPoolExecutor;
+  }
+  
+  /**
+   * Create an executor that starts a named virtual thread for each delivery.
+   * Reflection is used because the add-on is compiled for Java 11.
+   * 
+   * @return The executor or <code>null</code> if the JVM does not support virtual threads.
+   */
+  private static ExecutorService createVirtualThreadsExecutor() {
+    ExecutorService executor = null;
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME_PREFIX, 1L);
+      ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+      Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      executor = (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+      LOGGER.debug("Streamed chunks are delivered on virtual threads");
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // Virtual threads are not available.
+    }
+    return executor;
+  }
+}
@@ -1,6 +1,9 @@
 package com.oxygenxml.positron.custom.connector;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -12,15 +15,19 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oxygenxml.positron.api.connector.AIConnectionException;
 import com.oxygenxml.positron.api.connector.dto.CompletionRequest;
 import com.oxygenxml.positron.api.connector.dto.CompletionResponse;
 import com.oxygenxml.positron.api.connector.dto.Message;
 import com.oxygenxml.positron.api.connector.dto.MessageTextContent;
+import com.oxygenxml.positron.api.connector.dto.ModerationRequest;
 import com.oxygenxml.positron.api.connector.dto.Pair;
 import com.oxygenxml.positron.api.connector.dto.RoleType;
 import com.oxygenxml.positron.custom.connector.auth.DummyProxyProvider;
 
 import okhttp3.Headers;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -154,4 +161,107 @@ public class CustomAIConnectorTest {
     assertEquals(server.url("/").toString() + "abc/def/chat/completions?queryParam1=queryParamVal1",  request1.getRequestUrl().toString());
   }
   
+  /**
+   * <p><b>Description:</b> Test that the moderation of a choice of a response with several choices 
+   * is not speculative, so a flagged response is reported as flagged.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testSpeculativeModerationOfMultiChoiceResponse() throws Exception {
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        MockResponse response;
+        if (request.getPath().contains("moderations")) {
+          boolean flagged = request.getBody().readUtf8().contains("bad");
+          response = new MockResponse().setBody("{\"results\": [{\"flagged\": " + flagged + "}]}");
+        } else {
+          response = new MockResponse().setBody("{\"choices\": ["
+              + "{\"index\": 0, \"message\": {\"role\": \"assistant\", \"content\": \"A clean answer.\"}},"
+              + "{\"index\": 1, \"message\": {\"role\": \"assistant\", \"content\": \"A bad answer.\"}}"
+              + "]}");
+        }
+        return response;
+      }
+    });
+    
+    CustomAIConnector customAIConnector = new CustomAIConnector();
+    Map<String, Object> resolvedParameter = new HashMap<>();
+    resolvedParameter.put(CustomAIConnector.BASE_URL_PARAM_ID, server.url("/").toString());
+    resolvedParameter.put(CustomAIConnector.AI_KEY_PARAM_ID, "apiKey");
+    resolvedParameter.put(CustomAIConnector.ENABLE_TEXT_MODERATION_PARAM_AI, true);
+    resolvedParameter.put(CustomAIConnector.SPECULATIVE_MODERATION_PARAM_ID, true);
+    customAIConnector.setResolvedParameters(resolvedParameter);
+    CustomAIService aiService = (CustomAIService) customAIConnector.createAIService(new DummyProxyProvider(), 0);
+    
+    CompletionRequest completionRequest = new CompletionRequest();
+    completionRequest.setModel("gpt-3.5");
+    ArrayList<Message> messages = new ArrayList<Message>();
+    messages.add(new Message(RoleType.USER, new MessageTextContent("Give me two answers")));
+    completionRequest.setMessages(messages);
+    CompletionResponse completion = aiService.getCompletion(completionRequest);
+    assertEquals(2, completion.getChoices().size());
+    
+    ObjectMapper mapper = new ObjectMapper();
+    // A choice alone, and the choices joined
+    assertTrue(aiService.applyModeration(
+        mapper.readValue("{\"input\": \"A bad answer.\"}", ModerationRequest.class)));
+    assertTrue(aiService.applyModeration(
+        mapper.readValue("{\"input\": \"A clean answer.\\nA bad answer.\"}", ModerationRequest.class)));
+    // A new input is moderated in parallel with its completion, so it is reported as passed
+    assertFalse(aiService.applyModeration(
+        mapper.readValue("{\"input\": \"Another bad question\"}", ModerationRequest.class)));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that a speculative moderation done through a service 
+   * gates the completion sent through another service of the same connector.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testSpeculativeModerationAcrossServices() throws Exception {
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        MockResponse response;
+        if (request.getPath().contains("moderations")) {
+          boolean flagged = request.getBody().readUtf8().contains("bad");
+          response = new MockResponse().setBody("{\"results\": [{\"flagged\": " + flagged + "}]}");
+        } else {
+          response = new MockResponse().setBody("{\"choices\": ["
+              + "{\"index\": 0, \"message\": {\"role\": \"assistant\", \"content\": \"An answer.\"}}"
+              + "]}");
+        }
+        return response;
+      }
+    });
+    
+    CustomAIConnector customAIConnector = new CustomAIConnector();
+    Map<String, Object> resolvedParameter = new HashMap<>();
+    resolvedParameter.put(CustomAIConnector.BASE_URL_PARAM_ID, server.url("/").toString());
+    // A key of its own, so the moderations of the other tests are not shared
+    resolvedParameter.put(CustomAIConnector.AI_KEY_PARAM_ID, "acrossServicesKey");
+    resolvedParameter.put(CustomAIConnector.ENABLE_TEXT_MODERATION_PARAM_AI, true);
+    resolvedParameter.put(CustomAIConnector.SPECULATIVE_MODERATION_PARAM_ID, true);
+    customAIConnector.setResolvedParameters(resolvedParameter);
+    CustomAIService moderationService = (CustomAIService) customAIConnector.createAIService(new DummyProxyProvider(), 0);
+    CustomAIService completionService = (CustomAIService) customAIConnector.createAIService(new DummyProxyProvider(), 0);
+    
+    ObjectMapper mapper = new ObjectMapper();
+    assertFalse(moderationService.applyModeration(
+        mapper.readValue("{\"input\": \"A bad question\"}", ModerationRequest.class)));
+    
+    CompletionRequest completionRequest = new CompletionRequest();
+    completionRequest.setModel("gpt-3.5");
+    ArrayList<Message> messages = new ArrayList<Message>();
+    messages.add(new Message(RoleType.USER, new MessageTextContent("A bad question")));
+    completionRequest.setMessages(messages);
+    assertThrows(AIConnectionException.class, () -> completionService.getCompletion(completionRequest));
+  }
 }
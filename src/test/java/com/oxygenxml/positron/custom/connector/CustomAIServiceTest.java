@@ -0,0 +1,51 @@
+package com.oxygenxml.positron.custom.connector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oxygenxml.positron.api.connector.dto.CompletionChunk;
+import com.oxygenxml.positron.api.connector.dto.CompletionResponse;
+
+/**
+ * Tests for {@link CustomAIService}
+ */
+class CustomAIServiceTest {
+
+  /**
+   * <p><b>Description:</b> Test that a cached response is replayed as a stream
+   * with the tool calls and the finish reason of its choices.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testReplayToolCalls() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+    CompletionResponse response = mapper.readValue("{\"choices\": ["
+        + "{\"index\": 0, \"finish_reason\": \"tool_calls\", \"message\": {\"role\": \"assistant\", \"content\": null, "
+        + "\"tool_calls\": [{\"id\": \"call_1\", \"type\": \"function\", "
+        + "\"function\": {\"name\": \"get_weather\", \"arguments\": \"{}\"}}]}},"
+        + "{\"index\": 1, \"finish_reason\": \"length\", \"message\": {\"role\": \"assistant\", \"content\": \"Cut\"}}"
+        + "]}", CompletionResponse.class);
+
+    List<CompletionChunk> chunks = CustomAIService.toCompletionChunks(response);
+    assertTrue(chunks.size() >= 2);
+
+    JsonNode toolCallChoice = mapper.valueToTree(chunks.get(0)).path("choices").path(0);
+    assertEquals("tool_calls", toolCallChoice.path("finish_reason").asText());
+    JsonNode toolCall = toolCallChoice.path("delta").path("tool_calls").path(0);
+    assertEquals("get_weather", toolCall.path("function").path("name").asText());
+    assertEquals(0, toolCall.path("index").asInt(-1));
+
+    JsonNode truncatedChoice = mapper.valueToTree(chunks.get(1)).path("choices").path(0);
+    assertEquals("length", truncatedChoice.path("finish_reason").asText());
+    assertEquals("Cut", truncatedChoice.path("delta").path("content").asText());
+  }
+}
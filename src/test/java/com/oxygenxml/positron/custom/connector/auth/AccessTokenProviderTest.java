@@ -1,12 +1,23 @@
 package com.oxygenxml.positron.custom.connector.auth;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -180,4 +191,165 @@ class AccessTokenProviderTest {
       System.clearProperty(AccessTokenProvider.AUTH_DOMAIN);
       System.clearProperty(AccessTokenProvider.AUTH_TOKEN_URL);
   }
+  
+  /**
+   * <p><b>Description:</b> Test that an expired token is no longer used.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testTokenExpiration() throws Exception {
+    AtomicLong time = new AtomicLong(1000);
+    AccessTokenProvider provider = new AccessTokenProvider(new DummyProxyProvider()) {
+      @Override
+      long currentTimeMillis() {
+        return time.get();
+      }
+    };
+    System.setProperty(AccessTokenProvider.AUTH_REFRESH_PERCENT, "0");
+    try {
+      provider.setAccessToken("token", TimeUnit.HOURS.toMillis(1));
+      time.addAndGet(TimeUnit.MINUTES.toMillis(59));
+      assertEquals("token", provider.getAccessToken().get());
+      
+      // Not used in the last 30 seconds of its lifetime
+      time.addAndGet(TimeUnit.SECONDS.toMillis(40));
+      assertFalse(provider.getAccessToken().isPresent());
+      
+      // Without a known lifetime, the token does not expire
+      provider.setAccessToken("other-token");
+      time.addAndGet(TimeUnit.DAYS.toMillis(10));
+      assertEquals("other-token", provider.getAccessToken().get());
+    } finally {
+      System.clearProperty(AccessTokenProvider.AUTH_REFRESH_PERCENT);
+    }
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that a new token is obtained in background before the current one expires.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testBackgroundRefresh() throws Exception {
+    mockWebServer = new MockWebServer();
+    mockWebServer.enqueue(new MockResponse().setResponseCode(200).setHeader("Content-Type", "application/json")
+        .setBody("{ \"access_token\": \"first-token\", \"expires_in\": 1 }"));
+    mockWebServer.enqueue(new MockResponse().setResponseCode(200).setHeader("Content-Type", "application/json")
+        .setBody("{ \"access_token\": \"second-token\", \"expires_in\": 3600 }"));
+    mockWebServer.start();
+    
+    AccessTokenProvider provider = new AccessTokenProvider(new DummyProxyProvider());
+    System.setProperty(AccessTokenProvider.AUTH_TOKEN_URL, mockWebServer.url("/token").toString());
+    try {
+      provider.loadAuthenticationToken();
+      assertEquals("first-token", provider.getAccessToken().get());
+      
+      // Requested again after 80% of the lifetime
+      assertNotNull(mockWebServer.takeRequest());
+      assertNotNull(mockWebServer.takeRequest(5, TimeUnit.SECONDS));
+      long deadline = System.currentTimeMillis() + 5000;
+      while (!"second-token".equals(provider.getAccessToken().orElse(null)) 
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals("second-token", provider.getAccessToken().get());
+    } finally {
+      System.clearProperty(AccessTokenProvider.AUTH_TOKEN_URL);
+    }
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the concurrent callers share a single token request.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testSingleTokenRequest() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    AccessTokenProvider provider = new AccessTokenProvider(new DummyProxyProvider()) {
+      @Override
+      public void loadAuthenticationToken() throws AuthRequestException {
+        requests.incrementAndGet();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        setAccessToken("token-" + requests.get());
+      }
+    };
+    
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<String>> tokens = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        tokens.add(executor.submit(provider::getOrLoadAccessToken));
+      }
+      Thread.sleep(200);
+      release.countDown();
+      for (Future<String> token : tokens) {
+        assertEquals("token-1", token.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(1, requests.get());
+      
+      // A token that was already replaced is not requested again
+      assertEquals("token-1", provider.refreshAccessToken("rejected-token"));
+      assertEquals(1, requests.get());
+      assertEquals("token-2", provider.refreshAccessToken("token-1"));
+      assertEquals(2, requests.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that a failed token request is not repeated right away.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testFailureBackoff() throws Exception {
+    AtomicLong time = new AtomicLong(1000);
+    AtomicInteger requests = new AtomicInteger();
+    AccessTokenProvider provider = new AccessTokenProvider(new DummyProxyProvider()) {
+      @Override
+      public void loadAuthenticationToken() throws AuthRequestException {
+        if (requests.incrementAndGet() < 3) {
+          throw new AuthRequestException("Unavailable");
+        }
+        setAccessToken("token");
+      }
+      
+      @Override
+      long currentTimeMillis() {
+        return time.get();
+      }
+    };
+    
+    assertThrows(AuthRequestException.class, provider::getOrLoadAccessToken);
+    AuthRequestException cached = assertThrows(AuthRequestException.class, provider::getOrLoadAccessToken);
+    assertEquals("Unavailable", cached.getMessage());
+    assertEquals(1, requests.get());
+    
+    // Retried after one second, then after two seconds
+    time.addAndGet(1000);
+    assertThrows(AuthRequestException.class, provider::getOrLoadAccessToken);
+    assertEquals(2, requests.get());
+    time.addAndGet(1000);
+    assertThrows(AuthRequestException.class, provider::getOrLoadAccessToken);
+    assertEquals(2, requests.get());
+    time.addAndGet(1000);
+    assertEquals("token", provider.getOrLoadAccessToken());
+    assertEquals(3, requests.get());
+  }
 }
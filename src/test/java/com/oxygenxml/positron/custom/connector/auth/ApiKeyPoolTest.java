@@ -0,0 +1,178 @@
+package com.oxygenxml.positron.custom.connector.auth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * Tests for {@link ApiKeyPool}
+ */
+class ApiKeyPoolTest {
+
+  /**
+   * <p><b>Description:</b> Test that the keys are used in turn and a throttled key waits for its cooldown.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testRoundRobinWithCooldown() throws Exception {
+    AtomicLong time = new AtomicLong(1000);
+    ApiKeyPool pool = new ApiKeyPool(List.of("a", "b", "c"), ApiKeyPool.Strategy.ROUND_ROBIN, 5000) {
+      @Override
+      long currentTimeMillis() {
+        return time.get();
+      }
+    };
+    assertEquals("a", choose(pool));
+    assertEquals("b", choose(pool));
+    assertEquals("c", choose(pool));
+    assertEquals("a", choose(pool));
+    
+    pool.onThrottled(pool.getKeys().get(1), -1);
+    assertEquals("c", choose(pool));
+    assertEquals("a", choose(pool));
+    assertEquals("c", choose(pool));
+    
+    // Available again after the default cooldown
+    time.addAndGet(5000);
+    assertEquals("a", choose(pool));
+    assertEquals("b", choose(pool));
+    
+    // When all the keys are throttled, the one available first is used
+    pool.onThrottled(pool.getKeys().get(0), 300);
+    pool.onThrottled(pool.getKeys().get(1), 100);
+    pool.onThrottled(pool.getKeys().get(2), 200);
+    assertEquals("b", choose(pool));
+    
+    Set<ApiKeyPool.ApiKey> tried = new HashSet<>(pool.getKeys());
+    assertNull(pool.choose(tried));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the least recently throttled key is preferred.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testLeastRecentlyThrottled() throws Exception {
+    AtomicLong time = new AtomicLong(1000);
+    ApiKeyPool pool = new ApiKeyPool(List.of("a", "b", "c"), ApiKeyPool.Strategy.LEAST_RECENTLY_THROTTLED, 0) {
+      @Override
+      long currentTimeMillis() {
+        return time.get();
+      }
+    };
+    pool.onThrottled(pool.getKeys().get(0), 0);
+    time.addAndGet(10);
+    pool.onThrottled(pool.getKeys().get(2), 0);
+    time.addAndGet(10);
+    
+    // Never throttled first, then the one throttled the longest time ago
+    assertEquals("b", choose(pool));
+    assertEquals("b", choose(pool));
+    pool.onThrottled(pool.getKeys().get(1), 0);
+    assertEquals("a", choose(pool));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the pools with different keys have different gauges, 
+   * which do not reveal the keys.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testGauges() throws Exception {
+    String baseUrl = "https://gauges.example.com/v1/";
+    ApiKeyPool.create("sk-first-1,sk-first-2", baseUrl);
+    ApiKeyPool.create("sk-second-1,sk-second-2", baseUrl);
+    
+    List<String> gauges = ConnectorMetrics.getGaugeValues().keySet().stream()
+        .filter(name -> name.startsWith("apikey.requests") && name.contains(baseUrl))
+        .collect(Collectors.toList());
+    assertEquals(4, gauges.size());
+    assertTrue(gauges.stream().noneMatch(name -> name.contains("sk-")));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the keys are parsed and a single key does not need a pool.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testParseKeys() throws Exception {
+    assertEquals(List.of("sk-1", "sk-2", "sk-3"), ApiKeyPool.parseKeys(" sk-1, sk-2;sk-3\nsk-1 "));
+    assertNull(ApiKeyPool.create("sk-1", "https://api.example.com/v1/"));
+    assertEquals(ApiKeyPool.Strategy.LEAST_RECENTLY_THROTTLED, ApiKeyPool.parseStrategy("least-recently-throttled"));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that a throttled request is sent again right away with another key.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testThrottledRequestMovedToAnotherKey() throws Exception {
+    MockWebServer server = new MockWebServer();
+    server.enqueue(new MockResponse().setResponseCode(429).setHeader("retry-after-ms", "60000"));
+    server.enqueue(new MockResponse().setBody("ok"));
+    server.enqueue(new MockResponse().setBody("ok"));
+    server.start();
+    try {
+      ApiKeyPool pool = new ApiKeyPool(List.of("a", "b"), ApiKeyPool.Strategy.ROUND_ROBIN, 1000);
+      OkHttpClient client = new OkHttpClient.Builder().addInterceptor(new ApiKeyInterceptor(pool)).build();
+      try (Response response = client.newCall(new Request.Builder().url(server.url("/")).build()).execute()) {
+        assertEquals(200, response.code());
+      }
+      assertEquals("Bearer a", server.takeRequest().getHeader("Authorization"));
+      assertEquals("Bearer b", server.takeRequest().getHeader("Authorization"));
+      
+      // The throttled key is cooling down
+      try (Response response = client.newCall(new Request.Builder().url(server.url("/")).build()).execute()) {
+        assertEquals(200, response.code());
+      }
+      assertEquals("Bearer b", server.takeRequest().getHeader("Authorization"));
+      assertEquals(1, pool.getKeys().get(0).getThrottled());
+      assertEquals(2, pool.getKeys().get(1).getRequests());
+    } finally {
+      server.shutdown();
+    }
+  }
+  
+  /**
+   * Choose a key for a new request.
+   * 
+   * @param pool The pool.
+   * 
+   * @return The value of the chosen key.
+   */
+  private static String choose(ApiKeyPool pool) {
+    return pool.choose(Collections.emptySet()).getValue();
+  }
+}
@@ -0,0 +1,53 @@
+package com.oxygenxml.positron.custom.connector.auth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for {@link TokenStore}
+ */
+class TokenStoreTest {
+  
+  /**
+   * <p><b>Description:</b> Test that a stored token is encrypted and can be read only with the same credentials.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testStoreToken(@TempDir Path dir) throws Exception {
+    AuthConfig config = new AuthConfig("https://auth.example.com/oauth/token", "client", "secret", "api", null, null);
+    TokenStore store = new TokenStore(dir);
+    assertNull(store.load(config));
+    
+    store.save(config, "the-access-token", 123456789L);
+    TokenStore.StoredToken stored = new TokenStore(dir).load(config);
+    assertNotNull(stored);
+    assertEquals("the-access-token", stored.getToken());
+    assertEquals(123456789L, stored.getExpirationTime());
+    
+    // The token is not stored in clear
+    try (Stream<Path> files = Files.list(dir)) {
+      Path file = files.findFirst().get();
+      assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains("the-access-token"));
+    }
+    
+    // Another audience uses another token
+    assertNull(store.load(new AuthConfig("https://auth.example.com/oauth/token", "client", "secret", "other", null, null)));
+    
+    // Cannot be decrypted after the secret changed, so it is discarded
+    assertNull(store.load(new AuthConfig("https://auth.example.com/oauth/token", "client", "changed", "api", null, null)));
+    assertNull(store.load(config));
+  }
+}
@@ -0,0 +1,67 @@
+package com.oxygenxml.positron.custom.connector.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+/**
+ * Tests for {@link ModerationCache}
+ */
+class ModerationCacheTest {
+
+  /**
+   * <p><b>Description:</b> Test that the moderation input is split into array elements or paragraphs.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testSegments() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+    List<JsonNode> segments = ModerationCache.getSegments(TextNode.valueOf("First message\n\n  \nSecond\nmessage\n\n"));
+    assertEquals(2, segments.size());
+    assertEquals("First message", segments.get(0).textValue());
+    assertEquals("Second\nmessage", segments.get(1).textValue());
+    
+    segments = ModerationCache.getSegments(mapper.readTree("[\"a\", {\"type\":\"text\",\"text\":\"b\"}]"));
+    assertEquals(2, segments.size());
+    
+    assertTrue(ModerationCache.getSegments(null).isEmpty());
+    assertTrue(ModerationCache.getSegments(mapper.readTree("{\"type\":\"text\"}")).isEmpty());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the verdicts are cached for each segment and scope.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testVerdicts() throws Exception {
+    ModerationCache cache = new ModerationCache(2, 60000);
+    String clean = ModerationCache.getKey("scope", TextNode.valueOf("clean"));
+    String flagged = ModerationCache.getKey("scope", TextNode.valueOf("flagged"));
+    assertNotEquals(clean, ModerationCache.getKey("other", TextNode.valueOf("clean")));
+    
+    assertNull(cache.get(clean));
+    cache.put(clean, false);
+    cache.put(flagged, true);
+    assertEquals(Boolean.FALSE, cache.get(clean));
+    assertEquals(Boolean.TRUE, cache.get(flagged));
+    
+    // Bounded
+    cache.put(ModerationCache.getKey("scope", TextNode.valueOf("third")), false);
+    assertNull(cache.get(clean));
+  }
+}
@@ -0,0 +1,152 @@
+package com.oxygenxml.positron.custom.connector.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for {@link ResponseCache}
+ */
+class ResponseCacheTest {
+  
+  /**
+   * The temporary directory of the disk cache.
+   */
+  @TempDir
+  Path directory;
+
+  /**
+   * <p><b>Description:</b> Test that the least recently used entries are evicted from memory.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testMemoryEviction() throws Exception {
+    ExpiringLruCache<String, byte[]> memory = new ExpiringLruCache<>(2, 100, 60000, value -> value.length);
+    memory.put("a", new byte[10]);
+    memory.put("b", new byte[10]);
+    memory.get("a");
+    memory.put("c", new byte[10]);
+    
+    assertNull(memory.get("b"));
+    assertEquals(2, memory.size());
+    
+    // Evicted by weight
+    memory.put("d", new byte[95]);
+    assertEquals(1, memory.size());
+    assertEquals(95, memory.getWeight());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the responses evicted from memory are found on disk, also by a new cache.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testDiskTier() throws Exception {
+    byte[] value = "{\"choices\":[]}".getBytes(StandardCharsets.UTF_8);
+    ResponseCache cache = new ResponseCache(
+        new ExpiringLruCache<>(1, 1000, 60000, v -> v.length), new DiskCache(directory, 1000, 60000));
+    cache.put("k1", value);
+    cache.put("k2", new byte[10]);
+    assertArrayEquals(value, cache.get("k1"));
+    
+    // Simulate a restart
+    ResponseCache restarted = new ResponseCache(
+        new ExpiringLruCache<>(1, 1000, 60000, v -> v.length), new DiskCache(directory, 1000, 60000));
+    assertArrayEquals(value, restarted.get("k1"));
+    assertNull(restarted.get("k3"));
+    
+    // Expired
+    ResponseCache expired = new ResponseCache(
+        new ExpiringLruCache<>(1, 1000, 0, v -> v.length), new DiskCache(directory, 1000, 0));
+    assertNull(expired.get("k1"));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that a response found on disk is kept in memory only for the rest of its lifetime.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testDiskHitKeepsLifetime() throws Exception {
+    byte[] value = "{\"choices\":[]}".getBytes(StandardCharsets.UTF_8);
+    new DiskCache(directory, 1000, 60000).put("k1", value);
+    // Almost expired on disk
+    Path file = directory.resolve("k1.cache");
+    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 59000));
+    
+    ResponseCache cache = new ResponseCache(
+        new ExpiringLruCache<>(10, 1000, 60000, v -> v.length), new DiskCache(directory, 1000, 60000));
+    assertArrayEquals(value, cache.get("k1"));
+    Files.delete(file);
+    assertArrayEquals(value, cache.get("k1"));
+    
+    Thread.sleep(1500);
+    assertNull(cache.get("k1"));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the disk cache directory and files can be accessed only by their owner.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testDiskPermissions() throws Exception {
+    Assumptions.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+    Path cacheDir = directory.resolve("cache");
+    DiskCache disk = new DiskCache(cacheDir, 1000, 60000);
+    disk.put("k1", new byte[10]);
+    
+    assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(cacheDir)));
+    assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(cacheDir.resolve("k1.cache"))));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that only the requests with the temperature 0 are cached, 
+   * with the same key with and without streaming.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testKeys() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode request = mapper.readTree("{\"model\":\"m\",\"temperature\":0,\"messages\":[{\"role\":\"user\",\"content\":\"x\"}]}");
+    JsonNode streamed = mapper.readTree("{\"stream\":true,\"messages\":[{\"content\":\"x\",\"role\":\"user\"}],\"temperature\":0,\"model\":\"m\"}");
+    
+    assertTrue(ResponseCache.isDeterministic(request));
+    assertTrue(ResponseCache.isDeterministic(streamed));
+    assertFalse(ResponseCache.isDeterministic(mapper.readTree("{\"model\":\"m\",\"temperature\":0.7}")));
+    assertFalse(ResponseCache.isDeterministic(mapper.readTree("{\"model\":\"m\"}")));
+    
+    assertEquals(ResponseCache.getKey("s", request), ResponseCache.getKey("s", streamed));
+    assertNotEquals(ResponseCache.getKey("s", request), ResponseCache.getKey("other", request));
+  }
+}
@@ -0,0 +1,115 @@
+package com.oxygenxml.positron.custom.connector.concurrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oxygenxml.positron.custom.connector.http.RetryBudget;
+
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import retrofit2.Call;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+
+/**
+ * Tests for {@link HedgedCall}
+ */
+class HedgedCallTest {
+  
+  interface TestApi {
+    @GET("completion")
+    Call<ResponseBody> get();
+  }
+  
+  private MockWebServer server = new MockWebServer();
+  
+  private TestApi api;
+  
+  @BeforeEach
+  void setUp() throws Exception {
+    server.start();
+    api = new Retrofit.Builder().baseUrl(server.url("/")).build().create(TestApi.class);
+  }
+  
+  @AfterEach
+  void tearDown() throws Exception {
+    server.shutdown();
+  }
+
+  /**
+   * <p><b>Description:</b> Test that a hedge request is sent when the first one is slow, and its response wins.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testHedgeWins() throws Exception {
+    server.enqueue(new MockResponse().setBody("slow").setHeadersDelay(5, TimeUnit.SECONDS));
+    server.enqueue(new MockResponse().setBody("hedge"));
+    
+    Response<ResponseBody> response = new HedgedCall<>(api.get(), api::get, 100, new RetryBudget(1, 1)).execute();
+    assertEquals("hedge", response.body().string());
+    assertEquals(2, server.getRequestCount());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the latency of the primary request is reported when it responds,
+   * but not when it is cancelled because the hedge request won, as its latency is unknown then.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testPrimaryLatency() throws Exception {
+    server.enqueue(new MockResponse().setBody("slow").setHeadersDelay(5, TimeUnit.SECONDS));
+    server.enqueue(new MockResponse().setBody("hedge"));
+    
+    List<Long> latencies = new CopyOnWriteArrayList<>();
+    HedgedCall<ResponseBody> hedgedCall = new HedgedCall<>(api.get(), api::get, 300, new RetryBudget(1, 1));
+    hedgedCall.setPrimaryLatencyListener(latencies::add);
+    Response<ResponseBody> response = hedgedCall.execute();
+    assertEquals("hedge", response.body().string());
+    // Give the cancelled primary request the time to be notified
+    Thread.sleep(500);
+    assertTrue(latencies.isEmpty(), "Latencies: " + latencies);
+    
+    server.enqueue(new MockResponse().setBody("fast").setHeadersDelay(100, TimeUnit.MILLISECONDS));
+    hedgedCall = new HedgedCall<>(api.get(), api::get, 2000, new RetryBudget(1, 1));
+    hedgedCall.setPrimaryLatencyListener(latencies::add);
+    response = hedgedCall.execute();
+    assertEquals("fast", response.body().string());
+    assertEquals(1, latencies.size());
+    assertTrue(latencies.get(0) >= 100 && latencies.get(0) < 2000, "Latency: " + latencies.get(0));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that no hedge request is sent for fast responses or when the budget is exhausted.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testNoHedge() throws Exception {
+    server.enqueue(new MockResponse().setBody("fast"));
+    Response<ResponseBody> response = new HedgedCall<>(api.get(), api::get, 2000, new RetryBudget(1, 1)).execute();
+    assertEquals("fast", response.body().string());
+    
+    server.enqueue(new MockResponse().setBody("slow").setHeadersDelay(300, TimeUnit.MILLISECONDS));
+    response = new HedgedCall<>(api.get(), api::get, 10, new RetryBudget(0, 0)).execute();
+    assertEquals("slow", response.body().string());
+    assertEquals(2, server.getRequestCount());
+  }
+}
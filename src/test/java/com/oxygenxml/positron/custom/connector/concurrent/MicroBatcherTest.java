@@ -0,0 +1,203 @@
+package com.oxygenxml.positron.custom.connector.concurrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.oxygenxml.positron.api.connector.AIConnectionException;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+/**
+ * Tests for {@link MicroBatcher}
+ */
+class MicroBatcherTest {
+
+  /**
+   * <p><b>Description:</b> Test that concurrent calls are executed as one batch and each caller gets its results.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testBatch() throws Exception {
+    MicroBatcher<String, String> batcher = new MicroBatcher<>("test", 60000, 4);
+    AtomicInteger calls = new AtomicInteger();
+    List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+    MicroBatcher.BatchCall<String, String> call = inputs -> {
+      calls.incrementAndGet();
+      batches.add(inputs);
+      return inputs.stream().map(String::toUpperCase).collect(Collectors.toList());
+    };
+    
+    // A recent batch makes the next callers wait for each other
+    batcher.execute("g", Arrays.asList("warm-up"), call);
+    calls.set(0);
+    batches.clear();
+    
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      // The batch is executed when it reaches 4 inputs, long before the window ends
+      Future<List<String>> first = executor.submit(() -> batcher.execute("g", Arrays.asList("a", "b"), call));
+      Future<List<String>> second = executor.submit(() -> batcher.execute("g", Arrays.asList("c"), call));
+      Future<List<String>> third = executor.submit(() -> batcher.execute("g", Arrays.asList("d"), call));
+      
+      List<String> all = new ArrayList<>();
+      all.addAll(first.get());
+      all.addAll(second.get());
+      all.addAll(third.get());
+      Collections.sort(all);
+      assertEquals(Arrays.asList("A", "B", "C", "D"), all);
+      assertEquals(Arrays.asList("A", "B"), first.get());
+      assertEquals(1, calls.get());
+      assertEquals(4, batches.get(0).size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that a batch is executed after the window, and fails when the results do not match the inputs.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testWindowAndMismatch() throws Exception {
+    MicroBatcher<String, String> batcher = new MicroBatcher<>("test", 10, 100);
+    assertEquals(Arrays.asList("x"), batcher.execute("g", Arrays.asList("x"), inputs -> inputs));
+    
+    assertThrows(AIConnectionException.class, 
+        () -> batcher.execute("g", Arrays.asList("x", "y"), inputs -> Arrays.asList("x")));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the first caller does not wait for other callers when the group was idle.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testIdleGroup() throws Exception {
+    MicroBatcher<String, String> batcher = new MicroBatcher<>("test", 60000, 100);
+    long start = System.nanoTime();
+    assertEquals(Arrays.asList("x"), batcher.execute("g", Arrays.asList("x"), inputs -> inputs));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the callers of a batch rejected because of its inputs execute their inputs separately.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testFallback() throws Exception {
+    MicroBatcher<String, String> batcher = new MicroBatcher<>("test", 60000, 2);
+    AtomicInteger calls = new AtomicInteger();
+    // Fails for the batches with an invalid input
+    MicroBatcher.BatchCall<String, String> call = inputs -> {
+      calls.incrementAndGet();
+      if (inputs.contains("invalid")) {
+        throw httpError(400);
+      }
+      return inputs.stream().map(String::toUpperCase).collect(Collectors.toList());
+    };
+    batcher.execute("g", Arrays.asList("warm-up"), call);
+    calls.set(0);
+    
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<List<String>> valid = executor.submit(() -> batcher.execute("g", Arrays.asList("a"), call));
+      Future<List<String>> invalid = executor.submit(() -> batcher.execute("g", Arrays.asList("invalid"), call));
+      
+      assertEquals(Arrays.asList("A"), valid.get());
+      ExecutionException exception = assertThrows(ExecutionException.class, invalid::get);
+      assertTrue(exception.getCause() instanceof AIConnectionException);
+      // The batch, then each caller separately
+      assertEquals(3, calls.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that all the callers of a batch that failed because of the AI service 
+   * get the failure, without executing their inputs separately.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testNoFallbackForServiceFailure() throws Exception {
+    MicroBatcher<String, String> batcher = new MicroBatcher<>("test", 60000, 2);
+    AtomicInteger calls = new AtomicInteger();
+    AtomicInteger status = new AtomicInteger(200);
+    MicroBatcher.BatchCall<String, String> call = inputs -> {
+      calls.incrementAndGet();
+      if (status.get() != 200) {
+        throw httpError(status.get());
+      }
+      return inputs;
+    };
+    batcher.execute("g", Arrays.asList("warm-up"), call);
+    
+    for (int code : new int[] {503, 429}) {
+      status.set(code);
+      calls.set(0);
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+        Future<List<String>> first = executor.submit(() -> batcher.execute("g", Arrays.asList("a"), call));
+        Future<List<String>> second = executor.submit(() -> batcher.execute("g", Arrays.asList("b"), call));
+        
+        assertThrows(ExecutionException.class, first::get);
+        assertThrows(ExecutionException.class, second::get);
+        assertEquals(1, calls.get(), "Status " + code);
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+    
+    assertTrue(MicroBatcher.isRejectedRequest(httpError(400)));
+    assertTrue(MicroBatcher.isRejectedRequest(httpError(413)));
+    assertFalse(MicroBatcher.isRejectedRequest(httpError(408)));
+    assertFalse(MicroBatcher.isRejectedRequest(httpError(500)));
+    assertFalse(MicroBatcher.isRejectedRequest(new AIConnectionException("Connection refused", "", null)));
+  }
+  
+  /**
+   * Create the failure of a request that received an HTTP error status.
+   * 
+   * @param code The HTTP status.
+   * 
+   * @return The failure.
+   */
+  private static AIConnectionException httpError(int code) {
+    HttpException httpException = new HttpException(
+        Response.error(code, ResponseBody.create(MediaType.get("application/json"), "{}")));
+    return new AIConnectionException(httpException.getMessage(), String.valueOf(code), httpException);
+  }
+}
@@ -0,0 +1,87 @@
+package com.oxygenxml.positron.custom.connector.concurrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oxygenxml.positron.custom.connector.json.CanonicalJson;
+
+/**
+ * Tests for {@link SingleFlight}
+ */
+class SingleFlightTest {
+
+  /**
+   * <p><b>Description:</b> Test that identical concurrent calls share one execution and each caller gets its own copy.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testSharedCall() throws Exception {
+    SingleFlight<StringBuilder> singleFlight = new SingleFlight<>("test");
+    AtomicInteger executions = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<StringBuilder> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+        executions.incrementAndGet();
+        started.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return new StringBuilder("result");
+      }, StringBuilder::new));
+      started.await(5, TimeUnit.SECONDS);
+      
+      Future<StringBuilder> follower = executor.submit(() -> singleFlight.execute("key", () -> {
+        executions.incrementAndGet();
+        return new StringBuilder("other");
+      }, StringBuilder::new));
+      // Wait for the follower to join the call in progress
+      while (((ThreadPoolExecutor) executor).getActiveCount() < 2) {
+        Thread.sleep(10);
+      }
+      Thread.sleep(100);
+      release.countDown();
+      
+      assertEquals("result", leader.get(5, TimeUnit.SECONDS).toString());
+      assertEquals("result", follower.get(5, TimeUnit.SECONDS).toString());
+      assertNotSame(leader.get(), follower.get());
+      assertEquals(1, executions.get());
+      assertEquals(0, singleFlight.getInFlightCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the canonical hash does not depend on the order of the properties.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testCanonicalHash() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+    String first = CanonicalJson.sha256(mapper.readTree("{\"model\":\"m\",\"messages\":[{\"role\":\"user\",\"content\":\"a\"}]}"));
+    String second = CanonicalJson.sha256(mapper.readTree("{\"messages\":[{\"content\":\"a\",\"role\":\"user\"}],\"model\":\"m\"}"));
+    String third = CanonicalJson.sha256(mapper.readTree("{\"messages\":[{\"content\":\"b\",\"role\":\"user\"}],\"model\":\"m\"}"));
+    
+    assertEquals(first, second);
+    assertNotEquals(first, third);
+  }
+}
@@ -0,0 +1,74 @@
+package com.oxygenxml.positron.custom.connector.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link CircuitBreaker}
+ */
+class CircuitBreakerTest {
+  
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+  /**
+   * <p><b>Description:</b> Test that the circuit opens on the failure rate, rejects calls 
+   * and closes after successful probes.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testOpenAndRecover() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker("test", 4, 4, 50, 1000, 100, 50, 1);
+    
+    breaker.acquirePermission();
+    breaker.onResult(FAST, false);
+    breaker.acquirePermission();
+    breaker.onResult(FAST, true);
+    breaker.acquirePermission();
+    breaker.onResult(FAST, false);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    
+    breaker.acquirePermission();
+    breaker.onResult(FAST, true);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertThrows(CircuitOpenException.class, breaker::acquirePermission);
+    
+    Thread.sleep(60);
+    breaker.acquirePermission();
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    // Only one probe at a time
+    assertThrows(CircuitOpenException.class, breaker::acquirePermission);
+    breaker.onResult(FAST, false);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the circuit opens on slow calls and a failed probe opens it again.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testSlowCalls() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker("test", 2, 2, 50, 1, 100, 50, 1);
+    long slow = TimeUnit.MILLISECONDS.toNanos(5);
+    
+    breaker.acquirePermission();
+    breaker.onResult(slow, false);
+    breaker.acquirePermission();
+    breaker.onResult(slow, false);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    
+    Thread.sleep(60);
+    breaker.acquirePermission();
+    breaker.onResult(0, true);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+  }
+}
@@ -0,0 +1,87 @@
+package com.oxygenxml.positron.custom.connector.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.oxygenxml.positron.custom.connector.auth.AccessTokenProvider;
+import com.oxygenxml.positron.custom.connector.auth.DummyProxyProvider;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Tests for {@link ConnectionWarmer}
+ */
+class ConnectionWarmerTest {
+  
+  private MockWebServer server = new MockWebServer();
+  
+  @BeforeEach
+  void setUp() throws Exception {
+    server.start();
+  }
+  
+  @AfterEach
+  void tearDown() throws Exception {
+    server.shutdown();
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the warm-up opens a connection to the base URL 
+   * and loads the access token on a worker thread of the connector.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testWarmUp() throws Exception {
+    server.enqueue(new MockResponse());
+    String baseUrl = server.url("/v1/").toString();
+    
+    CountDownLatch tokenLoaded = new CountDownLatch(1);
+    AtomicReference<String> loadingThread = new AtomicReference<>();
+    AccessTokenProvider accessTokenProvider = new AccessTokenProvider(new DummyProxyProvider()) {
+      @Override
+      public String getOrLoadAccessToken() {
+        loadingThread.set(Thread.currentThread().getName());
+        tokenLoaded.countDown();
+        return "token";
+      }
+    };
+    ConnectionWarmer.warmUp(
+        SharedHttpClients.getClient(baseUrl, new DummyProxyProvider()), baseUrl, accessTokenProvider);
+    
+    RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+    assertNotNull(request);
+    assertEquals("HEAD", request.getMethod());
+    assertEquals("/v1/", request.getPath());
+    
+    assertTrue(tokenLoaded.await(5, TimeUnit.SECONDS));
+    assertTrue(loadingThread.get().startsWith("positron-connector-worker-"), loadingThread.get());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that an invalid base URL does not fail the warm-up.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testInvalidBaseUrl() throws Exception {
+    ConnectionWarmer.warmUp(
+        SharedHttpClients.getClient("http://localhost/", new DummyProxyProvider()), "not a URL", null);
+    assertEquals(0, server.getRequestCount());
+  }
+}
@@ -0,0 +1,164 @@
+package com.oxygenxml.positron.custom.connector.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.oxygenxml.positron.api.connector.dto.Pair;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * Tests for {@link LoadBalancer}
+ */
+class LoadBalancerTest {
+
+  /**
+   * <p><b>Description:</b> Test that the weighted strategy uses the endpoints proportionally with their weights.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testWeighted() throws Exception {
+    Endpoint first = new Endpoint("http://first/v1", null, 3);
+    Endpoint second = new Endpoint("http://second/v1", null, 1);
+    LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(first, second), LoadBalancer.Strategy.WEIGHTED, 3, 1000);
+    
+    Map<Endpoint, Integer> counts = new HashMap<>();
+    for (int i = 0; i < 40; i++) {
+      counts.merge(loadBalancer.choose(Collections.emptySet()), 1, Integer::sum);
+    }
+    assertEquals(30, counts.get(first));
+    assertEquals(10, counts.get(second));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that an endpoint with consecutive failures is ejected 
+   * and the already tried endpoints are skipped.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testEjectionAndFailover() throws Exception {
+    Endpoint first = new Endpoint("http://first/v1", null, 1);
+    Endpoint second = new Endpoint("http://second/v1", "key", 1);
+    LoadBalancer loadBalancer = new LoadBalancer(
+        Arrays.asList(first, second), LoadBalancer.Strategy.LEAST_OUTSTANDING, 2, 60000);
+    
+    for (int i = 0; i < 2; i++) {
+      loadBalancer.onStart(first);
+      loadBalancer.onFailure(first, 10);
+      loadBalancer.onEnd(first);
+    }
+    for (int i = 0; i < 5; i++) {
+      assertSame(second, loadBalancer.choose(Collections.emptySet()));
+    }
+    
+    Set<Endpoint> tried = new HashSet<>();
+    tried.add(second);
+    // The ejected endpoint is still used when there is no other choice
+    assertSame(first, loadBalancer.choose(tried));
+    tried.add(first);
+    assertNull(loadBalancer.choose(tried));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the EWMA strategy prefers the endpoint with the lowest latency.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testEwma() throws Exception {
+    Endpoint fast = new Endpoint("http://fast/v1", null, 1);
+    Endpoint slow = new Endpoint("http://slow/v1", null, 1);
+    LoadBalancer loadBalancer = new LoadBalancer(Arrays.asList(slow, fast), LoadBalancer.Strategy.EWMA, 3, 1000);
+    loadBalancer.onStart(slow);
+    loadBalancer.onSuccess(slow, 1000);
+    loadBalancer.onEnd(slow);
+    loadBalancer.onStart(fast);
+    loadBalancer.onSuccess(fast, 10);
+    loadBalancer.onEnd(fast);
+    
+    assertSame(fast, loadBalancer.choose(Collections.emptySet()));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the API key of an endpoint is read from the variable named in the options.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testApiKeyVariable() throws Exception {
+    System.setProperty("LOAD_BALANCER_TEST_KEY", "sk-endpoint");
+    try {
+      LoadBalancer loadBalancer = LoadBalancer.create("http://primary/v1", Arrays.asList(
+          new Pair<String, String>("http://second/v1", "2;LOAD_BALANCER_TEST_KEY"),
+          new Pair<String, String>("http://third/v1", "1;LOAD_BALANCER_MISSING_KEY")));
+      
+      List<Endpoint> endpoints = loadBalancer.getEndpoints();
+      assertEquals(3, endpoints.size());
+      assertNull(endpoints.get(0).getApiKey());
+      assertEquals("sk-endpoint", endpoints.get(1).getApiKey());
+      // The connector key is used when the variable is not set
+      assertNull(endpoints.get(2).getApiKey());
+    } finally {
+      System.clearProperty("LOAD_BALANCER_TEST_KEY");
+    }
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that a request stays in progress on its endpoint 
+   * until the response body is closed, so the open streams count for the routing.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testOutstandingUntilBodyClosed() throws Exception {
+    MockWebServer server = new MockWebServer();
+    server.start();
+    try {
+      server.enqueue(new MockResponse().setBody("data: [DONE]\n\n"));
+      String baseUrl = server.url("/v1/").toString();
+      Endpoint endpoint = new Endpoint(baseUrl, null, 1);
+      LoadBalancer loadBalancer = new LoadBalancer(
+          Arrays.asList(endpoint), LoadBalancer.Strategy.LEAST_OUTSTANDING, 3, 1000);
+      OkHttpClient client = new OkHttpClient.Builder()
+          .addInterceptor(new LoadBalancingInterceptor(baseUrl, loadBalancer))
+          .build();
+      
+      Response response = client.newCall(new Request.Builder().url(baseUrl + "chat/completions").build()).execute();
+      assertEquals(1, endpoint.getOutstanding());
+      assertEquals("data: [DONE]\n\n", response.body().string());
+      assertEquals(0, endpoint.getOutstanding());
+      // Closing again does not release the request twice
+      response.close();
+      assertEquals(0, endpoint.getOutstanding());
+    } finally {
+      server.shutdown();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.oxygenxml.positron.custom.connector.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * Tests for {@link RetryInterceptor}
+ */
+class RetryInterceptorTest {
+  
+  private MockWebServer server = new MockWebServer();
+  
+  @BeforeEach
+  void setUp() throws Exception {
+    server.start();
+  }
+  
+  @AfterEach
+  void tearDown() throws Exception {
+    server.shutdown();
+  }
+
+  /**
+   * <p><b>Description:</b> Test that throttled and overloaded responses are retried, honoring the Retry-After header.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testRetryTransientErrors() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "0"));
+    server.enqueue(new MockResponse().setResponseCode(503));
+    server.enqueue(new MockResponse().setBody("ok"));
+    
+    try (Response response = execute(new RetryInterceptor(2, 1, 100, new RetryBudget(0.1, 10)))) {
+      assertEquals(200, response.code());
+      assertEquals("ok", response.body().string());
+    }
+    assertEquals(3, server.getRequestCount());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that an exhausted quota is not retried.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testInsufficientQuotaNotRetried() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(429).setBody("{\"error\":{\"code\":\"insufficient_quota\"}}"));
+    server.enqueue(new MockResponse().setBody("ok"));
+    
+    try (Response response = execute(new RetryInterceptor(2, 1, 100, new RetryBudget(0.1, 10)))) {
+      assertEquals(429, response.code());
+    }
+    assertEquals(1, server.getRequestCount());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the retries stop when the budget is exhausted or the server asks for a too long delay.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testRetryLimits() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(500));
+    server.enqueue(new MockResponse().setResponseCode(500));
+    server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "120"));
+    
+    RetryInterceptor interceptor = new RetryInterceptor(5, 1, 1000, new RetryBudget(0, 1));
+    try (Response response = execute(interceptor)) {
+      assertEquals(500, response.code());
+    }
+    assertEquals(2, server.getRequestCount());
+    
+    interceptor = new RetryInterceptor(5, 1, 1000, new RetryBudget(0, 10));
+    try (Response response = execute(interceptor)) {
+      assertEquals(429, response.code());
+    }
+    assertEquals(3, server.getRequestCount());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the retry budget is shared by the interceptors of the same origin, 
+   * so every AI service created for a base URL cannot add its own retries to an outage.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testBudgetSharedByOrigin() throws Exception {
+    RetryBudget budget = new RetryInterceptor("https://retry-budget.test/v1").getBudget();
+    assertSame(budget, new RetryInterceptor("https://RETRY-BUDGET.test/v2/").getBudget());
+    assertNotSame(budget, new RetryInterceptor("https://retry-budget.test:8443/v1").getBudget());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test the parsing of the durations from the rate limit headers.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testParseDuration() throws Exception {
+    assertEquals(20, RateLimitHeaders.parseDuration("20ms"));
+    assertEquals(1500, RateLimitHeaders.parseDuration("1.5s"));
+    assertEquals(360000, RateLimitHeaders.parseDuration("6m0s"));
+    assertEquals(-1, RateLimitHeaders.parseDuration("soon"));
+    assertEquals(2000, RateLimitHeaders.parseRetryAfter("2"));
+  }
+  
+  private Response execute(RetryInterceptor interceptor) throws Exception {
+    OkHttpClient client = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+    return client.newCall(new Request.Builder().url(server.url("/chat/completions")).build()).execute();
+  }
+}
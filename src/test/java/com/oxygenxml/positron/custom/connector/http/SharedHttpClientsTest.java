@@ -0,0 +1,50 @@
+package com.oxygenxml.positron.custom.connector.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import com.oxygenxml.positron.custom.connector.auth.DummyProxyProvider;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Tests for {@link SharedHttpClients}
+ */
+class SharedHttpClientsTest {
+
+  /**
+   * <p><b>Description:</b> Test that the AI services with the same origin get the same client,
+   * and that all the clients share the connection pool and the dispatcher.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testSharedClients() throws Exception {
+    OkHttpClient client = SharedHttpClients.getClient("https://shared.test/v1", new DummyProxyProvider());
+    assertSame(client, SharedHttpClients.getClient("https://SHARED.test/v2/", new DummyProxyProvider()));
+    
+    OkHttpClient other = SharedHttpClients.getClient("https://other.test/v1", new DummyProxyProvider());
+    assertNotSame(client, other);
+    assertSame(client.connectionPool(), other.connectionPool());
+    assertSame(client.dispatcher(), other.dispatcher());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test the origin computed from a base URL.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testGetOrigin() throws Exception {
+    assertEquals("https://api.openai.com", SharedHttpClients.getOrigin("https://API.OpenAI.com/v1/"));
+    assertEquals("http://localhost:8080", SharedHttpClients.getOrigin(" http://localhost:8080/v1 "));
+    assertEquals("not a URL", SharedHttpClients.getOrigin("not a URL"));
+  }
+}
@@ -0,0 +1,74 @@
+package com.oxygenxml.positron.custom.connector.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link TokenBucket}
+ */
+class TokenBucketTest {
+
+  /**
+   * <p><b>Description:</b> Test that the permits are reserved ahead and the wait time grows with the deficit.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testReserve() throws Exception {
+    // One permit per second
+    TokenBucket bucket = new TokenBucket(60);
+    long maxWait = TimeUnit.MINUTES.toNanos(1);
+    
+    assertEquals(0, bucket.reserve(60, maxWait));
+    long wait = bucket.reserve(1, maxWait);
+    assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(900) && wait <= TimeUnit.SECONDS.toNanos(1), "Wait: " + wait);
+    wait = bucket.reserve(2, maxWait);
+    assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(2900) && wait <= TimeUnit.SECONDS.toNanos(3), "Wait: " + wait);
+    
+    // Nothing is reserved when the wait is too long
+    assertEquals(-1, bucket.reserve(10, TimeUnit.SECONDS.toNanos(1)));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the bucket is aligned with the remaining permits reported by the server.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testRecalibrate() throws Exception {
+    TokenBucket bucket = new TokenBucket(1000);
+    bucket.recalibrate(10);
+    assertTrue(bucket.getAvailable() < 20);
+    
+    bucket.recalibrate(500);
+    assertTrue(bucket.getAvailable() < 20);
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the permits taken without waiting are debited, with the debt limited to the permits of a minute.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testConsume() throws Exception {
+    TokenBucket bucket = new TokenBucket(60);
+    bucket.consume(50);
+    assertTrue(bucket.getAvailable() <= 11);
+    
+    bucket.consume(1000);
+    bucket.consume(1000);
+    assertTrue(bucket.getAvailable() < 0);
+    long wait = bucket.reserve(1, TimeUnit.MINUTES.toNanos(2));
+    assertTrue(wait > TimeUnit.SECONDS.toNanos(55) && wait <= TimeUnit.SECONDS.toNanos(61), "Wait: " + wait);
+  }
+}
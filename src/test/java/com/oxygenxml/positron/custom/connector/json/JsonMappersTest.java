@@ -0,0 +1,36 @@
+package com.oxygenxml.positron.custom.connector.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.oxygenxml.positron.custom.connector.AIError;
+
+/**
+ * Tests for {@link JsonMappers}
+ */
+class JsonMappersTest {
+
+  /**
+   * <p><b>Description:</b> Test that the readers are shared and ignore the unknown properties.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testSharedReaders() throws Exception {
+    assertSame(JsonMappers.AI_ERROR_READER, JsonMappers.getReader(AIError.class));
+    assertSame(JsonMappers.getReader(StringBuilder.class), JsonMappers.getReader(StringBuilder.class));
+    
+    AIError error = JsonMappers.AI_ERROR_READER.readValue(
+        "{\"error\": {\"message\": \"Invalid request\"}, \"unknown\": true}");
+    assertEquals("Invalid request", error.getErrorMessage().get());
+    
+    byte[] data = "data: {\"id\":\"1\"}".getBytes("UTF-8");
+    JsonNode tree = JsonMappers.TREE_READER.readTree(data, 6, data.length - 6);
+    assertEquals("1", tree.get("id").asText());
+  }
+}
@@ -0,0 +1,83 @@
+package com.oxygenxml.positron.custom.connector.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link LatencyHistogram}
+ */
+class LatencyHistogramTest {
+
+  /**
+   * <p><b>Description:</b> Test that the percentiles are estimated within the bucket precision.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testPercentiles() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    
+    assertEquals(1000, histogram.getCount());
+    assertWithinPrecision(500, histogram.getPercentile(50));
+    assertWithinPrecision(950, histogram.getPercentile(95));
+    assertWithinPrecision(990, histogram.getPercentile(99));
+    assertEquals(1000, histogram.getPercentile(100));
+    assertEquals(500, histogram.getSnapshot().getMean());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that each value falls in a bucket whose upper bound is not lower than the value.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testBuckets() throws Exception {
+    long[] values = new long[] {0, 1, 7, 8, 9, 15, 16, 1023, 1024, 123456789, Long.MAX_VALUE};
+    for (long value : values) {
+      int index = LatencyHistogram.bucketIndex(value);
+      assertTrue(LatencyHistogram.bucketUpperBound(index) >= value, "Value " + value);
+      if (index > 0) {
+        assertTrue(LatencyHistogram.bucketUpperBound(index - 1) < value, "Value " + value);
+      }
+    }
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the histograms are shared by name and tags and can be reset.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testConnectorMetricsHistograms() throws Exception {
+    LatencyHistogram histogram = ConnectorMetrics.getHistogram("test.latency", "model", "m1");
+    assertSame(histogram, ConnectorMetrics.getHistogram("test.latency", "model", "m1"));
+    
+    histogram.record(10);
+    assertEquals(1, ConnectorMetrics.getHistogramSnapshots().get("test.latency{model=m1}").getCount());
+    
+    ConnectorMetrics.reset();
+    assertEquals(0, ConnectorMetrics.getHistogramSnapshots().get("test.latency{model=m1}").getCount());
+  }
+  
+  /**
+   * Assert that the estimated value is within the precision of the histogram.
+   * 
+   * @param expected  The expected value.
+   * @param actual    The estimated value.
+   */
+  private static void assertWithinPrecision(long expected, long actual) {
+    assertTrue(Math.abs(actual - expected) <= expected / 8, "Expected " + expected + " but was " + actual);
+  }
+}
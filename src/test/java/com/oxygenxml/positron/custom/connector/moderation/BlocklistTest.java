@@ -0,0 +1,90 @@
+package com.oxygenxml.positron.custom.connector.moderation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link Blocklist}
+ */
+class BlocklistTest {
+
+  /**
+   * <p><b>Description:</b> Test that the blocked terms are matched as whole words, 
+   * ignoring the case and the punctuation.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testTerms() throws Exception {
+    AhoCorasickMatcher matcher = new AhoCorasickMatcher(List.of("ban", "Bad Word", "he"));
+    assertTrue(matcher.matches("This is a ban."));
+    assertTrue(matcher.matches("A BAD-word here"));
+    assertTrue(matcher.matches("he"));
+    assertFalse(matcher.matches("banana"));
+    assertFalse(matcher.matches("the badword"));
+    assertFalse(matcher.matches(""));
+    assertEquals(" bad word ", AhoCorasickMatcher.normalize("  Bad,  WORD! "));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test the verdicts of the blocked and allowed rules.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testRules() throws Exception {
+    Blocklist blocklist = Blocklist.parse(List.of(
+        "# A comment",
+        "",
+        "forbidden",
+        "regex:\\d{4}-\\d{4}-\\d{4}-\\d{4}",
+        "allow:<\\?xml.*",
+        "regex:[invalid"));
+    
+    assertEquals(Boolean.TRUE, blocklist.check("Something FORBIDDEN here"));
+    assertEquals(Boolean.TRUE, blocklist.check("My card is 1234-5678-1234-5678"));
+    assertEquals(Boolean.FALSE, blocklist.check("<?xml version=\"1.0\"?>\n<root/>"));
+    // The blocked rules win over the allowed ones
+    assertEquals(Boolean.TRUE, blocklist.check("<?xml version=\"1.0\"?>\n<root>forbidden</root>"));
+    assertNull(blocklist.check("A comment"));
+    assertNull(blocklist.check("Some other text"));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the regular expressions see a limited content 
+   * and are stopped when they backtrack too much.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testRegexLimits() throws Exception {
+    Blocklist blocklist = Blocklist.parse(List.of(
+        "regex:(a+)+b",
+        "regex:secret",
+        "allow:(x+x+)+y",
+        "allow:<\\?xml.*"));
+    
+    long start = System.nanoTime();
+    assertNull(blocklist.check("a".repeat(50) + "c"));
+    assertNull(blocklist.check("x".repeat(50)));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    
+    // Only the start of a long content is searched, and a long content is never allowed
+    assertEquals(Boolean.TRUE, blocklist.check("secret" + " ".repeat(5000)));
+    assertNull(blocklist.check(" ".repeat(5000) + "secret"));
+    assertNull(blocklist.check("<?xml version=\"1.0\"?>" + " ".repeat(5000)));
+  }
+}
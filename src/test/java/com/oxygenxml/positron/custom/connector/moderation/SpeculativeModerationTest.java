@@ -0,0 +1,161 @@
+package com.oxygenxml.positron.custom.connector.moderation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for {@link SpeculativeModeration}
+ */
+class SpeculativeModerationTest {
+
+  /**
+   * <p><b>Description:</b> Test that a completion waits for the moderation of its input 
+   * and that a flagged moderation stops a single completion.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testVerdict() throws Exception {
+    SpeculativeModeration speculative = new SpeculativeModeration();
+    assertNull(speculative.getVerdict("anything"));
+    
+    CompletableFuture<Boolean> clean = new CompletableFuture<>();
+    CompletableFuture<Boolean> flagged = new CompletableFuture<>();
+    speculative.start("Clean question", clean);
+    speculative.start("Bad question\n\nSecond paragraph", flagged);
+    
+    CompletableFuture<Boolean> verdict = speculative.getVerdict("System prompt\nBad question\n\nSecond paragraph\n");
+    assertFalse(verdict.isDone());
+    clean.complete(false);
+    assertFalse(verdict.isDone());
+    flagged.complete(true);
+    assertTrue(verdict.get());
+    
+    // The flagged moderation was consumed, the clean one is kept
+    assertFalse(speculative.getVerdict("Clean question").get());
+    assertFalse(speculative.getVerdict("Unrelated").get());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that a flagged moderation is not consumed by a completion that does not contain its text.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testFlaggedNotConsumedByOtherCompletion() throws Exception {
+    SpeculativeModeration speculative = new SpeculativeModeration();
+    speculative.start("Bad question", CompletableFuture.completedFuture(true));
+    
+    assertTrue(speculative.getVerdict("Unrelated").get());
+    assertTrue(speculative.getVerdict("Another unrelated").get());
+    // Consumed by its completion
+    assertTrue(speculative.getVerdict("System prompt\nBad question\n").get());
+    assertNull(speculative.getVerdict("Unrelated"));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the moderations are shared by scope 
+   * and that a moderation that cannot be tracked is not speculative.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testSharedByScope() throws Exception {
+    SpeculativeModeration speculative = SpeculativeModeration.getInstance("scope-shared");
+    assertSame(speculative, SpeculativeModeration.getInstance("scope-shared"));
+    assertNotSame(speculative, SpeculativeModeration.getInstance("scope-other"));
+    
+    assertTrue(speculative.start("Bad question", CompletableFuture.completedFuture(true)));
+    assertTrue(SpeculativeModeration.getInstance("scope-shared").getVerdict("Bad question").get());
+    assertNull(SpeculativeModeration.getInstance("scope-other").getVerdict("Bad question"));
+    
+    SpeculativeModeration full = new SpeculativeModeration();
+    int tracked = 0;
+    while (full.start("Question " + tracked, new CompletableFuture<>())) {
+      tracked++;
+    }
+    assertTrue(tracked > 0);
+    assertFalse(full.start("One more question", new CompletableFuture<>()));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the moderation of a recent response is not speculative.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testOutputs() throws Exception {
+    SpeculativeModeration speculative = new SpeculativeModeration();
+    assertTrue(speculative.canSpeculate("The answer is 42."));
+    
+    SpeculativeModeration.Output output = speculative.addOutput();
+    output.append(0, "The answer ");
+    output.append(0, "is 42.");
+    assertFalse(speculative.canSpeculate("The answer is 42."));
+    assertTrue(speculative.canSpeculate("Another question"));
+    
+    // Nothing is speculative after a recent response is forgotten
+    for (int i = 0; i < 100; i++) {
+      speculative.addOutput().append(0, "Answer " + i);
+    }
+    assertFalse(speculative.canSpeculate("Another question"));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the moderation of a part of a response with several choices is not speculative,
+   * also when the choices are joined or their whitespaces are changed.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testOutputChoices() throws Exception {
+    SpeculativeModeration speculative = new SpeculativeModeration();
+    SpeculativeModeration.Output output = speculative.addOutput();
+    // Interleaved streamed deltas
+    output.append(0, "First ");
+    output.append(1, "Second ");
+    output.append(0, "choice.\n\n```xml\n<a/>\n```");
+    output.append(1, "choice.");
+    
+    assertFalse(speculative.canSpeculate("Second choice."));
+    assertFalse(speculative.canSpeculate("First choice.\n\n<a/>\nSecond choice.\n"));
+    assertFalse(speculative.canSpeculate("<a/>"));
+    assertFalse(speculative.canSpeculate("  First\n   choice.  "));
+    assertTrue(speculative.canSpeculate("First question"));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the text is read from the JSON trees of the requests.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testGetText() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+    assertEquals("a\nb\n", SpeculativeModeration.getText(
+        mapper.readTree("[{\"role\":\"a\"},{\"content\":[{\"text\":\"b\"}], \"n\":1}]")));
+    assertEquals("", SpeculativeModeration.getText(null));
+  }
+}
@@ -0,0 +1,89 @@
+package com.oxygenxml.positron.custom.connector.moderation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import com.oxygenxml.positron.custom.connector.stream.BackpressurePublisher;
+
+/**
+ * Tests for {@link StreamingModerator}
+ */
+class StreamingModeratorTest {
+
+  /**
+   * <p><b>Description:</b> Test that the streamed text is moderated in growing windows 
+   * and that a flagged window stops the stream.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testWindows() throws Exception {
+    BackpressurePublisher<String> publisher = new BackpressurePublisher<>(Runnable::run, 10, 1000);
+    AtomicBoolean cancelled = new AtomicBoolean();
+    publisher.setCancellationHandler(() -> cancelled.set(true));
+    List<String> windows = new ArrayList<>();
+    StreamingModerator moderator = new StreamingModerator(publisher, text -> {
+      windows.add(text);
+      return text.contains("bad");
+    }, Runnable::run, 5);
+    
+    moderator.append("abc");
+    assertTrue(windows.isEmpty());
+    moderator.append("de");
+    assertEquals(List.of("abcde"), windows);
+    
+    // The next window is twice as long
+    moderator.append("fgh");
+    assertEquals(1, windows.size());
+    assertFalse(publisher.isClosed());
+    
+    moderator.append("bad");
+    assertEquals(List.of("abcde", "abcdefghbad"), windows);
+    assertTrue(cancelled.get());
+    assertTrue(publisher.isClosed());
+    
+    // Nothing is moderated after the stream was flagged
+    moderator.append("more text to moderate");
+    assertEquals(2, windows.size());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that a window rejected by the executor is skipped and the next one is moderated.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testRejectedWindow() throws Exception {
+    BackpressurePublisher<String> publisher = new BackpressurePublisher<>(Runnable::run, 10, 1000);
+    List<String> windows = new ArrayList<>();
+    AtomicBoolean reject = new AtomicBoolean(true);
+    StreamingModerator moderator = new StreamingModerator(publisher, text -> {
+      windows.add(text);
+      return false;
+    }, task -> {
+      if (reject.get()) {
+        throw new RejectedExecutionException("Busy");
+      }
+      task.run();
+    }, 5);
+    
+    moderator.append("abcde");
+    assertTrue(windows.isEmpty());
+    
+    reject.set(false);
+    moderator.append("fghij");
+    assertEquals(List.of("abcdefghij"), windows);
+  }
+}
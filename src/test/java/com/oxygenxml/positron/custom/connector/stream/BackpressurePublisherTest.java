@@ -0,0 +1,247 @@
+package com.oxygenxml.positron.custom.connector.stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link BackpressurePublisher}
+ */
+class BackpressurePublisherTest {
+  
+  /**
+   * Subscriber that records the signals and requests items only when asked.
+   */
+  private static class RecordingSubscriber implements Flow.Subscriber<String> {
+    private final List<String> items = new ArrayList<>();
+    private Flow.Subscription subscription;
+    private Throwable error;
+    private boolean completed;
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+    }
+    @Override
+    public void onNext(String item) {
+      items.add(item);
+    }
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+    }
+    @Override
+    public void onComplete() {
+      completed = true;
+    }
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the items are delivered only as requested and the completion comes after the buffered items.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testDeliveryFollowsDemand() throws Exception {
+    BackpressurePublisher<String> publisher = new BackpressurePublisher<>(Runnable::run, 10, 1000);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    
+    publisher.submit("a");
+    publisher.submit("b");
+    publisher.submit("c");
+    publisher.close();
+    assertTrue(subscriber.items.isEmpty());
+    assertEquals(3, publisher.getLag());
+    
+    subscriber.subscription.request(2);
+    assertEquals(List.of("a", "b"), subscriber.items);
+    assertFalse(subscriber.completed);
+    
+    subscriber.subscription.request(1);
+    assertEquals(List.of("a", "b", "c"), subscriber.items);
+    assertTrue(subscriber.completed);
+    assertEquals(3, publisher.getMaxLag());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the producer is blocked while the buffer is full.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testProducerBlockedWhenBufferIsFull() throws Exception {
+    BackpressurePublisher<String> publisher = new BackpressurePublisher<>(Runnable::run, 1, 10000);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    publisher.submit("a");
+    
+    AtomicBoolean secondSubmitted = new AtomicBoolean();
+    CountDownLatch done = new CountDownLatch(1);
+    Thread producer = new Thread(() -> {
+      secondSubmitted.set(publisher.submit("b"));
+      done.countDown();
+    });
+    producer.start();
+    
+    assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+    subscriber.subscription.request(1);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(secondSubmitted.get());
+    assertTrue(publisher.getBlockedNanos() > 0);
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the cancellation releases a blocked producer and drops the buffered items.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testCancelReleasesProducer() throws Exception {
+    BackpressurePublisher<String> publisher = new BackpressurePublisher<>(Runnable::run, 1, 10000);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    publisher.submit("a");
+    
+    AtomicBoolean secondSubmitted = new AtomicBoolean(true);
+    CountDownLatch done = new CountDownLatch(1);
+    new Thread(() -> {
+      secondSubmitted.set(publisher.submit("b"));
+      done.countDown();
+    }).start();
+    
+    subscriber.subscription.cancel();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertFalse(secondSubmitted.get());
+    assertTrue(publisher.isCancelled());
+    assertEquals(0, publisher.getLag());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that cancelling the subscription invokes the cancellation handler exactly once.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testCancellationHandler() throws Exception {
+    BackpressurePublisher<String> publisher = new BackpressurePublisher<>(Runnable::run, 10, 1000);
+    AtomicInteger cancellations = new AtomicInteger();
+    publisher.setCancellationHandler(cancellations::incrementAndGet);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    
+    subscriber.subscription.cancel();
+    subscriber.subscription.cancel();
+    assertEquals(1, cancellations.get());
+    
+    // Errors reported by the aborted producer are not delivered.
+    publisher.closeExceptionally(new java.io.IOException("Canceled"));
+    assertEquals(null, subscriber.error);
+    
+    // A handler set after the cancellation is invoked right away.
+    publisher.setCancellationHandler(cancellations::incrementAndGet);
+    assertEquals(2, cancellations.get());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that only one subscriber is accepted.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testSingleSubscriber() throws Exception {
+    BackpressurePublisher<String> publisher = new BackpressurePublisher<>(Runnable::run, 10, 1000);
+    publisher.subscribe(new RecordingSubscriber());
+    RecordingSubscriber second = new RecordingSubscriber();
+    publisher.subscribe(second);
+    assertTrue(second.error instanceof IllegalStateException);
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the held items are delivered only after the release, 
+   * and that aborting the stream signals the error and aborts the producer.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testHoldAndAbort() throws Exception {
+    BackpressurePublisher<String> publisher = new BackpressurePublisher<>(Runnable::run, 10, 1000);
+    List<String> published = new ArrayList<>();
+    publisher.setItemListener(published::add);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription.request(10);
+    
+    publisher.hold();
+    publisher.submit("a");
+    publisher.close();
+    assertTrue(subscriber.items.isEmpty());
+    assertFalse(subscriber.completed);
+    assertEquals(List.of("a"), published);
+    
+    publisher.release();
+    assertEquals(List.of("a"), subscriber.items);
+    assertTrue(subscriber.completed);
+    
+    BackpressurePublisher<String> aborted = new BackpressurePublisher<>(Runnable::run, 10, 1000);
+    AtomicBoolean producerAborted = new AtomicBoolean();
+    aborted.setCancellationHandler(() -> producerAborted.set(true));
+    RecordingSubscriber abortedSubscriber = new RecordingSubscriber();
+    aborted.subscribe(abortedSubscriber);
+    aborted.hold();
+    aborted.submit("b");
+    
+    IllegalStateException error = new IllegalStateException("Flagged");
+    aborted.abort(error);
+    assertTrue(producerAborted.get());
+    assertEquals(error, abortedSubscriber.error);
+    assertTrue(abortedSubscriber.items.isEmpty());
+    assertFalse(aborted.submit("c"));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that a stream fails, instead of stalling, when its executor rejects the delivery.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testRejectedDelivery() throws Exception {
+    BackpressurePublisher<String> publisher = new BackpressurePublisher<>(command -> {
+      throw new RejectedExecutionException("Shut down");
+    }, 10, 1000);
+    AtomicBoolean producerAborted = new AtomicBoolean();
+    publisher.setCancellationHandler(() -> producerAborted.set(true));
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    
+    assertTrue(producerAborted.get());
+    assertNotNull(subscriber.error);
+    assertFalse(publisher.submit("a"));
+  }
+}
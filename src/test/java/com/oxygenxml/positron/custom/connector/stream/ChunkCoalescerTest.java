@@ -0,0 +1,86 @@
+package com.oxygenxml.positron.custom.connector.stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for {@link ChunkCoalescer}
+ */
+class ChunkCoalescerTest {
+  
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  /**
+   * <p><b>Description:</b> Test that consecutive content deltas are merged while role and finish reason chunks are kept.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testMergeContentDeltas() throws Exception {
+    BackpressurePublisher<JsonNode> publisher = new BackpressurePublisher<>(Runnable::run, 100, 1000);
+    List<JsonNode> received = new ArrayList<>();
+    publisher.subscribe(new Flow.Subscriber<JsonNode>() {
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+      @Override
+      public void onNext(JsonNode item) {
+        received.add(item);
+      }
+      @Override
+      public void onError(Throwable throwable) {
+        // Not expected
+      }
+      @Override
+      public void onComplete() {
+        // Not needed
+      }
+    });
+    
+    // Large window, so only the chunk boundaries trigger publishing.
+    ChunkCoalescer<JsonNode> coalescer = new ChunkCoalescer<>(publisher, mapper.readerFor(JsonNode.class), 60000, 100000);
+    accept(coalescer, "{\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"\"},\"finish_reason\":null}]}");
+    accept(coalescer, "{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Hel\"},\"finish_reason\":null}]}");
+    accept(coalescer, "{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"lo \"},\"finish_reason\":null}]}");
+    accept(coalescer, "{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"world\"},\"finish_reason\":null}]}");
+    accept(coalescer, "{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}");
+    coalescer.flush();
+    
+    assertEquals(3, received.size());
+    assertEquals("assistant", received.get(0).at("/choices/0/delta/role").asText());
+    assertEquals("Hello world", received.get(1).at("/choices/0/delta/content").asText());
+    assertEquals("stop", received.get(2).at("/choices/0/finish_reason").asText());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that tool call deltas are not mergeable.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testToolCallsNotMergeable() throws Exception {
+    assertEquals(null, ChunkCoalescer.getMergeableContent(mapper.readTree(
+        "{\"choices\":[{\"index\":0,\"delta\":{\"content\":null,\"tool_calls\":[{\"index\":0}]}}]}")));
+    assertEquals("abc", ChunkCoalescer.getMergeableContent(mapper.readTree(
+        "{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"abc\",\"refusal\":null},\"logprobs\":null}]}")));
+  }
+  
+  private static void accept(ChunkCoalescer<JsonNode> coalescer, String chunk) throws Exception {
+    byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+    coalescer.accept(bytes, bytes.length);
+  }
+}
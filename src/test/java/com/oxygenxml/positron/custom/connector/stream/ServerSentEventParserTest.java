@@ -0,0 +1,168 @@
+package com.oxygenxml.positron.custom.connector.stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import okio.Buffer;
+
+/**
+ * Tests for {@link ServerSentEventParser}
+ */
+class ServerSentEventParserTest {
+  
+  /**
+   * Collects the parsed events.
+   */
+  private static class CollectingListener implements ServerSentEventParser.Listener {
+    private final List<String> events = new ArrayList<>();
+    private final List<String> ignoredLines = new ArrayList<>();
+    private long retry = -1;
+    
+    @Override
+    public void onEvent(String lastEventId, String eventType, byte[] data, int length) {
+      events.add(lastEventId + "|" + eventType + "|" + new String(data, 0, length, StandardCharsets.UTF_8));
+    }
+    
+    @Override
+    public void onRetry(long reconnectionTime) {
+      retry = reconnectionTime;
+    }
+    
+    @Override
+    public void onIgnoredLine(byte[] line, int length) {
+      ignoredLines.add(new String(line, 0, length, StandardCharsets.UTF_8));
+    }
+  }
+  
+  /**
+   * Parse all the events from the given content.
+   */
+  private static CollectingListener parse(String content) throws Exception {
+    CollectingListener listener = new CollectingListener();
+    ServerSentEventParser parser = new ServerSentEventParser(new Buffer().writeUtf8(content));
+    while (parser.next(listener)) {
+      // Collect all the events
+    }
+    return listener;
+  }
+
+  /**
+   * <p><b>Description:</b> Test that the data fields are dispatched as events and the multi-line data is joined.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testDataFields() throws Exception {
+    CollectingListener listener = parse(
+        "data: {\"a\":1}\n\n"
+        + "data:{\"b\":\n"
+        + "data: 2}\r\n\r\n"
+        + "data: [DONE]\n\n");
+    
+    assertEquals(3, listener.events.size());
+    assertEquals("null|null|{\"a\":1}", listener.events.get(0));
+    assertEquals("null|null|{\"b\":\n2}", listener.events.get(1));
+    assertEquals("null|null|[DONE]", listener.events.get(2));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test the event, id, retry fields and the comments.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testOtherFields() throws Exception {
+    CollectingListener listener = parse(
+        ": keep-alive comment\n\n"
+        + "event: message_start\n"
+        + "id: 7\n"
+        + "retry: 3000\n"
+        + "data: first\n\n"
+        + "data: second\n\n");
+    
+    assertEquals(2, listener.events.size());
+    assertEquals("7|message_start|first", listener.events.get(0));
+    // The event type is reset after dispatch, the ID is kept.
+    assertEquals("7|null|second", listener.events.get(1));
+    assertEquals(3000, listener.retry);
+    assertTrue(listener.ignoredLines.isEmpty());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that an event that is not terminated by an empty line before the end of the stream is discarded.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testIncompleteEventDiscarded() throws Exception {
+    CollectingListener listener = parse(
+        "data: complete\n\n"
+        + "data: {\"truncated\":\n");
+    
+    assertEquals(1, listener.events.size());
+    assertEquals("null|null|complete", listener.events.get(0));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that the lines can be terminated by a bare CR, also mixed with LF and CRLF.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testCarriageReturnLines() throws Exception {
+    CollectingListener listener = parse(
+        "event: first\rdata: a\rdata: b\r\r"
+        + "data: c\r\n\r"
+        + "data: d\n\r\n");
+    
+    assertEquals(3, listener.events.size());
+    assertEquals("null|first|a\nb", listener.events.get(0));
+    assertEquals("null|null|c", listener.events.get(1));
+    assertEquals("null|null|d", listener.events.get(2));
+    assertTrue(listener.ignoredLines.isEmpty());
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that content which is not SSE is reported as ignored lines.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testNotSSEContent() throws Exception {
+    CollectingListener listener = parse("{\"choices\": []}\n");
+    
+    assertTrue(listener.events.isEmpty());
+    assertEquals(1, listener.ignoredLines.size());
+    assertEquals("{\"choices\": []}", listener.ignoredLines.get(0));
+  }
+  
+  /**
+   * <p><b>Description:</b> Test that an empty source produces no events.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testEmptySource() throws Exception {
+    ServerSentEventParser parser = new ServerSentEventParser(new Buffer());
+    assertFalse(parser.next(new CollectingListener()));
+  }
+}
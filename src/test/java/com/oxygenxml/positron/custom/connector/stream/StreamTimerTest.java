@@ -0,0 +1,133 @@
+package com.oxygenxml.positron.custom.connector.stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.oxygenxml.positron.custom.connector.AiServiceUtil;
+import com.oxygenxml.positron.custom.connector.metrics.ConnectorMetrics;
+
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import retrofit2.Call;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+import retrofit2.http.Streaming;
+
+/**
+ * Tests for {@link StreamTimer}
+ */
+class StreamTimerTest {
+
+  interface TestApi {
+    @Streaming
+    @GET("completion")
+    Call<ResponseBody> stream();
+  }
+
+  private MockWebServer server = new MockWebServer();
+
+  private TestApi api;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    server.start();
+    api = new Retrofit.Builder().baseUrl(server.url("/")).build().create(TestApi.class);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    server.shutdown();
+  }
+
+  /**
+   * <p><b>Description:</b> Test that all the histograms are recorded for a stream received completely.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testCompleteStream() throws Exception {
+    server.enqueue(new MockResponse().setHeader("Content-Type", "text/event-stream").setBody(
+        "data: {\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"\"}}]}\n\n"
+        + "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Hello\"}}]}\n\n"
+        + "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\" world\"}}]}\n\n"
+        + "data: {\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}\n\n"
+        + "data: [DONE]\n\n"));
+
+    String model = "test-model-complete";
+    String baseUrl = server.url("/").toString();
+    List<JsonNode> chunks = new ArrayList<>();
+    CountDownLatch completed = new CountDownLatch(1);
+    AiServiceUtil.streamFlow(api.stream(), JsonNode.class, false, new StreamTimer(baseUrl, model))
+        .subscribe(new Flow.Subscriber<JsonNode>() {
+          @Override
+          public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+          }
+          @Override
+          public void onNext(JsonNode item) {
+            chunks.add(item);
+          }
+          @Override
+          public void onError(Throwable throwable) {
+            // Not expected
+          }
+          @Override
+          public void onComplete() {
+            completed.countDown();
+          }
+        });
+    assertTrue(completed.await(5, TimeUnit.SECONDS));
+    assertEquals(4, chunks.size());
+
+    String[] tags = new String[] {"model", model, "baseUrl", baseUrl};
+    assertEquals(1, ConnectorMetrics.getHistogram("streaming.time.to.first.byte.micros", tags).getCount());
+    assertEquals(1, ConnectorMetrics.getHistogram("streaming.time.to.first.content.micros", tags).getCount());
+    assertEquals(3, ConnectorMetrics.getHistogram("streaming.chunk.gap.micros", tags).getCount());
+    assertEquals(1, ConnectorMetrics.getHistogram("streaming.duration.micros", tags).getCount());
+    assertEquals(1, ConnectorMetrics.getHistogram("streaming.tokens.per.second", tags).getCount());
+    assertTrue(ConnectorMetrics.getHistogram("streaming.tokens.per.second", tags).getPercentile(100) > 0);
+  }
+
+  /**
+   * <p><b>Description:</b> Test that only the chunks with a non-empty content are counted as content.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testHasContent() throws Exception {
+    assertTrue(hasContent("{\"delta\":{\"content\" : \"a\"}}"));
+    assertFalse(hasContent("{\"delta\":{\"content\":\"\"}}"));
+    assertFalse(hasContent("{\"delta\":{\"content\":null}}"));
+    assertFalse(hasContent("{\"delta\":{}}"));
+  }
+
+  /**
+   * Check if a chunk has content.
+   *
+   * @param chunk The JSON of the chunk.
+   *
+   * @return <code>true</code> if the chunk has content.
+   */
+  private static boolean hasContent(String chunk) {
+    byte[] data = chunk.getBytes(StandardCharsets.UTF_8);
+    return StreamTimer.hasContent(data, data.length);
+  }
+}
@@ -0,0 +1,93 @@
+package com.oxygenxml.positron.custom.connector.stream;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link StreamingExecutor}
+ */
+class StreamingExecutorTest {
+
+  /**
+   * <p><b>Description:</b> Test that a delivery runs on the publishing thread when the pool is saturated.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testSaturatedPool() throws Exception {
+    StreamingExecutor executor = new StreamingExecutor(StreamingExecutor.createThreadPool(1, 1));
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      // Occupy the thread and the queue
+      executor.execute(() -> {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      executor.execute(() -> {});
+
+      AtomicReference<Thread> deliveryThread = new AtomicReference<>();
+      executor.execute(() -> deliveryThread.set(Thread.currentThread()));
+      assertSame(Thread.currentThread(), deliveryThread.get());
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * <p><b>Description:</b> Test that a delivery is rejected after the shutdown,
+   * so the subscriber of the stream receives an error instead of waiting forever.</p>
+   *
+   * @author cosmin_duna
+   *
+   * @throws Exception
+   */
+  @Test
+  void testRejectedAfterShutdown() throws Exception {
+    StreamingExecutor executor = new StreamingExecutor(StreamingExecutor.createThreadPool(1, 1));
+    executor.shutdown();
+    assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+
+    BackpressurePublisher<String> publisher = new BackpressurePublisher<>(executor, 10, 1000);
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    CountDownLatch terminated = new CountDownLatch(1);
+    publisher.subscribe(new Flow.Subscriber<String>() {
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(1);
+      }
+      @Override
+      public void onNext(String item) {
+        // Not expected
+      }
+      @Override
+      public void onError(Throwable throwable) {
+        error.set(throwable);
+        terminated.countDown();
+      }
+      @Override
+      public void onComplete() {
+        terminated.countDown();
+      }
+    });
+    publisher.submit("a");
+
+    assertTrue(terminated.await(5, TimeUnit.SECONDS));
+    assertNotNull(error.get());
+  }
+}